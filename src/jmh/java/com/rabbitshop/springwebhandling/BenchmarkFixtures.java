@@ -0,0 +1,158 @@
+package com.rabbitshop.springwebhandling;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+import lombok.Getter;
+
+/**
+ * Data and HTTP messages shared by the benchmarks. BookCases are generated from a fixed seed, so that every run and every fork
+ * measures the same content: ISBN-13 codes and titles of random words, one title in eight quoted and with a comma, which the CSV
+ * writer has to escape.
+ */
+public final class BenchmarkFixtures {
+
+	public static final MediaType TEXT_CSV = new MediaType("text", "csv");
+
+	private static final long SEED = 42;
+
+	private BenchmarkFixtures() {
+
+	}
+
+	public static Book[] books(final int rows, final int titleLength) {
+
+		final Random random = new Random(SEED);
+		final Book[] books = new Book[rows];
+		final StringBuilder title = new StringBuilder(titleLength + 16);
+		for (int i = 0; i < rows; i++) {
+			title.setLength(0);
+			final boolean quoted = i % 8 == 0;
+			if (quoted) {
+				title.append("\"Quoted\", ");
+			}
+			while (title.length() < titleLength) {
+				if (title.length() > 0) {
+					title.append(' ');
+				}
+				title.append((char) ('A' + random.nextInt(26)));
+				for (int letters = 2 + random.nextInt(8); letters > 0; letters--) {
+					title.append((char) ('a' + random.nextInt(26)));
+				}
+			}
+			title.setLength(titleLength);
+			books[i] = new Book(Long.toString(9_780_000_000_000L + random.nextInt(1_000_000_000)), title.toString());
+		}
+		return books;
+	}
+
+	public static BookCase bookCase(final int rows, final int titleLength, final boolean compact) {
+
+		final BookCase bookCase = compact ? new CompactBookCase(rows, false) : new BookCase(rows);
+		for (final Book book : books(rows, titleLength)) {
+			bookCase.add(book);
+		}
+		return bookCase;
+	}
+
+	/**
+	 * @return a request body of the given content, its Content-Type and Content-Length set
+	 */
+	public static HttpInputMessage inputMessage(final byte[] body, final MediaType contentType) {
+
+		final HttpHeaders headers = new HttpHeaders();
+		headers.setContentType(contentType);
+		headers.setContentLength(body.length);
+		return new HttpInputMessage() {
+
+			@Override
+			public InputStream getBody() {
+
+				return new ByteArrayInputStream(body);
+			}
+
+			@Override
+			public HttpHeaders getHeaders() {
+
+				return headers;
+			}
+		};
+	}
+
+	/**
+	 * Response body that only counts the bytes written to it, reusable across writes
+	 */
+	public static final class DiscardingOutputMessage extends OutputStream implements HttpOutputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		@Getter
+		private long count;
+
+		@Override
+		public void write(final int b) {
+
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {
+
+			count += len;
+		}
+
+		@Override
+		public OutputStream getBody() {
+
+			return this;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+
+			return headers;
+		}
+
+	}
+
+	/**
+	 * Response body that keeps the bytes written to it, used to prepare the request bodies of the read benchmarks
+	 */
+	public static final class BufferingOutputMessage implements HttpOutputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		@Override
+		public OutputStream getBody() {
+
+			return body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+
+			return headers;
+		}
+
+		public byte[] toByteArray() {
+
+			return body.toByteArray();
+		}
+
+	}
+
+}
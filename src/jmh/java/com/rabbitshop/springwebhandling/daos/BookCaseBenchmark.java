@@ -0,0 +1,82 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rabbitshop.springwebhandling.BenchmarkFixtures;
+
+/**
+ * Building a BookCase or a CompactBookCase one Book at a time, as the converters do, and reading every Book of it back, by
+ * iterator and by index. A CompactBookCase decodes the title of every Book read, the price of its smaller footprint.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookCaseBenchmark {
+
+	@Param({ "1000", "100000" })
+	private int rows;
+
+	@Param({ "32" })
+	private int titleLength;
+
+	@Param({ "false", "true" })
+	private boolean compact;
+
+	private Book[] books;
+
+	private BookCase bookCase;
+
+	@Setup
+	public void setUp() {
+
+		books = BenchmarkFixtures.books(rows, titleLength);
+		bookCase = BenchmarkFixtures.bookCase(rows, titleLength, compact);
+	}
+
+	@Benchmark
+	public BookCase build() {
+
+		final BookCase built = compact ? new CompactBookCase() : new BookCase();
+		for (final Book book : books) {
+			built.add(book);
+		}
+		return built;
+	}
+
+	@Benchmark
+	public long iterate() {
+
+		long length = 0;
+		for (final Book book : bookCase) {
+			length += book.getIsbn().length() + book.getTitle().length();
+		}
+		return length;
+	}
+
+	@Benchmark
+	public long iterateByIndex() {
+
+		long length = 0;
+		for (int i = 0, size = bookCase.size(); i < size; i++) {
+			final Book book = bookCase.get(i);
+			length += book.getIsbn().length() + book.getTitle().length();
+		}
+		return length;
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.rabbitshop.springwebhandling.exceptions;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import com.rabbitshop.springwebhandling.SpringWebHandlingApplication;
+
+/**
+ * Cost of throwing an exception from a handler and turning it into an error response, through each of the application's
+ * mechanisms, against a handler returning its status without throwing:
+ * . ForbiddenException, resolved by the RestResponseStatusExceptionResolver from its @ResponseStatus
+ * . PaymentRequiredException, handled by an @ExceptionHandler of its controller
+ * . IllegalArgumentException, handled by the RestResponseEntityExceptionHandler @ControllerAdvice
+ * The two business exceptions are shared instances without stack trace, the IllegalArgumentException is created and filled in
+ * on every request.
+ *
+ * Requests go through the whole DispatcherServlet of the application context, by MockMvc, no connector is started; the error logs
+ * are turned off, so that the benchmark output stays readable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ExceptionHandlingBenchmark {
+
+	private ConfigurableApplicationContext context;
+
+	private MockMvc mockMvc;
+
+	@Setup
+	public void setUp() {
+
+		context = new SpringApplicationBuilder(SpringWebHandlingApplication.class)
+				.properties(
+						"server.port=-1",
+						"spring.main.banner-mode=off",
+						"bookcase.store.enabled=false",
+						"logging.level.com.rabbitshop.springwebhandling=OFF")
+				.run();
+		mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context).build();
+	}
+
+	@TearDown
+	public void tearDown() {
+
+		context.close();
+	}
+
+	@Benchmark
+	public int noException() throws Exception {
+
+		return perform("/statuses/viaResponseEntity");
+	}
+
+	@Benchmark
+	public int forbidden() throws Exception {
+
+		return perform("/exceptions/forbidden");
+	}
+
+	@Benchmark
+	public int paymentRequired() throws Exception {
+
+		return perform("/exceptions/payRequired");
+	}
+
+	@Benchmark
+	public int illegalArgument() throws Exception {
+
+		return perform("/moreExceptions/illegalArg");
+	}
+
+	private int perform(final String path) throws Exception {
+
+		return mockMvc.perform(MockMvcRequestBuilders.get(path).accept(MediaType.APPLICATION_JSON))
+				.andReturn()
+				.getResponse()
+				.getStatus();
+	}
+
+}
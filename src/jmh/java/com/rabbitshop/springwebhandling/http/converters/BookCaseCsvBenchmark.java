@@ -0,0 +1,133 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.opencsv.CSVWriter;
+
+import com.rabbitshop.springwebhandling.BenchmarkFixtures;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.BufferingOutputMessage;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.DiscardingOutputMessage;
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+
+/**
+ * Reading and writing a BookCase as CSV through the BookCaseHttpMessageConverter, the way the /bodies endpoints do, by number of
+ * rows and length of the titles: into and from a BookCase or a CompactBookCase. Reads are parsed sequentially or in parallel on a
+ * parsePool of a given number of threads, see Parser.
+ * writeOpenCsv is the write path the converter had before the BookCaseCsvEncoder, a CSVWriter over an OutputStreamWriter, for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookCaseCsvBenchmark {
+
+	@Param({ "1000", "100000" })
+	private int rows;
+
+	@Param({ "16", "128" })
+	private int titleLength;
+
+	@Param({ "false", "true" })
+	private boolean compact;
+
+	private BookCaseHttpMessageConverter converter;
+
+	private BookCase bookCase;
+
+	private byte[] csv;
+
+	private DiscardingOutputMessage outputMessage;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		converter = new BookCaseHttpMessageConverter(BenchmarkFixtures.TEXT_CSV);
+		converter.setCompactStorage(compact);
+		bookCase = BenchmarkFixtures.bookCase(rows, titleLength, compact);
+		outputMessage = new DiscardingOutputMessage();
+
+		final BufferingOutputMessage csvMessage = new BufferingOutputMessage();
+		converter.write(bookCase, BenchmarkFixtures.TEXT_CSV, csvMessage);
+		csv = csvMessage.toByteArray();
+	}
+
+	@Benchmark
+	public BookCase read(final Parser parser) throws IOException {
+
+		return converter.read(BookCase.class, BenchmarkFixtures.inputMessage(csv, BenchmarkFixtures.TEXT_CSV));
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+
+		converter.write(bookCase, BenchmarkFixtures.TEXT_CSV, outputMessage);
+		return outputMessage.getCount();
+	}
+
+	@Benchmark
+	public long writeOpenCsv() throws IOException {
+
+		final CSVWriter writer = new CSVWriter(new OutputStreamWriter(outputMessage.getBody(), StandardCharsets.UTF_8));
+		for (final Book book : bookCase) {
+			writer.writeNext(new String[] { book.getIsbn(), book.getTitle() });
+		}
+		writer.close();
+		return outputMessage.getCount();
+	}
+
+	/**
+	 * How the reads parse: sequentially with 0 threads, otherwise in parallel on a parsePool of that many threads.
+	 * Only the reads use it, so the writes are not repeated for every thread count.
+	 */
+	@State(Scope.Benchmark)
+	public static class Parser {
+
+		@Param({ "0", "1", "2", "4", "8" })
+		private int threads;
+
+		private ForkJoinPool parsePool;
+
+		@Setup
+		public void setUp(final BookCaseCsvBenchmark benchmark) {
+
+			if (threads == 0) {
+				benchmark.converter.setParallelMinBytes(0);
+				return;
+			}
+			parsePool = new ForkJoinPool(threads);
+			benchmark.converter.setParsePool(parsePool);
+			benchmark.converter.setParallelMinBytes(1);
+		}
+
+		@TearDown
+		public void tearDown() {
+
+			if (parsePool != null) {
+				parsePool.shutdown();
+			}
+		}
+
+	}
+
+}
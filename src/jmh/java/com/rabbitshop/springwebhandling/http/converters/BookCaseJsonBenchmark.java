@@ -0,0 +1,119 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.rabbitshop.springwebhandling.BenchmarkFixtures;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.BufferingOutputMessage;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.DiscardingOutputMessage;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+/**
+ * Serialization of a BookCase as JSON by a plain ObjectMapper, relying on bean introspection, and by one given the
+ * BookCaseJsonModule, as the application's is, and as NDJSON through the BookCaseNdjsonHttpMessageConverter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookCaseJsonBenchmark {
+
+	@Param({ "1000", "100000" })
+	private int rows;
+
+	@Param({ "32" })
+	private int titleLength;
+
+	@Param({ "false", "true" })
+	private boolean compact;
+
+	private ObjectMapper defaultMapper;
+
+	private ObjectMapper moduleMapper;
+
+	private BookCaseNdjsonHttpMessageConverter ndjsonConverter;
+
+	private Class<? extends BookCase> bookCaseClass;
+
+	private BookCase bookCase;
+
+	private byte[] json;
+
+	private byte[] ndjson;
+
+	private DiscardingOutputMessage outputMessage;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		defaultMapper = new ObjectMapper();
+		moduleMapper = new ObjectMapper().registerModule(new BookCaseJsonModule());
+		ndjsonConverter = new BookCaseNdjsonHttpMessageConverter(moduleMapper);
+		ndjsonConverter.setCompactStorage(compact);
+		bookCaseClass = compact ? CompactBookCase.class : BookCase.class;
+		bookCase = BenchmarkFixtures.bookCase(rows, titleLength, compact);
+		outputMessage = new DiscardingOutputMessage();
+
+		json = defaultMapper.writeValueAsBytes(bookCase);
+		final BufferingOutputMessage ndjsonMessage = new BufferingOutputMessage();
+		ndjsonConverter.write(bookCase, BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE, ndjsonMessage);
+		ndjson = ndjsonMessage.toByteArray();
+	}
+
+	@Benchmark
+	public long writeDefault() throws IOException {
+
+		defaultMapper.writeValue(outputMessage.getBody(), bookCase);
+		return outputMessage.getCount();
+	}
+
+	@Benchmark
+	public long writeModule() throws IOException {
+
+		moduleMapper.writeValue(outputMessage.getBody(), bookCase);
+		return outputMessage.getCount();
+	}
+
+	@Benchmark
+	public BookCase readDefault() throws IOException {
+
+		return defaultMapper.readValue(json, bookCaseClass);
+	}
+
+	@Benchmark
+	public BookCase readModule() throws IOException {
+
+		return moduleMapper.readValue(json, bookCaseClass);
+	}
+
+	@Benchmark
+	public long writeNdjson() throws IOException {
+
+		ndjsonConverter.write(bookCase, BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE, outputMessage);
+		return outputMessage.getCount();
+	}
+
+	@Benchmark
+	public BookCase readNdjson() throws IOException {
+
+		return ndjsonConverter.read(BookCase.class, BenchmarkFixtures.inputMessage(ndjson, BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE));
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.rabbitshop.springwebhandling.BenchmarkFixtures;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.BufferingOutputMessage;
+import com.rabbitshop.springwebhandling.BenchmarkFixtures.DiscardingOutputMessage;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+/**
+ * The wire formats of a BookCase side by side, each through the HttpMessageConverter the application registers for it: the binary
+ * format against CSV, JSON (with the BookCaseJsonModule) and NDJSON, to read and to write.
+ *
+ * The size of every encoding is reported next to the timings, with the bytes per Book, as the size saving is half of the comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class BookCaseWireFormatBenchmark {
+
+	@Param({ "binary", "csv", "json", "ndjson" })
+	private String format;
+
+	@Param({ "1000", "100000" })
+	private int rows;
+
+	@Param({ "32" })
+	private int titleLength;
+
+	@Param({ "false", "true" })
+	private boolean compact;
+
+	private AbstractHttpMessageConverter<? super BookCase> converter;
+
+	private MediaType mediaType;
+
+	private Class<? extends BookCase> bookCaseClass;
+
+	private BookCase bookCase;
+
+	private byte[] encoded;
+
+	private DiscardingOutputMessage outputMessage;
+
+	@Setup
+	public void setUp() throws IOException {
+
+		switch (format) {
+			case "binary":
+				final BookCaseBinaryHttpMessageConverter binaryConverter = new BookCaseBinaryHttpMessageConverter();
+				binaryConverter.setCompactStorage(compact);
+				converter = binaryConverter;
+				mediaType = BookCaseBinaryHttpMessageConverter.MEDIA_TYPE;
+				break;
+			case "csv":
+				final BookCaseHttpMessageConverter csvConverter = new BookCaseHttpMessageConverter(BenchmarkFixtures.TEXT_CSV);
+				csvConverter.setCompactStorage(compact);
+				converter = csvConverter;
+				mediaType = BenchmarkFixtures.TEXT_CSV;
+				break;
+			case "json":
+				converter = new MappingJackson2HttpMessageConverter(new ObjectMapper().registerModule(new BookCaseJsonModule()));
+				mediaType = MediaType.APPLICATION_JSON;
+				break;
+			case "ndjson":
+				final BookCaseNdjsonHttpMessageConverter ndjsonConverter = new BookCaseNdjsonHttpMessageConverter(
+						new ObjectMapper().registerModule(new BookCaseJsonModule()));
+				ndjsonConverter.setCompactStorage(compact);
+				converter = ndjsonConverter;
+				mediaType = BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown format " + format);
+		}
+		bookCaseClass = compact ? CompactBookCase.class : BookCase.class;
+		bookCase = BenchmarkFixtures.bookCase(rows, titleLength, compact);
+		outputMessage = new DiscardingOutputMessage();
+
+		final BufferingOutputMessage encodedMessage = new BufferingOutputMessage();
+		converter.write(bookCase, mediaType, encodedMessage);
+		encoded = encodedMessage.toByteArray();
+	}
+
+	@Benchmark
+	public Object read(final EncodedSize encodedSize) throws IOException {
+
+		return converter.read(bookCaseClass, BenchmarkFixtures.inputMessage(encoded, mediaType));
+	}
+
+	@Benchmark
+	public long write(final EncodedSize encodedSize) throws IOException {
+
+		converter.write(bookCase, mediaType, outputMessage);
+		return outputMessage.getCount();
+	}
+
+	/**
+	 * Size of the encoding, reported by JMH as the encodedBytes and bytesPerBook secondary results of both benchmarks.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class EncodedSize {
+
+		public long encodedBytes;
+
+		public double bytesPerBook;
+
+		@Setup(Level.Iteration)
+		public void setUp(final BookCaseWireFormatBenchmark benchmark) {
+
+			encodedBytes = benchmark.encoded.length;
+			bytesPerBook = (double) benchmark.encoded.length / benchmark.rows;
+		}
+
+	}
+
+}
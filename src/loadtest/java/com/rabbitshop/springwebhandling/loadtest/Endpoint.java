@@ -0,0 +1,101 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A request replayed by the load test, picked by the workers in proportion to its weight.
+ */
+@Getter
+@AllArgsConstructor
+public final class Endpoint {
+
+	private static final String CSV = "text/csv";
+
+	private static final String JSON = "application/json";
+
+	private final String name;
+
+	private final String method;
+
+	/**
+	 * Path and query of the request
+	 */
+	private final String path;
+
+	/**
+	 * Accept header, null if none
+	 */
+	private final String accept;
+
+	/**
+	 * Content-Type header of the body, null without body
+	 */
+	private final String contentType;
+
+	/**
+	 * Body of the request, null if none
+	 */
+	private final byte[] body;
+
+	private final int weight;
+
+	public Endpoint withWeight(final int weight) {
+
+		return new Endpoint(name, method, path, accept, contentType, body, weight);
+	}
+
+	/**
+	 * @param csv BookCase uploaded by the bodies.request endpoint, to a BookCase of its own so that the one read is not replaced
+	 * @param isbn ISBN of a Book of the BookCase read
+	 * @return the endpoints of the application under test, weighted by the default mix: mostly reads of the BookCase, some uploads,
+	 *         and the error paths of the statuses and exceptions endpoints
+	 */
+	public static List<Endpoint> defaultMix(final byte[] csv, final String isbn) {
+
+		return Collections.unmodifiableList(Arrays.asList(
+				new Endpoint("bodies.response.csv", "GET", "/bodies/response", CSV, null, null, 20),
+				new Endpoint("bodies.response.json", "GET", "/bodies/response", JSON, null, null, 10),
+				new Endpoint("bodies.response.page", "GET", "/bodies/response?limit=100", JSON, null, null, 10),
+				new Endpoint("bodies.book", "GET", "/bodies/books/" + isbn, JSON, null, null, 20),
+				new Endpoint("bodies.search", "GET", "/bodies/books/search?q=" + TestBooks.WORDS[2], JSON, null, null, 10),
+				new Endpoint("bodies.request", "PUT", "/bodies/loadtest/request", null, CSV, csv, 2),
+				new Endpoint("statuses.viaResponseEntity", "GET", "/statuses/viaResponseEntity", JSON, null, null, 5),
+				new Endpoint("statuses.viaException", "GET", "/statuses/viaException", JSON, null, null, 5),
+				new Endpoint("exceptions.forbidden", "GET", "/exceptions/forbidden", JSON, null, null, 5),
+				new Endpoint("exceptions.payRequired", "GET", "/exceptions/payRequired", JSON, null, null, 5),
+				new Endpoint("moreExceptions.illegalArg", "GET", "/moreExceptions/illegalArg", JSON, null, null, 4),
+				new Endpoint("moreExceptions.illegalState", "GET", "/moreExceptions/illegalState", JSON, null, null, 4)));
+	}
+
+	/**
+	 * @return the endpoints weighted by the given mix, the default weights if it is empty, without the endpoints of weight 0
+	 * @throws IllegalArgumentException if the mix names an unknown endpoint or leaves no endpoint
+	 */
+	public static List<Endpoint> weighted(final List<Endpoint> endpoints, final Map<String, Integer> mix) {
+
+		for (final String name : mix.keySet()) {
+			if (endpoints.stream().noneMatch(endpoint -> endpoint.getName().equals(name))) {
+				throw new IllegalArgumentException("Unknown endpoint in load test mix: " + name);
+			}
+		}
+		final List<Endpoint> weighted = new ArrayList<>(endpoints.size());
+		for (final Endpoint endpoint : endpoints) {
+			final int weight = mix.isEmpty() ? endpoint.getWeight() : mix.getOrDefault(endpoint.getName(), 0);
+			if (weight > 0) {
+				weighted.add(endpoint.withWeight(weight));
+			}
+		}
+		if (weighted.isEmpty()) {
+			throw new IllegalArgumentException("No endpoint left in load test mix: " + mix);
+		}
+		return weighted;
+	}
+
+}
@@ -0,0 +1,92 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rabbitshop.springwebhandling.metrics.LatencyHistogram;
+
+import lombok.Getter;
+
+/**
+ * Requests measured for an endpoint, recorded by all the workers concurrently.
+ *
+ * The latency runs from the time the request was scheduled to be sent, which corrects for coordinated omission: a worker held up
+ * by a slow response sends its next requests late, and their latency includes that delay, as the one of a client that does not wait
+ * for the previous response would. The service time runs from the time the request was actually sent, as a client waiting for
+ * every response would measure it.
+ */
+public final class EndpointResult {
+
+	@Getter
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	@Getter
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+	private final LongAdder errors = new LongAdder();
+
+	private final LongAdder bytes = new LongAdder();
+
+	private final LongAdder completed = new LongAdder();
+
+	private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+	/**
+	 * @param status status of the response, 0 if the request failed before getting one
+	 * @param bytes bytes of the response body
+	 */
+	public void record(final int status, final long bytes, final long latencyNanos, final long serviceNanos) {
+
+		latency.record(latencyNanos);
+		serviceTime.record(serviceNanos);
+		this.bytes.add(bytes);
+		statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+		if (status == 0 || status >= 500) {
+			errors.increment();
+		}
+	}
+
+	/**
+	 * Counts a response received within the measured duration, whenever its request was scheduled.
+	 */
+	public void recordCompletion() {
+
+		completed.increment();
+	}
+
+	/**
+	 * @return the responses received within the measured duration, the ones the throughput is made of: the requests sent late
+	 * once the duration is over are measured, but their responses are not
+	 */
+	public long getCompleted() {
+
+		return completed.sum();
+	}
+
+	/**
+	 * @return the requests failed before getting a response or answered by a server error
+	 */
+	public long getErrors() {
+
+		return errors.sum();
+	}
+
+	public long getBytes() {
+
+		return bytes.sum();
+	}
+
+	/**
+	 * @return the number of responses by status, 0 for the requests that failed before getting one
+	 */
+	public Map<Integer, Long> getStatuses() {
+
+		final Map<Integer, Long> counts = new TreeMap<>();
+		statuses.forEach((status, count) -> counts.put(status, count.sum()));
+		return counts;
+	}
+
+}
@@ -0,0 +1,223 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sends the requests of the endpoints from concurrency workers, each with at most one request in flight, picking every request at
+ * random in proportion to the endpoint weights.
+ *
+ * With a rate, every worker follows a fixed schedule, one request every concurrency / rate seconds, the workers staggered over the
+ * interval: a request is sent at its scheduled time, or right away when the worker is late, and its latency is measured from its
+ * scheduled time (see EndpointResult). Requests are still sent late once the duration is over, up to another duration, after which
+ * the ones left are counted as missed; the throughput only counts the responses received within the duration. Without a rate
+ * every worker sends its next request as soon as it gets a response.
+ *
+ * HttpURLConnection keeps the connection of every worker alive, provided the response bodies are read to the end.
+ */
+@Slf4j
+public final class LoadGenerator {
+
+	private static final long SEED = 42;
+
+	private static final int TIMEOUT_MILLIS = 30_000;
+
+	private final LoadTestSettings settings;
+
+	private final List<Endpoint> endpoints;
+
+	private final URL[] urls;
+
+	private final int[] cumulativeWeights;
+
+	private final Map<String, EndpointResult> results = new LinkedHashMap<>();
+
+	@Getter
+	private final EndpointResult total = new EndpointResult();
+
+	private final LongAdder missed = new LongAdder();
+
+	public LoadGenerator(final String baseUrl, final List<Endpoint> endpoints, final LoadTestSettings settings) throws IOException {
+
+		this.settings = settings;
+		this.endpoints = endpoints;
+		urls = new URL[endpoints.size()];
+		cumulativeWeights = new int[endpoints.size()];
+		int weights = 0;
+		for (int i = 0; i < endpoints.size(); i++) {
+			final Endpoint endpoint = endpoints.get(i);
+			urls[i] = new URL(baseUrl + endpoint.getPath());
+			weights += endpoint.getWeight();
+			cumulativeWeights[i] = weights;
+			results.put(endpoint.getName(), new EndpointResult());
+		}
+	}
+
+	/**
+	 * Runs the warmup and the measured duration, then waits for the workers to be done.
+	 */
+	public void run() throws InterruptedException {
+
+		final long interval = settings.getIntervalNanos();
+		final long start = System.nanoTime();
+		final long measureStart = start + TimeUnit.SECONDS.toNanos(settings.getWarmup());
+		final long end = measureStart + TimeUnit.SECONDS.toNanos(settings.getDuration());
+
+		log.info("Load test: " + settings);
+		final List<Thread> workers = new ArrayList<>(settings.getConcurrency());
+		for (int i = 0; i < settings.getConcurrency(); i++) {
+			final int worker = i;
+			final long firstRequest = start + interval * worker / settings.getConcurrency();
+			final Thread thread = new Thread(() -> work(worker, firstRequest, interval, measureStart, end), "loadtest-worker-" + worker);
+			thread.setDaemon(true);
+			workers.add(thread);
+			thread.start();
+		}
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+	}
+
+	/**
+	 * @return the requests scheduled during the measured duration which could not be sent in time
+	 */
+	public long getMissed() {
+
+		return missed.sum();
+	}
+
+	/**
+	 * @return the results by endpoint name, in the order of the endpoints
+	 */
+	public Map<String, EndpointResult> getResults() {
+
+		return Collections.unmodifiableMap(results);
+	}
+
+	private void work(final int worker, final long firstRequest, final long interval, final long measureStart, final long end) {
+
+		final Random random = new Random(SEED + worker);
+		final long deadline = end + (end - measureStart);
+		long scheduled = firstRequest;
+		while (true) {
+			long now = System.nanoTime();
+			if (interval == 0) {
+				if (now >= end) {
+					break;
+				}
+				scheduled = now;
+			} else {
+				if (scheduled >= end) {
+					break;
+				}
+				if (now >= deadline) {
+					missed.add((end - Math.max(scheduled, measureStart) + interval - 1) / interval);
+					break;
+				}
+				while (now < scheduled) {
+					LockSupport.parkNanos(scheduled - now);
+					now = System.nanoTime();
+				}
+			}
+
+			final int index = pick(random);
+			Response response;
+			try {
+				response = send(endpoints.get(index), urls[index]);
+			} catch (final IOException e) {
+				log.debug("Request to " + endpoints.get(index).getName() + " failed: " + e);
+				response = Response.FAILED;
+			}
+			final long done = System.nanoTime();
+			if (scheduled >= measureStart) {
+				results.get(endpoints.get(index).getName()).record(response.getStatus(), response.getBytes(), done - scheduled, done - now);
+				total.record(response.getStatus(), response.getBytes(), done - scheduled, done - now);
+			}
+			if (done >= measureStart && done < end) {
+				results.get(endpoints.get(index).getName()).recordCompletion();
+				total.recordCompletion();
+			}
+			scheduled += interval;
+		}
+	}
+
+	private int pick(final Random random) {
+
+		final int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+		for (int i = 0; i < cumulativeWeights.length; i++) {
+			if (value < cumulativeWeights[i]) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Weight out of range: " + value);
+	}
+
+	/**
+	 * Sends the request and reads the response body to the end.
+	 */
+	static Response send(final Endpoint endpoint, final URL url) throws IOException {
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(endpoint.getMethod());
+		connection.setConnectTimeout(TIMEOUT_MILLIS);
+		connection.setReadTimeout(TIMEOUT_MILLIS);
+		if (endpoint.getAccept() != null) {
+			connection.setRequestProperty("Accept", endpoint.getAccept());
+		}
+		if (endpoint.getBody() != null) {
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", endpoint.getContentType());
+			connection.setFixedLengthStreamingMode(endpoint.getBody().length);
+			try (OutputStream body = connection.getOutputStream()) {
+				body.write(endpoint.getBody());
+			}
+		}
+		final int status = connection.getResponseCode();
+		long bytes = 0;
+		try (InputStream body = status >= 400 ? connection.getErrorStream() : connection.getInputStream()) {
+			if (body != null) {
+				final byte[] buffer = new byte[8 * 1024];
+				int read;
+				while ((read = body.read(buffer)) >= 0) {
+					bytes += read;
+				}
+			}
+		}
+		return new Response(status, bytes);
+	}
+
+	@Getter
+	@AllArgsConstructor
+	static final class Response {
+
+		static final Response FAILED = new Response(0, 0);
+
+		/**
+		 * Status of the response, 0 if the request failed before getting one
+		 */
+		private final int status;
+
+		/**
+		 * Bytes of the response body
+		 */
+		private final long bytes;
+
+	}
+
+}
@@ -0,0 +1,208 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.rabbitshop.springwebhandling.metrics.LatencyHistogram;
+
+/**
+ * Results of a load test as JSON: the settings, then for all the requests (total) and for every endpoint the requests measured,
+ * the throughput (responses received within the measured duration, per second), the errors, the responses by status and the
+ * percentiles of the latency, corrected for coordinated omission, and of the service time, in milliseconds.
+ *
+ * Compared with the results of a previous run (the baseline), the p50 and p99 latency and the throughput of every endpoint of both
+ * gain a comparison, and the ones beyond the tolerance are listed as regressions. Only runs of the same settings are comparable,
+ * which sameSettings tells.
+ */
+public final class LoadReport {
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] COMPARED_PERCENTILES = { "p50", "p99" };
+
+	private static final String TOTAL = "total";
+
+	private static final String ENDPOINTS = "endpoints";
+
+	private static final String LATENCY = "latencyMillis";
+
+	private static final String THROUGHPUT = "throughput";
+
+	private static final String SETTINGS = "settings";
+
+	private final ObjectMapper objectMapper;
+
+	private final ObjectNode root;
+
+	private final List<String> regressions = new ArrayList<>();
+
+	public LoadReport(final ObjectMapper objectMapper, final LoadTestSettings settings, final List<Endpoint> endpoints,
+			final LoadGenerator generator) {
+
+		this.objectMapper = objectMapper;
+		root = objectMapper.createObjectNode();
+
+		final ObjectNode settingsNode = root.putObject(SETTINGS);
+		settingsNode.put("rate", settings.getRate());
+		settingsNode.put("concurrency", settings.getConcurrency());
+		settingsNode.put("durationSeconds", settings.getDuration());
+		settingsNode.put("warmupSeconds", settings.getWarmup());
+		settingsNode.put("rows", settings.getRows());
+		settingsNode.put("titleLength", settings.getTitleLength());
+		settingsNode.put("correctedForCoordinatedOmission", settings.getRate() > 0);
+		final ObjectNode mixNode = settingsNode.putObject("mix");
+		for (final Endpoint endpoint : endpoints) {
+			mixNode.put(endpoint.getName(), endpoint.getWeight());
+		}
+
+		root.put("missed", generator.getMissed());
+		putResult(root.putObject(TOTAL), generator.getTotal(), settings.getDuration());
+		final ObjectNode endpointsNode = root.putObject(ENDPOINTS);
+		for (final Map.Entry<String, EndpointResult> result : generator.getResults().entrySet()) {
+			putResult(endpointsNode.putObject(result.getKey()), result.getValue(), settings.getDuration());
+		}
+	}
+
+	/**
+	 * Compares these results with the baseline ones, a regression being a latency percentile higher by more than tolerance and
+	 * minDeltaMillis, or a throughput lower by more than tolerance.
+	 *
+	 * @return whether the baseline was run with the same settings
+	 */
+	public boolean compare(final String baselineFile, final JsonNode baseline, final double tolerance, final double minDeltaMillis) {
+
+		final ObjectNode comparison = root.putObject("baseline");
+		final boolean sameSettings = baseline.path(SETTINGS).equals(root.path(SETTINGS));
+		comparison.put("file", baselineFile);
+		comparison.put("sameSettings", sameSettings);
+		comparison.put("tolerance", tolerance);
+		comparison.put("minDeltaMillis", minDeltaMillis);
+
+		final ObjectNode endpointsNode = comparison.putObject(ENDPOINTS);
+		compare(endpointsNode, TOTAL, baseline.path(TOTAL), root.path(TOTAL), tolerance, minDeltaMillis);
+		final Iterator<Map.Entry<String, JsonNode>> endpoints = root.path(ENDPOINTS).fields();
+		while (endpoints.hasNext()) {
+			final Map.Entry<String, JsonNode> endpoint = endpoints.next();
+			compare(endpointsNode, endpoint.getKey(), baseline.path(ENDPOINTS).path(endpoint.getKey()), endpoint.getValue(), tolerance,
+					minDeltaMillis);
+		}
+		regressions.forEach(comparison.putArray("regressions")::add);
+		return sameSettings;
+	}
+
+	/**
+	 * @return the regressions found by compare, empty if none or not compared
+	 */
+	public List<String> getRegressions() {
+
+		return Collections.unmodifiableList(regressions);
+	}
+
+	public void write(final File file) throws IOException {
+
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		objectMapper.writerWithDefaultPrettyPrinter().writeValue(file, root);
+	}
+
+	@Override
+	public String toString() {
+
+		final StringBuilder summary = new StringBuilder();
+		summary.append(String.format("%-30s %10s %10s %10s %10s %10s %8s%n", "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "max ms",
+				"errors"));
+		summary(summary, TOTAL, root.path(TOTAL));
+		final Iterator<Map.Entry<String, JsonNode>> endpoints = root.path(ENDPOINTS).fields();
+		while (endpoints.hasNext()) {
+			final Map.Entry<String, JsonNode> endpoint = endpoints.next();
+			summary(summary, endpoint.getKey(), endpoint.getValue());
+		}
+		return summary.toString();
+	}
+
+	private void compare(final ObjectNode endpointsNode, final String name, final JsonNode baseline, final JsonNode current,
+			final double tolerance, final double minDeltaMillis) {
+
+		if (baseline.isMissingNode()) {
+			return;
+		}
+		final ObjectNode node = endpointsNode.putObject(name);
+		for (final String percentile : COMPARED_PERCENTILES) {
+			final double baselineValue = baseline.path(LATENCY).path(percentile).asDouble();
+			final double currentValue = current.path(LATENCY).path(percentile).asDouble();
+			putChange(node.putObject(percentile), baselineValue, currentValue);
+			if (currentValue > baselineValue * (1 + tolerance) && currentValue - baselineValue > minDeltaMillis) {
+				regressions.add(String.format("%s %s latency %.3f ms, baseline %.3f ms", name, percentile, currentValue, baselineValue));
+			}
+		}
+		final double baselineThroughput = baseline.path(THROUGHPUT).asDouble();
+		final double currentThroughput = current.path(THROUGHPUT).asDouble();
+		putChange(node.putObject(THROUGHPUT), baselineThroughput, currentThroughput);
+		if (currentThroughput < baselineThroughput * (1 - tolerance)) {
+			regressions.add(String.format("%s throughput %.1f req/s, baseline %.1f req/s", name, currentThroughput, baselineThroughput));
+		}
+	}
+
+	private static void putChange(final ObjectNode node, final double baseline, final double current) {
+
+		node.put("baseline", baseline);
+		node.put("current", current);
+		node.put("change", baseline == 0 ? 0 : round((current - baseline) / baseline));
+	}
+
+	private static void putResult(final ObjectNode node, final EndpointResult result, final int durationSeconds) {
+
+		final LatencyHistogram.Snapshot latency = result.getLatency().snapshot();
+		node.put("requests", latency.getCount());
+		node.put("completed", result.getCompleted());
+		node.put(THROUGHPUT, round((double) result.getCompleted() / durationSeconds));
+		node.put("errors", result.getErrors());
+		node.put("bytes", result.getBytes());
+		final ObjectNode statuses = node.putObject("statuses");
+		result.getStatuses().forEach((status, count) -> statuses.put(Integer.toString(status), count));
+		putPercentiles(node.putObject(LATENCY), latency);
+		putPercentiles(node.putObject("serviceTimeMillis"), result.getServiceTime().snapshot());
+	}
+
+	private static void putPercentiles(final ObjectNode node, final LatencyHistogram.Snapshot snapshot) {
+
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			node.put(PERCENTILE_NAMES[i], millis(snapshot.getValueAtPercentile(PERCENTILES[i])));
+		}
+		node.put("max", millis(snapshot.getMax()));
+		node.put("mean", round(snapshot.getMean() / 1_000_000));
+	}
+
+	private static void summary(final StringBuilder summary, final String name, final JsonNode result) {
+
+		summary.append(String.format("%-30s %10d %10.1f %10.3f %10.3f %10.3f %8d%n", name, result.path("requests").asLong(),
+				result.path(THROUGHPUT).asDouble(), result.path(LATENCY).path("p50").asDouble(), result.path(LATENCY).path("p99").asDouble(),
+				result.path(LATENCY).path("max").asDouble(), result.path("errors").asLong()));
+	}
+
+	private static double millis(final long nanos) {
+
+		return round(nanos / 1_000_000d);
+	}
+
+	/**
+	 * @return the value rounded to 3 decimals, microseconds for milliseconds
+	 */
+	private static double round(final double value) {
+
+		return Math.round(value * 1000) / 1000d;
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.rabbitshop.springwebhandling.SpringWebHandlingApplication;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Load test of the application, run by the loadTest task: boots SpringWebHandlingApplication on a random local port, without the
+ * BookCase store, uploads the BookCase read by the test, then replays the endpoints as set by the LoadTestSettings and writes the
+ * LoadReport. Exits with status 1 when the results regress from the given baseline, failing the task.
+ */
+@Slf4j
+public final class LoadTest {
+
+	private LoadTest() {
+
+	}
+
+	public static void main(final String[] args) throws Exception {
+
+		final LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+		// Connections kept alive per host, one per worker
+		System.setProperty("http.maxConnections", Integer.toString(settings.getConcurrency()));
+
+		final ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringWebHandlingApplication.class)
+				.properties("server.port=0", "bookcase.store.enabled=false")
+				.run(args);
+		final List<String> regressions;
+		try {
+			final String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			final byte[] csv = TestBooks.csv(settings.getRows(), settings.getTitleLength());
+			seed(baseUrl, csv);
+
+			final List<Endpoint> endpoints = Endpoint.weighted(Endpoint.defaultMix(csv, TestBooks.isbn(settings.getRows() / 2)),
+					settings.getMix());
+			final LoadGenerator generator = new LoadGenerator(baseUrl, endpoints, settings);
+			generator.run();
+
+			final ObjectMapper objectMapper = new ObjectMapper();
+			final LoadReport report = new LoadReport(objectMapper, settings, endpoints, generator);
+			if (settings.getBaseline() != null && !report.compare(settings.getBaseline(), objectMapper.readTree(new File(settings.getBaseline())),
+					settings.getTolerance(), settings.getMinDeltaMillis())) {
+				log.warn("The baseline " + settings.getBaseline() + " was run with other settings, its results may not be comparable");
+			}
+			report.write(new File(settings.getReport()));
+			regressions = report.getRegressions();
+
+			log.info("Load test results, written to " + settings.getReport() + ":\n" + report);
+			if (generator.getMissed() > 0) {
+				log.warn(generator.getMissed() + " requests could not be sent at the rate of " + settings.getRate() + " requests per second");
+			}
+			regressions.forEach(regression -> log.error("Regression from baseline: " + regression));
+		} finally {
+			context.close();
+		}
+		System.exit(regressions.isEmpty() ? 0 : 1);
+	}
+
+	/**
+	 * Uploads the BookCase read by the endpoints.
+	 */
+	private static void seed(final String baseUrl, final byte[] csv) throws Exception {
+
+		final Endpoint upload = new Endpoint("seed", "PUT", "/bodies/request", null, "text/csv", csv, 1);
+		final LoadGenerator.Response response = LoadGenerator.send(upload, new URL(baseUrl + upload.getPath()));
+		if (response.getStatus() / 100 != 2) {
+			throw new IllegalStateException("Upload of the load test BookCase failed with status " + response.getStatus());
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Settings of a load test, read from the loadtest.* system properties (given to the loadTest task as -Ploadtest.<name>=<value>):
+ * . rate: requests per second over all the workers, each worker sending at rate / concurrency; 0 to send as fast as the workers
+ *   can, in which case the latency cannot be corrected for coordinated omission
+ * . concurrency: number of workers, each with its own connection and at most one request in flight
+ * . duration and warmup: seconds measured, after seconds of warmup whose requests are not recorded
+ * . rows and titleLength: size of the BookCase uploaded before the test and by the bodies.request endpoint
+ * . mix: weights of the endpoints, e.g. bodies.response.csv=5,exceptions.forbidden=1, the default mix of Endpoints if empty
+ * . report: file the results are written to
+ * . baseline, tolerance and minDeltaMillis: results of a previous run to compare with, and the relative change beyond which an
+ *   endpoint has regressed, provided its latency also changed by more than minDeltaMillis
+ */
+@Getter
+public final class LoadTestSettings {
+
+	private static final String PREFIX = "loadtest.";
+
+	private final int rate;
+
+	private final int concurrency;
+
+	private final int duration;
+
+	private final int warmup;
+
+	private final int rows;
+
+	private final int titleLength;
+
+	/**
+	 * Weights of the endpoints, by endpoint name, empty for the default mix
+	 */
+	private final Map<String, Integer> mix;
+
+	private final String report;
+
+	private final String baseline;
+
+	private final double tolerance;
+
+	private final double minDeltaMillis;
+
+	private LoadTestSettings() {
+
+		rate = Integer.parseInt(property("rate", "500"));
+		concurrency = Integer.parseInt(property("concurrency", "16"));
+		duration = Integer.parseInt(property("duration", "30"));
+		warmup = Integer.parseInt(property("warmup", "10"));
+		rows = Integer.parseInt(property("rows", "1000"));
+		titleLength = Integer.parseInt(property("titleLength", "32"));
+		mix = parseMix(property("mix", ""));
+		report = property("report", "build/reports/loadtest/results.json");
+		baseline = property("baseline", null);
+		tolerance = Double.parseDouble(property("tolerance", "0.10"));
+		minDeltaMillis = Double.parseDouble(property("minDeltaMillis", "1"));
+
+		if (rate < 0 || concurrency < 1 || duration < 1 || warmup < 0 || rows < 1 || titleLength < 1 || tolerance < 0) {
+			throw new IllegalArgumentException("Invalid load test settings: " + this);
+		}
+	}
+
+	public static LoadTestSettings fromSystemProperties() {
+
+		return new LoadTestSettings();
+	}
+
+	/**
+	 * @return the interval in nanoseconds between the requests of a worker, 0 without rate
+	 */
+	public long getIntervalNanos() {
+
+		return rate == 0 ? 0 : 1_000_000_000L * concurrency / rate;
+	}
+
+	private static String property(final String name, final String defaultValue) {
+
+		final String value = System.getProperty(PREFIX + name);
+		return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+	}
+
+	private static Map<String, Integer> parseMix(final String mix) {
+
+		final Map<String, Integer> weights = new LinkedHashMap<>();
+		for (final String entry : mix.split(",")) {
+			if (entry.trim().isEmpty()) {
+				continue;
+			}
+			final int separator = entry.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Invalid load test mix entry, expected <endpoint>=<weight>: " + entry);
+			}
+			final int weight = Integer.parseInt(entry.substring(separator + 1).trim());
+			if (weight < 0) {
+				throw new IllegalArgumentException("Invalid load test mix weight: " + entry);
+			}
+			weights.put(entry.substring(0, separator).trim(), weight);
+		}
+		return weights;
+	}
+
+	@Override
+	public String toString() {
+
+		return "rate=" + rate + ", concurrency=" + concurrency + ", duration=" + duration + "s, warmup=" + warmup + "s, rows=" + rows
+				+ ", titleLength=" + titleLength + ", mix=" + mix + ", tolerance=" + tolerance + ", minDeltaMillis=" + minDeltaMillis;
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.rabbitshop.springwebhandling.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * BookCase uploaded before the load test and by the bodies.request endpoint, as CSV: valid ISBN-13 codes and titles of words
+ * drawn from a small vocabulary, so that word searches have matches. Generated from a fixed seed, the same for every run.
+ */
+final class TestBooks {
+
+	static final String[] WORDS = { "spring", "java", "design", "patterns", "clean", "code", "building", "microservices", "data",
+			"web", "handling", "rest", "exceptions", "bodies", "status", "http" };
+
+	private static final long SEED = 42;
+
+	private TestBooks() {
+
+	}
+
+	/**
+	 * @return the ISBN-13 of the Book at the given row
+	 */
+	static String isbn(final int row) {
+
+		final String digits = Long.toString(978_000_000_000L + row);
+		int sum = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			sum += (digits.charAt(i) - '0') * (i % 2 == 0 ? 1 : 3);
+		}
+		return digits + (10 - sum % 10) % 10;
+	}
+
+	static byte[] csv(final int rows, final int titleLength) {
+
+		final Random random = new Random(SEED);
+		final StringBuilder csv = new StringBuilder(rows * (titleLength + 24));
+		final StringBuilder title = new StringBuilder(titleLength + 16);
+		for (int row = 0; row < rows; row++) {
+			title.setLength(0);
+			while (title.length() < titleLength) {
+				if (title.length() > 0) {
+					title.append(' ');
+				}
+				title.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			title.setLength(titleLength);
+			csv.append('"').append(isbn(row)).append("\",\"").append(title).append("\"\n");
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -1,15 +1,29 @@
 package com.rabbitshop.springwebhandling.configs;
 
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
-import org.springframework.http.converter.AbstractHttpMessageConverter;
 import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 
-import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import com.rabbitshop.springwebhandling.http.converters.BookCaseBinaryHttpMessageConverter;
 import com.rabbitshop.springwebhandling.http.converters.BookCaseHttpMessageConverter;
+import com.rabbitshop.springwebhandling.http.converters.BookCaseJsonModule;
+import com.rabbitshop.springwebhandling.http.converters.BookCaseNdjsonHttpMessageConverter;
+import com.rabbitshop.springwebhandling.http.converters.CsvHttpMessageConverter;
+import com.rabbitshop.springwebhandling.http.converters.IsbnPolicy;
+import com.rabbitshop.springwebhandling.metrics.LatencyInterceptor;
+import com.rabbitshop.springwebhandling.metrics.RequestMetrics;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,26 +34,171 @@ public class GeneralWebConfiguration extends WebMvcConfigurerAdapter {
 	private static final String REST_TEXT_MEDIA_TYPE = "text";
 	private static final String REST_CSV_MEDIA_SUBTYPE = "csv";
 	
+	@Value("${bookcase.csv.max-rows:0}")
+	private long csvMaxRows;
+
+	@Value("${bookcase.csv.max-bytes:0}")
+	private long csvMaxBytes;
+
+	@Value("${bookcase.csv.write-chunk-size:8192}")
+	private int csvWriteChunkSize;
+
+	@Value("${bookcase.csv.parallel.min-bytes:0}")
+	private long csvParallelMinBytes;
+
+	@Value("${bookcase.csv.parallel.chunk-bytes:" + BookCaseHttpMessageConverter.DEFAULT_PARALLEL_CHUNK_SIZE + "}")
+	private int csvParallelChunkBytes;
+
+	@Value("${bookcase.csv.parallel.threads:0}")
+	private int csvParallelThreads;
+
+	@Value("${bookcase.isbn.policy:ACCEPT}")
+	private IsbnPolicy isbnPolicy;
+
+	@Value("${bookcase.binary.max-rows:0}")
+	private long binaryMaxRows;
+
+	@Value("${bookcase.binary.max-bytes:0}")
+	private long binaryMaxBytes;
+
+	@Value("${bookcase.export.pool-size:4}")
+	private int exportPoolSize;
+
+	@Value("${bookcase.export.queue-capacity:16}")
+	private int exportQueueCapacity;
+
+	@Value("${bookcase.export.timeout-ms:300000}")
+	private long exportTimeoutMs;
+
+	@Value("${bookcase.compact-storage:false}")
+	private boolean compactStorage;
+
+	@Value("${bookcase.deduplicate-titles:false}")
+	private boolean deduplicateTitles;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private RequestMetrics requestMetrics;
+
+	/**
+	 * BookCase has dedicated converters (CSV and binary) able to use its compact columnar storage. Any other List subclass of POJOs
+	 * annotated with @CsvColumn is handled by the generic CsvHttpMessageConverter, which resolves and caches the mapping of each class.
+	 */
 	@Override
 	public void configureMessageConverters(final List<HttpMessageConverter<?>> httpMessageConverters) {
 		
-		httpMessageConverters.add(
-				getMessageConverterForClass(BookCase.class, REST_TEXT_MEDIA_TYPE, REST_CSV_MEDIA_SUBTYPE));
+		httpMessageConverters.add(bookCaseCsvMessageConverter());
+		httpMessageConverters.add(bookCaseBinaryMessageConverter());
+		httpMessageConverters.add(bookCaseNdjsonMessageConverter());
+		httpMessageConverters.add(csvMessageConverter());
 	}
 	
-	protected <T> AbstractHttpMessageConverter getMessageConverterForClass(final Class<T> clazz, final String restMediaType, final String restMediaSubtype) {
-		
-		log.debug("Get MessageConverter for class: " + clazz.getSimpleName());
-		
-		switch (clazz.getSimpleName()) {
-			case "BookCase":
-				log.debug("MessageConverter for class BookCase and MediaType " + restMediaType + "/" + restMediaSubtype + " added to HTTP message converters");
-				return new BookCaseHttpMessageConverter(
-						new MediaType(restMediaType, restMediaSubtype));
-			default:
-				// do nothing
-				return null;
-		}
+	protected BookCaseHttpMessageConverter bookCaseCsvMessageConverter() {
+
+		log.debug("MessageConverter for class BookCase and MediaType " + REST_TEXT_MEDIA_TYPE + "/" + REST_CSV_MEDIA_SUBTYPE + " added to HTTP message converters");
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(
+				new MediaType(REST_TEXT_MEDIA_TYPE, REST_CSV_MEDIA_SUBTYPE));
+		converter.setMaxRows(csvMaxRows);
+		converter.setMaxBytes(csvMaxBytes);
+		converter.setWriteChunkSize(csvWriteChunkSize);
+		converter.setParallelMinBytes(csvParallelMinBytes);
+		converter.setParallelChunkSize(csvParallelChunkBytes);
+		converter.setParsePool(csvParsePool());
+		converter.setIsbnPolicy(isbnPolicy);
+		converter.setCompactStorage(compactStorage);
+		converter.setDeduplicateTitles(deduplicateTitles);
+		converter.setMetrics(requestMetrics.converter("csv"));
+		return converter;
+	}
+
+	protected BookCaseBinaryHttpMessageConverter bookCaseBinaryMessageConverter() {
+
+		log.debug("MessageConverter for class BookCase and MediaType " + BookCaseBinaryHttpMessageConverter.MEDIA_TYPE + " added to HTTP message converters");
+
+		final BookCaseBinaryHttpMessageConverter converter = new BookCaseBinaryHttpMessageConverter();
+		converter.setMaxRows(binaryMaxRows);
+		converter.setMaxBytes(binaryMaxBytes);
+		converter.setIsbnPolicy(isbnPolicy);
+		converter.setCompactStorage(compactStorage);
+		converter.setDeduplicateTitles(deduplicateTitles);
+		return converter;
+	}
+
+	protected BookCaseNdjsonHttpMessageConverter bookCaseNdjsonMessageConverter() {
+
+		log.debug("MessageConverter for class BookCase and MediaType " + BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE + " added to HTTP message converters");
+
+		final BookCaseNdjsonHttpMessageConverter converter = new BookCaseNdjsonHttpMessageConverter(objectMapper);
+		converter.setMaxRows(csvMaxRows);
+		converter.setMaxBytes(csvMaxBytes);
+		converter.setIsbnPolicy(isbnPolicy);
+		converter.setCompactStorage(compactStorage);
+		converter.setDeduplicateTitles(deduplicateTitles);
+		return converter;
+	}
+
+	protected CsvHttpMessageConverter csvMessageConverter() {
+
+		log.debug("Generic CSV MessageConverter for MediaType " + REST_TEXT_MEDIA_TYPE + "/" + REST_CSV_MEDIA_SUBTYPE + " added to HTTP message converters");
+
+		final CsvHttpMessageConverter converter = new CsvHttpMessageConverter(new MediaType(REST_TEXT_MEDIA_TYPE, REST_CSV_MEDIA_SUBTYPE));
+		converter.setMaxRows(csvMaxRows);
+		converter.setMaxBytes(csvMaxBytes);
+		converter.setWriteChunkSize(csvWriteChunkSize);
+		return converter;
+	}
+
+	/**
+	 * Picked up by Spring Boot and registered on its ObjectMapper, used by the JSON converter as well as the NDJSON one.
+	 * Static, as the ObjectMapper is injected in this configuration: the ISBN policy is then resolved here rather than from the field.
+	 */
+	@Bean
+	public static BookCaseJsonModule bookCaseJsonModule(@Value("${bookcase.isbn.policy:ACCEPT}") final IsbnPolicy isbnPolicy) {
+
+		return new BookCaseJsonModule(isbnPolicy);
+	}
+
+	/**
+	 * Every request is timed, see LatencyInterceptor.
+	 */
+	@Override
+	public void addInterceptors(final InterceptorRegistry registry) {
+
+		registry.addInterceptor(new LatencyInterceptor(requestMetrics));
+	}
+
+	/**
+	 * Async requests (the streaming exports) run on a dedicated executor, so that they never take the servlet container threads.
+	 * Both pool and queue are bounded: when they are full an export is rejected (503) rather than queued without limit.
+	 */
+	@Override
+	public void configureAsyncSupport(final AsyncSupportConfigurer configurer) {
+
+		configurer.setTaskExecutor(exportTaskExecutor());
+		configurer.setDefaultTimeout(exportTimeoutMs);
+	}
+
+	@Bean
+	public ThreadPoolTaskExecutor exportTaskExecutor() {
+
+		final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(exportPoolSize);
+		executor.setMaxPoolSize(exportPoolSize);
+		executor.setQueueCapacity(exportQueueCapacity);
+		executor.setThreadNamePrefix("bookcase-export-");
+		return executor;
+	}
+
+	/**
+	 * Pool parsing large CSV uploads in parallel: the common ForkJoinPool unless a number of threads is configured.
+	 */
+	@Bean(destroyMethod = "shutdown")
+	public ForkJoinPool csvParsePool() {
+
+		return csvParallelThreads > 0 ? new ForkJoinPool(csvParallelThreads) : ForkJoinPool.commonPool();
 	}
 	
 }
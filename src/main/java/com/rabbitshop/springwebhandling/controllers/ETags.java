@@ -0,0 +1,87 @@
+package com.rabbitshop.springwebhandling.controllers;
+
+/**
+ * Matching of entity tags against the If-Match and If-None-Match request headers (RFC 7232), and the If-Range one (RFC 7233).
+ *
+ * Besides the ETag of a snapshot, each of its representations (media type, content coding) can have its own strong ETag, derived
+ * from the snapshot one: byte ranges are only consistent within a representation. If-Match and If-None-Match compare versions, so
+ * a representation ETag matches the ETag of its snapshot there; If-Range compares the exact representation.
+ */
+final class ETags {
+
+	private static final String ANY = "*";
+	private static final String WEAK_PREFIX = "W/";
+	private static final char REPRESENTATION_SEPARATOR = ':';
+
+	private ETags() {}
+
+	/**
+	 * @param representation token naming the representation, e.g. its media subtype and content coding
+	 * @return the strong ETag of the given representation of the snapshot having the given strong ETag
+	 */
+	static String ofRepresentation(final String eTag, final String representation) {
+
+		return eTag.substring(0, eTag.length() - 1) + REPRESENTATION_SEPARATOR + representation + '"';
+	}
+
+	/**
+	 * If-None-Match uses the weak comparison: a tag matches regardless of its weak indicator.
+	 *
+	 * @return true if the header is present and matches the given strong ETag, or one of its representations
+	 */
+	static boolean matchesIfNoneMatch(final String ifNoneMatch, final String eTag) {
+
+		return matches(ifNoneMatch, eTag, true);
+	}
+
+	/**
+	 * If-Match uses the strong comparison: weak tags never match.
+	 *
+	 * @return true if the header is absent or matches the given strong ETag, or one of its representations
+	 */
+	static boolean matchesIfMatch(final String ifMatch, final String eTag) {
+
+		return ifMatch == null || matches(ifMatch, eTag, false);
+	}
+
+	/**
+	 * If-Range holds a single tag, compared with the strong comparison; an HTTP-date is not supported and never matches.
+	 *
+	 * @return true if the header is absent or matches the given strong ETag
+	 */
+	static boolean matchesIfRange(final String ifRange, final String eTag) {
+
+		return ifRange == null || ifRange.trim().equals(eTag);
+	}
+
+	private static boolean matches(final String header, final String eTag, final boolean weakComparison) {
+
+		if (header == null) {
+			return false;
+		}
+		for (final String candidate : header.split(",")) {
+			String tag = candidate.trim();
+			if (ANY.equals(tag)) {
+				return true;
+			}
+			if (tag.startsWith(WEAK_PREFIX)) {
+				if (!weakComparison) {
+					continue;
+				}
+				tag = tag.substring(WEAK_PREFIX.length());
+			}
+			if (tag.equals(eTag) || isRepresentationOf(tag, eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isRepresentationOf(final String tag, final String eTag) {
+
+		final int prefixLength = eTag.length() - 1;
+		return tag.length() > eTag.length() + 1 && tag.charAt(prefixLength) == REPRESENTATION_SEPARATOR
+				&& tag.regionMatches(0, eTag, 0, prefixLength) && tag.charAt(tag.length() - 1) == '"';
+	}
+
+}
@@ -1,6 +1,6 @@
 package com.rabbitshop.springwebhandling.controllers;
 
-import org.springframework.http.HttpStatus;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -11,6 +11,8 @@ import org.springframework.web.context.request.WebRequest;
 
 import com.rabbitshop.springwebhandling.exceptions.ForbiddenException;
 import com.rabbitshop.springwebhandling.exceptions.PaymentRequiredException;
+import com.rabbitshop.springwebhandling.exceptions.bodies.ErrorBodyRenderer;
+import com.rabbitshop.springwebhandling.services.ErrorLogSampler;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -19,13 +21,19 @@ import lombok.extern.slf4j.Slf4j;
 @RequestMapping("/exceptions")
 class ExceptionController {
 
+	@Autowired
+	private ErrorLogSampler errorLogSampler;
+
+	@Autowired
+	private ErrorBodyRenderer errorBodyRenderer;
+
 	@GetMapping(value = "/forbidden")
 	@ResponseBody
 	public ResponseEntity<?> forbidden() {
 
 		log.debug("Get Forbidden exception to test custom Response status");
 
-		throw new ForbiddenException();
+		throw ForbiddenException.INSTANCE;
 	}
 	
 	@GetMapping(value = "/payRequired")
@@ -34,7 +42,7 @@ class ExceptionController {
 
 		log.debug("Get PaymentRequired exception to test custom Exception handling");
 
-		throw new PaymentRequiredException();
+		throw PaymentRequiredException.INSTANCE;
 	}
 
 	/**
@@ -48,10 +56,10 @@ class ExceptionController {
 	 * modifiable.
 	 */
 	@ExceptionHandler({ PaymentRequiredException.class })
-	public ResponseEntity<Object> handlePaymentRequiredException(final Exception exception, final WebRequest request) {
+	public ResponseEntity<byte[]> handlePaymentRequiredException(final Exception exception, final WebRequest request) {
 		
-		log.error("Exception occurred: " + exception.getMessage(), exception);
-		return new ResponseEntity<Object>("A payment is required to use this API", HttpStatus.PAYMENT_REQUIRED);
+		errorLogSampler.error(log, exception, "Exception occurred: {}", exception.getMessage());
+		return errorBodyRenderer.render(exception.getClass(), request);
 	}
 
 }
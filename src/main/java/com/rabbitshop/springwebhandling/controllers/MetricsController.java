@@ -0,0 +1,218 @@
+package com.rabbitshop.springwebhandling.controllers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.rabbitshop.springwebhandling.metrics.ConverterMetrics;
+import com.rabbitshop.springwebhandling.metrics.LatencyHistogram;
+import com.rabbitshop.springwebhandling.metrics.PrometheusWriter;
+import com.rabbitshop.springwebhandling.metrics.RequestMetrics;
+import com.rabbitshop.springwebhandling.services.BookCaseExporter;
+import com.rabbitshop.springwebhandling.services.BookCasePersistence;
+import com.rabbitshop.springwebhandling.services.BookCaseRegistry;
+import com.rabbitshop.springwebhandling.services.BookCaseResponseCache;
+import com.rabbitshop.springwebhandling.services.BookCaseSearch;
+import com.rabbitshop.springwebhandling.services.ErrorLogSampler;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Exposes the metrics of the application, in JSON or in the Prometheus text format: the latency histograms of the handlers, the
+ * throughput of the converters, the handled exceptions per type and the counters of the BookCase services.
+ *
+ * Latencies are reported in microseconds in JSON and in seconds to Prometheus, as summaries with a few quantiles.
+ */
+@Slf4j
+@Controller
+@RequestMapping("/metrics")
+public class MetricsController {
+
+	private static final double NANOS_PER_MICRO = 1_000d;
+
+	private static final String HANDLER = "handler";
+	private static final String CONVERTER = "converter";
+	private static final String DIRECTION = "direction";
+	private static final String READ = "read";
+	private static final String WRITE = "write";
+
+	@Autowired
+	private RequestMetrics requestMetrics;
+
+	@Autowired
+	private ErrorLogSampler errorLogSampler;
+
+	@Autowired
+	private BookCaseResponseCache responseCache;
+
+	@Autowired
+	private BookCaseSearch bookCaseSearch;
+
+	@Autowired
+	private BookCaseRegistry bookCaseRegistry;
+
+	@Autowired
+	private BookCasePersistence bookCasePersistence;
+
+	@Autowired
+	private BookCaseExporter bookCaseExporter;
+
+	@GetMapping
+	@ResponseBody
+	public Map<String, Object> getMetrics() {
+
+		log.debug("Get metrics");
+
+		final Map<String, Object> handlers = new LinkedHashMap<>();
+		requestMetrics.getHandlerLatencies().forEach((handler, histogram) -> handlers.put(handler, latency(histogram)));
+
+		final Map<String, Object> converters = new LinkedHashMap<>();
+		requestMetrics.getConverters().forEach((name, converter) -> {
+			final Map<String, Object> values = new LinkedHashMap<>();
+			values.put("rowsRead", converter.getRowsRead());
+			values.put("bytesRead", converter.getBytesRead());
+			values.put("readMicros", latency(converter.getReadTime()));
+			values.put("rowsWritten", converter.getRowsWritten());
+			values.put("bytesWritten", converter.getBytesWritten());
+			values.put("writeMicros", latency(converter.getWriteTime()));
+			converters.put(name, values);
+		});
+
+		final Map<String, Object> cache = new LinkedHashMap<>();
+		cache.put("hits", responseCache.getHits().get());
+		cache.put("misses", responseCache.getMisses().get());
+		cache.put("evictions", responseCache.getEvictions().get());
+		cache.put("uncacheable", responseCache.getUncacheable().get());
+		cache.put("bytes", responseCache.getTotalBytes());
+
+		final Map<String, Object> search = new LinkedHashMap<>();
+		search.put("searches", bookCaseSearch.getSearches().get());
+		search.put("staleSearches", bookCaseSearch.getStaleSearches().get());
+		search.put("builds", bookCaseSearch.getBuilds().get());
+
+		final Map<String, Object> exports = new LinkedHashMap<>();
+		exports.put("active", bookCaseExporter.getActive().get());
+		exports.put("completed", bookCaseExporter.getCompleted().get());
+		exports.put("aborted", bookCaseExporter.getAborted().get());
+		exports.put("timedOut", bookCaseExporter.getTimedOut().get());
+
+		final Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("handlers", handlers);
+		metrics.put("converters", converters);
+		metrics.put("exceptions", errorLogSampler.getCounts());
+		metrics.put("responseCache", cache);
+		metrics.put("search", search);
+		metrics.put("exports", exports);
+		metrics.put("cases", bookCaseRegistry.getStats());
+		metrics.put("storeLogBytes", bookCasePersistence.getLogBytes());
+		return metrics;
+	}
+
+	@GetMapping(value = "/prometheus", produces = PrometheusWriter.CONTENT_TYPE)
+	@ResponseBody
+	public String getPrometheusMetrics() {
+
+		log.debug("Get metrics in Prometheus format");
+
+		final PrometheusWriter writer = new PrometheusWriter();
+		final Map<String, LatencyHistogram> handlerLatencies = requestMetrics.getHandlerLatencies();
+		final Map<String, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+		handlerLatencies.forEach((handler, histogram) -> snapshots.put(handler, histogram.snapshot()));
+		writer.family("bookcase_handler_latency_seconds", PrometheusWriter.SUMMARY, "Latency of the requests per handler");
+		snapshots.forEach((handler, snapshot) -> writer.summary("bookcase_handler_latency_seconds", PrometheusWriter.label(HANDLER, handler), snapshot));
+		writer.family("bookcase_handler_latency_max_seconds", PrometheusWriter.GAUGE, "Highest latency of the requests per handler");
+		snapshots.forEach((handler, snapshot) -> writer.sample("bookcase_handler_latency_max_seconds", PrometheusWriter.label(HANDLER, handler),
+				PrometheusWriter.seconds(snapshot.getMax())));
+
+		final Map<String, ConverterMetrics> converters = requestMetrics.getConverters();
+		writer.family("bookcase_converter_rows_total", PrometheusWriter.COUNTER, "Rows read and written per converter");
+		converters.forEach((name, converter) -> writer
+				.sample("bookcase_converter_rows_total", converterLabels(name, READ), converter.getRowsRead())
+				.sample("bookcase_converter_rows_total", converterLabels(name, WRITE), converter.getRowsWritten()));
+		writer.family("bookcase_converter_bytes_total", PrometheusWriter.COUNTER, "Bytes read and written per converter");
+		converters.forEach((name, converter) -> writer
+				.sample("bookcase_converter_bytes_total", converterLabels(name, READ), converter.getBytesRead())
+				.sample("bookcase_converter_bytes_total", converterLabels(name, WRITE), converter.getBytesWritten()));
+		writer.family("bookcase_converter_duration_seconds", PrometheusWriter.SUMMARY, "Time taken by reads (parsing) and writes per converter");
+		converters.forEach((name, converter) -> writer
+				.summary("bookcase_converter_duration_seconds", converterLabels(name, READ), converter.getReadTime().snapshot())
+				.summary("bookcase_converter_duration_seconds", converterLabels(name, WRITE), converter.getWriteTime().snapshot()));
+
+		writer.family("bookcase_exceptions_total", PrometheusWriter.COUNTER, "Handled exceptions per type");
+		errorLogSampler.getCounts().forEach((exception, count) -> writer
+				.sample("bookcase_exceptions_total", PrometheusWriter.label("exception", exception), count));
+
+		writer.family("bookcase_response_cache_hits_total", PrometheusWriter.COUNTER, "Responses served from the response cache")
+				.sample("bookcase_response_cache_hits_total", null, responseCache.getHits().get());
+		writer.family("bookcase_response_cache_misses_total", PrometheusWriter.COUNTER, "Responses encoded because not cached")
+				.sample("bookcase_response_cache_misses_total", null, responseCache.getMisses().get());
+		writer.family("bookcase_response_cache_evictions_total", PrometheusWriter.COUNTER, "Responses evicted from the response cache")
+				.sample("bookcase_response_cache_evictions_total", null, responseCache.getEvictions().get());
+		writer.family("bookcase_response_cache_uncacheable_total", PrometheusWriter.COUNTER, "Responses streamed because too large to be cached")
+				.sample("bookcase_response_cache_uncacheable_total", null, responseCache.getUncacheable().get());
+		writer.family("bookcase_response_cache_bytes", PrometheusWriter.GAUGE, "Bytes held by the response cache")
+				.sample("bookcase_response_cache_bytes", null, responseCache.getTotalBytes());
+
+		writer.family("bookcase_searches_total", PrometheusWriter.COUNTER, "Title searches")
+				.sample("bookcase_searches_total", null, bookCaseSearch.getSearches().get());
+		writer.family("bookcase_stale_searches_total", PrometheusWriter.COUNTER, "Title searches answered from a previous snapshot")
+				.sample("bookcase_stale_searches_total", null, bookCaseSearch.getStaleSearches().get());
+		writer.family("bookcase_title_index_builds_total", PrometheusWriter.COUNTER, "Title indexes built")
+				.sample("bookcase_title_index_builds_total", null, bookCaseSearch.getBuilds().get());
+
+		writer.family("bookcase_exports_active", PrometheusWriter.GAUGE, "Streaming exports being written")
+				.sample("bookcase_exports_active", null, bookCaseExporter.getActive().get());
+		writer.family("bookcase_exports_total", PrometheusWriter.COUNTER, "Streaming exports ended, per outcome")
+				.sample("bookcase_exports_total", PrometheusWriter.label("outcome", "completed"), bookCaseExporter.getCompleted().get())
+				.sample("bookcase_exports_total", PrometheusWriter.label("outcome", "aborted"), bookCaseExporter.getAborted().get())
+				.sample("bookcase_exports_total", PrometheusWriter.label("outcome", "timed_out"), bookCaseExporter.getTimedOut().get());
+
+		final BookCaseRegistry.Stats cases = bookCaseRegistry.getStats();
+		writer.family("bookcase_cases_resident", PrometheusWriter.GAUGE, "Named BookCases in memory")
+				.sample("bookcase_cases_resident", null, cases.getResidentCases());
+		writer.family("bookcase_cases_resident_bytes", PrometheusWriter.GAUGE, "Estimated bytes of the named BookCases in memory")
+				.sample("bookcase_cases_resident_bytes", null, cases.getResidentBytes());
+		writer.family("bookcase_cases_max_bytes", PrometheusWriter.GAUGE, "Memory budget of the named BookCases")
+				.sample("bookcase_cases_max_bytes", null, cases.getMaxBytes());
+		writer.family("bookcase_cases_spilled", PrometheusWriter.GAUGE, "Named BookCases spilled to disk")
+				.sample("bookcase_cases_spilled", null, cases.getSpilledCases());
+		writer.family("bookcase_cases_lookups_total", PrometheusWriter.COUNTER, "Lookups of named BookCases, per result")
+				.sample("bookcase_cases_lookups_total", PrometheusWriter.label("result", "hit"), cases.getHits())
+				.sample("bookcase_cases_lookups_total", PrometheusWriter.label("result", "miss"), cases.getMisses());
+		writer.family("bookcase_cases_evictions_total", PrometheusWriter.COUNTER, "Named BookCases evicted from memory")
+				.sample("bookcase_cases_evictions_total", null, cases.getEvictions());
+		writer.family("bookcase_cases_spills_total", PrometheusWriter.COUNTER, "Named BookCases written to the spill directory")
+				.sample("bookcase_cases_spills_total", null, cases.getSpills());
+		writer.family("bookcase_cases_loads_total", PrometheusWriter.COUNTER, "Named BookCases loaded back from the spill directory")
+				.sample("bookcase_cases_loads_total", null, cases.getLoads());
+
+		writer.family("bookcase_store_log_bytes", PrometheusWriter.GAUGE, "Bytes of the BookCase store log not compacted yet")
+				.sample("bookcase_store_log_bytes", null, bookCasePersistence.getLogBytes());
+		return writer.toString();
+	}
+
+	private static Map<String, Object> latency(final LatencyHistogram histogram) {
+
+		final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		final Map<String, Object> latency = new LinkedHashMap<>();
+		latency.put("count", snapshot.getCount());
+		latency.put("mean", snapshot.getMean() / NANOS_PER_MICRO);
+		latency.put("p50", snapshot.getValueAtPercentile(50) / NANOS_PER_MICRO);
+		latency.put("p90", snapshot.getValueAtPercentile(90) / NANOS_PER_MICRO);
+		latency.put("p99", snapshot.getValueAtPercentile(99) / NANOS_PER_MICRO);
+		latency.put("p999", snapshot.getValueAtPercentile(99.9) / NANOS_PER_MICRO);
+		latency.put("max", snapshot.getMax() / NANOS_PER_MICRO);
+		return latency;
+	}
+
+	private static String converterLabels(final String converter, final String direction) {
+
+		return PrometheusWriter.label(CONVERTER, converter) + "," + PrometheusWriter.label(DIRECTION, direction);
+	}
+
+}
@@ -1,15 +1,49 @@
 package com.rabbitshop.springwebhandling.controllers;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import com.rabbitshop.springwebhandling.daos.Book;
 import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.ProjectedBookCase;
+import com.rabbitshop.springwebhandling.indexes.IsbnIndex;
+import com.rabbitshop.springwebhandling.services.BookCaseHolder;
+import com.rabbitshop.springwebhandling.services.BookCaseExporter;
+import com.rabbitshop.springwebhandling.services.BookCaseRegistry;
+import com.rabbitshop.springwebhandling.services.BookCaseResponseCache;
+import com.rabbitshop.springwebhandling.services.BookCaseResponseCache.CachedResponse;
+import com.rabbitshop.springwebhandling.services.BookCaseSearch;
+import com.rabbitshop.springwebhandling.services.BookCaseSearch.SearchResult;
+import com.rabbitshop.springwebhandling.services.BookCaseSnapshot;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -20,30 +54,481 @@ import lombok.extern.slf4j.Slf4j;
  * If you annotate a method with @ResponseBody, Spring will try to convert its return value and write it to the HTTP response automatically.
  * If you annotate a methods parameter with @RequestBody, Spring will try to convert the content of the incoming request body to your
  * parameter object on the fly.
+ *
+ * The BookCase is published as an immutable, versioned BookCaseSnapshot by the BookCaseHolder, together with an IsbnIndex so that
+ * single Books can be looked up by ISBN without transferring the whole BookCase.
+ * Responses carry a strong ETag derived from the snapshot version: a GET with a matching If-None-Match gets a 304 (Not Modified)
+ * without any body, and a PUT with an If-Match not matching the current version is refused with a 412 (Precondition Failed).
+ * A cached whole BookCase has an ETag of its own per representation (media type and gzip), derived from the snapshot one, so that
+ * If-Range never resumes a download with the bytes of another representation; any of them matches its version all the same.
+ *
+ * Since a BookCase only changes on PUT, the GET does not go through the HttpMessageConverters every time: the response bytes are
+ * taken from the BookCaseResponseCache, which encodes each snapshot once per negotiated media type (and gzip variant). A BookCase
+ * too large to be cached is written by the HttpMessageConverters straight to the response instead, in chunks.
+ * Clients showing a few rows can ask for a page instead, by offset or after a given ISBN, optionally with only some of the fields:
+ * pages are encoded on the fly and link to the next one. A cached CSV response can be downloaded in parts too, with a Range header.
+ *
+ * Besides the full replacement, the BookCase can be changed with small deltas (CSV or JSON bodies, as for the PUT): Books can be
+ * appended, removed by ISBN or upserted in a batch. Every accepted change publishes a new version, honoring If-Match as the PUT does.
+ *
+ * Very large BookCases can be downloaded through the export instead, streamed as CSV or NDJSON by the BookCaseExporter off the
+ * servlet container threads, without ever holding the whole encoded response in memory.
+ *
+ * Books can be searched by title too, by words or by title prefix, through the TitleIndex maintained by the BookCaseSearch.
+ *
+ * Besides the default BookCase, any number of named ones can be addressed by id, e.g. /bodies/{caseId}/response: they are kept by
+ * the BookCaseRegistry within a memory budget, a PUT creates a missing one and a DELETE of /bodies/{caseId} removes it.
  */
 @Slf4j
 @Controller
 @RequestMapping(value = "/bodies")
 public class RequestResponseBodyController {
 
-	private BookCase bookCase;
+	private static final String VARY_VALUE = HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING;
+	private static final String GZIP = "gzip";
+	private static final String CASE_PATH = "/{caseId:[A-Za-z0-9_-]+}";
+	private static final String TOTAL_COUNT = "X-Total-Count";
+	private static final String BYTES_UNIT = "bytes";
+	private static final String ISBN_FIELD = "isbn";
+	private static final String TITLE_FIELD = "title";
+	private static final MediaType CSV = new MediaType("text", "csv");
+
+	@Value("${bookcase.page.default-limit:100}")
+	private int pageDefaultLimit;
+
+	@Value("${bookcase.page.max-limit:10000}")
+	private int pageMaxLimit;
+
+	@Autowired
+	private BookCaseHolder bookCaseHolder;
 
-	@GetMapping(value = "/response")
+	@Autowired
+	private BookCaseResponseCache responseCache;
+
+	@Autowired
+	private BookCaseExporter bookCaseExporter;
+
+	@Autowired
+	private BookCaseRegistry bookCaseRegistry;
+
+	@Autowired
+	private BookCaseSearch bookCaseSearch;
+
+	/**
+	 * Returns the whole BookCase, or a page of it as soon as any of limit, offset, after or fields is given (see getPage).
+	 * A whole CSV BookCase can be requested by byte ranges, a single range per request, resumable safely with If-Range.
+	 */
+	@GetMapping(value = { "/response", CASE_PATH + "/response" })
 	@ResponseBody
-	public BookCase getBookCase() {
+	public ResponseEntity<?> getBookCase(@PathVariable(required = false) final String caseId,
+			@RequestParam(value = "limit", required = false) final Integer limit,
+			@RequestParam(value = "offset", required = false) final Integer offset,
+			@RequestParam(value = "after", required = false) final String after,
+			@RequestParam(value = "fields", required = false) final String fields,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept,
+			@RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) final String acceptEncoding,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+			@RequestHeader(value = HttpHeaders.RANGE, required = false) final String range,
+			@RequestHeader(value = HttpHeaders.IF_RANGE, required = false) final String ifRange) throws IOException {
+
+		log.debug("Get BookCase " + caseName(caseId));
 
-		log.debug("Get BookCase");
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		final BookCaseSnapshot snapshot = holder.current();
+		if (ETags.matchesIfNoneMatch(ifNoneMatch, snapshot.getETag())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+		}
 
-		return bookCase;
+		final MediaType mediaType = negotiate(accept);
+		if (mediaType == null) {
+			return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+		}
+		if (limit != null || offset != null || after != null || fields != null) {
+			return getPage(snapshot, mediaType, limit, offset, after, fields);
+		}
+
+		final CachedResponse response = responseCache.get(snapshot, mediaType, responseCache.acceptsGzip(acceptEncoding));
+		if (response == null) {
+			// too large to be cached, nor to be held in memory once encoded: streamed through the converters, without ranges
+			return ResponseEntity.ok()
+					.eTag(snapshot.getETag())
+					.header(HttpHeaders.VARY, VARY_VALUE)
+					.body(snapshot.getBookCase());
+		}
+		final String eTag = ETags.ofRepresentation(snapshot.getETag(),
+				response.getContentType().getSubtype() + (response.isGzipped() ? "+" + GZIP : ""));
+		final boolean rangeable = CSV.includes(mediaType);
+		final HttpRange byteRange = rangeable && range != null && ETags.matchesIfRange(ifRange, eTag)
+				? singleRange(range)
+				: null;
+		byte[] body = response.getBody();
+		final BodyBuilder builder;
+		if (byteRange == null) {
+			builder = ResponseEntity.ok();
+		} else {
+			// ranges are of the bytes sent, that is of the gzipped ones if the response is gzipped
+			final long start = byteRange.getRangeStart(body.length);
+			if (start >= body.length) {
+				return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+						.header(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " */" + body.length)
+						.build();
+			}
+			final long end = byteRange.getRangeEnd(body.length);
+			builder = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+					.header(HttpHeaders.CONTENT_RANGE, BYTES_UNIT + " " + start + "-" + end + "/" + body.length);
+			body = Arrays.copyOfRange(body, (int) start, (int) end + 1);
+		}
+		builder.eTag(eTag)
+				.contentType(response.getContentType())
+				.header(HttpHeaders.VARY, VARY_VALUE);
+		if (rangeable) {
+			builder.header(HttpHeaders.ACCEPT_RANGES, BYTES_UNIT);
+		}
+		if (response.isGzipped()) {
+			builder.header(HttpHeaders.CONTENT_ENCODING, GZIP);
+		}
+		return builder.body(body);
+	}
+
+	/**
+	 * Streams the current BookCase as CSV or NDJSON, the export is written asynchronously and is not cached.
+	 */
+	@GetMapping(value = { "/export", CASE_PATH + "/export" })
+	public ResponseEntity<StreamingResponseBody> exportBookCase(@PathVariable(required = false) final String caseId,
+			@RequestHeader(value = HttpHeaders.ACCEPT, required = false) final String accept,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch, final HttpServletRequest request) {
+
+		log.debug("Export BookCase " + caseName(caseId));
+
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		final BookCaseSnapshot snapshot = holder.current();
+		if (ETags.matchesIfNoneMatch(ifNoneMatch, snapshot.getETag())) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.getETag()).build();
+		}
+
+		final MediaType mediaType;
+		try {
+			mediaType = bookCaseExporter.negotiate(accept == null ? Collections.<MediaType> emptyList() : MediaType.parseMediaTypes(accept));
+		} catch (final InvalidMediaTypeException e) {
+			log.debug("Invalid Accept header: " + accept);
+			return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+		}
+		if (mediaType == null) {
+			return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+		}
+		return ResponseEntity.ok()
+				.eTag(snapshot.getETag())
+				.contentType(mediaType)
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+				.body(bookCaseExporter.export(snapshot.getBookCase(), mediaType, request));
 	}
 
-	@PutMapping(value = "/request")
-	@ResponseStatus(HttpStatus.NO_CONTENT)
-	public void setBookCase(@RequestBody final BookCase bookCase) {
+	/**
+	 * Replaces the BookCase, a missing named BookCase is created.
+	 */
+	@PutMapping(value = { "/request", CASE_PATH + "/request" })
+	public ResponseEntity<Void> setBookCase(@PathVariable(required = false) final String caseId, @RequestBody final BookCase bookCase,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
 
-		log.debug("Set BookCase: " + bookCase);
+		log.debug("Set BookCase {}: {} Books", caseName(caseId), bookCase.size());
 		
-		this.bookCase = bookCase;
+		return publish(caseId, true, ifMatch, (holder, expected) -> holder.replace(expected, bookCase));
+	}
+
+	@DeleteMapping(value = CASE_PATH)
+	public ResponseEntity<Void> removeBookCase(@PathVariable final String caseId) {
+
+		log.debug("Remove BookCase " + caseId);
+
+		if (BookCaseHolder.DEFAULT_CASE_ID.equals(caseId)) {
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		}
+		return bookCaseRegistry.remove(caseId) ? ResponseEntity.noContent().build() : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+	}
+
+	/**
+	 * Memory usage and hit rate of the named BookCases.
+	 */
+	@GetMapping(value = "/cases")
+	@ResponseBody
+	public BookCaseRegistry.Stats getBookCaseStats() {
+
+		return bookCaseRegistry.getStats();
+	}
+
+	@PostMapping(value = { "/books", CASE_PATH + "/books" })
+	public ResponseEntity<Void> addBooks(@PathVariable(required = false) final String caseId, @RequestBody final BookCase books,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+		log.debug("Add " + books.size() + " Books to BookCase " + caseName(caseId));
+
+		return publish(caseId, false, ifMatch, (holder, expected) -> holder.append(expected, books));
+	}
+
+	/**
+	 * Applies a batch of changes: every Book replaces the one having the same ISBN, or is appended if there is none.
+	 */
+	@PatchMapping(value = { "/books", CASE_PATH + "/books" })
+	public ResponseEntity<Void> patchBooks(@PathVariable(required = false) final String caseId, @RequestBody final BookCase books,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+		log.debug("Patch " + books.size() + " Books of BookCase " + caseName(caseId));
+
+		return publish(caseId, false, ifMatch, (holder, expected) -> holder.upsert(expected, books));
+	}
+
+	@DeleteMapping(value = { "/books/{isbn}", CASE_PATH + "/books/{isbn}" })
+	public ResponseEntity<Void> removeBook(@PathVariable(required = false) final String caseId, @PathVariable final String isbn,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+		log.debug("Remove Book by ISBN from BookCase " + caseName(caseId) + ": " + isbn);
+
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null || holder.current().getIsbnIndex().indexOf(isbn) == IsbnIndex.NOT_FOUND) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return publish(caseId, false, ifMatch, (target, expected) -> target.remove(expected, Collections.singletonList(isbn)));
+	}
+
+	@PostMapping(value = { "/books/remove", CASE_PATH + "/books/remove" })
+	public ResponseEntity<Void> removeBooks(@PathVariable(required = false) final String caseId, @RequestBody final List<String> isbns,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch) {
+
+		log.debug("Remove " + isbns.size() + " Books by ISBN from BookCase " + caseName(caseId));
+
+		return publish(caseId, false, ifMatch, (holder, expected) -> holder.remove(expected, isbns));
+	}
+
+	@GetMapping(value = { "/books/{isbn}", CASE_PATH + "/books/{isbn}" })
+	@ResponseBody
+	public ResponseEntity<Book> getBook(@PathVariable(required = false) final String caseId, @PathVariable final String isbn) {
+
+		log.debug("Get Book by ISBN from BookCase " + caseName(caseId) + ": " + isbn);
+
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		final BookCaseSnapshot snapshot = holder.current();
+		final int position = snapshot.getIsbnIndex().indexOf(isbn);
+		if (position == IsbnIndex.NOT_FOUND) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<>(snapshot.getBookCase().get(position), HttpStatus.OK);
+	}
+
+	/**
+	 * Looks up a batch of ISBNs at once, the returned BookCase holds the Books found in the same order of the requested ISBNs.
+	 */
+	@PostMapping(value = { "/books/lookup", CASE_PATH + "/books/lookup" })
+	@ResponseBody
+	public ResponseEntity<BookCase> lookupBooks(@PathVariable(required = false) final String caseId, @RequestBody final List<String> isbns) {
+
+		log.debug("Lookup " + isbns.size() + " Books by ISBN in BookCase " + caseName(caseId));
+
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		final BookCaseSnapshot snapshot = holder.current();
+		final BookCase found = new BookCase(isbns.size());
+		for (final String isbn : isbns) {
+			final int position = snapshot.getIsbnIndex().indexOf(isbn);
+			if (position != IsbnIndex.NOT_FOUND) {
+				found.add(snapshot.getBookCase().get(position));
+			}
+		}
+		return new ResponseEntity<>(found, HttpStatus.OK);
+	}
+
+	/**
+	 * Searches Books by title, either by words (q) or by title prefix (prefix), one page at a time.
+	 * With q the titles having all of its words match, a word ending with '*' matching as a prefix, and Books come in BookCase order;
+	 * with prefix the titles starting with it match, ignoring case, and Books come in title order.
+	 * The total number of matches is returned in X-Total-Count, the ETag is the one of the snapshot searched.
+	 */
+	@GetMapping(value = { "/books/search", CASE_PATH + "/books/search" })
+	@ResponseBody
+	public ResponseEntity<BookCase> searchBooks(@PathVariable(required = false) final String caseId,
+			@RequestParam(value = "q", required = false) final String query,
+			@RequestParam(value = "prefix", required = false) final String prefix,
+			@RequestParam(value = "offset", defaultValue = "0") final int offset,
+			@RequestParam(value = "limit", defaultValue = "20") final int limit) {
+
+		log.debug("Search Books of BookCase " + caseName(caseId) + " by " + (query != null ? "words: " + query : "title prefix: " + prefix));
+
+		if ((query == null) == (prefix == null) || (query != null ? query : prefix).trim().isEmpty()
+				|| offset < 0 || limit < 1 || limit > bookCaseSearch.getMaxLimit()) {
+			return ResponseEntity.badRequest().build();
+		}
+		final BookCaseHolder holder = holder(caseId);
+		if (holder == null) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		final SearchResult result = query != null
+				? bookCaseSearch.searchWords(holder, query, offset, limit)
+				: bookCaseSearch.searchTitlePrefix(holder, prefix, offset, limit);
+		return ResponseEntity.ok()
+				.eTag(result.getSnapshot().getETag())
+				.header(TOTAL_COUNT, Integer.toString(result.getTotal()))
+				.body(result.getBooks());
+	}
+
+	/**
+	 * Encodes a page of the BookCase of the given snapshot, of at most limit Books (pageDefaultLimit if not given) starting either at
+	 * offset or right after the Book having the ISBN given by after, the two being exclusive. With fields, a comma separated list
+	 * of Book properties, the page is a ProjectedBookCase: the other properties are left out (left empty in CSV, where columns keep
+	 * their positions).
+	 * The total number of Books is returned in X-Total-Count and, unless this is the last page, a Link to the next page following
+	 * the same kind of pagination, a cursor one when no offset has been given; an offset one all the same if the last ISBN of the
+	 * page is not unique, since after resolves an ISBN to its first Book.
+	 */
+	private ResponseEntity<byte[]> getPage(final BookCaseSnapshot snapshot, final MediaType mediaType, final Integer limit,
+			final Integer offset, final String after, final String fields) throws IOException {
+
+		final boolean[] projection = projection(fields);
+		if (projection == null || offset != null && (after != null || offset < 0)
+				|| limit != null && (limit < 1 || limit > pageMaxLimit)) {
+			return ResponseEntity.badRequest().build();
+		}
+		final BookCase bookCase = snapshot.getBookCase();
+		int start = offset != null ? offset : 0;
+		if (after != null) {
+			final int position = snapshot.getIsbnIndex().indexOf(after);
+			if (position == IsbnIndex.NOT_FOUND) {
+				log.debug("Page cursor not found: " + after);
+				return ResponseEntity.badRequest().build();
+			}
+			start = position + 1;
+		}
+		final int pageLimit = limit != null ? limit : pageDefaultLimit;
+		final int end = (int) Math.min(bookCase.size(), (long) start + pageLimit);
+
+		final int pageSize = Math.max(end - start, 0);
+		final boolean isbnIncluded = projection[0];
+		final boolean titleIncluded = projection[1];
+		final BookCase page = isbnIncluded && titleIncluded
+				? new BookCase(pageSize)
+				: new ProjectedBookCase(pageSize, isbnIncluded, titleIncluded);
+		for (int i = start; i < end; i++) {
+			final Book book = bookCase.get(i);
+			page.add(isbnIncluded && titleIncluded ? book : new Book(isbnIncluded ? book.getIsbn() : null, titleIncluded ? book.getTitle() : null));
+		}
+		final CachedResponse response = responseCache.encode(page.freeze(), mediaType);
+		final BodyBuilder builder = ResponseEntity.ok()
+				.eTag(snapshot.getETag())
+				.contentType(response.getContentType())
+				.header(HttpHeaders.VARY, HttpHeaders.ACCEPT)
+				.header(TOTAL_COUNT, Integer.toString(bookCase.size()));
+		if (end < bookCase.size()) {
+			final String lastIsbn = bookCase.get(end - 1).getIsbn();
+			final ServletUriComponentsBuilder next = ServletUriComponentsBuilder.fromCurrentRequest();
+			// a cursor only if it resolves back to the end of this page: an ISBN held by several Books resolves to the first one,
+			// and the next page would start over from there
+			if (offset == null && lastIsbn != null && snapshot.getIsbnIndex().indexOf(lastIsbn) == end - 1) {
+				next.replaceQueryParam("after", lastIsbn);
+			} else {
+				next.replaceQueryParam("after").replaceQueryParam("offset", end);
+			}
+			builder.header(HttpHeaders.LINK, "<" + next.replaceQueryParam("limit", pageLimit).toUriString() + ">; rel=\"next\"");
+		}
+		return builder.body(response.getBody());
+	}
+
+	/**
+	 * @return whether the isbn and the title are listed in fields, both if fields is null; null if any of them is unknown
+	 */
+	private static boolean[] projection(final String fields) {
+
+		if (fields == null) {
+			return new boolean[] { true, true };
+		}
+		boolean isbn = false;
+		boolean title = false;
+		for (final String field : fields.split(",")) {
+			switch (field.trim()) {
+				case ISBN_FIELD:
+					isbn = true;
+					break;
+				case TITLE_FIELD:
+					title = true;
+					break;
+				default:
+					return null;
+			}
+		}
+		return new boolean[] { isbn, title };
+	}
+
+	/**
+	 * @return the only range of the Range header, null if it is malformed or has several ranges, which are served as a whole
+	 */
+	private static HttpRange singleRange(final String range) {
+
+		try {
+			final List<HttpRange> ranges = HttpRange.parseRanges(range);
+			return ranges.size() == 1 ? ranges.get(0) : null;
+		} catch (final IllegalArgumentException e) {
+			log.debug("Invalid Range header: " + range);
+			return null;
+		}
+	}
+
+	/**
+	 * Runs a change of the BookCaseHolder of the given case, conditional on the current snapshot if an If-Match header has been sent.
+	 *
+	 * @param create whether a missing named BookCase is created rather than reported as not found
+	 */
+	private ResponseEntity<Void> publish(final String caseId, final boolean create, final String ifMatch,
+			final BiFunction<BookCaseHolder, BookCaseSnapshot, BookCaseSnapshot> change) {
+
+		if (caseId != null && !BookCaseRegistry.isValidCaseId(caseId)) {
+			return ResponseEntity.badRequest().build();
+		}
+		final ResponseEntity<Void> response = bookCaseRegistry.update(caseName(caseId), create, holder -> {
+			BookCaseSnapshot expected = null;
+			if (ifMatch != null) {
+				expected = holder.current();
+				if (!ETags.matchesIfMatch(ifMatch, expected.getETag())) {
+					return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+				}
+			}
+			final BookCaseSnapshot published = change.apply(holder, expected);
+			if (published == null) {
+				return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+			}
+			return ResponseEntity.noContent().eTag(published.getETag()).build();
+		});
+		return response != null ? response : new ResponseEntity<>(HttpStatus.NOT_FOUND);
+	}
+
+	/**
+	 * @return the holder of the given case, the default one if caseId is null, null if there is no such case
+	 */
+	private BookCaseHolder holder(final String caseId) {
+
+		return caseId == null ? bookCaseHolder : bookCaseRegistry.get(caseId);
+	}
+
+	private static String caseName(final String caseId) {
+
+		return caseId == null ? BookCaseHolder.DEFAULT_CASE_ID : caseId;
+	}
+
+	private MediaType negotiate(final String accept) {
+
+		try {
+			return responseCache.negotiate(accept == null ? Collections.<MediaType> emptyList() : MediaType.parseMediaTypes(accept));
+		} catch (final InvalidMediaTypeException e) {
+			log.debug("Invalid Accept header: " + accept);
+			return null;
+		}
 	}
 
 }
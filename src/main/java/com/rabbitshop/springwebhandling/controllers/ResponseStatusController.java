@@ -54,7 +54,7 @@ class ResponseStatusController {
 
 		log.debug("Get custom ResponseStatus via Exception");
 		
-		throw new ForbiddenException();
+		throw ForbiddenException.INSTANCE;
 	}
 	
 }
@@ -11,8 +11,10 @@ import lombok.NoArgsConstructor;
 @Builder
 public class Book {
 
+	@CsvColumn(index = 0)
 	private String isbn;
 
+	@CsvColumn(index = 1)
 	private String title;
 
 }
@@ -1,18 +1,181 @@
 package com.rabbitshop.springwebhandling.daos;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
 
-import lombok.NoArgsConstructor;
+/**
+ * List of Books, by default backed by an ArrayList.
+ *
+ * The storage is kept behind the List API (get/set/add/remove/size) so that alternative representations, like the columnar
+ * CompactBookCase, can be used wherever a BookCase is expected.
+ *
+ * Once published to concurrent readers a BookCase should be frozen: from then on every modification fails, so it can be shared
+ * safely without any copy or lock, as long as the contained Books are not modified either.
+ */
+public class BookCase extends AbstractList<Book> implements RandomAccess, Serializable {
 
-@NoArgsConstructor
-public class BookCase extends ArrayList<Book> {
+	private static final long serialVersionUID = -5617264040215482913L;
+
+	// rough heap layout of a Book with compressed oops: the Book, two Strings and their char[], plus the list slot
+	private static final int BOOK_BYTES = 24 + 2 * (24 + 16) + 4;
+
+	private final List<Book> books;
+
+	private boolean frozen;
+
+	// kept up to date by every modification, so that it can be read on every change of a large BookCase
+	private transient long retainedBytes;
+
+	public BookCase() {
+
+		this(new ArrayList<>());
+	}
+
+	public BookCase(final int initialCapacity) {
+
+		this(new ArrayList<>(initialCapacity));
+	}
 
-	private static final long serialVersionUID = 898573153903910086L;
-	
 	public BookCase(final Collection<? extends Book> c) {
-		
-		super(c);
+
+		this(new ArrayList<>(c));
+	}
+
+	/**
+	 * @param books storage used by this BookCase, subclasses not relying on it can pass an empty immutable list
+	 */
+	protected BookCase(final List<Book> books) {
+
+		this.books = books;
+		retainedBytes = retainedBytes(books);
+	}
+
+	@Override
+	public Book get(final int index) {
+
+		return books.get(index);
+	}
+
+	@Override
+	public Book set(final int index, final Book book) {
+
+		checkNotFrozen();
+		final Book previous = books.set(index, book);
+		retainedBytes += retainedBytes(book) - retainedBytes(previous);
+		return previous;
+	}
+
+	@Override
+	public void add(final int index, final Book book) {
+
+		checkNotFrozen();
+		modCount++;
+		books.add(index, book);
+		retainedBytes += retainedBytes(book);
+	}
+
+	@Override
+	public Book remove(final int index) {
+
+		checkNotFrozen();
+		modCount++;
+		final Book removed = books.remove(index);
+		retainedBytes -= retainedBytes(removed);
+		return removed;
+	}
+
+	@Override
+	public void clear() {
+
+		checkNotFrozen();
+		modCount++;
+		books.clear();
+		retainedBytes = 0;
+	}
+
+	@Override
+	public int size() {
+
+		return books.size();
+	}
+
+	/**
+	 * Overridden to remove all the matching Books in a single pass of the storage.
+	 */
+	@Override
+	public boolean removeIf(final Predicate<? super Book> filter) {
+
+		checkNotFrozen();
+		final boolean removed = books.removeIf(filter);
+		if (removed) {
+			modCount++;
+			// removeIf is a pass over the storage already, counting again costs no more
+			retainedBytes = retainedBytes(books);
+		}
+		return removed;
+	}
+
+	/**
+	 * @return approximate number of bytes retained by this BookCase, its Books included, accounted as Books are added and removed
+	 */
+	public long getRetainedBytes() {
+
+		return retainedBytes;
+	}
+
+	/**
+	 * Makes this BookCase unmodifiable, for good.
+	 *
+	 * @return this BookCase
+	 */
+	public BookCase freeze() {
+
+		frozen = true;
+		return this;
+	}
+
+	public boolean isFrozen() {
+
+		return frozen;
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+
+		in.defaultReadObject();
+		retainedBytes = retainedBytes(books);
+	}
+
+	private static long retainedBytes(final List<Book> books) {
+
+		long bytes = 0;
+		for (final Book book : books) {
+			bytes += retainedBytes(book);
+		}
+		return bytes;
+	}
+
+	private static long retainedBytes(final Book book) {
+
+		return BOOK_BYTES + (book == null ? 0 : 2L * (length(book.getIsbn()) + length(book.getTitle())));
+	}
+
+	private static int length(final String value) {
+
+		return value == null ? 0 : value.length();
+	}
+
+	protected void checkNotFrozen() {
+
+		if (frozen) {
+			throw new UnsupportedOperationException("BookCase is frozen");
+		}
 	}
 
 }
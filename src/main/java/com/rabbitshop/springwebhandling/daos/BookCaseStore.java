@@ -0,0 +1,719 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.rabbitshop.springwebhandling.utils.Utf8;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durable storage of a versioned BookCase in a directory, made of two files.
+ *
+ * The snapshot file holds a whole CompactBookCase as its raw columns (packed ISBN codes, title offsets and lengths, data arena) after
+ * a fixed header: loading it maps the file and bulk-copies every column into its array, without parsing anything. Snapshots are
+ * written to a temporary file, forced to disk and then atomically renamed, so the snapshot file is always a complete one.
+ *
+ * The log file holds the changes (append, upsert, remove) published after the snapshot, one record per change, each with its own
+ * length and CRC32. A crash in the middle of a write leaves a torn record at the end of the log: recovery stops at the first record
+ * that is incomplete or fails its checksum and truncates the log there. A write that fails is truncated away at once, so that no
+ * torn record ever stays in front of the following ones. Records carry the version they published and are written in version
+ * order (see BookCasePersistence); they are replayed in version order up to the first missing version, and the records after a
+ * missing version are dropped from the log.
+ *
+ * Writing a snapshot compacts the log: snapshot and log share a generation number, a new snapshot starts a new generation and a new
+ * log holding only the records newer than the snapshot. A crash between the rename of the snapshot and the replacement of the log
+ * leaves a log of the previous generation: recovery replays its records newer than the snapshot and moves them to a log of the
+ * current generation. A log of any other generation is ignored. Snapshots never go back: one older than the stored one is refused.
+ *
+ * A snapshot failing its checksum is never replaced silently: recovery fails, so that it can be inspected.
+ * All multi-byte values are little-endian.
+ */
+@Slf4j
+public class BookCaseStore implements Closeable {
+
+	private static final String SNAPSHOT_FILE = "bookcase.snapshot";
+	private static final String LOG_FILE = "bookcase.log";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final int SNAPSHOT_MAGIC = 0x4E534B42; // "BKSN"
+	private static final int LOG_MAGIC = 0x474C4B42; // "BKLG"
+	private static final int FORMAT_VERSION = 1;
+	private static final int SNAPSHOT_HEADER_SIZE = 64;
+	private static final int SNAPSHOT_HEADER_CHECKED_SIZE = 44;
+	private static final int LOG_HEADER_SIZE = 32;
+	private static final int LOG_HEADER_CHECKED_SIZE = 16;
+	private static final int RECORD_HEADER_SIZE = 8;
+	private static final int RECORD_MIN_SIZE = 1 + Long.BYTES + Integer.BYTES;
+	private static final int FLAG_DEDUPLICATE_TITLES = 1;
+	private static final int NULL_STRING = -1;
+	private static final int MAX_MAPPED_BYTES = 1 << 30;
+	private static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+	private final Path directory;
+
+	private final boolean deduplicateTitles;
+
+	private final boolean sync;
+
+	private final Object logLock = new Object();
+
+	private final Object snapshotLock = new Object();
+
+	private FileChannel logChannel;
+
+	private long generation;
+
+	/**
+	 * Version of the stored snapshot, guarded by the snapshot lock
+	 */
+	private long snapshotVersion;
+
+	@Getter
+	private volatile long logBytes;
+
+	/**
+	 * @param directory directory of the files, created if missing
+	 * @param deduplicateTitles whether the loaded CompactBookCase stores repeated titles only once
+	 * @param sync whether every log record is forced to disk before the change is acknowledged
+	 */
+	public BookCaseStore(final Path directory, final boolean deduplicateTitles, final boolean sync) {
+
+		this.directory = directory;
+		this.deduplicateTitles = deduplicateTitles;
+		this.sync = sync;
+	}
+
+	/**
+	 * Loads the snapshot, reads the log records following it and opens the log for appending, dropping its torn tail if any.
+	 */
+	public Recovery recover() throws IOException {
+
+		Files.createDirectories(directory);
+		Files.deleteIfExists(temp(SNAPSHOT_FILE));
+		Files.deleteIfExists(temp(LOG_FILE));
+
+		long version = 0;
+		CompactBookCase bookCase = null;
+		final Path snapshotPath = directory.resolve(SNAPSHOT_FILE);
+		if (Files.exists(snapshotPath)) {
+			try (final FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+				final ByteBuffer header = readHeader(channel, SNAPSHOT_HEADER_SIZE);
+				if (header.getInt(0) != SNAPSHOT_MAGIC || header.getInt(4) != FORMAT_VERSION
+						|| header.getInt(SNAPSHOT_HEADER_CHECKED_SIZE) != crc(header, SNAPSHOT_HEADER_CHECKED_SIZE)) {
+					throw new IOException("Corrupt snapshot header in " + snapshotPath);
+				}
+				generation = header.getLong(8);
+				version = header.getLong(16);
+				bookCase = readSnapshot(channel, header, snapshotPath);
+			}
+			log.info("Loaded BookCase snapshot version " + version + " of " + bookCase.size() + " Books");
+		}
+
+		final Path logPath = directory.resolve(LOG_FILE);
+		List<LogRecord> records = Collections.emptyList();
+		long tornBytes = 0;
+		boolean reuseLog = false;
+		if (Files.exists(logPath)) {
+			try (final FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+				final ByteBuffer header = readHeader(channel, LOG_HEADER_SIZE);
+				final long logGeneration = header.getLong(8);
+				if (header.getInt(0) != LOG_MAGIC || header.getInt(4) != FORMAT_VERSION
+						|| header.getInt(LOG_HEADER_CHECKED_SIZE) != crc(header, LOG_HEADER_CHECKED_SIZE)) {
+					log.warn("Ignoring log " + logPath + " with a corrupt header");
+				} else if (logGeneration == generation || logGeneration == generation - 1) {
+					records = new ArrayList<>();
+					logBytes = readRecords(channel, records);
+					tornBytes = channel.size() - logBytes;
+					// the log of the previous generation was left by a crash right after the snapshot, its tail is moved to a new log
+					reuseLog = logGeneration == generation;
+				} else {
+					log.warn("Ignoring log " + logPath + " of generation " + logGeneration + ", not matching the snapshot generation " + generation);
+				}
+			}
+		}
+		final List<LogRecord> replayable = replayable(records, version);
+		snapshotVersion = version;
+		int newer = 0;
+		for (final LogRecord record : records) {
+			if (record.getVersion() > version) {
+				newer++;
+			}
+		}
+		// records after a missing version would be replayed after the versions published from now on: a new log drops them
+		reuseLog &= newer == replayable.size();
+		if (reuseLog) {
+			logChannel = FileChannel.open(logPath, StandardOpenOption.WRITE);
+			if (tornBytes > 0) {
+				log.warn("Dropping " + tornBytes + " bytes of torn log records at the end of " + logPath);
+				logChannel.truncate(logBytes);
+				logChannel.force(true);
+			}
+			logChannel.position(logBytes);
+		} else {
+			createLog(generation, replayable);
+		}
+		return new Recovery(version, bookCase, replayable, tornBytes);
+	}
+
+	/**
+	 * Appends the record of a change publishing the given version, forced to disk if sync is enabled.
+	 */
+	public void logAppend(final long version, final Collection<Book> books) throws IOException {
+
+		writeRecord(LogRecord.of(LogRecord.Type.APPEND, version, books, null));
+	}
+
+	public void logUpsert(final long version, final Collection<Book> books) throws IOException {
+
+		writeRecord(LogRecord.of(LogRecord.Type.UPSERT, version, books, null));
+	}
+
+	public void logRemove(final long version, final Collection<String> isbns) throws IOException {
+
+		writeRecord(LogRecord.of(LogRecord.Type.REMOVE, version, null, isbns));
+	}
+
+	/**
+	 * Writes the given BookCase as the new snapshot and compacts the log, keeping only the records newer than the given version.
+	 *
+	 * @return false if the snapshot was refused, its version being older than the stored one
+	 */
+	public boolean writeSnapshot(final long version, final CompactBookCase bookCase) throws IOException {
+
+		synchronized (snapshotLock) {
+			if (version < snapshotVersion) {
+				log.warn("Refusing BookCase snapshot version " + version + ", older than the stored version " + snapshotVersion);
+				return false;
+			}
+			final long nextGeneration;
+			synchronized (logLock) {
+				nextGeneration = generation + 1;
+			}
+			final Path temp = temp(SNAPSHOT_FILE);
+			try (final FileChannel channel = FileChannel.open(temp,
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				writeSnapshot(channel, nextGeneration, version, bookCase);
+				channel.force(true);
+			}
+			Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			syncDirectory();
+			snapshotVersion = version;
+
+			synchronized (logLock) {
+				final List<LogRecord> newer = new ArrayList<>();
+				for (final LogRecord record : readLog()) {
+					if (record.getVersion() > version) {
+						newer.add(record);
+					}
+				}
+				// the current log stays open until the new one replaces it: if that fails, records keep being appended to the current
+				// log, which recovery replays on top of the new snapshot as the log of the previous generation
+				final FileChannel previousChannel = logChannel;
+				createLog(nextGeneration, newer);
+				generation = nextGeneration;
+				closeQuietly(previousChannel);
+			}
+			log.info("Written BookCase snapshot version " + version + " of " + bookCase.size() + " Books");
+			return true;
+		}
+	}
+
+	/**
+	 * @return whether the log holds any record, i.e. whether a snapshot would compact anything
+	 */
+	public boolean hasLogRecords() {
+
+		return logBytes > LOG_HEADER_SIZE;
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		synchronized (logLock) {
+			if (logChannel != null) {
+				logChannel.close();
+			}
+		}
+	}
+
+	private void closeQuietly(final FileChannel channel) {
+
+		try {
+			channel.close();
+		} catch (final IOException e) {
+			log.warn("Cannot close the replaced log: " + e.getMessage());
+		}
+	}
+
+	private Path temp(final String file) {
+
+		return directory.resolve(file + TEMP_SUFFIX);
+	}
+
+	private void writeRecord(final LogRecord record) throws IOException {
+
+		final ByteBuffer buffer = record.encode();
+		synchronized (logLock) {
+			try {
+				writeFully(logChannel, buffer);
+				if (sync) {
+					logChannel.force(false);
+				}
+			} catch (final IOException e) {
+				// the change is refused: its record, possibly partial, must not stay in front of the next ones
+				logChannel.truncate(logBytes);
+				throw e;
+			}
+			logBytes += buffer.limit();
+		}
+	}
+
+	/**
+	 * Creates a new log holding the given records, in place of the current one.
+	 */
+	private void createLog(final long logGeneration, final List<LogRecord> records) throws IOException {
+
+		final Path temp = temp(LOG_FILE);
+		final FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0, LOG_MAGIC).putInt(4, FORMAT_VERSION).putLong(8, logGeneration);
+			header.putInt(LOG_HEADER_CHECKED_SIZE, crc(header, LOG_HEADER_CHECKED_SIZE));
+			writeFully(channel, header);
+			long bytes = LOG_HEADER_SIZE;
+			for (final LogRecord record : records) {
+				final ByteBuffer buffer = record.encode();
+				writeFully(channel, buffer);
+				bytes += buffer.limit();
+			}
+			channel.force(true);
+			Files.move(temp, directory.resolve(LOG_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			syncDirectory();
+			logChannel = channel;
+			logBytes = bytes;
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the valid records of the current log, which must be called holding the log lock
+	 */
+	private List<LogRecord> readLog() throws IOException {
+
+		final List<LogRecord> records = new ArrayList<>();
+		try (final FileChannel channel = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.READ)) {
+			readRecords(channel, records);
+		}
+		return records;
+	}
+
+	/**
+	 * Reads the records following the log header, up to the end of the log or to the first torn record.
+	 *
+	 * @return the position following the last valid record
+	 */
+	private static long readRecords(final FileChannel channel, final List<LogRecord> records) throws IOException {
+
+		final long size = channel.size();
+		long position = LOG_HEADER_SIZE;
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (size - position >= RECORD_HEADER_SIZE) {
+			header.clear();
+			readFully(channel, header, position);
+			final int length = header.getInt(0);
+			if (length < RECORD_MIN_SIZE || length > size - position - RECORD_HEADER_SIZE) {
+				break;
+			}
+			final ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, payload, position + RECORD_HEADER_SIZE);
+			if (header.getInt(4) != crc(payload, length)) {
+				break;
+			}
+			final LogRecord record = LogRecord.decode(payload);
+			if (record == null) {
+				break;
+			}
+			records.add(record);
+			position += RECORD_HEADER_SIZE + length;
+		}
+		return position;
+	}
+
+	/**
+	 * @return the records to replay on top of the snapshot: newer than its version, in version order, up to the first missing one
+	 */
+	private static List<LogRecord> replayable(final List<LogRecord> records, final long snapshotVersion) {
+
+		final List<LogRecord> sorted = new ArrayList<>(records);
+		sorted.sort(Comparator.comparingLong(LogRecord::getVersion));
+		final List<LogRecord> replayable = new ArrayList<>(sorted.size());
+		long expected = snapshotVersion + 1;
+		for (final LogRecord record : sorted) {
+			if (record.getVersion() < expected) {
+				continue;
+			}
+			if (record.getVersion() > expected) {
+				log.warn("Log records after version " + (expected - 1) + " are not replayed, version " + expected + " is missing");
+				break;
+			}
+			replayable.add(record);
+			expected++;
+		}
+		return replayable;
+	}
+
+	private CompactBookCase readSnapshot(final FileChannel channel, final ByteBuffer header, final Path path) throws IOException {
+
+		final boolean deduplicated = (header.getInt(24) & FLAG_DEDUPLICATE_TITLES) != 0;
+		final int size = header.getInt(28);
+		final int dataSize = header.getInt(32);
+		final int bodyCrc = header.getInt(36);
+		if (size < 0 || dataSize < 0 || channel.size() != SNAPSHOT_HEADER_SIZE + (long) size * (Long.BYTES + 2 * Integer.BYTES) + dataSize) {
+			throw new IOException("Corrupt snapshot " + path + ": size does not match its header");
+		}
+		final CRC32 crc = new CRC32();
+		final long[] isbnCodes = new long[Math.max(size, 1)];
+		final int[] titleOffsets = new int[Math.max(size, 1)];
+		final int[] titleLengths = new int[Math.max(size, 1)];
+		final byte[] data = new byte[Math.max(dataSize, 1)];
+		long position = SNAPSHOT_HEADER_SIZE;
+		position = readColumn(channel, position, (long) size * Long.BYTES, crc,
+				(buffer, offset) -> buffer.asLongBuffer().get(isbnCodes, (int) (offset / Long.BYTES), buffer.remaining() / Long.BYTES));
+		position = readColumn(channel, position, (long) size * Integer.BYTES, crc,
+				(buffer, offset) -> buffer.asIntBuffer().get(titleOffsets, (int) (offset / Integer.BYTES), buffer.remaining() / Integer.BYTES));
+		position = readColumn(channel, position, (long) size * Integer.BYTES, crc,
+				(buffer, offset) -> buffer.asIntBuffer().get(titleLengths, (int) (offset / Integer.BYTES), buffer.remaining() / Integer.BYTES));
+		readColumn(channel, position, dataSize, crc, (buffer, offset) -> buffer.get(data, (int) offset, buffer.remaining()));
+		if ((int) crc.getValue() != bodyCrc) {
+			throw new IOException("Corrupt snapshot " + path + ": checksum mismatch");
+		}
+		// the titles are deduplicated again only if they were when the snapshot was written
+		return new CompactBookCase(isbnCodes, titleOffsets, titleLengths, data, size, dataSize, deduplicated && deduplicateTitles);
+	}
+
+	/**
+	 * Maps a column region of the snapshot, in parts of at most MAX_MAPPED_BYTES, updating the checksum and copying it out.
+	 *
+	 * @return the position following the column
+	 */
+	private static long readColumn(final FileChannel channel, final long position, final long length, final CRC32 crc,
+			final ColumnReader reader) throws IOException {
+
+		long offset = 0;
+		while (offset < length) {
+			final int part = (int) Math.min(length - offset, MAX_MAPPED_BYTES);
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position + offset, part);
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			crc.update(mapped.duplicate());
+			reader.read(mapped, offset);
+			offset += part;
+		}
+		return position + length;
+	}
+
+	private static void writeSnapshot(final FileChannel channel, final long snapshotGeneration, final long version,
+			final CompactBookCase bookCase) throws IOException {
+
+		final int size = bookCase.size();
+		final long[] isbnCodes = bookCase.isbnCodeColumn();
+		final int[] titleOffsets = bookCase.titleOffsetColumn();
+		final int[] titleLengths = bookCase.titleLengthColumn();
+		final CRC32 crc = new CRC32();
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		channel.position(SNAPSHOT_HEADER_SIZE);
+		for (int i = 0; i < size; i++) {
+			if (buffer.remaining() < Long.BYTES) {
+				flush(channel, buffer, crc);
+			}
+			buffer.putLong(isbnCodes[i]);
+		}
+		for (final int[] column : new int[][] { titleOffsets, titleLengths }) {
+			for (int i = 0; i < size; i++) {
+				if (buffer.remaining() < Integer.BYTES) {
+					flush(channel, buffer, crc);
+				}
+				buffer.putInt(column[i]);
+			}
+		}
+		final byte[] data = bookCase.getData();
+		final int dataSize = bookCase.getDataSize();
+		for (int offset = 0; offset < dataSize;) {
+			if (!buffer.hasRemaining()) {
+				flush(channel, buffer, crc);
+			}
+			final int part = Math.min(buffer.remaining(), dataSize - offset);
+			buffer.put(data, offset, part);
+			offset += part;
+		}
+		flush(channel, buffer, crc);
+
+		final ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, SNAPSHOT_MAGIC).putInt(4, FORMAT_VERSION).putLong(8, snapshotGeneration).putLong(16, version)
+				.putInt(24, bookCase.isDeduplicateTitles() ? FLAG_DEDUPLICATE_TITLES : 0)
+				.putInt(28, size).putInt(32, dataSize).putInt(36, (int) crc.getValue());
+		header.putInt(SNAPSHOT_HEADER_CHECKED_SIZE, crc(header, SNAPSHOT_HEADER_CHECKED_SIZE));
+		channel.position(0);
+		writeFully(channel, header);
+	}
+
+	private static void flush(final FileChannel channel, final ByteBuffer buffer, final CRC32 crc) throws IOException {
+
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		writeFully(channel, buffer);
+		buffer.clear();
+	}
+
+	private void syncDirectory() {
+
+		// makes the renames durable where directories can be opened (not on Windows)
+		try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (final IOException e) {
+			log.debug("Cannot sync directory " + directory + ": " + e.getMessage());
+		}
+	}
+
+	private static ByteBuffer readHeader(final FileChannel channel, final int size) throws IOException {
+
+		final ByteBuffer header = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		if (channel.size() >= size) {
+			readFully(channel, header, 0);
+		}
+		return header;
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+
+		long offset = position;
+		while (buffer.hasRemaining()) {
+			final int read = channel.read(buffer, offset);
+			if (read < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			offset += read;
+		}
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * @return the CRC32 of the first length bytes of the given buffer
+	 */
+	private static int crc(final ByteBuffer buffer, final int length) {
+
+		final CRC32 crc = new CRC32();
+		final ByteBuffer part = buffer.duplicate();
+		part.position(0).limit(length);
+		crc.update(part);
+		return (int) crc.getValue();
+	}
+
+	@FunctionalInterface
+	private interface ColumnReader {
+
+		/**
+		 * @param offset offset in bytes of the buffer in the column
+		 */
+		void read(ByteBuffer buffer, long offset);
+
+	}
+
+	/**
+	 * State found by recover(): the snapshot, null if there was none, and the log records to replay on top of it, in order.
+	 */
+	@Getter
+	public static final class Recovery {
+
+		private final long version;
+
+		private final CompactBookCase bookCase;
+
+		private final List<LogRecord> records;
+
+		/**
+		 * Number of bytes dropped at the end of the log, left by an interrupted write
+		 */
+		private final long tornBytes;
+
+		private Recovery(final long version, final CompactBookCase bookCase, final List<LogRecord> records, final long tornBytes) {
+
+			this.version = version;
+			this.bookCase = bookCase;
+			this.records = records;
+			this.tornBytes = tornBytes;
+		}
+
+	}
+
+	/**
+	 * A change of the BookCase as stored in the log.
+	 *
+	 * Record layout: payload length (int), payload CRC32 (int), then the payload: type (byte), version (long), entry count (int) and
+	 * the entries, an ISBN and a title for APPEND and UPSERT, an ISBN for REMOVE. Strings are written as their UTF-8 length (int, -1
+	 * for null) followed by their bytes.
+	 */
+	@Getter
+	public static final class LogRecord {
+
+		public enum Type {
+
+			APPEND, UPSERT, REMOVE
+
+		}
+
+		private static final Type[] TYPES = Type.values();
+
+		private final Type type;
+
+		private final long version;
+
+		private final List<Book> books;
+
+		private final List<String> isbns;
+
+		private LogRecord(final Type type, final long version, final List<Book> books, final List<String> isbns) {
+
+			this.type = type;
+			this.version = version;
+			this.books = books;
+			this.isbns = isbns;
+		}
+
+		private static LogRecord of(final Type type, final long version, final Collection<Book> books, final Collection<String> isbns) {
+
+			return new LogRecord(type, version, books == null ? null : new ArrayList<>(books), isbns == null ? null : new ArrayList<>(isbns));
+		}
+
+		/**
+		 * @return the whole record, header included, ready to be written
+		 */
+		private ByteBuffer encode() {
+
+			long length = 1 + Long.BYTES + Integer.BYTES;
+			if (type == Type.REMOVE) {
+				for (final String isbn : isbns) {
+					length += encodedLength(isbn);
+				}
+			} else {
+				for (final Book book : books) {
+					length += encodedLength(book.getIsbn()) + encodedLength(book.getTitle());
+				}
+			}
+			if (length > Integer.MAX_VALUE - RECORD_HEADER_SIZE) {
+				throw new IllegalArgumentException("Change too large for a single log record: " + length + " bytes");
+			}
+			final ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + (int) length).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.position(RECORD_HEADER_SIZE);
+			buffer.put((byte) type.ordinal()).putLong(version);
+			if (type == Type.REMOVE) {
+				buffer.putInt(isbns.size());
+				for (final String isbn : isbns) {
+					putString(buffer, isbn);
+				}
+			} else {
+				buffer.putInt(books.size());
+				for (final Book book : books) {
+					putString(buffer, book.getIsbn());
+					putString(buffer, book.getTitle());
+				}
+			}
+			final ByteBuffer payload = buffer.duplicate();
+			payload.position(RECORD_HEADER_SIZE);
+			final CRC32 crc = new CRC32();
+			crc.update(payload);
+			buffer.putInt(0, (int) length).putInt(4, (int) crc.getValue());
+			buffer.flip();
+			return buffer;
+		}
+
+		/**
+		 * @return the record of a payload whose checksum has been verified, null if its content is not consistent
+		 */
+		private static LogRecord decode(final ByteBuffer payload) {
+
+			final int typeOrdinal = payload.get(0);
+			if (typeOrdinal < 0 || typeOrdinal >= TYPES.length) {
+				return null;
+			}
+			final Type type = TYPES[typeOrdinal];
+			payload.position(1);
+			final long version = payload.getLong();
+			final int count = payload.getInt();
+			if (count < 0 || count > payload.remaining()) {
+				return null;
+			}
+			final List<Book> books = type == Type.REMOVE ? null : new ArrayList<>(count);
+			final List<String> isbns = type == Type.REMOVE ? new ArrayList<>(count) : null;
+			try {
+				for (int i = 0; i < count; i++) {
+					if (type == Type.REMOVE) {
+						isbns.add(getString(payload));
+					} else {
+						books.add(new Book(getString(payload), getString(payload)));
+					}
+				}
+			} catch (final BufferUnderflowException | IllegalArgumentException e) {
+				return null;
+			}
+			return payload.hasRemaining() ? null : new LogRecord(type, version, books, isbns);
+		}
+
+		private static int encodedLength(final String value) {
+
+			return Integer.BYTES + (value == null ? 0 : Utf8.encodedLength(value));
+		}
+
+		private static void putString(final ByteBuffer buffer, final String value) {
+
+			if (value == null) {
+				buffer.putInt(NULL_STRING);
+				return;
+			}
+			final int start = buffer.arrayOffset() + buffer.position() + Integer.BYTES;
+			final int end = Utf8.encode(value, buffer.array(), start);
+			buffer.putInt(end - start).position(end - buffer.arrayOffset());
+		}
+
+		private static String getString(final ByteBuffer buffer) {
+
+			final int length = buffer.getInt();
+			if (length == NULL_STRING) {
+				return null;
+			}
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IllegalArgumentException("Invalid string length " + length);
+			}
+			final String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return value;
+		}
+
+	}
+
+}
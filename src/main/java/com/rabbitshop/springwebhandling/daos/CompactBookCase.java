@@ -0,0 +1,613 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import com.rabbitshop.springwebhandling.utils.Utf8;
+
+/**
+ * Columnar BookCase meant for very large catalogs, where the per-Book object headers of the default representation dominate the heap.
+ *
+ * Instead of one Book plus two Strings per entry it keeps:
+ * 		. the ISBNs packed in a long[] (see {@link IsbnCodes}), the few that cannot be packed are stored in the data arena
+ * 		. the titles encoded in UTF-8 in a single shared byte arena, addressed by an offset and a length per entry
+ * 		. optionally, a hash table over the arena so that repeated titles are stored only once
+ *
+ * The List API is still fully supported: get() returns a lazy Book view decoding its fields only when they are read, and writing
+ * through its setters updates this BookCase. A view refers to a position, so it should not be kept across structural modifications.
+ * Encoders can skip the views altogether using the per-row accessors and the raw arena.
+ *
+ * The arena is append-only: titles replaced or removed leave their bytes behind until {@link #trimToSize()} is called.
+ */
+public class CompactBookCase extends BookCase {
+
+	private static final long serialVersionUID = -3461405617512034277L;
+
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final int AVERAGE_TITLE_BYTES = 32;
+	private static final int NULL_TITLE = -1;
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private final boolean deduplicateTitles;
+
+	private long[] isbnCodes;
+
+	private int[] titleOffsets;
+
+	private int[] titleLengths;
+
+	private byte[] data;
+
+	private int dataSize;
+
+	private int size;
+
+	// open addressing table of distinct titles, two ints per slot: arena offset + 1 (0 marks a free slot) and length
+	private int[] titleTable;
+
+	private int titleTableCount;
+
+	public CompactBookCase() {
+
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	public CompactBookCase(final int initialCapacity, final boolean deduplicateTitles) {
+
+		super(Collections.<Book> emptyList());
+		this.deduplicateTitles = deduplicateTitles;
+		final int capacity = Math.max(initialCapacity, 1);
+		isbnCodes = new long[capacity];
+		titleOffsets = new int[capacity];
+		titleLengths = new int[capacity];
+		data = new byte[capacity * AVERAGE_TITLE_BYTES];
+		if (deduplicateTitles) {
+			titleTable = new int[Integer.highestOneBit(capacity) * 4];
+		}
+	}
+
+	public CompactBookCase(final Collection<? extends Book> c, final boolean deduplicateTitles) {
+
+		this(c.size(), deduplicateTitles);
+		addAll(c);
+	}
+
+	private CompactBookCase(final CompactBookCase bookCase) {
+
+		super(Collections.<Book> emptyList());
+		deduplicateTitles = bookCase.deduplicateTitles;
+		isbnCodes = bookCase.isbnCodes.clone();
+		titleOffsets = bookCase.titleOffsets.clone();
+		titleLengths = bookCase.titleLengths.clone();
+		data = bookCase.data.clone();
+		dataSize = bookCase.dataSize;
+		size = bookCase.size;
+		titleTable = bookCase.titleTable == null ? null : bookCase.titleTable.clone();
+		titleTableCount = bookCase.titleTableCount;
+	}
+
+	/**
+	 * Takes over the columns of a BookCase loaded by the BookCaseStore, without copying them.
+	 */
+	CompactBookCase(final long[] isbnCodes, final int[] titleOffsets, final int[] titleLengths, final byte[] data, final int size,
+			final int dataSize, final boolean deduplicateTitles) {
+
+		super(Collections.<Book> emptyList());
+		this.deduplicateTitles = deduplicateTitles;
+		this.isbnCodes = isbnCodes;
+		this.titleOffsets = titleOffsets;
+		this.titleLengths = titleLengths;
+		this.data = data;
+		this.size = size;
+		this.dataSize = dataSize;
+		if (deduplicateTitles) {
+			titleTable = new int[Integer.highestOneBit(Math.max(size, 1)) * 4];
+			for (int i = 0; i < size; i++) {
+				if (titleLengths[i] != NULL_TITLE) {
+					indexTitle(titleOffsets[i], titleLengths[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a modifiable copy of this BookCase, sharing no storage with it
+	 */
+	public CompactBookCase copy() {
+
+		return new CompactBookCase(this);
+	}
+
+	/**
+	 * Appends a row without creating any Book instance.
+	 */
+	public void add(final String isbn, final String title) {
+
+		checkNotFrozen();
+		ensureCapacity(size + 1);
+		isbnCodes[size] = encodeIsbn(isbn);
+		storeTitle(size, title);
+		size++;
+		modCount++;
+	}
+
+	/**
+	 * Appends a row whose ISBN is already packed, e.g. normalized by {@link Isbns#normalize(CharSequence)}.
+	 *
+	 * @param isbnCode packed ISBN code or {@link IsbnCodes#NULL}, raw codes are not accepted
+	 */
+	public void add(final long isbnCode, final String title) {
+
+		checkNotFrozen();
+		if (IsbnCodes.isRaw(isbnCode) || isbnCode == IsbnCodes.NOT_PACKABLE) {
+			throw new IllegalArgumentException("Only packed ISBN codes can be added as they are");
+		}
+		ensureCapacity(size + 1);
+		isbnCodes[size] = isbnCode;
+		storeTitle(size, title);
+		size++;
+		modCount++;
+	}
+
+	/**
+	 * Appends a row whose fields are already encoded, without creating any String.
+	 *
+	 * @param isbnCode packed ISBN code or {@link IsbnCodes#NULL}, raw codes are not accepted
+	 * @param title UTF-8 title bytes, null for a null title
+	 */
+	public void addEncoded(final long isbnCode, final byte[] title, final int offset, final int length) {
+
+		checkNotFrozen();
+		if (IsbnCodes.isRaw(isbnCode) || isbnCode == IsbnCodes.NOT_PACKABLE) {
+			throw new IllegalArgumentException("Only packed ISBN codes can be added as they are");
+		}
+		ensureCapacity(size + 1);
+		isbnCodes[size] = isbnCode;
+		if (title == null) {
+			titleOffsets[size] = 0;
+			titleLengths[size] = NULL_TITLE;
+		} else {
+			ensureDataCapacity((long) dataSize + length);
+			System.arraycopy(title, offset, data, dataSize, length);
+			commitTitle(size, length);
+		}
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Book get(final int index) {
+
+		checkIndex(index);
+		return new BookView(index);
+	}
+
+	@Override
+	public Book set(final int index, final Book book) {
+
+		checkNotFrozen();
+		checkIndex(index);
+		final Book previous = new Book(getIsbn(index), getTitle(index));
+		isbnCodes[index] = encodeIsbn(book.getIsbn());
+		storeTitle(index, book.getTitle());
+		return previous;
+	}
+
+	@Override
+	public void add(final int index, final Book book) {
+
+		checkNotFrozen();
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		// read first: the book may be a view over a row about to be shifted
+		final String isbn = book.getIsbn();
+		final String title = book.getTitle();
+		ensureCapacity(size + 1);
+		final int moved = size - index;
+		if (moved > 0) {
+			System.arraycopy(isbnCodes, index, isbnCodes, index + 1, moved);
+			System.arraycopy(titleOffsets, index, titleOffsets, index + 1, moved);
+			System.arraycopy(titleLengths, index, titleLengths, index + 1, moved);
+		}
+		isbnCodes[index] = encodeIsbn(isbn);
+		storeTitle(index, title);
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public Book remove(final int index) {
+
+		checkNotFrozen();
+		checkIndex(index);
+		final Book previous = new Book(getIsbn(index), getTitle(index));
+		final int moved = size - index - 1;
+		if (moved > 0) {
+			System.arraycopy(isbnCodes, index + 1, isbnCodes, index, moved);
+			System.arraycopy(titleOffsets, index + 1, titleOffsets, index, moved);
+			System.arraycopy(titleLengths, index + 1, titleLengths, index, moved);
+		}
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	/**
+	 * Removes, in a single pass, the rows whose index matches the filter. The filter is evaluated on the original indexes.
+	 *
+	 * @return the number of removed rows
+	 */
+	public int removeRows(final IntPredicate filter) {
+
+		checkNotFrozen();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (!filter.test(i)) {
+				isbnCodes[kept] = isbnCodes[i];
+				titleOffsets[kept] = titleOffsets[i];
+				titleLengths[kept] = titleLengths[i];
+				kept++;
+			}
+		}
+		final int removed = size - kept;
+		if (removed > 0) {
+			size = kept;
+			modCount++;
+		}
+		return removed;
+	}
+
+	@Override
+	public boolean removeIf(final Predicate<? super Book> filter) {
+
+		return removeRows(index -> filter.test(new BookView(index))) > 0;
+	}
+
+	@Override
+	public void clear() {
+
+		checkNotFrozen();
+		size = 0;
+		dataSize = 0;
+		if (deduplicateTitles) {
+			Arrays.fill(titleTable, 0);
+			titleTableCount = 0;
+		}
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+
+		return size;
+	}
+
+	public String getIsbn(final int index) {
+
+		checkIndex(index);
+		final long code = isbnCodes[index];
+		if (code == IsbnCodes.NULL) {
+			return null;
+		}
+		if (IsbnCodes.isPacked(code)) {
+			return IsbnCodes.toString(code);
+		}
+		return new String(data, IsbnCodes.rawOffset(code), IsbnCodes.rawLength(code), StandardCharsets.UTF_8);
+	}
+
+	public String getTitle(final int index) {
+
+		checkIndex(index);
+		final int length = titleLengths[index];
+		return length == NULL_TITLE ? null : new String(data, titleOffsets[index], length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the {@link IsbnCodes} code of the ISBN at the given index, raw codes reference {@link #getData()}
+	 */
+	public long getIsbnCode(final int index) {
+
+		checkIndex(index);
+		return isbnCodes[index];
+	}
+
+	/**
+	 * @return offset in {@link #getData()} of the UTF-8 title at the given index
+	 */
+	public int getTitleOffset(final int index) {
+
+		checkIndex(index);
+		return titleOffsets[index];
+	}
+
+	/**
+	 * @return length in bytes of the UTF-8 title at the given index, -1 for a null title
+	 */
+	public int getTitleLength(final int index) {
+
+		checkIndex(index);
+		return titleLengths[index];
+	}
+
+	/**
+	 * @return the arena holding titles and unpacked ISBNs, exposed for encoders: it must not be modified
+	 */
+	public byte[] getData() {
+
+		return data;
+	}
+
+	public boolean isDeduplicateTitles() {
+
+		return deduplicateTitles;
+	}
+
+	// raw columns, only for the BookCaseStore: they must not be modified
+
+	long[] isbnCodeColumn() {
+
+		return isbnCodes;
+	}
+
+	int[] titleOffsetColumn() {
+
+		return titleOffsets;
+	}
+
+	int[] titleLengthColumn() {
+
+		return titleLengths;
+	}
+
+	int getDataSize() {
+
+		return dataSize;
+	}
+
+	@Override
+	public long getRetainedBytes() {
+
+		return (long) isbnCodes.length * Long.BYTES
+				+ (long) titleOffsets.length * Integer.BYTES * 2
+				+ data.length
+				+ (titleTable == null ? 0 : (long) titleTable.length * Integer.BYTES);
+	}
+
+	/**
+	 * Shrinks the storage to the current size and drops the arena bytes no longer referenced.
+	 */
+	public void trimToSize() {
+
+		checkNotFrozen();
+		final byte[] oldData = data;
+		data = new byte[Math.max(liveDataSize(), 1)];
+		dataSize = 0;
+		if (deduplicateTitles) {
+			titleTable = new int[Integer.highestOneBit(Math.max(size, 1)) * 4];
+			titleTableCount = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			final long code = isbnCodes[i];
+			if (IsbnCodes.isRaw(code)) {
+				final int length = IsbnCodes.rawLength(code);
+				isbnCodes[i] = IsbnCodes.raw(dataSize, length);
+				System.arraycopy(oldData, IsbnCodes.rawOffset(code), data, dataSize, length);
+				dataSize += length;
+			}
+			final int titleLength = titleLengths[i];
+			if (titleLength != NULL_TITLE) {
+				System.arraycopy(oldData, titleOffsets[i], data, dataSize, titleLength);
+				commitTitle(i, titleLength);
+			}
+		}
+		data = Arrays.copyOf(data, Math.max(dataSize, 1));
+		isbnCodes = Arrays.copyOf(isbnCodes, Math.max(size, 1));
+		titleOffsets = Arrays.copyOf(titleOffsets, Math.max(size, 1));
+		titleLengths = Arrays.copyOf(titleLengths, Math.max(size, 1));
+	}
+
+	private int liveDataSize() {
+
+		long live = 0;
+		for (int i = 0; i < size; i++) {
+			if (IsbnCodes.isRaw(isbnCodes[i])) {
+				live += IsbnCodes.rawLength(isbnCodes[i]);
+			}
+			live += Math.max(titleLengths[i], 0);
+		}
+		return (int) Math.min(live, MAX_ARRAY_SIZE);
+	}
+
+	private long encodeIsbn(final String isbn) {
+
+		final long code = IsbnCodes.pack(isbn);
+		if (code != IsbnCodes.NOT_PACKABLE) {
+			return code;
+		}
+		final int offset = dataSize;
+		ensureDataCapacity(dataSize + (long) isbn.length() * Utf8.MAX_BYTES_PER_CHAR);
+		dataSize = Utf8.encode(isbn, data, dataSize);
+		return IsbnCodes.raw(offset, dataSize - offset);
+	}
+
+	private void storeTitle(final int index, final String title) {
+
+		if (title == null) {
+			titleOffsets[index] = 0;
+			titleLengths[index] = NULL_TITLE;
+			return;
+		}
+		// encoded past the end of the arena, then either committed or discarded if deduplicated
+		ensureDataCapacity(dataSize + (long) title.length() * Utf8.MAX_BYTES_PER_CHAR);
+		final int length = Utf8.encode(title, data, dataSize) - dataSize;
+		commitTitle(index, length);
+	}
+
+	private void commitTitle(final int index, final int length) {
+
+		if (!deduplicateTitles) {
+			titleOffsets[index] = dataSize;
+			titleLengths[index] = length;
+			dataSize += length;
+			return;
+		}
+
+		final int hash = hash(data, dataSize, length);
+		final int mask = titleTable.length / 2 - 1;
+		int slot = hash & mask;
+		while (titleTable[slot * 2] != 0) {
+			final int offset = titleTable[slot * 2] - 1;
+			if (titleTable[slot * 2 + 1] == length && rangeEquals(data, offset, dataSize, length)) {
+				titleOffsets[index] = offset;
+				titleLengths[index] = length;
+				return;
+			}
+			slot = slot + 1 & mask;
+		}
+		titleTable[slot * 2] = dataSize + 1;
+		titleTable[slot * 2 + 1] = length;
+		titleOffsets[index] = dataSize;
+		titleLengths[index] = length;
+		dataSize += length;
+		if (++titleTableCount * 4 > titleTable.length) {
+			rehashTitles();
+		}
+	}
+
+	/**
+	 * Adds a title already in the arena to the table of distinct titles, unless an equal one is there already.
+	 */
+	private void indexTitle(final int offset, final int length) {
+
+		final int mask = titleTable.length / 2 - 1;
+		int slot = hash(data, offset, length) & mask;
+		while (titleTable[slot * 2] != 0) {
+			if (titleTable[slot * 2 + 1] == length && rangeEquals(data, titleTable[slot * 2] - 1, offset, length)) {
+				return;
+			}
+			slot = slot + 1 & mask;
+		}
+		titleTable[slot * 2] = offset + 1;
+		titleTable[slot * 2 + 1] = length;
+		if (++titleTableCount * 4 > titleTable.length) {
+			rehashTitles();
+		}
+	}
+
+	private void rehashTitles() {
+
+		final int[] old = titleTable;
+		titleTable = new int[old.length * 2];
+		final int mask = titleTable.length / 2 - 1;
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i] != 0) {
+				int slot = hash(data, old[i] - 1, old[i + 1]) & mask;
+				while (titleTable[slot * 2] != 0) {
+					slot = slot + 1 & mask;
+				}
+				titleTable[slot * 2] = old[i];
+				titleTable[slot * 2 + 1] = old[i + 1];
+			}
+		}
+	}
+
+	private void ensureCapacity(final int capacity) {
+
+		if (capacity > isbnCodes.length) {
+			final int newCapacity = grow(isbnCodes.length, capacity);
+			isbnCodes = Arrays.copyOf(isbnCodes, newCapacity);
+			titleOffsets = Arrays.copyOf(titleOffsets, newCapacity);
+			titleLengths = Arrays.copyOf(titleLengths, newCapacity);
+		}
+	}
+
+	private void ensureDataCapacity(final long capacity) {
+
+		if (capacity > MAX_ARRAY_SIZE) {
+			throw new OutOfMemoryError("CompactBookCase data arena cannot exceed " + MAX_ARRAY_SIZE + " bytes");
+		}
+		if (capacity > data.length) {
+			data = Arrays.copyOf(data, grow(data.length, (int) capacity));
+		}
+	}
+
+	private static int grow(final int current, final int required) {
+
+		final long grown = current + ((long) current >> 1);
+		return (int) Math.min(Math.max(grown, required), MAX_ARRAY_SIZE);
+	}
+
+	private void checkIndex(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	private static int hash(final byte[] bytes, final int offset, final int length) {
+
+		int hash = 1;
+		for (int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ hash >>> 16;
+	}
+
+	private static boolean rangeEquals(final byte[] bytes, final int offsetA, final int offsetB, final int length) {
+
+		for (int i = 0; i < length; i++) {
+			if (bytes[offsetA + i] != bytes[offsetB + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Book reading and writing its fields from/to the columns of the enclosing CompactBookCase.
+	 */
+	private final class BookView extends Book {
+
+		private final int index;
+
+		private BookView(final int index) {
+
+			this.index = index;
+		}
+
+		@Override
+		public String getIsbn() {
+
+			return CompactBookCase.this.getIsbn(index);
+		}
+
+		@Override
+		public String getTitle() {
+
+			return CompactBookCase.this.getTitle(index);
+		}
+
+		@Override
+		public void setIsbn(final String isbn) {
+
+			checkNotFrozen();
+			checkIndex(index);
+			isbnCodes[index] = encodeIsbn(isbn);
+		}
+
+		@Override
+		public void setTitle(final String title) {
+
+			checkNotFrozen();
+			checkIndex(index);
+			storeTitle(index, title);
+		}
+
+	}
+
+}
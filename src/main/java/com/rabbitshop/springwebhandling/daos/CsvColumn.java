@@ -0,0 +1,27 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps a property of a POJO to a column of its CSV representation, for the CsvHttpMessageConverter.
+ *
+ * It belongs with the model it annotates, so that the model does not depend on the web layer reading it.
+ *
+ * The annotated field must have a public getter and setter. Supported types are String, the primitive types and their wrappers,
+ * and enums. Column indexes of a class must go from 0 to the number of annotated fields - 1.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface CsvColumn {
+
+	/**
+	 * Position of the column in a row, starting from 0
+	 */
+	int index();
+
+}
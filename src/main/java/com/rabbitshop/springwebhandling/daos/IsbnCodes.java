@@ -0,0 +1,150 @@
+package com.rabbitshop.springwebhandling.daos;
+
+/**
+ * Packing of ISBNs into a single long, used by the compact BookCase representation.
+ *
+ * An ISBN made of up to 16 decimal digits (every ISBN-10 and ISBN-13 without separators) is packed as its numeric value plus its
+ * number of digits, so that leading zeros survive the round-trip: bits 0-55 hold the value and bits 56-60 the digit count.
+ * Any other string cannot be packed: {@link #pack(CharSequence)} returns {@link #NOT_PACKABLE} and the caller has to keep the
+ * original characters somewhere else, using {@link #raw(int, int)} to reference them.
+ *
+ * Codes are never negative for packed ISBNs and always negative otherwise.
+ */
+public final class IsbnCodes {
+
+	/**
+	 * Code of a null ISBN
+	 */
+	public static final long NULL = -1L;
+
+	/**
+	 * Returned by pack() for ISBNs that are not plain sequences of digits
+	 */
+	public static final long NOT_PACKABLE = -2L;
+
+	/**
+	 * Maximum number of digits of a packed ISBN, that is the bytes written by writeDigits() at most
+	 */
+	public static final int MAX_DIGITS = 16;
+
+	private static final int DIGITS_SHIFT = 56;
+	private static final long VALUE_MASK = (1L << DIGITS_SHIFT) - 1;
+	private static final long RAW_FLAG = Long.MIN_VALUE;
+	private static final int RAW_LENGTH_SHIFT = 32;
+	private static final long RAW_OFFSET_MASK = 0xFFFFFFFFL;
+	private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i <= MAX_DIGITS; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	private IsbnCodes() {}
+
+	/**
+	 * @return packed code of the given ISBN, {@link #NULL} for null and {@link #NOT_PACKABLE} if it contains anything but digits
+	 */
+	public static long pack(final CharSequence isbn) {
+
+		if (isbn == null) {
+			return NULL;
+		}
+		final int length = isbn.length();
+		if (length > MAX_DIGITS) {
+			return NOT_PACKABLE;
+		}
+		long value = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = isbn.charAt(i);
+			if (c < '0' || c > '9') {
+				return NOT_PACKABLE;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return (long) length << DIGITS_SHIFT | value;
+	}
+
+	/**
+	 * @return packed code of the ISBN made of the given number of digits and numeric value, {@link #NOT_PACKABLE} if they do not
+	 * 		describe a valid packed ISBN
+	 */
+	public static long pack(final int digits, final long value) {
+
+		if (digits < 0 || digits > MAX_DIGITS || value < 0 || value >= POWERS_OF_TEN[digits]) {
+			return NOT_PACKABLE;
+		}
+		return (long) digits << DIGITS_SHIFT | value;
+	}
+
+	/**
+	 * @return code referencing an ISBN kept outside the code itself as length bytes starting at offset
+	 */
+	public static long raw(final int offset, final int length) {
+
+		return RAW_FLAG | (long) length << RAW_LENGTH_SHIFT | offset & RAW_OFFSET_MASK;
+	}
+
+	public static boolean isPacked(final long code) {
+
+		return code >= 0;
+	}
+
+	public static boolean isRaw(final long code) {
+
+		return code < 0 && code != NULL && code != NOT_PACKABLE;
+	}
+
+	public static int digits(final long code) {
+
+		return (int) (code >>> DIGITS_SHIFT);
+	}
+
+	public static long value(final long code) {
+
+		return code & VALUE_MASK;
+	}
+
+	public static int rawOffset(final long code) {
+
+		return (int) (code & RAW_OFFSET_MASK);
+	}
+
+	public static int rawLength(final long code) {
+
+		return (int) ((code & ~RAW_FLAG) >>> RAW_LENGTH_SHIFT);
+	}
+
+	/**
+	 * Writes the digits of a packed code as ASCII bytes.
+	 *
+	 * @return the offset following the last written byte
+	 */
+	public static int writeDigits(final long code, final byte[] dst, final int offset) {
+
+		final int digits = digits(code);
+		long value = value(code);
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			dst[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + digits;
+	}
+
+	/**
+	 * @return the ISBN string of a packed code
+	 */
+	public static String toString(final long code) {
+
+		final int digits = digits(code);
+		final char[] chars = new char[digits];
+		long value = value(code);
+		for (int i = digits - 1; i >= 0; i--) {
+			chars[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return new String(chars);
+	}
+
+}
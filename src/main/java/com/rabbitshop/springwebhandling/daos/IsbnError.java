@@ -0,0 +1,30 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import lombok.Getter;
+
+/**
+ * Reasons for an ISBN not to be valid, see {@link Isbns#normalize(CharSequence)}.
+ *
+ * Their codes are negative and below IsbnCodes.NOT_PACKABLE, so that no error is taken for one of the IsbnCodes special values.
+ */
+public enum IsbnError {
+
+	MISSING("missing"),
+	CHARACTER("invalid character"),
+	LENGTH("neither 10 nor 13 digits"),
+	PREFIX("ISBN-13 prefix neither 978 nor 979"),
+	CHECKSUM("wrong check digit");
+
+	static final long FIRST_CODE = IsbnCodes.NOT_PACKABLE - 1;
+
+	final long code = FIRST_CODE - ordinal();
+
+	@Getter
+	private final String description;
+
+	IsbnError(final String description) {
+
+		this.description = description;
+	}
+
+}
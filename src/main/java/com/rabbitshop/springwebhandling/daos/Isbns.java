@@ -0,0 +1,110 @@
+package com.rabbitshop.springwebhandling.daos;
+
+/**
+ * Normalization of ISBNs to their canonical form, the ISBN-13 packed as an {@link IsbnCodes} code.
+ *
+ * Both ISBN-10 and ISBN-13 are accepted, with any hyphens or spaces between the digits, and their check digit is verified: an ISBN-10
+ * is converted to the ISBN-13 with prefix 978 and the check digit recomputed, so every form of the same book gets the same code.
+ * Normalizing walks the characters once and never allocates: the result is either a packed code (never negative) or a negative
+ * value identifying an {@link IsbnError}.
+ */
+public final class Isbns {
+
+	private static final int ISBN10_DIGITS = 10;
+	private static final int ISBN13_DIGITS = 13;
+	private static final long ISBN13_PREFIX_UNIT = 10_000_000_000L;
+	private static final long ISBN13_PREFIX_978 = 978;
+	private static final long ISBN13_PREFIX_979 = 979;
+	private static final long ISBN10_TO_13_BASE = ISBN13_PREFIX_978 * 1_000_000_000L;
+	// weighted sum of the digits 9, 7 and 8 of the 978 prefix, weights 1, 3, 1
+	private static final int ISBN10_TO_13_PREFIX_SUM = 38;
+
+	private static final IsbnError[] ERRORS = IsbnError.values();
+
+	private Isbns() {}
+
+	/**
+	 * @return the packed code of the canonical ISBN-13 of the given ISBN, a negative value if it is not valid (see {@link #error(long)})
+	 */
+	public static long normalize(final CharSequence isbn) {
+
+		if (isbn == null) {
+			return IsbnError.MISSING.code;
+		}
+		long value = 0;
+		int digits = 0;
+		boolean checkX = false;
+		// weighted sums: ISBN-10 check (weights 10..1), ISBN-13 check (weights 1, 3, 1, ...), and the first 9 digits of an
+		// ISBN-10 as they get weighted once moved after the 978 prefix (weights 3, 1, 3, ...)
+		int sum10 = 0;
+		int sum13 = 0;
+		int sum10To13 = 0;
+		final int length = isbn.length();
+		for (int i = 0; i < length; i++) {
+			final char c = isbn.charAt(i);
+			if (c == '-' || c == ' ') {
+				continue;
+			}
+			if (checkX) {
+				// X can only be the last character of an ISBN-10
+				return IsbnError.CHARACTER.code;
+			}
+			if (digits == ISBN13_DIGITS) {
+				return IsbnError.LENGTH.code;
+			}
+			final int digit;
+			if (c >= '0' && c <= '9') {
+				digit = c - '0';
+				value = value * 10 + digit;
+			} else if ((c == 'X' || c == 'x') && digits == ISBN10_DIGITS - 1) {
+				digit = 10;
+				checkX = true;
+			} else {
+				return IsbnError.CHARACTER.code;
+			}
+			sum10 += (ISBN10_DIGITS - digits) * digit;
+			sum13 += (digits & 1) == 0 ? digit : 3 * digit;
+			if (digits < ISBN10_DIGITS - 1) {
+				sum10To13 += (digits & 1) == 0 ? 3 * digit : digit;
+			}
+			digits++;
+		}
+		if (digits == 0) {
+			return IsbnError.MISSING.code;
+		}
+		if (digits == ISBN10_DIGITS) {
+			if (sum10 % 11 != 0) {
+				return IsbnError.CHECKSUM.code;
+			}
+			final long first9 = checkX ? value : value / 10;
+			final int check = (10 - (ISBN10_TO_13_PREFIX_SUM + sum10To13) % 10) % 10;
+			return IsbnCodes.pack(ISBN13_DIGITS, (ISBN10_TO_13_BASE + first9) * 10 + check);
+		}
+		if (digits == ISBN13_DIGITS) {
+			final long prefix = value / ISBN13_PREFIX_UNIT;
+			if (prefix != ISBN13_PREFIX_978 && prefix != ISBN13_PREFIX_979) {
+				return IsbnError.PREFIX.code;
+			}
+			if (sum13 % 10 != 0) {
+				return IsbnError.CHECKSUM.code;
+			}
+			return IsbnCodes.pack(ISBN13_DIGITS, value);
+		}
+		return IsbnError.LENGTH.code;
+	}
+
+	public static boolean isValid(final long normalized) {
+
+		return normalized >= 0;
+	}
+
+	/**
+	 * @return the error of a result of {@link #normalize(CharSequence)}, null if it is a valid code or not a result of normalize()
+	 */
+	public static IsbnError error(final long normalized) {
+
+		final long index = IsbnError.FIRST_CODE - normalized;
+		return index >= 0 && index < ERRORS.length ? ERRORS[(int) index] : null;
+	}
+
+}
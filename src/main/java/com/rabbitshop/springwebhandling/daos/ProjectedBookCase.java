@@ -0,0 +1,27 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import lombok.Getter;
+
+/**
+ * BookCase whose Books carry only some of their properties, e.g. a page of a BookCase restricted to the requested fields.
+ *
+ * The properties left out are null in its Books: representations keeping every column (CSV, binary) leave them empty, while the JSON
+ * ones leave them out altogether instead of writing them as null.
+ */
+@Getter
+public class ProjectedBookCase extends BookCase {
+
+	private static final long serialVersionUID = 2979371262717802218L;
+
+	private final boolean isbnIncluded;
+
+	private final boolean titleIncluded;
+
+	public ProjectedBookCase(final int initialCapacity, final boolean isbnIncluded, final boolean titleIncluded) {
+
+		super(initialCapacity);
+		this.isbnIncluded = isbnIncluded;
+		this.titleIncluded = titleIncluded;
+	}
+
+}
@@ -0,0 +1,25 @@
+package com.rabbitshop.springwebhandling.exceptions;
+
+/**
+ * Base class of the exceptions signaling an expected business outcome (forbidden API, payment required, oversized body, ...) rather
+ * than a bug: such exceptions are mapped to a response status and their stack trace would never be looked at.
+ *
+ * They are therefore created without filling in the stack trace, the most expensive part of throwing an exception, and without
+ * suppressed exceptions. Being stackless and immutable, an instance without any per-occurrence message can also be preallocated
+ * once and thrown over and over, as ForbiddenException.INSTANCE does.
+ */
+public abstract class BusinessException extends RuntimeException {
+
+	private static final long serialVersionUID = -4380537145627785514L;
+
+	protected BusinessException() {
+
+		this(null);
+	}
+
+	protected BusinessException(final String message) {
+
+		super(message, null, false, false);
+	}
+
+}
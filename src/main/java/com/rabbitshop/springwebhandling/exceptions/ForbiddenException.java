@@ -10,10 +10,14 @@ import org.springframework.web.bind.annotation.ResponseStatus;
  *
  * It is important to note that while it is technically possible to make an exception return any status code, in most cases it only makes
  * logical sense to use exceptions for error codes (4XX and 5XX).
+ *
+ * As a stackless BusinessException carrying no message, the preallocated INSTANCE can be thrown instead of a new one every time.
  */
 @ResponseStatus(value = HttpStatus.FORBIDDEN, reason = "Forbidden API")
-public class ForbiddenException extends RuntimeException {
+public class ForbiddenException extends BusinessException {
 	
 	private static final long serialVersionUID = -622417222822655076L;
+
+	public static final ForbiddenException INSTANCE = new ForbiddenException();
 	
 }
@@ -0,0 +1,17 @@
+package com.rabbitshop.springwebhandling.exceptions;
+
+/**
+ * Thrown when an uploaded BookCase holds invalid ISBNs and the ISBN policy does not allow them.
+ * It is mapped to the response code 400 (Bad Request) by an @ExceptionHandler, which also returns its message, the summary of the
+ * invalid rows, in the X-Isbn-Errors header.
+ */
+public class InvalidIsbnException extends BusinessException {
+
+	private static final long serialVersionUID = -7731598000416374962L;
+
+	public InvalidIsbnException(final String message) {
+
+		super(message);
+	}
+
+}
@@ -0,0 +1,21 @@
+package com.rabbitshop.springwebhandling.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown while a request body is still being read, as soon as it is known to exceed the configured limits.
+ * As for the ForbiddenException, the @ResponseStatus annotation maps it to the response code 413 (Payload Too Large).
+ * Its message depends on the limit that has been exceeded, so it is not preallocated.
+ */
+@ResponseStatus(value = HttpStatus.PAYLOAD_TOO_LARGE, reason = "Request body too large")
+public class PayloadTooLargeException extends BusinessException {
+
+	private static final long serialVersionUID = 5178021794416939357L;
+
+	public PayloadTooLargeException(final String message) {
+
+		super(message);
+	}
+
+}
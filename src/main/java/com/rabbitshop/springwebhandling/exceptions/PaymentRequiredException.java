@@ -1,8 +1,13 @@
 package com.rabbitshop.springwebhandling.exceptions;
 
+/**
+ * As a stackless BusinessException carrying no message, the preallocated INSTANCE can be thrown instead of a new one every time.
+ */
 // @ResponseStatus(value = HttpStatus.PAYMENT_REQUIRED, reason = "A payment is required to use this API")
-public class PaymentRequiredException extends RuntimeException {
+public class PaymentRequiredException extends BusinessException {
 	
 	private static final long serialVersionUID = 2441956941085536143L;
+
+	public static final PaymentRequiredException INSTANCE = new PaymentRequiredException();
 	
 }
@@ -0,0 +1,346 @@
+package com.rabbitshop.springwebhandling.exceptions.bodies;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import com.rabbitshop.springwebhandling.exceptions.ForbiddenException;
+import com.rabbitshop.springwebhandling.exceptions.InvalidIsbnException;
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+import com.rabbitshop.springwebhandling.exceptions.PaymentRequiredException;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Renders the bodies of the error responses as JSON, CSV or plain text, depending on the Accept header of the request.
+ *
+ * An error body is made of a static part, depending only on the exception type (status, code and message), and of the request path.
+ * The static part is rendered once per exception type and format when the type is registered, as a prefix and a suffix in UTF-8:
+ * rendering an error body is then just the escaping of the path for the format and a copy of three byte arrays.
+ * The format negotiated for each distinct Accept header value is cached as well, up to a bound.
+ *
+ * Exception types annotated with @ResponseStatus take status and message from the annotation, the others are registered with an
+ * explicit status and message. Subclasses of a registered type share its body.
+ */
+@Slf4j
+@Component
+public class ErrorBodyRenderer {
+
+	private static final int MAX_CACHED_ACCEPT_HEADERS = 256;
+
+	private final ConcurrentMap<Class<?>, ErrorBody> errorBodies = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Format> negotiatedFormats = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	public void registerErrors() {
+
+		register(ForbiddenException.class);
+		register(PayloadTooLargeException.class);
+		register(PaymentRequiredException.class, HttpStatus.PAYMENT_REQUIRED, "A payment is required to use this API");
+		register(IllegalArgumentException.class, HttpStatus.NOT_ACCEPTABLE, "Illegal argument");
+		register(IllegalStateException.class, HttpStatus.NOT_ACCEPTABLE, "Illegal state");
+		register(InvalidIsbnException.class, HttpStatus.BAD_REQUEST, "Invalid ISBN");
+		register(RejectedExecutionException.class, HttpStatus.SERVICE_UNAVAILABLE, "Too many concurrent exports, retry later");
+	}
+
+	/**
+	 * Registers an exception type annotated with @ResponseStatus, taking status and message from the annotation.
+	 */
+	public void register(final Class<? extends Throwable> exceptionClass) {
+
+		final ResponseStatus responseStatus = AnnotatedElementUtils.findMergedAnnotation(exceptionClass, ResponseStatus.class);
+		if (responseStatus == null) {
+			throw new IllegalArgumentException(exceptionClass.getName() + " is not annotated with @ResponseStatus");
+		}
+		final HttpStatus status = responseStatus.code();
+		final String message = responseStatus.reason().isEmpty() ? status.getReasonPhrase() : responseStatus.reason();
+		register(exceptionClass, new ErrorBody(status, code(exceptionClass), message, true));
+	}
+
+	/**
+	 * Registers an exception type handled by an @ExceptionHandler, which renders its body with the given status and message.
+	 */
+	public void register(final Class<? extends Throwable> exceptionClass, final HttpStatus status, final String message) {
+
+		register(exceptionClass, new ErrorBody(status, code(exceptionClass), message, false));
+	}
+
+	private void register(final Class<? extends Throwable> exceptionClass, final ErrorBody errorBody) {
+
+		log.debug("Register error body of " + exceptionClass.getName() + " with status " + errorBody.getStatus());
+
+		errorBodies.put(exceptionClass, errorBody);
+	}
+
+	/**
+	 * @return the error body of the given exception type or of its closest registered superclass, null if there is none
+	 */
+	public ErrorBody find(final Class<?> exceptionClass) {
+
+		for (Class<?> clazz = exceptionClass; clazz != null; clazz = clazz.getSuperclass()) {
+			final ErrorBody errorBody = errorBodies.get(clazz);
+			if (errorBody != null) {
+				if (clazz != exceptionClass) {
+					errorBodies.putIfAbsent(exceptionClass, errorBody);
+				}
+				return errorBody;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the error response of the given exception type, negotiated from the Accept header value, null if the type is not registered
+	 */
+	public ResponseEntity<byte[]> render(final Class<?> exceptionClass, final String accept, final String path) {
+
+		final ErrorBody errorBody = find(exceptionClass);
+		if (errorBody == null) {
+			return null;
+		}
+		final Format format = negotiate(accept);
+		return ResponseEntity.status(errorBody.getStatus())
+				.contentType(format.getMediaType())
+				.body(errorBody.render(format, path));
+	}
+
+	/**
+	 * @return the error response of the given exception type for the given request, null if the type is not registered
+	 */
+	public ResponseEntity<byte[]> render(final Class<?> exceptionClass, final WebRequest request) {
+
+		final HttpServletRequest servletRequest = request instanceof NativeWebRequest
+				? ((NativeWebRequest) request).getNativeRequest(HttpServletRequest.class)
+				: null;
+		final String path = servletRequest != null ? servletRequest.getRequestURI() : request.getDescription(false);
+		return render(exceptionClass, request.getHeader(HttpHeaders.ACCEPT), path);
+	}
+
+	/**
+	 * @return the format to render error bodies with for the given Accept header value, JSON if none of the accepted types is supported
+	 */
+	public Format negotiate(final String accept) {
+
+		if (accept == null || accept.isEmpty()) {
+			return Format.JSON;
+		}
+		final Format cached = negotiatedFormats.get(accept);
+		if (cached != null) {
+			return cached;
+		}
+		final Format format = parse(accept);
+		if (negotiatedFormats.size() < MAX_CACHED_ACCEPT_HEADERS) {
+			negotiatedFormats.putIfAbsent(accept, format);
+		}
+		return format;
+	}
+
+	private static Format parse(final String accept) {
+
+		final List<MediaType> accepted;
+		try {
+			accepted = new ArrayList<>(MediaType.parseMediaTypes(accept));
+		} catch (final InvalidMediaTypeException e) {
+			return Format.JSON;
+		}
+		MediaType.sortBySpecificityAndQuality(accepted);
+		for (final MediaType mediaType : accepted) {
+			for (final Format format : Format.values()) {
+				if (mediaType.isCompatibleWith(format.getMediaType())) {
+					return format;
+				}
+			}
+		}
+		return Format.JSON;
+	}
+
+	/**
+	 * @return the exception class simple name without the "Exception" suffix, in upper snake case (ForbiddenException: FORBIDDEN)
+	 */
+	private static String code(final Class<?> exceptionClass) {
+
+		final String name = exceptionClass.getSimpleName().replaceFirst("Exception$", "");
+		return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+	}
+
+	/**
+	 * Supported formats of the error bodies, each knowing how to render the static part and to escape the path.
+	 */
+	public enum Format {
+
+		JSON(new MediaType("application", "json", StandardCharsets.UTF_8)) {
+
+			@Override
+			String prefix(final HttpStatus status, final String code, final String message) {
+
+				return "{\"status\":" + status.value()
+						+ ",\"error\":\"" + escape(status.getReasonPhrase())
+						+ "\",\"code\":\"" + escape(code)
+						+ "\",\"message\":\"" + escape(message)
+						+ "\",\"path\":\"";
+			}
+
+			@Override
+			String suffix() {
+
+				return "\"}";
+			}
+
+			@Override
+			String escape(final String value) {
+
+				StringBuilder escaped = null;
+				for (int i = 0; i < value.length(); i++) {
+					final char c = value.charAt(i);
+					if (c == '"' || c == '\\' || c < 0x20) {
+						if (escaped == null) {
+							escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+						}
+						if (c == '"' || c == '\\') {
+							escaped.append('\\').append(c);
+						} else {
+							escaped.append(String.format("\\u%04x", (int) c));
+						}
+					} else if (escaped != null) {
+						escaped.append(c);
+					}
+				}
+				return escaped == null ? value : escaped.toString();
+			}
+
+		},
+
+		TEXT(new MediaType("text", "plain", StandardCharsets.UTF_8)) {
+
+			@Override
+			String prefix(final HttpStatus status, final String code, final String message) {
+
+				return status.value() + " " + status.getReasonPhrase() + "\n"
+						+ "code: " + escape(code) + "\n"
+						+ "message: " + escape(message) + "\n"
+						+ "path: ";
+			}
+
+			@Override
+			String suffix() {
+
+				return "\n";
+			}
+
+			@Override
+			String escape(final String value) {
+
+				return value.indexOf('\n') < 0 && value.indexOf('\r') < 0 ? value : value.replace('\n', ' ').replace('\r', ' ');
+			}
+
+		},
+
+		CSV(new MediaType("text", "csv", StandardCharsets.UTF_8)) {
+
+			@Override
+			String prefix(final HttpStatus status, final String code, final String message) {
+
+				return "\"status\",\"error\",\"code\",\"message\",\"path\"\n"
+						+ "\"" + status.value()
+						+ "\",\"" + escape(status.getReasonPhrase())
+						+ "\",\"" + escape(code)
+						+ "\",\"" + escape(message)
+						+ "\",\"";
+			}
+
+			@Override
+			String suffix() {
+
+				return "\"\n";
+			}
+
+			@Override
+			String escape(final String value) {
+
+				return value.indexOf('"') < 0 ? value : value.replace("\"", "\"\"");
+			}
+
+		};
+
+		@Getter
+		private final MediaType mediaType;
+
+		Format(final MediaType mediaType) {
+
+			this.mediaType = mediaType;
+		}
+
+		abstract String prefix(HttpStatus status, String code, String message);
+
+		abstract String suffix();
+
+		abstract String escape(String value);
+
+	}
+
+	/**
+	 * Error body of an exception type, pre-rendered in every format.
+	 */
+	public static final class ErrorBody {
+
+		@Getter
+		private final HttpStatus status;
+
+		/**
+		 * Whether the exception type is annotated with @ResponseStatus, rather than handled by an @ExceptionHandler
+		 */
+		@Getter
+		private final boolean responseStatus;
+
+		private final byte[][] prefixes = new byte[Format.values().length][];
+
+		private final byte[][] suffixes = new byte[Format.values().length][];
+
+		private ErrorBody(final HttpStatus status, final String code, final String message, final boolean responseStatus) {
+
+			this.status = status;
+			this.responseStatus = responseStatus;
+			for (final Format format : Format.values()) {
+				prefixes[format.ordinal()] = format.prefix(status, code, message).getBytes(StandardCharsets.UTF_8);
+				suffixes[format.ordinal()] = format.suffix().getBytes(StandardCharsets.UTF_8);
+			}
+		}
+
+		/**
+		 * @return the body in the given format, with the given request path spliced in
+		 */
+		public byte[] render(final Format format, final String path) {
+
+			final byte[] prefix = prefixes[format.ordinal()];
+			final byte[] suffix = suffixes[format.ordinal()];
+			final byte[] escapedPath = path == null ? new byte[0] : format.escape(path).getBytes(StandardCharsets.UTF_8);
+			final byte[] body = new byte[prefix.length + escapedPath.length + suffix.length];
+			System.arraycopy(prefix, 0, body, 0, prefix.length);
+			System.arraycopy(escapedPath, 0, body, prefix.length, escapedPath.length);
+			System.arraycopy(suffix, 0, body, prefix.length + escapedPath.length, suffix.length);
+			return body;
+		}
+
+	}
+
+}
@@ -1,13 +1,18 @@
 package com.rabbitshop.springwebhandling.exceptions.handlers;
 
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
+import com.rabbitshop.springwebhandling.exceptions.InvalidIsbnException;
+import com.rabbitshop.springwebhandling.exceptions.bodies.ErrorBodyRenderer;
+import com.rabbitshop.springwebhandling.services.ErrorLogSampler;
+
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -26,30 +31,53 @@ import lombok.extern.slf4j.Slf4j;
  * However, when the exception is actually thrown at runtime, the exception resolving mechanism will fail with:
  * 		java.lang.IllegalStateException: No suitable resolver for argument [0] [type=...]
  * 		HandlerMethod details: ...
+ *
+ * Handled exceptions are logged through the ErrorLogSampler, so that a flood of failing requests only produces a bounded sample
+ * of log lines, and their bodies are pre-rendered by the ErrorBodyRenderer in the format asked for by the Accept header.
  */
 @Slf4j
 @ControllerAdvice
 public class RestResponseEntityExceptionHandler extends ResponseEntityExceptionHandler {
 
+	private static final String ISBN_ERRORS_HEADER = "X-Isbn-Errors";
+
+	@Autowired
+	private ErrorLogSampler errorLogSampler;
+
+	@Autowired
+	private ErrorBodyRenderer errorBodyRenderer;
+
 	@ExceptionHandler(value = { IllegalArgumentException.class, IllegalStateException.class })
-	protected ResponseEntity<Object> handleConflict(final RuntimeException exception, final WebRequest request) {
+	protected ResponseEntity<byte[]> handleConflict(final RuntimeException exception, final WebRequest request) {
 
-		// This should be application/exception/method specific
-		final String responseBody = buildExceptionMsg(exception, request);
-		log.error(responseBody);
-		return handleExceptionInternal(exception, responseBody, new HttpHeaders(), HttpStatus.NOT_ACCEPTABLE, request);
+		// The body is pre-rendered per exception type (406 Not Acceptable), the exception message only goes to the log
+		errorLogSampler.error(log, exception, "Exception occurred: {}, msg: {}, request: {}",
+				exception.getClass().getName(), exception.getMessage(), request.getDescription(false));
+		return errorBodyRenderer.render(exception.getClass(), request);
 	}
-	
-	protected String buildExceptionMsg(final RuntimeException exception, final WebRequest request) {
-
-		final StringBuilder strBuilder = new StringBuilder();
-		strBuilder.append("Exception occurred: " + exception.getClass());
-		strBuilder.append("\n");
-		strBuilder.append("Exception msg: " + exception.getMessage());
-		strBuilder.append("\n");
-		strBuilder.append("Request description: " + request.getDescription(false));
-		
-		return strBuilder.toString();
+
+	/**
+	 * An upload with invalid ISBNs: 400 (Bad Request), the summary of the invalid rows goes along in the X-Isbn-Errors header.
+	 */
+	@ExceptionHandler(value = InvalidIsbnException.class)
+	protected ResponseEntity<byte[]> handleInvalidIsbn(final InvalidIsbnException exception, final WebRequest request) {
+
+		errorLogSampler.error(log, exception, "Invalid ISBNs: {}, request: {}", exception.getMessage(), request.getDescription(false));
+		final ResponseEntity<byte[]> response = errorBodyRenderer.render(exception.getClass(), request);
+		return ResponseEntity.status(response.getStatusCode())
+				.headers(response.getHeaders())
+				.header(ISBN_ERRORS_HEADER, exception.getMessage())
+				.body(response.getBody());
+	}
+
+	/**
+	 * An async request (a streaming export) refused by the bounded export executor: 503 (Service Unavailable), the client can retry later.
+	 */
+	@ExceptionHandler(value = RejectedExecutionException.class)
+	protected ResponseEntity<byte[]> handleRejectedExecution(final RejectedExecutionException exception, final WebRequest request) {
+
+		errorLogSampler.error(log, exception, "Async request rejected, request: {}", request.getDescription(false));
+		return errorBodyRenderer.render(exception.getClass(), request);
 	}
 
 }
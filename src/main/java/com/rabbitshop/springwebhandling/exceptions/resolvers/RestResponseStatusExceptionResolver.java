@@ -5,10 +5,18 @@ import java.io.IOException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
 import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.handler.AbstractHandlerExceptionResolver;
 
+import com.rabbitshop.springwebhandling.exceptions.bodies.ErrorBodyRenderer;
+import com.rabbitshop.springwebhandling.exceptions.bodies.ErrorBodyRenderer.ErrorBody;
+import com.rabbitshop.springwebhandling.exceptions.bodies.ErrorBodyRenderer.Format;
+import com.rabbitshop.springwebhandling.services.ErrorLogSampler;
+
 /**
  * The second solution is to define an HandlerExceptionResolver – this will resolve any exception thrown by the application. It will also allow us to implement
  * a uniform exception handling mechanism in our REST API.
@@ -45,19 +53,35 @@ import org.springframework.web.servlet.handler.AbstractHandlerExceptionResolver;
  *
  * This approach is a consistent and easily configurable mechanism for the error handling of a Spring REST Service. It does however have limitations: it’s interacting with the
  * low-level HtttpServletResponse and it fits into the old MVC model which uses ModelAndView – so there’s still room for improvement.
+ *
+ * This resolver runs before the default ones and takes over the exceptions annotated with @ResponseStatus that have a body registered in
+ * the ErrorBodyRenderer: instead of the empty body of the ResponseStatusExceptionResolver, the response gets the pre-rendered error body
+ * in the format asked for by the Accept header (JSON, CSV or plain text). Any other exception is left to the following resolvers, so the
+ * @ExceptionHandler methods still apply to them.
  */
-// @Component
-@Deprecated
+@Component
 public class RestResponseStatusExceptionResolver extends AbstractHandlerExceptionResolver {
+
+	@Autowired
+	private ErrorBodyRenderer errorBodyRenderer;
+
+	@Autowired
+	private ErrorLogSampler errorLogSampler;
+
+	public RestResponseStatusExceptionResolver() {
+
+		setOrder(Ordered.HIGHEST_PRECEDENCE);
+	}
 	
 	@Override
 	protected ModelAndView doResolveException(final HttpServletRequest request, final HttpServletResponse response, final Object handler, final Exception ex) {
 
 		try {
-			if (ex instanceof IllegalArgumentException) {
-				return handleIllegalArgument((IllegalArgumentException) ex, request, response);
+			final ErrorBody errorBody = errorBodyRenderer.find(ex.getClass());
+			if (errorBody != null && errorBody.isResponseStatus()) {
+				errorLogSampler.count(ex);
+				return handleResponseStatus(errorBody, request, response);
 			}
-			// ...
 		} catch (final Exception handlerException) {
 			logger.warn("Handling of [" + ex.getClass().getName() + "] resulted in Exception", handlerException);
 		}
@@ -69,9 +93,9 @@ public class RestResponseStatusExceptionResolver extends AbstractHandlerExceptio
 	 * if the client asks for application/json then, in the case of an error condition, the application should still return a response body encoded with application/json.
 	 *
 	 * The other important implementation detail is that a ModelAndView is returned – this is the body of the response and it will allow the application to set whatever is
-	 * necessary on it.
+	 * necessary on it. Here the body is written straight to the response, so an empty ModelAndView just tells the DispatcherServlet the exception has been handled.
 	 *
-	 * @param ex
+	 * @param errorBody
 	 * @param request
 	 * @param response
 	 *
@@ -79,11 +103,14 @@ public class RestResponseStatusExceptionResolver extends AbstractHandlerExceptio
 	 *
 	 * @throws IOException
 	 */
-	private ModelAndView handleIllegalArgument(final IllegalArgumentException ex, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+	private ModelAndView handleResponseStatus(final ErrorBody errorBody, final HttpServletRequest request, final HttpServletResponse response) throws IOException {
 
-		response.sendError(HttpServletResponse.SC_CONFLICT);
-		final String accept = request.getHeader(HttpHeaders.ACCEPT);
-		// ...
+		final Format format = errorBodyRenderer.negotiate(request.getHeader(HttpHeaders.ACCEPT));
+		final byte[] body = errorBody.render(format, request.getRequestURI());
+		response.setStatus(errorBody.getStatus().value());
+		response.setContentType(format.getMediaType().toString());
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
 		return new ModelAndView();
 	}
 
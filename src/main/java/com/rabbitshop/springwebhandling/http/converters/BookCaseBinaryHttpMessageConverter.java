@@ -0,0 +1,481 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+import com.rabbitshop.springwebhandling.daos.Isbns;
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+import com.rabbitshop.springwebhandling.utils.Utf8;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * HttpMessageConverter for a compact binary representation of a BookCase, meant for service-to-service traffic where the escaping
+ * and quoting of the text formats is pure overhead.
+ *
+ * Format, version 1 (all integers are unsigned LEB128 varints):
+ * 		. header: magic "BKCS", format version (1 byte), flags (1 byte, reserved), row count
+ * 		. every row: ISBN tag (1 byte) followed by
+ * 			- nothing for a null ISBN (tag 0)
+ * 			- the number of digits (1 byte) and the numeric value for an ISBN made of digits only (tag 1)
+ * 			- the length and the UTF-8 bytes for any other ISBN (tag 2)
+ * 		. then the title: length + 1 (0 for a null title) and the UTF-8 bytes
+ *
+ * Readers refuse versions newer than the one they know, so the format can evolve; the row count allows to pre-size the BookCase.
+ * Both directions go through NIO ByteBuffers and channels, each thread reusing its own buffer. A CompactBookCase is read and written
+ * straight from/to its columns, without creating Books or Strings, unless the isbnPolicy has to check the ISBNs: they are then
+ * normalized and validated as by the CSV converter (see IsbnIngest).
+ */
+@Slf4j
+public class BookCaseBinaryHttpMessageConverter extends AbstractHttpMessageConverter<BookCase> {
+
+	public static final MediaType MEDIA_TYPE = new MediaType("application", "x-bookcase-binary");
+
+	static final byte[] MAGIC = { 'B', 'K', 'C', 'S' };
+	static final int FORMAT_VERSION = 1;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_PACKED = 1;
+	private static final int TAG_RAW = 2;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_VARINT_BYTES = 10;
+	private static final int MAX_INITIAL_CAPACITY = 1 << 20;
+
+	/**
+	 * Maximum number of rows accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxRows;
+
+	/**
+	 * Maximum number of bytes accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxBytes;
+
+	/**
+	 * Whether request bodies are read into a CompactBookCase instead of a BookCase
+	 */
+	@Getter
+	@Setter
+	private boolean compactStorage;
+
+	/**
+	 * Whether a CompactBookCase stores repeated titles only once
+	 */
+	@Getter
+	@Setter
+	private boolean deduplicateTitles;
+
+	/**
+	 * What to do with rows having an invalid ISBN, see IsbnPolicy
+	 */
+	@Getter
+	@Setter
+	private IsbnPolicy isbnPolicy = IsbnPolicy.ACCEPT;
+
+	private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+	public BookCaseBinaryHttpMessageConverter() {
+
+		super(MEDIA_TYPE);
+
+		log.debug("Create HTTP MessageConverter for type " + MEDIA_TYPE);
+	}
+
+	@Override
+	protected boolean supports(final Class<?> clazz) {
+
+		return BookCase.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected BookCase readInternal(final Class<? extends BookCase> clazz, final HttpInputMessage httpInputMessage) throws IOException, HttpMessageNotReadableException {
+
+		log.debug("Read binary HTTP RequestBody to find out Books to be added to BookCase");
+
+		final long contentLength = httpInputMessage.getHeaders().getContentLength();
+		if (maxBytes > 0 && contentLength > maxBytes) {
+			throw new PayloadTooLargeException("Request body of " + contentLength + " bytes exceeds the limit of " + maxBytes + " bytes");
+		}
+
+		final Source source = new Source(Channels.newChannel(new BoundedInputStream(httpInputMessage.getBody(), maxBytes)), buffers.get());
+		try {
+			return read(source, compactStorage || CompactBookCase.class.isAssignableFrom(clazz));
+		} catch (final EOFException e) {
+			throw new HttpMessageNotReadableException("Truncated BookCase binary body", e);
+		}
+	}
+
+	@Override
+	protected void writeInternal(final BookCase books, final HttpOutputMessage httpOutputMessage) throws IOException, HttpMessageNotWritableException {
+
+		log.debug("Write out all book in BookCase to binary HTTP ResponseBody");
+
+		final Sink sink = new Sink(Channels.newChannel(httpOutputMessage.getBody()), buffers.get());
+		sink.ensure(MAGIC.length + 2 + MAX_VARINT_BYTES);
+		sink.buffer.put(MAGIC).put((byte) FORMAT_VERSION).put((byte) 0);
+		sink.putVarint(books.size());
+		if (books instanceof CompactBookCase) {
+			writeColumns((CompactBookCase) books, sink);
+		} else {
+			for (final Book book : books) {
+				writeIsbn(book.getIsbn(), sink);
+				writeTitle(book.getTitle(), sink);
+			}
+		}
+		sink.flush();
+	}
+
+	private BookCase read(final Source source, final boolean compact) throws IOException {
+
+		source.ensure(MAGIC.length + 2);
+		for (final byte b : MAGIC) {
+			if (source.buffer.get() != b) {
+				throw new HttpMessageNotReadableException("Not a BookCase binary body");
+			}
+		}
+		final int version = source.buffer.get() & 0xFF;
+		if (version > FORMAT_VERSION) {
+			throw new HttpMessageNotReadableException("Unsupported BookCase binary format version " + version);
+		}
+		source.buffer.get(); // flags, none defined yet
+
+		final long rows = source.getVarint();
+		if (maxRows > 0 && rows > maxRows) {
+			throw new PayloadTooLargeException("Request body exceeds the limit of " + maxRows + " rows");
+		}
+		// the declared row count only pre-sizes the BookCase up to a bound, it cannot be trusted for a bigger allocation
+		final int initialCapacity = (int) Math.min(rows, MAX_INITIAL_CAPACITY);
+		final CompactBookCase compactBookCase = compact ? new CompactBookCase(initialCapacity, deduplicateTitles) : null;
+		final BookCase bookCase = compact ? compactBookCase : new BookCase(initialCapacity);
+		final IsbnIngest ingest = IsbnIngest.of(isbnPolicy);
+
+		for (long row = 0; row < rows; row++) {
+			source.ensure(1);
+			final int tag = source.buffer.get();
+			long isbnCode = IsbnCodes.NULL;
+			String isbn = null;
+			switch (tag) {
+				case TAG_NULL:
+					break;
+				case TAG_PACKED:
+					source.ensure(1);
+					final int digits = source.buffer.get();
+					final long value = source.getVarint();
+					isbnCode = IsbnCodes.pack(digits, value);
+					if (isbnCode == IsbnCodes.NOT_PACKABLE) {
+						throw new HttpMessageNotReadableException("Invalid packed ISBN at row " + row);
+					}
+					isbn = compact ? null : IsbnCodes.toString(isbnCode);
+					break;
+				case TAG_RAW:
+					isbn = source.getString(source.getLength(0));
+					isbnCode = IsbnCodes.NOT_PACKABLE;
+					break;
+				default:
+					throw new HttpMessageNotReadableException("Invalid ISBN tag " + tag + " at row " + row);
+			}
+
+			final int titleLength = source.getLength(1);
+			if (ingest != null) {
+				final long code = ingest.check(isbn == null && IsbnCodes.isPacked(isbnCode) ? IsbnCodes.toString(isbnCode) : isbn, row + 1);
+				if (!Isbns.isValid(code)) {
+					// the title of a row left out is skipped
+					if (titleLength > 0) {
+						source.fill(titleLength);
+					}
+					continue;
+				}
+				isbnCode = code;
+				isbn = compact ? null : IsbnCodes.toString(code);
+			}
+			if (compact && isbnCode != IsbnCodes.NOT_PACKABLE) {
+				if (titleLength < 0) {
+					compactBookCase.addEncoded(isbnCode, null, 0, 0);
+				} else {
+					source.fill(titleLength);
+					compactBookCase.addEncoded(isbnCode, source.bytes, source.offset, titleLength);
+				}
+			} else {
+				final String title = titleLength < 0 ? null : source.getString(titleLength);
+				if (compact) {
+					compactBookCase.add(isbn, title);
+				} else {
+					bookCase.add(new Book(isbn, title));
+				}
+			}
+		}
+		if (ingest != null) {
+			ingest.finish(log);
+		}
+		return bookCase;
+	}
+
+	private void writeColumns(final CompactBookCase books, final Sink sink) throws IOException {
+
+		final byte[] data = books.getData();
+		final int size = books.size();
+		for (int i = 0; i < size; i++) {
+			final long isbnCode = books.getIsbnCode(i);
+			sink.ensure(2 + MAX_VARINT_BYTES);
+			if (IsbnCodes.isPacked(isbnCode)) {
+				sink.buffer.put((byte) TAG_PACKED).put((byte) IsbnCodes.digits(isbnCode));
+				sink.putVarint(IsbnCodes.value(isbnCode));
+			} else if (IsbnCodes.isRaw(isbnCode)) {
+				sink.buffer.put((byte) TAG_RAW);
+				sink.putVarint(IsbnCodes.rawLength(isbnCode));
+				sink.put(data, IsbnCodes.rawOffset(isbnCode), IsbnCodes.rawLength(isbnCode));
+			} else {
+				sink.buffer.put((byte) TAG_NULL);
+			}
+
+			final int titleLength = books.getTitleLength(i);
+			sink.ensure(MAX_VARINT_BYTES);
+			sink.putVarint(titleLength + 1L);
+			if (titleLength > 0) {
+				sink.put(data, books.getTitleOffset(i), titleLength);
+			}
+		}
+	}
+
+	private static void writeIsbn(final String isbn, final Sink sink) throws IOException {
+
+		final long isbnCode = IsbnCodes.pack(isbn);
+		sink.ensure(2 + MAX_VARINT_BYTES);
+		if (isbnCode == IsbnCodes.NULL) {
+			sink.buffer.put((byte) TAG_NULL);
+		} else if (IsbnCodes.isPacked(isbnCode)) {
+			sink.buffer.put((byte) TAG_PACKED).put((byte) IsbnCodes.digits(isbnCode));
+			sink.putVarint(IsbnCodes.value(isbnCode));
+		} else {
+			sink.buffer.put((byte) TAG_RAW);
+			sink.putString(isbn);
+		}
+	}
+
+	private static void writeTitle(final String title, final Sink sink) throws IOException {
+
+		sink.ensure(MAX_VARINT_BYTES);
+		if (title == null) {
+			sink.putVarint(0);
+		} else {
+			sink.putString(title, 1);
+		}
+	}
+
+	/**
+	 * Buffered writer of the format primitives over a channel.
+	 */
+	private static final class Sink {
+
+		private final WritableByteChannel channel;
+
+		private final ByteBuffer buffer;
+
+		private Sink(final WritableByteChannel channel, final ByteBuffer buffer) {
+
+			this.channel = channel;
+			this.buffer = buffer;
+			buffer.clear();
+		}
+
+		private void ensure(final int bytes) throws IOException {
+
+			if (buffer.remaining() < bytes) {
+				drain();
+			}
+		}
+
+		private void putVarint(final long value) {
+
+			long v = value;
+			while ((v & ~0x7FL) != 0) {
+				buffer.put((byte) (v & 0x7F | 0x80));
+				v >>>= 7;
+			}
+			buffer.put((byte) v);
+		}
+
+		private void put(final byte[] bytes, final int offset, final int length) throws IOException {
+
+			int written = 0;
+			while (written < length) {
+				if (!buffer.hasRemaining()) {
+					drain();
+				}
+				final int chunk = Math.min(buffer.remaining(), length - written);
+				buffer.put(bytes, offset + written, chunk);
+				written += chunk;
+			}
+		}
+
+		private void putString(final String value) throws IOException {
+
+			putString(value, 0);
+		}
+
+		/**
+		 * Writes the UTF-8 length of the value plus lengthBias, then the value encoded straight into the buffer when it fits in.
+		 */
+		private void putString(final String value, final int lengthBias) throws IOException {
+
+			final int length = Utf8.encodedLength(value);
+			ensure(MAX_VARINT_BYTES);
+			putVarint(length + (long) lengthBias);
+			if (length <= buffer.capacity()) {
+				ensure(length);
+				final int end = Utf8.encode(value, buffer.array(), buffer.arrayOffset() + buffer.position());
+				buffer.position(end - buffer.arrayOffset());
+			} else {
+				final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				put(bytes, 0, bytes.length);
+			}
+		}
+
+		private void flush() throws IOException {
+
+			drain();
+		}
+
+		private void drain() throws IOException {
+
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+	}
+
+	/**
+	 * Buffered reader of the format primitives over a channel.
+	 */
+	private static final class Source {
+
+		private final ReadableByteChannel channel;
+
+		private final ByteBuffer buffer;
+
+		// where fill() made the requested bytes available: the buffer backing array or a scratch array for longer values
+		private byte[] bytes;
+
+		private int offset;
+
+		private byte[] scratch = new byte[0];
+
+		private Source(final ReadableByteChannel channel, final ByteBuffer buffer) {
+
+			this.channel = channel;
+			this.buffer = buffer;
+			buffer.clear().flip();
+		}
+
+		/**
+		 * Makes at least the given number of bytes, which must not exceed the buffer capacity, available in the buffer.
+		 */
+		private void ensure(final int required) throws IOException {
+
+			if (buffer.remaining() >= required) {
+				return;
+			}
+			buffer.compact();
+			while (buffer.position() < required) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException();
+				}
+			}
+			buffer.flip();
+		}
+
+		private long getVarint() throws IOException {
+
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				ensure(1);
+				final byte b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+			throw new HttpMessageNotReadableException("Malformed varint");
+		}
+
+		/**
+		 * Reads a length written with the given bias, so the result is at least -bias.
+		 */
+		private int getLength(final int bias) throws IOException {
+
+			final long value = getVarint();
+			if (value < 0 || value - bias > Integer.MAX_VALUE) {
+				throw new HttpMessageNotReadableException("Invalid length " + value);
+			}
+			return (int) (value - bias);
+		}
+
+		/**
+		 * Makes the next length bytes available in bytes[offset, offset + length) and skips them.
+		 *
+		 * A length beyond the buffer capacity comes from the body and cannot be trusted: the scratch array grows with the bytes
+		 * actually received, so a truncated body cannot make it allocate more than about twice its own size.
+		 */
+		private void fill(final int length) throws IOException {
+
+			if (length < 0) {
+				throw new HttpMessageNotReadableException("Invalid length " + length);
+			}
+			if (length <= buffer.capacity()) {
+				ensure(length);
+				bytes = buffer.array();
+				offset = buffer.arrayOffset() + buffer.position();
+				buffer.position(buffer.position() + length);
+				return;
+			}
+
+			int read = 0;
+			while (read < length) {
+				ensure(1);
+				final int chunk = Math.min(buffer.remaining(), length - read);
+				if (scratch.length < read + chunk) {
+					scratch = Arrays.copyOf(scratch, (int) Math.min(length, Math.max(read + chunk, 2L * scratch.length)));
+				}
+				buffer.get(scratch, read, chunk);
+				read += chunk;
+			}
+			bytes = scratch;
+			offset = 0;
+		}
+
+		private String getString(final int length) throws IOException {
+
+			fill(length);
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+
+/**
+ * High-throughput CSV encoder for BookCase, see CsvEncoder.
+ *
+ * A CompactBookCase is encoded straight from its columns: packed ISBNs are written as digits and the already UTF-8 encoded titles
+ * are copied from the arena, so no Book view nor String is created.
+ */
+class BookCaseCsvEncoder extends CsvEncoder {
+
+	BookCaseCsvEncoder(final int chunkSize) {
+
+		super(chunkSize);
+	}
+
+	void encode(final BookCase books, final OutputStream outputStream) throws IOException {
+
+		start(outputStream);
+		try {
+			if (books instanceof CompactBookCase) {
+				encodeColumns((CompactBookCase) books);
+			} else {
+				for (final Book book : books) {
+					writeRow(book.getIsbn(), book.getTitle());
+				}
+			}
+			flushChunk();
+		} finally {
+			release();
+		}
+	}
+
+	void writeRow(final String isbn, final String title) throws IOException {
+
+		writeField(isbn);
+		writeSeparator();
+		writeField(title);
+		endRow();
+	}
+
+	private void encodeColumns(final CompactBookCase books) throws IOException {
+
+		final byte[] data = books.getData();
+		final int size = books.size();
+		for (int i = 0; i < size; i++) {
+			final long isbnCode = books.getIsbnCode(i);
+			if (IsbnCodes.isPacked(isbnCode)) {
+				writePackedIsbn(isbnCode);
+			} else if (IsbnCodes.isRaw(isbnCode)) {
+				writeUtf8Field(data, IsbnCodes.rawOffset(isbnCode), IsbnCodes.rawLength(isbnCode));
+			}
+			writeSeparator();
+			writeUtf8Field(data, books.getTitleOffset(i), books.getTitleLength(i));
+			endRow();
+		}
+	}
+
+	private void writePackedIsbn(final long isbnCode) throws IOException {
+
+		if (position + IsbnCodes.digits(isbnCode) + 2 > buffer.length) {
+			flushChunk();
+		}
+		buffer[position++] = QUOTE;
+		position = IsbnCodes.writeDigits(isbnCode, buffer, position);
+		buffer[position++] = QUOTE;
+	}
+
+}
@@ -1,10 +1,14 @@
 package com.rabbitshop.springwebhandling.http.converters;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpInputMessage;
 import org.springframework.http.HttpOutputMessage;
 import org.springframework.http.MediaType;
@@ -13,11 +17,16 @@ import org.springframework.http.converter.HttpMessageNotReadableException;
 import org.springframework.http.converter.HttpMessageNotWritableException;
 
 import com.opencsv.CSVReader;
-import com.opencsv.CSVWriter;
 import com.rabbitshop.springwebhandling.daos.Book;
 import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+import com.rabbitshop.springwebhandling.daos.Isbns;
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+import com.rabbitshop.springwebhandling.metrics.ConverterMetrics;
 
-import lombok.NoArgsConstructor;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -26,14 +35,120 @@ import lombok.extern.slf4j.Slf4j;
  * depending on a predefined mime type. Every time an issued request is hitting a @RequestBody or @ResponseBody annotation spring
  * loops through all registered HttpMessageConverters seeking for the first that fits the given mime type and class and then uses
  * it for the actual conversion.
+ *
+ * The request body is parsed as a stream: rows are read one at a time and added straight to the BookCase, so an upload is never held
+ * in memory twice. The charset declared by the request Content-Type is honored (UTF-8 when missing) and the optional maxRows/maxBytes
+ * limits reject an oversized upload as soon as it is detected, before the whole body has been consumed.
+ *
+ * The response body is always written in UTF-8 by a BookCaseCsvEncoder, which escapes the fields in place into a reusable buffer and
+ * flushes it every writeChunkSize bytes. Each thread keeps its own encoder, so no buffer is allocated per response.
+ *
+ * When compactStorage is enabled, uploads are parsed into a columnar CompactBookCase: rows are appended to its columns directly,
+ * without intermediate Book instances, and it is written back straight from its columns too.
+ *
+ * Uploads whose Content-Length reaches parallelMinBytes are parsed in parallel instead: the body is read into memory, split into
+ * chunks of about parallelChunkSize bytes on record boundaries and the chunks are parsed on the parsePool, then merged in their
+ * original order (see ParallelCsvParser). Smaller bodies, bodies without Content-Length and charsets other than UTF-8, US-ASCII and
+ * ISO-8859-1 stay on the sequential path. Rows are validated the same way on both paths.
+ *
+ * Unless the isbnPolicy is ACCEPT, every ISBN is normalized to its canonical ISBN-13 and checked while being read (see IsbnIngest):
+ * rows with an invalid ISBN are then either left out or make the whole upload fail, with a summary of the invalid rows.
+ *
+ * When given a ConverterMetrics, the rows and bytes of every body read or written are counted and the time taken is recorded.
  */
 @Slf4j
-@NoArgsConstructor
 public class BookCaseHttpMessageConverter extends AbstractHttpMessageConverter<BookCase> {
+
+	public static final int DEFAULT_PARALLEL_CHUNK_SIZE = 1024 * 1024;
 	
+	private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int COLUMNS = 2;
+
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	/**
+	 * Maximum number of rows accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxRows;
+
+	/**
+	 * Maximum number of bytes accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxBytes;
+
+	/**
+	 * Size of the buffer flushed to the response every time it fills up, read once by each thread when its encoder is created
+	 */
+	@Getter
+	@Setter
+	private int writeChunkSize = BookCaseCsvEncoder.DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Whether request bodies are read into a CompactBookCase instead of a BookCase
+	 */
+	@Getter
+	@Setter
+	private boolean compactStorage;
+
+	/**
+	 * Whether a CompactBookCase stores repeated titles only once
+	 */
+	@Getter
+	@Setter
+	private boolean deduplicateTitles;
+
+	/**
+	 * Minimum Content-Length of a request body to be parsed in parallel, 0 or less disables parallel parsing
+	 */
+	@Getter
+	@Setter
+	private long parallelMinBytes;
+
+	/**
+	 * Size in bytes of the chunks parsed in parallel, each chunk is extended to the end of its last record
+	 */
+	@Getter
+	private int parallelChunkSize = DEFAULT_PARALLEL_CHUNK_SIZE;
+
+	/**
+	 * What to do with rows having an invalid ISBN, see IsbnPolicy; valid ISBNs are normalized to ISBN-13 unless the policy is ACCEPT
+	 */
+	@Getter
+	@Setter
+	private IsbnPolicy isbnPolicy = IsbnPolicy.ACCEPT;
+
+	/**
+	 * Pool running the parallel parsing
+	 */
+	@Getter
+	@Setter
+	private ForkJoinPool parsePool = ForkJoinPool.commonPool();
+
+	/**
+	 * Where reads and writes are recorded, null to record nothing
+	 */
+	@Getter
+	@Setter
+	private ConverterMetrics metrics;
+
+	private final ThreadLocal<BookCaseCsvEncoder> encoders = ThreadLocal.withInitial(() -> new BookCaseCsvEncoder(writeChunkSize));
+
+	public BookCaseHttpMessageConverter() {
+
+		setDefaultCharset(DEFAULT_CHARSET);
+	}
+
 	public BookCaseHttpMessageConverter(final MediaType supportedMediaType) {
 
 		super(supportedMediaType);
+		setDefaultCharset(DEFAULT_CHARSET);
 
 		log.debug("Create HTTP MessageConverter for type " + supportedMediaType.getType() + "/" + supportedMediaType.getSubtype());
 	}
@@ -41,16 +156,26 @@ public class BookCaseHttpMessageConverter extends AbstractHttpMessageConverter<B
 	public BookCaseHttpMessageConverter(final MediaType... supportedMediaTypes) {
 		
 		super(supportedMediaTypes);
+		setDefaultCharset(DEFAULT_CHARSET);
 
 		log.debug("Create HTTP MessageConverter for types: " + supportedMediaTypes.toString());
 	}
 	
+	/**
+	 * @throws IllegalArgumentException if parallelChunkSize is not positive, so that a wrong setting fails at startup
+	 */
+	public void setParallelChunkSize(final int parallelChunkSize) {
+
+		if (parallelChunkSize <= 0) {
+			throw new IllegalArgumentException("The parallel chunk size must be positive, not " + parallelChunkSize);
+		}
+		this.parallelChunkSize = parallelChunkSize;
+	}
+
 	@Override
 	protected boolean supports(final Class<?> clazz) {
 
-		log.debug("Check if this converter support class: " + clazz.getName());
-		
-		return BookCase.class.equals(clazz);
+		return BookCase.class.isAssignableFrom(clazz);
 	}
 	
 	@Override
@@ -58,26 +183,160 @@ public class BookCaseHttpMessageConverter extends AbstractHttpMessageConverter<B
 		
 		log.debug("Read HTTP RequestBody to find out Books to be added to BookCase"); // TODO set to debug after tests
 
-		final CSVReader reader = new CSVReader(new InputStreamReader(httpInputMessage.getBody()));
-		final List<String[]> rows = reader.readAll();
-		final BookCase bookCase = new BookCase();
-		for (final String[] row : rows) {
-			bookCase.add(new Book(row[0], row[1]));
+		final long start = System.nanoTime();
+		final HttpHeaders headers = httpInputMessage.getHeaders();
+		final long contentLength = headers.getContentLength();
+		if (maxBytes > 0 && contentLength > maxBytes) {
+			throw new PayloadTooLargeException("Request body of " + contentLength + " bytes exceeds the limit of " + maxBytes + " bytes");
+		}
+
+		final boolean compact = compactStorage || CompactBookCase.class.isAssignableFrom(clazz);
+		final Charset charset = getReadCharset(headers.getContentType());
+		if (parallelMinBytes > 0 && contentLength >= parallelMinBytes && contentLength <= MAX_ARRAY_SIZE && ParallelCsvParser.isSupported(charset)) {
+			final BookCase bookCase = readParallel(httpInputMessage.getBody(), (int) contentLength, charset, compact);
+			if (metrics != null) {
+				metrics.recordRead(bookCase.size(), contentLength, System.nanoTime() - start);
+			}
+			return bookCase;
+		}
+
+		final BookCase bookCase = compact ? new CompactBookCase(INITIAL_CAPACITY, deduplicateTitles) : new BookCase();
+		final IsbnIngest ingest = IsbnIngest.of(isbnPolicy);
+		final BoundedInputStream body = new BoundedInputStream(httpInputMessage.getBody(), maxBytes);
+		final CSVReader reader = new CSVReader(new InputStreamReader(body, charset));
+		try {
+			String[] row;
+			long rowNumber = 0;
+			while ((row = reader.readNext()) != null) {
+				if (maxRows > 0 && rowNumber >= maxRows) {
+					throw new PayloadTooLargeException("Request body exceeds the limit of " + maxRows + " rows");
+				}
+				addRow(bookCase, checkRow(row, ++rowNumber), rowNumber, ingest);
+			}
+		} finally {
+			reader.close();
+		}
+		if (ingest != null) {
+			ingest.finish(log);
+		}
+		if (metrics != null) {
+			metrics.recordRead(bookCase.size(), body.getCount(), System.nanoTime() - start);
 		}
-		reader.close();
 		return bookCase;
 	}
 	
+	private BookCase readParallel(final InputStream body, final int contentLength, final Charset charset, final boolean compact) throws IOException {
+
+		final byte[] bytes = readFully(body, contentLength);
+		final ParallelCsvParser.Chunks chunks = ParallelCsvParser.split(bytes, parallelChunkSize);
+		if (maxRows > 0 && chunks.getRows() > maxRows) {
+			throw new PayloadTooLargeException("Request body exceeds the limit of " + maxRows + " rows");
+		}
+		log.debug("Parse " + chunks.getRows() + " rows in " + chunks.getCount() + " chunks in parallel");
+
+		final ParallelCsvParser parser = ParallelCsvParser.on(parsePool);
+		final IsbnIngest ingest = IsbnIngest.of(isbnPolicy);
+		final BookCase bookCase;
+		if (compact) {
+			// the columns are filled in order on this thread, the costly part (decoding and tokenizing) has been done in parallel
+			bookCase = new CompactBookCase(Math.max(chunks.getRows(), 1), deduplicateTitles);
+			long rowNumber = 0;
+			for (final List<String[]> rows : parser.parse(bytes, chunks, charset, BookCaseHttpMessageConverter::checkRow)) {
+				for (final String[] row : rows) {
+					addRow(bookCase, row, ++rowNumber, ingest);
+				}
+			}
+		} else {
+			bookCase = new BookCase(chunks.getRows());
+			for (final List<Book> books : parser.parse(bytes, chunks, charset, (row, rowNumber) -> toBook(checkRow(row, rowNumber), rowNumber, ingest))) {
+				for (final Book book : books) {
+					if (book != null) {
+						bookCase.add(book);
+					}
+				}
+			}
+		}
+		if (ingest != null) {
+			ingest.finish(log);
+		}
+		return bookCase;
+	}
+
+	private byte[] readFully(final InputStream body, final int contentLength) throws IOException {
+
+		final byte[] bytes = new byte[contentLength];
+		try (final InputStream in = new BoundedInputStream(body, maxBytes)) {
+			int position = 0;
+			while (position < contentLength) {
+				final int read = in.read(bytes, position, contentLength - position);
+				if (read < 0) {
+					throw new HttpMessageNotReadableException("Request body ended after " + position + " of " + contentLength + " bytes");
+				}
+				position += read;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Adds a row to the BookCase, with its ISBN normalized when ISBNs are validated: invalid rows are left out.
+	 */
+	private static void addRow(final BookCase bookCase, final String[] row, final long rowNumber, final IsbnIngest ingest) {
+
+		if (!(bookCase instanceof CompactBookCase)) {
+			final Book book = toBook(row, rowNumber, ingest);
+			if (book != null) {
+				bookCase.add(book);
+			}
+		} else if (ingest == null) {
+			((CompactBookCase) bookCase).add(row[0], row[1]);
+		} else {
+			final long code = ingest.check(row[0], rowNumber);
+			if (Isbns.isValid(code)) {
+				((CompactBookCase) bookCase).add(code, row[1]);
+			}
+		}
+	}
+
+	/**
+	 * @return the Book of a row, with its ISBN normalized when ISBNs are validated, null if the row has to be left out
+	 */
+	private static Book toBook(final String[] row, final long rowNumber, final IsbnIngest ingest) {
+
+		if (ingest == null) {
+			return new Book(row[0], row[1]);
+		}
+		final long code = ingest.check(row[0], rowNumber);
+		return Isbns.isValid(code) ? new Book(IsbnCodes.toString(code), row[1]) : null;
+	}
+
+	private static String[] checkRow(final String[] row, final long rowNumber) {
+
+		if (row.length < COLUMNS) {
+			throw new HttpMessageNotReadableException("Row " + rowNumber + " has " + row.length + " columns instead of " + COLUMNS);
+		}
+		return row;
+	}
+
 	@Override
 	protected void writeInternal(final BookCase books, final HttpOutputMessage httpOutputMessage) throws IOException, HttpMessageNotWritableException {
 		
 		log.debug("Write out all book in BookCase to HTTP ResponseBody"); // TODO set to debug after tests
 
-		final CSVWriter writer = new CSVWriter(new OutputStreamWriter(httpOutputMessage.getBody()));
-		for (final Book book : books) {
-			writer.writeNext(new String[] { book.getIsbn(), book.getTitle() });
+		final long start = System.nanoTime();
+		final BookCaseCsvEncoder encoder = encoders.get();
+		encoder.encode(books, httpOutputMessage.getBody());
+		if (metrics != null) {
+			metrics.recordWrite(books.size(), encoder.getWritten(), System.nanoTime() - start);
+		}
+	}
+
+	protected Charset getReadCharset(final MediaType contentType) {
+
+		if (contentType != null && contentType.getCharset() != null) {
+			return contentType.getCharset();
 		}
-		writer.close();
+		return getDefaultCharset();
 	}
 	
 }
@@ -0,0 +1,320 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.json.UTF8JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+import com.rabbitshop.springwebhandling.daos.Isbns;
+import com.rabbitshop.springwebhandling.daos.ProjectedBookCase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Jackson module with dedicated serializers and deserializers for Book and BookCase, so that the JSON representation does not go
+ * through the generic bean and collection handling of Jackson: no property lookup per element, no BeanSerializer nor
+ * BeanDeserializer, just the calls to the JsonGenerator and JsonParser needed by the two properties of a Book.
+ *
+ * The JSON representation is unchanged: a Book is {"isbn":"...","title":"..."}, null properties written as null, and a BookCase is an
+ * array of Books; only the Books of a ProjectedBookCase leave out the properties not included. Unknown properties are skipped on
+ * reading. A CompactBookCase is written straight from its columns: packed ISBNs are written as digits through a reused buffer and
+ * titles are copied from the arena already UTF-8 encoded when the generator writes bytes.
+ *
+ * The same row encoding is used by the BookCaseNdjsonHttpMessageConverter, one Book per line. Both apply the same IsbnPolicy to the
+ * BookCases they read.
+ */
+@Slf4j
+public class BookCaseJsonModule extends SimpleModule {
+
+	private static final long serialVersionUID = 4711391786233516920L;
+
+	private static final String ISBN = "isbn";
+	private static final String TITLE = "title";
+	private static final SerializedString ISBN_NAME = new SerializedString(ISBN);
+	private static final SerializedString TITLE_NAME = new SerializedString(TITLE);
+
+	public BookCaseJsonModule() {
+
+		this(IsbnPolicy.ACCEPT);
+	}
+
+	public BookCaseJsonModule(final IsbnPolicy isbnPolicy) {
+
+		super(BookCaseJsonModule.class.getSimpleName());
+		addSerializer(Book.class, new BookSerializer());
+		addDeserializer(Book.class, new BookDeserializer());
+		addSerializer(BookCase.class, new BookCaseSerializer());
+		addDeserializer(BookCase.class, new BookCaseDeserializer<>(BookCase.class, BookCase::new, isbnPolicy));
+		addDeserializer(CompactBookCase.class, new BookCaseDeserializer<>(CompactBookCase.class, CompactBookCase::new, isbnPolicy));
+	}
+
+	/**
+	 * Writes all the Books of a BookCase as JSON objects, each one followed by a line end if lineDelimited.
+	 */
+	static void writeBooks(final BookCase books, final JsonGenerator generator, final boolean lineDelimited) throws IOException {
+
+		if (books instanceof CompactBookCase) {
+			final CompactBookCase compactBooks = (CompactBookCase) books;
+			final byte[] digits = new byte[IsbnCodes.MAX_DIGITS];
+			final int size = compactBooks.size();
+			for (int i = 0; i < size; i++) {
+				writeRow(compactBooks, i, digits, generator);
+				if (lineDelimited) {
+					generator.writeRaw('\n');
+				}
+			}
+		} else {
+			final boolean isbnIncluded = !(books instanceof ProjectedBookCase) || ((ProjectedBookCase) books).isIsbnIncluded();
+			final boolean titleIncluded = !(books instanceof ProjectedBookCase) || ((ProjectedBookCase) books).isTitleIncluded();
+			for (final Book book : books) {
+				writeBook(book.getIsbn(), isbnIncluded, book.getTitle(), titleIncluded, generator);
+				if (lineDelimited) {
+					generator.writeRaw('\n');
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a Book, the parser being on its START_OBJECT.
+	 *
+	 * The properties are first expected in the order they are written, matching the raw bytes of their names; any other order
+	 * falls back to the lookup of every name.
+	 */
+	static Book readBook(final JsonParser parser) throws IOException {
+
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+			throw JsonMappingException.from(parser, "Expected a Book object but found " + parser.getCurrentToken());
+		}
+		final Book book = new Book();
+		if (parser.nextFieldName(ISBN_NAME)) {
+			book.setIsbn(readString(parser, ISBN));
+			if (parser.nextFieldName(TITLE_NAME)) {
+				book.setTitle(readString(parser, TITLE));
+				parser.nextToken();
+			}
+		}
+		for (JsonToken token = parser.getCurrentToken(); token != JsonToken.END_OBJECT; token = parser.nextToken()) {
+			if (token != JsonToken.FIELD_NAME) {
+				throw JsonMappingException.from(parser, "Expected a Book property but found " + token);
+			}
+			final String name = parser.getCurrentName();
+			if (ISBN.equals(name)) {
+				book.setIsbn(readString(parser, name));
+			} else if (TITLE.equals(name)) {
+				book.setTitle(readString(parser, name));
+			} else {
+				parser.nextToken();
+				parser.skipChildren();
+			}
+		}
+		return book;
+	}
+
+	/**
+	 * Adds a Book read from the given row to the books, through their columns if compactBooks is not null, unless the ISBN ingest
+	 * leaves it out. A checked ISBN is stored in its canonical form.
+	 */
+	static void addBook(final BookCase books, final CompactBookCase compactBooks, final Book book, final IsbnIngest ingest,
+			final long rowNumber) {
+
+		if (ingest != null) {
+			final long code = ingest.check(book.getIsbn(), rowNumber);
+			if (!Isbns.isValid(code)) {
+				return;
+			}
+			if (compactBooks != null) {
+				compactBooks.add(code, book.getTitle());
+				return;
+			}
+			book.setIsbn(IsbnCodes.toString(code));
+		}
+		if (compactBooks != null) {
+			compactBooks.add(book.getIsbn(), book.getTitle());
+		} else {
+			books.add(book);
+		}
+	}
+
+	/**
+	 * @return the value of the property whose name the parser is on, a scalar as text
+	 */
+	private static String readString(final JsonParser parser, final String name) throws IOException {
+
+		final JsonToken token = parser.nextToken();
+		if (token == JsonToken.VALUE_STRING) {
+			return parser.getText();
+		}
+		if (token == null || token.isStructStart() || token.isStructEnd()) {
+			throw JsonMappingException.from(parser, "Book property " + name + " must be a string but found " + token);
+		}
+		return parser.getValueAsString();
+	}
+
+	private static void writeBook(final String isbn, final boolean isbnIncluded, final String title, final boolean titleIncluded,
+			final JsonGenerator generator) throws IOException {
+
+		generator.writeStartObject();
+		if (isbnIncluded) {
+			generator.writeFieldName(ISBN_NAME);
+			generator.writeString(isbn);
+		}
+		if (titleIncluded) {
+			generator.writeFieldName(TITLE_NAME);
+			generator.writeString(title);
+		}
+		generator.writeEndObject();
+	}
+
+	private static void writeRow(final CompactBookCase books, final int index, final byte[] digits, final JsonGenerator generator)
+			throws IOException {
+
+		final byte[] data = books.getData();
+		final long isbnCode = books.getIsbnCode(index);
+		generator.writeStartObject();
+		generator.writeFieldName(ISBN_NAME);
+		if (IsbnCodes.isPacked(isbnCode)) {
+			writeUtf8String(digits, 0, IsbnCodes.writeDigits(isbnCode, digits, 0), generator);
+		} else if (IsbnCodes.isRaw(isbnCode)) {
+			writeUtf8String(data, IsbnCodes.rawOffset(isbnCode), IsbnCodes.rawLength(isbnCode), generator);
+		} else {
+			generator.writeNull();
+		}
+		final int titleLength = books.getTitleLength(index);
+		generator.writeFieldName(TITLE_NAME);
+		if (titleLength >= 0) {
+			writeUtf8String(data, books.getTitleOffset(index), titleLength, generator);
+		} else {
+			generator.writeNull();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes UTF-8 encoded bytes as a string value. Only the generators writing bytes support writeUTF8String(): the ones writing
+	 * chars, e.g. for ObjectMapper.writeValueAsString(), get the decoded String instead.
+	 */
+	private static void writeUtf8String(final byte[] bytes, final int offset, final int length, final JsonGenerator generator)
+			throws IOException {
+
+		if (generator instanceof UTF8JsonGenerator) {
+			generator.writeUTF8String(bytes, offset, length);
+		} else {
+			generator.writeString(new String(bytes, offset, length, StandardCharsets.UTF_8));
+		}
+	}
+
+	public static final class BookSerializer extends StdSerializer<Book> {
+
+		private static final long serialVersionUID = -2315209862153358214L;
+
+		public BookSerializer() {
+
+			super(Book.class);
+		}
+
+		@Override
+		public void serialize(final Book book, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+
+			writeBook(book.getIsbn(), true, book.getTitle(), true, generator);
+		}
+
+	}
+
+	public static final class BookDeserializer extends StdDeserializer<Book> {
+
+		private static final long serialVersionUID = 6152086387226419542L;
+
+		public BookDeserializer() {
+
+			super(Book.class);
+		}
+
+		@Override
+		public Book deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+
+			return readBook(parser);
+		}
+
+	}
+
+	public static final class BookCaseSerializer extends StdSerializer<BookCase> {
+
+		private static final long serialVersionUID = 3394795236707652101L;
+
+		public BookCaseSerializer() {
+
+			super(BookCase.class);
+		}
+
+		@Override
+		public boolean isEmpty(final SerializerProvider provider, final BookCase books) {
+
+			return books.isEmpty();
+		}
+
+		@Override
+		public void serialize(final BookCase books, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+
+			generator.writeStartArray(books.size());
+			writeBooks(books, generator, false);
+			generator.writeEndArray();
+		}
+
+	}
+
+	/**
+	 * Reads an array of Books into a new BookCase, a CompactBookCase storing them straight in its columns, applying the IsbnPolicy.
+	 */
+	public static final class BookCaseDeserializer<T extends BookCase> extends StdDeserializer<T> {
+
+		private static final long serialVersionUID = -7830453329188004012L;
+
+		private final transient Supplier<T> factory;
+
+		private final IsbnPolicy isbnPolicy;
+
+		public BookCaseDeserializer(final Class<T> bookCaseClass, final Supplier<T> factory, final IsbnPolicy isbnPolicy) {
+
+			super(bookCaseClass);
+			this.factory = factory;
+			this.isbnPolicy = isbnPolicy;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T deserialize(final JsonParser parser, final DeserializationContext context) throws IOException {
+
+			if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+				return (T) context.handleUnexpectedToken(handledType(), parser);
+			}
+			final T books = factory.get();
+			final CompactBookCase compactBooks = books instanceof CompactBookCase ? (CompactBookCase) books : null;
+			final IsbnIngest ingest = IsbnIngest.of(isbnPolicy);
+			long rowNumber = 0;
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				addBook(books, compactBooks, readBook(parser), ingest, ++rowNumber);
+			}
+			if (ingest != null) {
+				ingest.finish(log);
+			}
+			return books;
+		}
+
+	}
+
+}
@@ -0,0 +1,135 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * HttpMessageConverter for newline-delimited JSON (one JSON Book per line), the streaming-friendly variant of the JSON representation:
+ * Books are written one at a time through a single Jackson JsonGenerator, which hands its buffer to the response every time it fills up,
+ * and a reader can process every line as soon as it has been received. Books are read and written by the BookCaseJsonModule
+ * routines, straight through the JsonParser and JsonGenerator.
+ *
+ * Request bodies are parsed as a sequence of root-level JSON values, so blank lines are tolerated, with the same maxRows/maxBytes
+ * limits and ISBN policy of the CSV converter.
+ */
+@Slf4j
+public class BookCaseNdjsonHttpMessageConverter extends AbstractHttpMessageConverter<BookCase> {
+
+	public static final MediaType MEDIA_TYPE = new MediaType("application", "x-ndjson");
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Maximum number of rows accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxRows;
+
+	/**
+	 * Maximum number of bytes accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxBytes;
+
+	/**
+	 * Whether request bodies are read into a CompactBookCase instead of a BookCase
+	 */
+	@Getter
+	@Setter
+	private boolean compactStorage;
+
+	/**
+	 * Whether a CompactBookCase stores repeated titles only once
+	 */
+	@Getter
+	@Setter
+	private boolean deduplicateTitles;
+
+	/**
+	 * What to do with rows having an invalid ISBN, see IsbnPolicy
+	 */
+	@Getter
+	@Setter
+	private IsbnPolicy isbnPolicy = IsbnPolicy.ACCEPT;
+
+	private final ObjectMapper objectMapper;
+
+	public BookCaseNdjsonHttpMessageConverter(final ObjectMapper objectMapper) {
+
+		super(MEDIA_TYPE);
+		this.objectMapper = objectMapper;
+
+		log.debug("Create HTTP MessageConverter for type " + MEDIA_TYPE);
+	}
+
+	@Override
+	protected boolean supports(final Class<?> clazz) {
+
+		return BookCase.class.isAssignableFrom(clazz);
+	}
+
+	@Override
+	protected BookCase readInternal(final Class<? extends BookCase> clazz, final HttpInputMessage httpInputMessage) throws IOException, HttpMessageNotReadableException {
+
+		log.debug("Read NDJSON HTTP RequestBody to find out Books to be added to BookCase");
+
+		final long contentLength = httpInputMessage.getHeaders().getContentLength();
+		if (maxBytes > 0 && contentLength > maxBytes) {
+			throw new PayloadTooLargeException("Request body of " + contentLength + " bytes exceeds the limit of " + maxBytes + " bytes");
+		}
+
+		final boolean compact = compactStorage || CompactBookCase.class.isAssignableFrom(clazz);
+		final CompactBookCase compactBookCase = compact ? new CompactBookCase(INITIAL_CAPACITY, deduplicateTitles) : null;
+		final BookCase bookCase = compact ? compactBookCase : new BookCase();
+		final IsbnIngest ingest = IsbnIngest.of(isbnPolicy);
+		try (final JsonParser parser = objectMapper.getFactory().createParser(new BoundedInputStream(httpInputMessage.getBody(), maxBytes))) {
+			long rowNumber = 0;
+			while (parser.nextToken() != null) {
+				if (maxRows > 0 && rowNumber >= maxRows) {
+					throw new PayloadTooLargeException("Request body exceeds the limit of " + maxRows + " rows");
+				}
+				BookCaseJsonModule.addBook(bookCase, compactBookCase, BookCaseJsonModule.readBook(parser), ingest, ++rowNumber);
+			}
+		} catch (final JsonProcessingException e) {
+			throw new HttpMessageNotReadableException("Invalid NDJSON body: " + e.getOriginalMessage(), e);
+		}
+		if (ingest != null) {
+			ingest.finish(log);
+		}
+		return bookCase;
+	}
+
+	@Override
+	protected void writeInternal(final BookCase books, final HttpOutputMessage httpOutputMessage) throws IOException, HttpMessageNotWritableException {
+
+		log.debug("Write out all book in BookCase to NDJSON HTTP ResponseBody");
+
+		final JsonGenerator generator = objectMapper.getFactory().createGenerator(httpOutputMessage.getBody(), JsonEncoding.UTF8);
+		// no separator between root values: each Book is followed by an explicit line end instead
+		generator.setRootValueSeparator(null);
+		BookCaseJsonModule.writeBooks(books, generator, true);
+		generator.flush();
+	}
+
+}
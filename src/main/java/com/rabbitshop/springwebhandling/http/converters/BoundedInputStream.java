@@ -0,0 +1,80 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+
+/**
+ * InputStream counting the bytes read from the wrapped stream and failing as soon as more than maxBytes have been consumed.
+ * This way an oversized body is rejected while it is being read, also when the client did not send any Content-Length.
+ */
+class BoundedInputStream extends FilterInputStream {
+
+	private final long maxBytes;
+
+	private long count;
+
+	/**
+	 * @param in
+	 * @param maxBytes maximum number of bytes allowed, 0 or less means unlimited
+	 */
+	BoundedInputStream(final InputStream in, final long maxBytes) {
+
+		super(in);
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		final int b = super.read();
+		if (b != -1) {
+			count(1);
+		}
+		return b;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+
+		final int read = super.read(b, off, len);
+		if (read > 0) {
+			count(read);
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+
+		final long skipped = super.skip(n);
+		count(skipped);
+		return skipped;
+	}
+
+	/**
+	 * @return number of bytes read so far
+	 */
+	long getCount() {
+
+		return count;
+	}
+
+	@Override
+	public boolean markSupported() {
+
+		// reset() would make already counted bytes be counted twice
+		return false;
+	}
+
+	private void count(final long read) {
+
+		count += read;
+		if (maxBytes > 0 && count > maxBytes) {
+			throw new PayloadTooLargeException("Request body exceeds the limit of " + maxBytes + " bytes");
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.rabbitshop.springwebhandling.utils.Utf8;
+
+/**
+ * High-throughput CSV encoder.
+ *
+ * Fields are encoded to UTF-8 and escaped in place, straight into a reusable byte buffer: no intermediate String[], Writer or
+ * char[] is allocated per row. Every time the buffer is full its content is written and flushed to the OutputStream, so a large
+ * response goes out in chunks (chunked transfer encoding) instead of being accumulated in memory.
+ *
+ * The produced text is the same as the one of the OpenCSV CSVWriter with its default settings: every non-null field is quoted,
+ * quotes are escaped by doubling them, a null field is left empty and rows end with '\n'.
+ *
+ * An instance is not thread-safe, but it can be reused for any number of subsequent encodings: start(), then the fields of each
+ * row separated by writeSeparator() and terminated by endRow(), then flushChunk() and finally release().
+ */
+class CsvEncoder {
+
+	static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+	static final byte SEPARATOR = ',';
+	static final byte QUOTE = '"';
+	static final byte LINE_END = '\n';
+
+	final byte[] buffer;
+
+	int position;
+
+	private OutputStream out;
+
+	// bytes written since start()
+	private long written;
+
+	CsvEncoder(final int chunkSize) {
+
+		buffer = new byte[Math.max(chunkSize, 64)];
+	}
+
+	void start(final OutputStream outputStream) {
+
+		out = outputStream;
+		position = 0;
+		written = 0;
+	}
+
+	/**
+	 * Releases the OutputStream, dropping whatever has not been flushed yet.
+	 */
+	void release() {
+
+		out = null;
+		position = 0;
+	}
+
+	void flushChunk() throws IOException {
+
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			written += position;
+			position = 0;
+		}
+		out.flush();
+	}
+
+	/**
+	 * @return number of bytes written to the OutputStream since start()
+	 */
+	long getWritten() {
+
+		return written;
+	}
+
+	void writeSeparator() throws IOException {
+
+		writeByte(SEPARATOR);
+	}
+
+	void endRow() throws IOException {
+
+		writeByte(LINE_END);
+	}
+
+	void writeField(final String value) throws IOException {
+
+		if (value == null) {
+			return;
+		}
+
+		writeByte(QUOTE);
+		final int length = value.length();
+		int start = 0;
+		for (int quote = value.indexOf(QUOTE); quote >= 0; quote = value.indexOf(QUOTE, start)) {
+			writeChars(value, start, quote);
+			ensure(2);
+			buffer[position++] = QUOTE;
+			buffer[position++] = QUOTE;
+			start = quote + 1;
+		}
+		writeChars(value, start, length);
+		writeByte(QUOTE);
+	}
+
+	/**
+	 * Writes a field already encoded in UTF-8: quotes can be escaped byte by byte since no multi-byte sequence contains ASCII bytes.
+	 */
+	void writeUtf8Field(final byte[] value, final int offset, final int length) throws IOException {
+
+		if (length < 0) {
+			return;
+		}
+
+		writeByte(QUOTE);
+		for (int i = offset; i < offset + length; i++) {
+			ensure(2);
+			final byte b = value[i];
+			if (b == QUOTE) {
+				buffer[position++] = QUOTE;
+			}
+			buffer[position++] = b;
+		}
+		writeByte(QUOTE);
+	}
+
+	/**
+	 * Encodes the chars [start, end) of the value, none of them being a quote, in slices fitting in the room left in the buffer.
+	 * A slice never ends between the two chars of a surrogate pair.
+	 */
+	private void writeChars(final String value, final int start, final int end) throws IOException {
+
+		int from = start;
+		while (from < end) {
+			ensure(2 * Utf8.MAX_BYTES_PER_CHAR);
+			int to = Math.min(end, from + (buffer.length - position) / Utf8.MAX_BYTES_PER_CHAR);
+			if (to < end && Character.isHighSurrogate(value.charAt(to - 1))) {
+				to--;
+			}
+			position = Utf8.encode(value, from, to, buffer, position);
+			from = to;
+		}
+	}
+
+	/**
+	 * Flushes the buffer unless it has room for the given number of bytes.
+	 */
+	private void ensure(final int bytes) throws IOException {
+
+		if (position + bytes > buffer.length) {
+			flushChunk();
+		}
+	}
+
+	void writeByte(final byte b) throws IOException {
+
+		if (position == buffer.length) {
+			flushChunk();
+		}
+		buffer[position++] = b;
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import com.opencsv.CSVReader;
+import com.rabbitshop.springwebhandling.exceptions.PayloadTooLargeException;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Generic CSV HttpMessageConverter for any List subclass of POJOs whose fields are mapped to columns with @CsvColumn, so that a new
+ * resource type only needs the annotations on its DAO instead of a hand-written converter.
+ *
+ * The CsvMapping of each class is built the first time the class is seen and cached, including the classes that turn out not to be
+ * supported: after that, supports() is a single map lookup. Rows are read with the OpenCSV CSVReader and written by a CsvEncoder
+ * reused by each thread, with the same output format, charset handling and limits as the BookCaseHttpMessageConverter.
+ */
+@Slf4j
+public class CsvHttpMessageConverter extends AbstractHttpMessageConverter<List<?>> {
+
+	private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+	/**
+	 * Maximum number of rows accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxRows;
+
+	/**
+	 * Maximum number of bytes accepted in a request body, 0 or less means unlimited
+	 */
+	@Getter
+	@Setter
+	private long maxBytes;
+
+	/**
+	 * Size of the buffer flushed to the response every time it fills up, read once by each thread when its encoder is created
+	 */
+	@Getter
+	@Setter
+	private int writeChunkSize = CsvEncoder.DEFAULT_CHUNK_SIZE;
+
+	private final ConcurrentMap<Class<?>, Optional<CsvMapping<?, ?>>> mappings = new ConcurrentHashMap<>();
+
+	private final ThreadLocal<CsvEncoder> encoders = ThreadLocal.withInitial(() -> new CsvEncoder(writeChunkSize));
+
+	public CsvHttpMessageConverter(final MediaType... supportedMediaTypes) {
+
+		super(supportedMediaTypes);
+		setDefaultCharset(DEFAULT_CHARSET);
+	}
+
+	@Override
+	protected boolean supports(final Class<?> clazz) {
+
+		return mapping(clazz) != null;
+	}
+
+	@Override
+	protected List<?> readInternal(final Class<? extends List<?>> clazz, final HttpInputMessage httpInputMessage) throws IOException, HttpMessageNotReadableException {
+
+		log.debug("Read HTTP RequestBody into " + clazz.getSimpleName());
+
+		final HttpHeaders headers = httpInputMessage.getHeaders();
+		final long contentLength = headers.getContentLength();
+		if (maxBytes > 0 && contentLength > maxBytes) {
+			throw new PayloadTooLargeException("Request body of " + contentLength + " bytes exceeds the limit of " + maxBytes + " bytes");
+		}
+
+		return read(mapping(clazz), new CSVReader(new InputStreamReader(
+				new BoundedInputStream(httpInputMessage.getBody(), maxBytes), getReadCharset(headers.getContentType()))));
+	}
+
+	@Override
+	protected void writeInternal(final List<?> list, final HttpOutputMessage httpOutputMessage) throws IOException, HttpMessageNotWritableException {
+
+		log.debug("Write out " + list.getClass().getSimpleName() + " to HTTP ResponseBody");
+
+		write(mapping(list.getClass()), list, httpOutputMessage);
+	}
+
+	protected Charset getReadCharset(final MediaType contentType) {
+
+		if (contentType != null && contentType.getCharset() != null) {
+			return contentType.getCharset();
+		}
+		return getDefaultCharset();
+	}
+
+	private <L extends List<E>, E> L read(final CsvMapping<L, E> mapping, final CSVReader reader) throws IOException {
+
+		final L list = mapping.newList();
+		try {
+			String[] row;
+			while ((row = reader.readNext()) != null) {
+				if (maxRows > 0 && list.size() >= maxRows) {
+					throw new PayloadTooLargeException("Request body exceeds the limit of " + maxRows + " rows");
+				}
+				list.add(mapping.read(row));
+			}
+		} finally {
+			reader.close();
+		}
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <L extends List<E>, E> void write(final CsvMapping<L, E> mapping, final List<?> list, final HttpOutputMessage httpOutputMessage) throws IOException {
+
+		final CsvEncoder encoder = encoders.get();
+		encoder.start(httpOutputMessage.getBody());
+		try {
+			for (final Object element : list) {
+				mapping.write((E) element, encoder);
+			}
+			encoder.flushChunk();
+		} finally {
+			encoder.release();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private CsvMapping mapping(final Class<?> clazz) {
+
+		final Optional<CsvMapping<?, ?>> cached = mappings.get(clazz);
+		if (cached != null) {
+			return cached.orElse(null);
+		}
+		return mappings.computeIfAbsent(clazz, key -> {
+			final CsvMapping<?, ?> mapping = CsvMapping.of(key);
+			log.debug("CSV mapping of class " + key.getName() + (mapping != null ? " created" : " not available"));
+			return Optional.ofNullable(mapping);
+		}).orElse(null);
+	}
+
+}
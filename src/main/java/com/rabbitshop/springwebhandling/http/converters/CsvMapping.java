@@ -0,0 +1,281 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.core.ResolvableType;
+import org.springframework.util.ClassUtils;
+
+import com.rabbitshop.springwebhandling.daos.CsvColumn;
+
+/**
+ * Mapping between a List subclass of POJOs (like BookCase, a List of Books) and CSV rows, driven by the @CsvColumn annotations of
+ * the POJO class.
+ *
+ * Everything is resolved once, when the mapping is created: the element type, the columns, and the accessors. Getters, setters and
+ * no-arg constructors are turned into Function, BiConsumer and Supplier instances through LambdaMetafactory, exactly as the lambdas
+ * and method references of the source code are, so reading or writing a row costs plain interface calls and never goes through
+ * reflection. When LambdaMetafactory cannot be used, the accessors fall back to invoking the MethodHandles.
+ *
+ * @param <L> List type
+ * @param <E> element type
+ */
+final class CsvMapping<L extends List<E>, E> {
+
+	private final Supplier<L> listFactory;
+
+	private final Supplier<E> elementFactory;
+
+	private final Column<E>[] columns;
+
+	private CsvMapping(final Supplier<L> listFactory, final Supplier<E> elementFactory, final Column<E>[] columns) {
+
+		this.listFactory = listFactory;
+		this.elementFactory = elementFactory;
+		this.columns = columns;
+	}
+
+	/**
+	 * @return the mapping of the given class, null if it is not a concrete List subclass of elements having @CsvColumn fields
+	 */
+	static CsvMapping<?, ?> of(final Class<?> clazz) {
+
+		if (!List.class.isAssignableFrom(clazz) || clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())
+				|| !ClassUtils.hasConstructor(clazz)) {
+			return null;
+		}
+		final Class<?> elementClass = ResolvableType.forClass(clazz).as(List.class).resolveGeneric(0);
+		if (elementClass == null || !ClassUtils.hasConstructor(elementClass)) {
+			return null;
+		}
+		final List<Field> fields = new ArrayList<>();
+		for (Class<?> type = elementClass; type != null && type != Object.class; type = type.getSuperclass()) {
+			for (final Field field : type.getDeclaredFields()) {
+				if (field.isAnnotationPresent(CsvColumn.class)) {
+					fields.add(field);
+				}
+			}
+		}
+		if (fields.isEmpty()) {
+			return null;
+		}
+		return create(clazz, elementClass, fields);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static CsvMapping<?, ?> create(final Class<?> clazz, final Class<?> elementClass, final List<Field> fields) {
+
+		fields.sort(Comparator.comparingInt(field -> field.getAnnotation(CsvColumn.class).index()));
+		final Column[] columns = new Column[fields.size()];
+		for (int i = 0; i < columns.length; i++) {
+			final Field field = fields.get(i);
+			if (field.getAnnotation(CsvColumn.class).index() != i) {
+				throw new IllegalStateException("@CsvColumn indexes of " + elementClass.getName() + " must go from 0 to " + (columns.length - 1));
+			}
+			final PropertyDescriptor property = BeanUtils.getPropertyDescriptor(elementClass, field.getName());
+			if (property == null || property.getReadMethod() == null || property.getWriteMethod() == null) {
+				throw new IllegalStateException("@CsvColumn " + elementClass.getName() + "." + field.getName() + " has no public getter and setter");
+			}
+			columns[i] = new Column(getter(property.getReadMethod()), setter(property.getWriteMethod()), parser(field.getType()),
+					field.getType() == String.class);
+		}
+		return new CsvMapping(constructor(clazz), constructor(elementClass), columns);
+	}
+
+	L newList() {
+
+		return listFactory.get();
+	}
+
+	int getColumnCount() {
+
+		return columns.length;
+	}
+
+	/**
+	 * @return a new element having the values of the given row, missing or empty columns leave the properties to their default
+	 */
+	E read(final String[] row) {
+
+		final E element = elementFactory.get();
+		final int count = Math.min(row.length, columns.length);
+		for (int i = 0; i < count; i++) {
+			columns[i].set(element, row[i]);
+		}
+		return element;
+	}
+
+	void write(final E element, final CsvEncoder encoder) throws IOException {
+
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				encoder.writeSeparator();
+			}
+			encoder.writeField(columns[i].get(element));
+		}
+		encoder.endRow();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Supplier<T> constructor(final Class<T> clazz) {
+
+		try {
+			final MethodHandles.Lookup lookup = MethodHandles.lookup();
+			final MethodHandle handle = lookup.findConstructor(clazz, MethodType.methodType(void.class));
+			try {
+				final CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+						MethodType.methodType(Object.class), handle, MethodType.methodType(clazz));
+				return (Supplier<T>) site.getTarget().invoke();
+			} catch (final Throwable e) {
+				return () -> (T) invoke(handle);
+			}
+		} catch (final ReflectiveOperationException e) {
+			throw new IllegalStateException("No accessible no-arg constructor in " + clazz.getName(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Function<T, Object> getter(final Method method) {
+
+		final MethodHandle handle = unreflect(method);
+		try {
+			final CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "apply", MethodType.methodType(Function.class),
+					MethodType.methodType(Object.class, Object.class), handle, handle.type().wrap());
+			return (Function<T, Object>) site.getTarget().invoke();
+		} catch (final Throwable e) {
+			return element -> invoke(handle, element);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> BiConsumer<T, Object> setter(final Method method) {
+
+		final MethodHandle handle = unreflect(method);
+		try {
+			final CallSite site = LambdaMetafactory.metafactory(MethodHandles.lookup(), "accept", MethodType.methodType(BiConsumer.class),
+					MethodType.methodType(void.class, Object.class, Object.class), handle, handle.type().wrap().changeReturnType(void.class));
+			return (BiConsumer<T, Object>) site.getTarget().invoke();
+		} catch (final Throwable e) {
+			return (element, value) -> invoke(handle, element, value);
+		}
+	}
+
+	private static MethodHandle unreflect(final Method method) {
+
+		try {
+			return MethodHandles.lookup().unreflect(method);
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException("Cannot access " + method, e);
+		}
+	}
+
+	private static Object invoke(final MethodHandle handle, final Object... arguments) {
+
+		try {
+			return handle.invokeWithArguments(arguments);
+		} catch (final RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the conversion of a CSV field to the given property type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Function<String, Object> parser(final Class<?> type) {
+
+		final Class<?> wrapper = ClassUtils.resolvePrimitiveIfNecessary(type);
+		if (wrapper == String.class) {
+			return value -> value;
+		}
+		if (wrapper == Integer.class) {
+			return Integer::valueOf;
+		}
+		if (wrapper == Long.class) {
+			return Long::valueOf;
+		}
+		if (wrapper == Double.class) {
+			return Double::valueOf;
+		}
+		if (wrapper == Float.class) {
+			return Float::valueOf;
+		}
+		if (wrapper == Short.class) {
+			return Short::valueOf;
+		}
+		if (wrapper == Byte.class) {
+			return Byte::valueOf;
+		}
+		if (wrapper == Boolean.class) {
+			return Boolean::valueOf;
+		}
+		if (wrapper == Character.class) {
+			return value -> value.charAt(0);
+		}
+		if (type.isEnum()) {
+			return value -> Enum.valueOf((Class<Enum>) type, value);
+		}
+		throw new IllegalStateException("@CsvColumn of type " + type.getName() + " is not supported");
+	}
+
+	/**
+	 * Accessors of a column, values are Strings on the CSV side.
+	 */
+	private static final class Column<E> {
+
+		private final Function<E, Object> getter;
+
+		private final BiConsumer<E, Object> setter;
+
+		private final Function<String, Object> parser;
+
+		// String columns are copied as they are, empty fields included
+		private final boolean text;
+
+		private Column(final Function<E, Object> getter, final BiConsumer<E, Object> setter, final Function<String, Object> parser,
+				final boolean text) {
+
+			this.getter = getter;
+			this.setter = setter;
+			this.parser = parser;
+			this.text = text;
+		}
+
+		private String get(final E element) {
+
+			final Object value = getter.apply(element);
+			if (value == null || text) {
+				return (String) value;
+			}
+			return value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+		}
+
+		private void set(final E element, final String value) {
+
+			if (text) {
+				setter.accept(element, value);
+			} else if (value != null && !value.isEmpty()) {
+				setter.accept(element, parser.apply(value));
+			}
+		}
+
+	}
+
+}
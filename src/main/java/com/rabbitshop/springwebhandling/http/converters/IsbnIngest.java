@@ -0,0 +1,118 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+
+import com.rabbitshop.springwebhandling.daos.IsbnError;
+import com.rabbitshop.springwebhandling.daos.Isbns;
+import com.rabbitshop.springwebhandling.exceptions.InvalidIsbnException;
+
+/**
+ * ISBN stage of the ingest of a single upload: normalizes the ISBN of every row and applies the IsbnPolicy to the invalid ones.
+ *
+ * Invalid rows are summarized in a compact, bounded form: the count of each IsbnError and the numbers of the first MAX_SAMPLES rows.
+ * Rows may be checked concurrently (parallel parsing), in any order: the sampled rows are always the lowest numbered ones.
+ * Valid ISBNs cost a single allocation-free pass, the summary only gets touched by invalid ones.
+ */
+final class IsbnIngest {
+
+	private static final int MAX_SAMPLES = 10;
+
+	private final IsbnPolicy policy;
+
+	private final int[] errorCounts = new int[IsbnError.values().length];
+
+	private final long[] sampleRows = new long[MAX_SAMPLES];
+
+	private int samples;
+
+	private long invalidRows;
+
+	private IsbnIngest(final IsbnPolicy policy) {
+
+		this.policy = policy;
+	}
+
+	/**
+	 * @return the ingest stage of an upload, null if the policy does not validate ISBNs
+	 */
+	static IsbnIngest of(final IsbnPolicy policy) {
+
+		return policy == null || policy == IsbnPolicy.ACCEPT ? null : new IsbnIngest(policy);
+	}
+
+	/**
+	 * @return the normalized ISBN code of a row, a negative value if the row has to be left out
+	 */
+	long check(final String isbn, final long rowNumber) {
+
+		final long code = Isbns.normalize(isbn);
+		if (!Isbns.isValid(code)) {
+			final IsbnError error = Isbns.error(code);
+			if (policy == IsbnPolicy.FAIL) {
+				throw new InvalidIsbnException("Invalid ISBN at row " + rowNumber + ": " + error.getDescription());
+			}
+			record(rowNumber, error);
+		}
+		return code;
+	}
+
+	/**
+	 * Ends the ingest of the upload: with the REJECT policy, fails if any row was invalid; with the SKIP policy, logs the summary.
+	 */
+	void finish(final Logger log) {
+
+		if (invalidRows == 0) {
+			return;
+		}
+		if (policy == IsbnPolicy.REJECT) {
+			throw new InvalidIsbnException(getSummary());
+		}
+		log.warn("Rows left out of the uploaded BookCase: " + getSummary());
+	}
+
+	synchronized long getInvalidRows() {
+
+		return invalidRows;
+	}
+
+	/**
+	 * @return the summary of the invalid rows, e.g. "3 invalid ISBNs (wrong check digit: 2, invalid character: 1), rows 2, 5, 9"
+	 */
+	synchronized String getSummary() {
+
+		final StringBuilder summary = new StringBuilder(128).append(invalidRows).append(" invalid ISBNs (");
+		String separator = "";
+		for (final IsbnError error : IsbnError.values()) {
+			if (errorCounts[error.ordinal()] > 0) {
+				summary.append(separator).append(error.getDescription()).append(": ").append(errorCounts[error.ordinal()]);
+				separator = ", ";
+			}
+		}
+		summary.append(samples < invalidRows ? "), first rows " : "), rows ");
+		for (int i = 0; i < samples; i++) {
+			summary.append(i > 0 ? ", " : "").append(sampleRows[i]);
+		}
+		return summary.toString();
+	}
+
+	private synchronized void record(final long rowNumber, final IsbnError error) {
+
+		invalidRows++;
+		errorCounts[error.ordinal()]++;
+		// keeps the lowest row numbers, sorted
+		if (samples == MAX_SAMPLES && rowNumber > sampleRows[MAX_SAMPLES - 1]) {
+			return;
+		}
+		int position = Arrays.binarySearch(sampleRows, 0, samples, rowNumber);
+		position = position < 0 ? -position - 1 : position;
+		final int moved = Math.min(samples, MAX_SAMPLES - 1) - position;
+		if (moved > 0) {
+			System.arraycopy(sampleRows, position, sampleRows, position + 1, moved);
+		}
+		sampleRows[position] = rowNumber;
+		samples = Math.min(samples + 1, MAX_SAMPLES);
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+/**
+ * What to do with the rows of an uploaded BookCase whose ISBN is not valid, see IsbnIngest.
+ */
+public enum IsbnPolicy {
+
+	/**
+	 * ISBNs are stored as they are, without any validation nor normalization
+	 */
+	ACCEPT,
+
+	/**
+	 * Valid ISBNs are normalized, the whole upload is rejected (400) with a summary of the invalid rows if there is any
+	 */
+	REJECT,
+
+	/**
+	 * Valid ISBNs are normalized, invalid rows are left out of the BookCase and summarized in the log
+	 */
+	SKIP,
+
+	/**
+	 * Valid ISBNs are normalized, the upload is rejected (400) at the first invalid row, without reading the rest of it
+	 */
+	FAIL
+
+}
@@ -0,0 +1,248 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.opencsv.CSVParser;
+import com.opencsv.CSVReader;
+
+/**
+ * Parallel parsing of a CSV body held in memory, in two steps.
+ *
+ * First the body is split into chunks of about chunkSize bytes, ending on record boundaries: a single pass over the bytes tracks the
+ * quoting state exactly as the OpenCSV CSVParser does (quotes, doubled quotes, backslash escapes), so that a line end inside a quoted
+ * field never ends a chunk. The same pass counts the records, which gives the number of the first row of every chunk.
+ * Then the chunks are parsed by a CSVReader each, on a ForkJoinPool, and every row is handed to a RowMapper; the results are
+ * returned per chunk, in the original order.
+ *
+ * Splitting works on bytes, so it is only valid for charsets where quotes, separators and line ends can never be part of a multi-byte
+ * character: see isSupported().
+ */
+final class ParallelCsvParser {
+
+	private static final byte SEPARATOR = CSVParser.DEFAULT_SEPARATOR;
+	private static final byte QUOTE = CSVParser.DEFAULT_QUOTE_CHARACTER;
+	private static final byte ESCAPE = CSVParser.DEFAULT_ESCAPE_CHARACTER;
+
+	private static final List<Charset> SUPPORTED_CHARSETS = Arrays.asList(
+			StandardCharsets.UTF_8, StandardCharsets.US_ASCII, StandardCharsets.ISO_8859_1);
+
+	private final ForkJoinPool pool;
+
+	private ParallelCsvParser(final ForkJoinPool pool) {
+
+		this.pool = pool;
+	}
+
+	static ParallelCsvParser on(final ForkJoinPool pool) {
+
+		return new ParallelCsvParser(pool);
+	}
+
+	static boolean isSupported(final Charset charset) {
+
+		return SUPPORTED_CHARSETS.contains(charset);
+	}
+
+	/**
+	 * @return the chunks of the given body, each at least chunkSize bytes long but the last one
+	 */
+	static Chunks split(final byte[] body, final int chunkSize) {
+
+		final int length = body.length;
+		final int[] offsets = new int[length / chunkSize + 2];
+		final int[] firstRows = new int[offsets.length];
+		int count = 0;
+		int rows = 0;
+		int recordEnd = 0;
+		boolean inQuotes = false;
+		boolean inField = false;
+		int i = 0;
+		while (i < length) {
+			final byte c = body[i];
+			if (c == '\n' || c == '\r') {
+				i += c == '\r' && i + 1 < length && body[i + 1] == '\n' ? 2 : 1;
+				if (!inQuotes) {
+					// end of record, a line end inside quotes only ends a line of a multi-line record
+					inField = false;
+					rows++;
+					recordEnd = i;
+					if (i - offsets[count] >= chunkSize && i < length) {
+						offsets[++count] = i;
+						firstRows[count] = rows;
+					}
+				}
+				continue;
+			}
+			// same rules of CSVParser.parseLine(): escapes and doubled quotes count inside quotes and inside unquoted fields as well
+			final boolean quoted = inQuotes || inField;
+			if (c == ESCAPE) {
+				if (quoted && i + 1 < length && (body[i + 1] == QUOTE || body[i + 1] == ESCAPE)) {
+					i++;
+				}
+			} else if (c == QUOTE) {
+				if (quoted && i + 1 < length && body[i + 1] == QUOTE) {
+					i++;
+				} else {
+					inQuotes = !inQuotes;
+				}
+				inField = !inField;
+			} else if (c == SEPARATOR && !inQuotes) {
+				inField = false;
+			} else {
+				inField = true;
+			}
+			i++;
+		}
+		if (length > recordEnd) {
+			// last record without line end
+			rows++;
+		}
+		offsets[++count] = length;
+		firstRows[count] = rows;
+		return new Chunks(count, offsets, firstRows, rows);
+	}
+
+	/**
+	 * @return the mapped rows of every chunk, in the order of the body
+	 */
+	<T> List<List<T>> parse(final byte[] body, final Chunks chunks, final Charset charset, final RowMapper<T> mapper) throws IOException {
+
+		final List<List<T>> results = new ArrayList<>(chunks.getCount());
+		for (int i = 0; i < chunks.getCount(); i++) {
+			results.add(null);
+		}
+		try {
+			pool.invoke(new ParseTask<>(body, chunks, charset, mapper, results, 0, chunks.getCount()));
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return results;
+	}
+
+	/**
+	 * Conversion of a parsed row, also in charge of validating it.
+	 */
+	@FunctionalInterface
+	interface RowMapper<T> {
+
+		/**
+		 * @param rowNumber number of the row in the whole body, starting from 1
+		 */
+		T map(String[] row, long rowNumber);
+
+	}
+
+	/**
+	 * Record-aligned chunks of a body: chunk i goes from offset i (included) to offset i + 1 (excluded), its rows are numbered from
+	 * firstRow i + 1.
+	 */
+	static final class Chunks {
+
+		private final int count;
+
+		private final int[] offsets;
+
+		private final int[] firstRows;
+
+		private final int rows;
+
+		private Chunks(final int count, final int[] offsets, final int[] firstRows, final int rows) {
+
+			this.count = count;
+			this.offsets = offsets;
+			this.firstRows = firstRows;
+			this.rows = rows;
+		}
+
+		int getCount() {
+
+			return count;
+		}
+
+		/**
+		 * @return the number of records in the whole body
+		 */
+		int getRows() {
+
+			return rows;
+		}
+
+	}
+
+	/**
+	 * Parses a range of chunks, halving it until a single chunk is left.
+	 */
+	private static final class ParseTask<T> extends RecursiveAction {
+
+		private static final long serialVersionUID = -2245470611860213154L;
+
+		private final byte[] body;
+
+		private final Chunks chunks;
+
+		private final Charset charset;
+
+		private final RowMapper<T> mapper;
+
+		private final List<List<T>> results;
+
+		private final int from;
+
+		private final int to;
+
+		private ParseTask(final byte[] body, final Chunks chunks, final Charset charset, final RowMapper<T> mapper,
+				final List<List<T>> results, final int from, final int to) {
+
+			this.body = body;
+			this.chunks = chunks;
+			this.charset = charset;
+			this.mapper = mapper;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > 1) {
+				final int middle = (from + to) >>> 1;
+				invokeAll(new ParseTask<>(body, chunks, charset, mapper, results, from, middle),
+						new ParseTask<>(body, chunks, charset, mapper, results, middle, to));
+				return;
+			}
+			try {
+				results.set(from, parseChunk(from));
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private List<T> parseChunk(final int chunk) throws IOException {
+
+			final int start = chunks.offsets[chunk];
+			final int end = chunks.offsets[chunk + 1];
+			final List<T> rows = new ArrayList<>(chunks.firstRows[chunk + 1] - chunks.firstRows[chunk]);
+			long rowNumber = chunks.firstRows[chunk];
+			try (final CSVReader reader = new CSVReader(new InputStreamReader(new ByteArrayInputStream(body, start, end - start), charset))) {
+				String[] row;
+				while ((row = reader.readNext()) != null) {
+					rows.add(mapper.map(row, ++rowNumber));
+				}
+			}
+			return rows;
+		}
+
+	}
+
+}
@@ -0,0 +1,306 @@
+package com.rabbitshop.springwebhandling.indexes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+import com.rabbitshop.springwebhandling.daos.Isbns;
+
+/**
+ * Hash index from ISBN to position in a BookCase.
+ *
+ * ISBNs are keyed by their numeric {@link IsbnCodes} code in a primitive open-addressing table (linear probing over a long[] of keys
+ * and an int[] of positions), so lookups are O(1) and neither keys nor values are ever boxed. The rare ISBNs that cannot be packed
+ * (separators, check digit 'X', ...) are kept in a plain HashMap.
+ *
+ * When the same ISBN appears more than once, the index points to its first occurrence. Null ISBNs are not indexed.
+ *
+ * An index can be copied and then updated in place (put/remove/reindexFrom) to follow small changes of its BookCase without
+ * rebuilding it. An IsbnIndex is not thread-safe: it must not be modified anymore once shared with readers.
+ */
+public class IsbnIndex {
+
+	public static final int NOT_FOUND = -1;
+
+	private static final long FREE = IsbnCodes.NULL;
+	private static final int MIN_CAPACITY = 16;
+	// rough heap cost of an unpacked entry: a HashMap node, a String with its char[] and a boxed position
+	private static final int UNPACKED_ENTRY_BYTES = 112;
+
+	private long[] keys;
+
+	private int[] positions;
+
+	private int count;
+
+	private final Map<String, Integer> unpacked;
+
+	public IsbnIndex(final int expectedSize) {
+
+		allocate(tableSize(expectedSize));
+		unpacked = new HashMap<>();
+	}
+
+	private IsbnIndex(final IsbnIndex index) {
+
+		keys = index.keys.clone();
+		positions = index.positions.clone();
+		count = index.count;
+		unpacked = new HashMap<>(index.unpacked);
+	}
+
+	public static IsbnIndex of(final BookCase bookCase) {
+
+		final IsbnIndex index = new IsbnIndex(bookCase.size());
+		final int size = bookCase.size();
+		if (bookCase instanceof CompactBookCase) {
+			final CompactBookCase compactBookCase = (CompactBookCase) bookCase;
+			for (int i = 0; i < size; i++) {
+				final long code = compactBookCase.getIsbnCode(i);
+				if (IsbnCodes.isPacked(code)) {
+					index.putIfAbsent(code, i);
+				} else if (IsbnCodes.isRaw(code)) {
+					index.unpacked.putIfAbsent(compactBookCase.getIsbn(i), i);
+				}
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				index.putIfAbsent(bookCase.get(i).getIsbn(), i);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @return position of the first Book with the given ISBN, {@link #NOT_FOUND} if there is none
+	 */
+	public int indexOf(final String isbn) {
+
+		final int position = indexOfKey(isbn);
+		return position != NOT_FOUND || isbn == null ? position : indexOfNormalized(isbn);
+	}
+
+	/**
+	 * @return position of the first Book stored with exactly the given ISBN, without normalization, {@link #NOT_FOUND} if there is none
+	 */
+	public int indexOfKey(final String isbn) {
+
+		final long code = IsbnCodes.pack(isbn);
+		if (IsbnCodes.isPacked(code)) {
+			return indexOf(code);
+		}
+		if (code == IsbnCodes.NULL) {
+			return NOT_FOUND;
+		}
+		final Integer position = unpacked.get(isbn);
+		return position != null ? position : NOT_FOUND;
+	}
+
+	/**
+	 * @return the ISBN under which {@link #indexOf(String)} finds the given one: itself, or its canonical ISBN-13 when found through
+	 *         normalization, null if it is not indexed
+	 */
+	public String keyOf(final String isbn) {
+
+		if (indexOfKey(isbn) != NOT_FOUND) {
+			return isbn;
+		}
+		final long normalized = isbn == null ? IsbnCodes.NULL : Isbns.normalize(isbn);
+		return Isbns.isValid(normalized) && indexOf(normalized) != NOT_FOUND ? IsbnCodes.toString(normalized) : null;
+	}
+
+	/**
+	 * BookCases uploaded with ISBN validation hold canonical ISBN-13s, which any ISBN-10 or hyphenated form of them also finds.
+	 */
+	private int indexOfNormalized(final String isbn) {
+
+		final long normalized = Isbns.normalize(isbn);
+		return Isbns.isValid(normalized) ? indexOf(normalized) : NOT_FOUND;
+	}
+
+	/**
+	 * @return position of the first Book with the given packed ISBN code, {@link #NOT_FOUND} if there is none
+	 */
+	public int indexOf(final long code) {
+
+		if (!IsbnCodes.isPacked(code)) {
+			return NOT_FOUND;
+		}
+		final int mask = keys.length - 1;
+		for (int slot = hash(code) & mask;; slot = slot + 1 & mask) {
+			final long key = keys[slot];
+			if (key == code) {
+				return positions[slot];
+			}
+			if (key == FREE) {
+				return NOT_FOUND;
+			}
+		}
+	}
+
+	public int size() {
+
+		return count + unpacked.size();
+	}
+
+	/**
+	 * @return approximate number of bytes retained by this index
+	 */
+	public long getRetainedBytes() {
+
+		return (long) keys.length * Long.BYTES + (long) positions.length * Integer.BYTES + (long) unpacked.size() * UNPACKED_ENTRY_BYTES;
+	}
+
+	public IsbnIndex copy() {
+
+		return new IsbnIndex(this);
+	}
+
+	public void putIfAbsent(final String isbn, final int position) {
+
+		final long code = IsbnCodes.pack(isbn);
+		if (IsbnCodes.isPacked(code)) {
+			putIfAbsent(code, position);
+		} else if (code != IsbnCodes.NULL) {
+			unpacked.putIfAbsent(isbn, position);
+		}
+	}
+
+	public void putIfAbsent(final long code, final int position) {
+
+		put(code, position, false);
+	}
+
+	public void put(final String isbn, final int position) {
+
+		final long code = IsbnCodes.pack(isbn);
+		if (IsbnCodes.isPacked(code)) {
+			put(code, position, true);
+		} else if (code != IsbnCodes.NULL) {
+			unpacked.put(isbn, position);
+		}
+	}
+
+	/**
+	 * Removes the given ISBN as it is stored, see {@link #keyOf(String)}.
+	 */
+	public void remove(final String isbn) {
+
+		final long code = IsbnCodes.pack(isbn);
+		if (IsbnCodes.isPacked(code)) {
+			remove(code);
+		} else if (code != IsbnCodes.NULL) {
+			unpacked.remove(isbn);
+		}
+	}
+
+	/**
+	 * Points the ISBNs of the Books from the given position on to their current positions, after Books have been removed before them.
+	 * The ISBNs of the removed Books must have been removed from the index already.
+	 */
+	public void reindexFrom(final BookCase bookCase, final int from) {
+
+		final CompactBookCase compactBookCase = bookCase instanceof CompactBookCase ? (CompactBookCase) bookCase : null;
+		// walking backwards, the last put of each ISBN is its first occurrence, unless it also occurs before from
+		for (int i = bookCase.size() - 1; i >= from; i--) {
+			final long code = compactBookCase != null ? compactBookCase.getIsbnCode(i) : IsbnCodes.pack(bookCase.get(i).getIsbn());
+			if (IsbnCodes.isPacked(code)) {
+				final int current = indexOf(code);
+				if (current == NOT_FOUND || current >= from) {
+					put(code, i, true);
+				}
+			} else if (code != IsbnCodes.NULL) {
+				final String isbn = compactBookCase != null ? compactBookCase.getIsbn(i) : bookCase.get(i).getIsbn();
+				final Integer current = unpacked.get(isbn);
+				if (current == null || current >= from) {
+					unpacked.put(isbn, i);
+				}
+			}
+		}
+	}
+
+	private void put(final long code, final int position, final boolean replace) {
+
+		final int mask = keys.length - 1;
+		int slot = hash(code) & mask;
+		while (keys[slot] != FREE) {
+			if (keys[slot] == code) {
+				if (replace) {
+					positions[slot] = position;
+				}
+				return;
+			}
+			slot = slot + 1 & mask;
+		}
+		keys[slot] = code;
+		positions[slot] = position;
+		if (++count * 2 > keys.length) {
+			rehash();
+		}
+	}
+
+	private void remove(final long code) {
+
+		final int mask = keys.length - 1;
+		int hole = hash(code) & mask;
+		while (keys[hole] != code) {
+			if (keys[hole] == FREE) {
+				return;
+			}
+			hole = hole + 1 & mask;
+		}
+		// backward shift deletion: moves back the following keys of the cluster that may fill the hole, no tombstone is left
+		for (int slot = hole + 1 & mask; keys[slot] != FREE; slot = slot + 1 & mask) {
+			final int ideal = hash(keys[slot]) & mask;
+			if ((slot - ideal & mask) >= (slot - hole & mask)) {
+				keys[hole] = keys[slot];
+				positions[hole] = positions[slot];
+				hole = slot;
+			}
+		}
+		keys[hole] = FREE;
+		count--;
+	}
+
+	private void rehash() {
+
+		final long[] oldKeys = keys;
+		final int[] oldPositions = positions;
+		allocate(oldKeys.length * 2);
+		final int mask = keys.length - 1;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != FREE) {
+					slot = slot + 1 & mask;
+				}
+				keys[slot] = oldKeys[i];
+				positions[slot] = oldPositions[i];
+			}
+		}
+	}
+
+	private void allocate(final int tableSize) {
+
+		keys = new long[tableSize];
+		positions = new int[tableSize];
+		Arrays.fill(keys, FREE);
+	}
+
+	private static int tableSize(final int expectedSize) {
+
+		// load factor of at most 0.5 keeps the probe sequences short
+		final long required = Math.max((long) expectedSize * 2, MIN_CAPACITY);
+		return (int) Math.min(Long.highestOneBit(required - 1) << 1, 1 << 30);
+	}
+
+	private static int hash(final long code) {
+
+		final long h = code * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 32);
+	}
+
+}
@@ -0,0 +1,597 @@
+package com.rabbitshop.springwebhandling.indexes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+/**
+ * Search index over the titles of a BookCase, answering word queries and title prefix (autocomplete) queries.
+ *
+ * Titles are normalized to lower case and split into tokens on every character that is neither a letter nor a digit. The index is made
+ * of segments, each covering a range of rows with:
+ * 		. the distinct tokens in a sorted String[], so that both a token and a token prefix are found by binary search
+ * 		. the inverted index: the ascending rows of every token, all of them in a single int[] addressed by an offset per token
+ * 		. for the tokens found in at least 1/DENSE_FRACTION of the rows, their rows as a bitset too, which intersects word by word
+ * 		. the rows sorted by normalized title, for title prefixes; titles are read back from the BookCase when searching, never copied
+ *
+ * An index is immutable and only valid for the BookCase it has been built on. Appending rows to that BookCase does not need a new
+ * index: append() returns the index of the longer BookCase, sharing the existing segments plus one for the new rows, up to MAX_SEGMENTS.
+ * Any other change needs the index to be built again.
+ *
+ * Word queries match the rows having all the tokens of the query, a word ending with '*' matching any token starting with it; matches
+ * come in row order. Title prefix queries match the rows whose title starts with the prefix, in title order.
+ */
+public final class TitleIndex {
+
+	public static final int MAX_SEGMENTS = 16;
+
+	private static final char WILDCARD = '*';
+	// a probe costs a binary search per term of the token, a bitset costs a visit per row of the token
+	private static final int PROBE_COST = 16;
+	private static final int DENSE_FRACTION = 32;
+	// rough heap cost of a term: the String, its char[] of about 8 chars, its slot and its posting start
+	private static final int TERM_BYTES = 24 + 16 + 2 * 8 + 4 + Integer.BYTES;
+
+	private final Segment[] segments;
+
+	private final int size;
+
+	private TitleIndex(final Segment[] segments, final int size) {
+
+		this.segments = segments;
+		this.size = size;
+	}
+
+	public static TitleIndex build(final BookCase bookCase) {
+
+		final int size = bookCase.size();
+		return new TitleIndex(new Segment[] { Segment.build(bookCase, 0, size) }, size);
+	}
+
+	/**
+	 * @param bookCase the BookCase this index has been built on, with rows appended after them
+	 * @return the index of the given BookCase, null if this index has MAX_SEGMENTS already
+	 */
+	public TitleIndex append(final BookCase bookCase) {
+
+		if (segments.length >= MAX_SEGMENTS) {
+			return null;
+		}
+		final Segment[] appended = Arrays.copyOf(segments, segments.length + 1);
+		appended[segments.length] = Segment.build(bookCase, size, bookCase.size());
+		return new TitleIndex(appended, bookCase.size());
+	}
+
+	/**
+	 * @return number of rows indexed
+	 */
+	public int size() {
+
+		return size;
+	}
+
+	public int getSegmentCount() {
+
+		return segments.length;
+	}
+
+	/**
+	 * @return approximate number of bytes retained by this index, the tokens included
+	 */
+	public long getRetainedBytes() {
+
+		long bytes = 0;
+		for (final Segment segment : segments) {
+			bytes += segment.getRetainedBytes();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the rows having all the words of the query, in row order, skipping the first offset ones; none if the query has no words
+	 */
+	public Matches matchWords(final String query, final int offset, final int limit) {
+
+		final List<String> words = new ArrayList<>();
+		final List<Boolean> prefixes = new ArrayList<>();
+		for (final String word : query.trim().split("\\s+")) {
+			final boolean prefix = word.length() > 1 && word.charAt(word.length() - 1) == WILDCARD;
+			final List<String> tokens = tokens(normalize(prefix ? word.substring(0, word.length() - 1) : word));
+			for (int i = 0; i < tokens.size(); i++) {
+				words.add(tokens.get(i));
+				// a word split in more tokens, e.g. "sci-fi*", is a prefix only in its last token
+				prefixes.add(prefix && i == tokens.size() - 1);
+			}
+		}
+		final Collector collector = new Collector(offset, limit);
+		if (!words.isEmpty()) {
+			for (final Segment segment : segments) {
+				segment.matchWords(words, prefixes, collector);
+			}
+		}
+		return collector.toMatches();
+	}
+
+	/**
+	 * @param bookCase the BookCase this index has been built on
+	 * @return the rows whose title starts with the given prefix, ignoring case, in title order, skipping the first offset ones
+	 */
+	public Matches matchTitlePrefix(final BookCase bookCase, final String prefix, final int offset, final int limit) {
+
+		final String from = normalize(prefix);
+		final String to = from + Character.MAX_VALUE;
+		final int[] starts = new int[segments.length];
+		final int[] ends = new int[segments.length];
+		long total = 0;
+		for (int i = 0; i < segments.length; i++) {
+			starts[i] = segments[i].lowerBound(bookCase, from);
+			ends[i] = segments[i].lowerBound(bookCase, to);
+			total += ends[i] - starts[i];
+		}
+		final int count = (int) Math.max(0, Math.min(limit, total - offset));
+		final int[] rows = new int[count];
+		if (segments.length == 1) {
+			System.arraycopy(segments[0].titleOrder, starts[0] + offset, rows, 0, count);
+		} else if (count > 0) {
+			mergeTitleOrder(bookCase, starts, ends, offset, rows);
+		}
+		return new Matches((int) total, rows);
+	}
+
+	/**
+	 * Merges the title-ordered ranges of the segments, as a single title order, up to the requested page.
+	 */
+	private void mergeTitleOrder(final BookCase bookCase, final int[] starts, final int[] ends, final int offset, final int[] rows) {
+
+		final String[] heads = new String[segments.length];
+		for (int i = 0; i < segments.length; i++) {
+			if (starts[i] < ends[i]) {
+				heads[i] = normalize(title(bookCase, segments[i].titleOrder[starts[i]]));
+			}
+		}
+		for (int position = 0; position < offset + rows.length; position++) {
+			int next = -1;
+			for (int i = 0; i < segments.length; i++) {
+				// equal titles are ordered by row, and rows of an earlier segment are lower
+				if (heads[i] != null && (next < 0 || heads[i].compareTo(heads[next]) < 0)) {
+					next = i;
+				}
+			}
+			if (position >= offset) {
+				rows[position - offset] = segments[next].titleOrder[starts[next]];
+			}
+			starts[next]++;
+			heads[next] = starts[next] < ends[next] ? normalize(title(bookCase, segments[next].titleOrder[starts[next]])) : null;
+		}
+	}
+
+	static String normalize(final String text) {
+
+		return text == null ? "" : text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return the tokens of a normalized text
+	 */
+	static List<String> tokens(final String normalized) {
+
+		final List<String> tokens = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= normalized.length(); i++) {
+			final boolean tokenChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+			if (tokenChar && start < 0) {
+				start = i;
+			} else if (!tokenChar && start >= 0) {
+				tokens.add(normalized.substring(start, i));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private static String title(final BookCase bookCase, final int row) {
+
+		return bookCase instanceof CompactBookCase ? ((CompactBookCase) bookCase).getTitle(row) : bookCase.get(row).getTitle();
+	}
+
+	/**
+	 * A page of matching rows, with the total number of matches.
+	 */
+	public static final class Matches {
+
+		private final int total;
+
+		private final int[] rows;
+
+		private Matches(final int total, final int[] rows) {
+
+			this.total = total;
+			this.rows = rows;
+		}
+
+		public int getTotal() {
+
+			return total;
+		}
+
+		public int[] getRows() {
+
+			return rows;
+		}
+
+	}
+
+	/**
+	 * Counts the matches found in row order, keeping the rows of the requested page.
+	 */
+	private static final class Collector {
+
+		private final int offset;
+
+		private final int limit;
+
+		private final IntList rows = new IntList();
+
+		private int total;
+
+		private Collector(final int offset, final int limit) {
+
+			this.offset = offset;
+			this.limit = limit;
+		}
+
+		private void accept(final int row) {
+
+			if (total >= offset && rows.size < limit) {
+				rows.add(row);
+			}
+			total++;
+		}
+
+		/**
+		 * Accepts all the rows of a bitset, visiting only as many of them as needed to fill the page.
+		 */
+		private void acceptAll(final BitSet matches, final int base) {
+
+			int accepted = 0;
+			for (int bit = matches.nextSetBit(0); bit >= 0 && rows.size < limit; bit = matches.nextSetBit(bit + 1)) {
+				accept(base + bit);
+				accepted++;
+			}
+			total += matches.cardinality() - accepted;
+		}
+
+		private Matches toMatches() {
+
+			return new Matches(total, Arrays.copyOf(rows.values, rows.size));
+		}
+
+	}
+
+	private static final class Segment {
+
+		private final int from;
+
+		private final int to;
+
+		private final String[] terms;
+
+		// rows of term i are postings[postingStarts[i]] to postings[postingStarts[i + 1]] excluded, ascending
+		private final int[] postingStarts;
+
+		private final int[] postings;
+
+		// ascending ids of the dense terms, with their rows; never modified once built
+		private final int[] denseTerms;
+
+		private final BitSet[] denseRowSets;
+
+		private final int[] titleOrder;
+
+		private Segment(final int from, final int to, final String[] terms, final int[] postingStarts, final int[] postings,
+				final int[] denseTerms, final BitSet[] denseRowSets, final int[] titleOrder) {
+
+			this.from = from;
+			this.to = to;
+			this.terms = terms;
+			this.postingStarts = postingStarts;
+			this.postings = postings;
+			this.denseTerms = denseTerms;
+			this.denseRowSets = denseRowSets;
+			this.titleOrder = titleOrder;
+		}
+
+		private static Segment build(final BookCase bookCase, final int from, final int to) {
+
+			final Map<String, IntList> rowsByTerm = new HashMap<>();
+			final TitleRow[] titleRows = new TitleRow[to - from];
+			int postingCount = 0;
+			for (int row = from; row < to; row++) {
+				final String title = normalize(title(bookCase, row));
+				titleRows[row - from] = new TitleRow(title, row);
+				for (final String token : tokens(title)) {
+					final IntList rows = rowsByTerm.computeIfAbsent(token, term -> new IntList());
+					// a token repeated in the same title is posted once
+					if (rows.size == 0 || rows.values[rows.size - 1] != row) {
+						rows.add(row);
+						postingCount++;
+					}
+				}
+			}
+
+			Arrays.parallelSort(titleRows);
+			final int[] titleOrder = new int[titleRows.length];
+			for (int i = 0; i < titleRows.length; i++) {
+				titleOrder[i] = titleRows[i].row;
+			}
+
+			final String[] terms = rowsByTerm.keySet().toArray(new String[rowsByTerm.size()]);
+			Arrays.parallelSort(terms);
+			final int[] postingStarts = new int[terms.length + 1];
+			final int[] postings = new int[postingCount];
+			final IntList denseTerms = new IntList();
+			final List<BitSet> denseRowSets = new ArrayList<>();
+			int position = 0;
+			for (int i = 0; i < terms.length; i++) {
+				final IntList rows = rowsByTerm.get(terms[i]);
+				postingStarts[i] = position;
+				System.arraycopy(rows.values, 0, postings, position, rows.size);
+				position += rows.size;
+				if ((long) rows.size * DENSE_FRACTION >= to - from) {
+					final BitSet rowSet = new BitSet(to - from);
+					for (int j = 0; j < rows.size; j++) {
+						rowSet.set(rows.values[j] - from);
+					}
+					denseTerms.add(i);
+					denseRowSets.add(rowSet);
+				}
+			}
+			postingStarts[terms.length] = position;
+			return new Segment(from, to, terms, postingStarts, postings, Arrays.copyOf(denseTerms.values, denseTerms.size),
+					denseRowSets.toArray(new BitSet[denseRowSets.size()]), titleOrder);
+		}
+
+		private void matchWords(final List<String> words, final List<Boolean> prefixes, final Collector collector) {
+
+			final int count = words.size();
+			// every word matches the terms firstTerms[i] to lastTerms[i] excluded
+			final int[] firstTerms = new int[count];
+			final int[] lastTerms = new int[count];
+			int driver = -1;
+			for (int i = 0; i < count; i++) {
+				final String word = words.get(i);
+				firstTerms[i] = lowerBound(word);
+				lastTerms[i] = prefixes.get(i) ? lowerBound(word + Character.MAX_VALUE) : firstTerms[i] + (exists(firstTerms[i], word) ? 1 : 0);
+				if (firstTerms[i] == lastTerms[i]) {
+					return;
+				}
+				if (driver < 0 || rowCount(i, firstTerms, lastTerms) < rowCount(driver, firstTerms, lastTerms)) {
+					driver = i;
+				}
+			}
+
+			// a word matching several terms would post a row more than once: its rows are collected in a bitset, unless probing
+			// the few rows of the driver term by term is cheaper
+			final BitSet[] rowSets = new BitSet[count];
+			boolean allRowSets = true;
+			for (int i = 0; i < count; i++) {
+				final int terms = lastTerms[i] - firstTerms[i];
+				if (terms == 1) {
+					rowSets[i] = denseRowSet(firstTerms[i]);
+				} else if (i == driver
+						|| (long) rowCount(driver, firstTerms, lastTerms) * terms * PROBE_COST > rowCount(i, firstTerms, lastTerms)) {
+					rowSets[i] = rowSet(firstTerms[i], lastTerms[i]);
+				}
+				allRowSets &= rowSets[i] != null;
+			}
+
+			if (allRowSets) {
+				// only frequent words: intersecting the bitsets 64 rows at a time beats walking their postings
+				BitSet matches = rowSets[0];
+				if (count > 1) {
+					matches = (BitSet) matches.clone();
+					for (int i = 1; i < count; i++) {
+						matches.and(rowSets[i]);
+					}
+				}
+				collector.acceptAll(matches, from);
+				return;
+			}
+
+			// rows of the driver come in ascending order, so the postings of a single term word are walked forward only
+			final int[] cursors = new int[count];
+			for (int i = 0; i < count; i++) {
+				cursors[i] = postingStarts[firstTerms[i]];
+			}
+			if (rowSets[driver] != null) {
+				for (int bit = rowSets[driver].nextSetBit(0); bit >= 0; bit = rowSets[driver].nextSetBit(bit + 1)) {
+					accept(from + bit, driver, firstTerms, lastTerms, rowSets, cursors, collector);
+				}
+			} else {
+				for (int posting = postingStarts[firstTerms[driver]]; posting < postingStarts[lastTerms[driver]]; posting++) {
+					accept(postings[posting], driver, firstTerms, lastTerms, rowSets, cursors, collector);
+				}
+			}
+		}
+
+		private void accept(final int row, final int driver, final int[] firstTerms, final int[] lastTerms, final BitSet[] rowSets,
+				final int[] cursors, final Collector collector) {
+
+			for (int i = 0; i < firstTerms.length; i++) {
+				if (i == driver) {
+					continue;
+				}
+				final boolean contained;
+				if (rowSets[i] != null) {
+					contained = rowSets[i].get(row - from);
+				} else if (lastTerms[i] - firstTerms[i] == 1) {
+					final int end = postingStarts[lastTerms[i]];
+					cursors[i] = seek(cursors[i], end, row);
+					contained = cursors[i] < end && postings[cursors[i]] == row;
+				} else {
+					contained = probe(row, firstTerms[i], lastTerms[i]);
+				}
+				if (!contained) {
+					return;
+				}
+			}
+			collector.accept(row);
+		}
+
+		/**
+		 * Galloping search: the cost grows with the log of the distance walked, so a whole intersection costs about as much as the
+		 * shorter list of postings when the lengths differ a lot, and as a linear merge otherwise.
+		 *
+		 * @return the first position from the given one, up to end, of a row not lower than the given one
+		 */
+		private int seek(final int position, final int end, final int row) {
+
+			int low = position;
+			int high = position;
+			int step = 1;
+			while (high < end && postings[high] < row) {
+				low = high + 1;
+				high = position + step;
+				step <<= 1;
+			}
+			high = Math.min(high, end);
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (postings[middle] < row) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		private boolean probe(final int row, final int firstTerm, final int lastTerm) {
+
+			for (int term = firstTerm; term < lastTerm; term++) {
+				if (Arrays.binarySearch(postings, postingStarts[term], postingStarts[term + 1], row) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return the rows of the given term if it is dense, null otherwise
+		 */
+		private BitSet denseRowSet(final int term) {
+
+			final int dense = Arrays.binarySearch(denseTerms, term);
+			return dense >= 0 ? denseRowSets[dense] : null;
+		}
+
+		private int rowCount(final int word, final int[] firstTerms, final int[] lastTerms) {
+
+			return postingStarts[lastTerms[word]] - postingStarts[firstTerms[word]];
+		}
+
+		private BitSet rowSet(final int firstTerm, final int lastTerm) {
+
+			final BitSet rows = new BitSet(to - from);
+			for (int posting = postingStarts[firstTerm]; posting < postingStarts[lastTerm]; posting++) {
+				rows.set(postings[posting] - from);
+			}
+			return rows;
+		}
+
+		private boolean exists(final int term, final String word) {
+
+			return term < terms.length && terms[term].equals(word);
+		}
+
+		/**
+		 * @return the first term not lower than the given one
+		 */
+		private int lowerBound(final String term) {
+
+			int low = 0;
+			int high = terms.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (terms[middle].compareTo(term) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * @return the position in titleOrder of the first title not lower than the given normalized one
+		 */
+		private int lowerBound(final BookCase bookCase, final String title) {
+
+			int low = 0;
+			int high = titleOrder.length;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if (normalize(title(bookCase, titleOrder[middle])).compareTo(title) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		private long getRetainedBytes() {
+
+			return (long) terms.length * TERM_BYTES
+					+ (long) postings.length * Integer.BYTES
+					+ (long) denseTerms.length * (to - from) / Byte.SIZE
+					+ (long) titleOrder.length * Integer.BYTES;
+		}
+
+	}
+
+	private static final class TitleRow implements Comparable<TitleRow> {
+
+		private final String title;
+
+		private final int row;
+
+		private TitleRow(final String title, final int row) {
+
+			this.title = title;
+			this.row = row;
+		}
+
+		@Override
+		public int compareTo(final TitleRow other) {
+
+			final int byTitle = title.compareTo(other.title);
+			return byTitle != 0 ? byTitle : Integer.compare(row, other.row);
+		}
+
+	}
+
+	private static final class IntList {
+
+		private int[] values = new int[4];
+
+		private int size;
+
+		private void add(final int value) {
+
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+	}
+
+}
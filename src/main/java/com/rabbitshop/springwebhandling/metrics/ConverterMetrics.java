@@ -0,0 +1,61 @@
+package com.rabbitshop.springwebhandling.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/**
+ * Throughput of an HttpMessageConverter: rows and bytes read and written, and the time taken by every read (parsing included)
+ * and write. Only the reads and writes that succeed are recorded, without any lock.
+ */
+public final class ConverterMetrics {
+
+	private final LongAdder rowsRead = new LongAdder();
+
+	private final LongAdder bytesRead = new LongAdder();
+
+	private final LongAdder rowsWritten = new LongAdder();
+
+	private final LongAdder bytesWritten = new LongAdder();
+
+	@Getter
+	private final LatencyHistogram readTime = new LatencyHistogram();
+
+	@Getter
+	private final LatencyHistogram writeTime = new LatencyHistogram();
+
+	public void recordRead(final long rows, final long bytes, final long nanos) {
+
+		rowsRead.add(rows);
+		bytesRead.add(bytes);
+		readTime.record(nanos);
+	}
+
+	public void recordWrite(final long rows, final long bytes, final long nanos) {
+
+		rowsWritten.add(rows);
+		bytesWritten.add(bytes);
+		writeTime.record(nanos);
+	}
+
+	public long getRowsRead() {
+
+		return rowsRead.sum();
+	}
+
+	public long getBytesRead() {
+
+		return bytesRead.sum();
+	}
+
+	public long getRowsWritten() {
+
+		return rowsWritten.sum();
+	}
+
+	public long getBytesWritten() {
+
+		return bytesWritten.sum();
+	}
+
+}
@@ -0,0 +1,121 @@
+package com.rabbitshop.springwebhandling.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.Getter;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with the log-linear buckets of HdrHistogram: every power of two is split into
+ * SUB_BUCKETS linear buckets, so a recorded value is known within 1/SUB_BUCKETS (about 3%) whatever its magnitude, from a nanosecond
+ * up to MAX_VALUE, with a fixed array of less than 1200 counters.
+ *
+ * Recording is a few shifts and two atomic updates (the max is only written when it grows), without any lock or allocation, so any
+ * number of threads can record on the hot path. Reading takes a Snapshot of the counters, which may miss the recordings running
+ * concurrently.
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * Longest duration recorded as it is (about 18 minutes), longer ones are recorded as this
+	 */
+	public static final long MAX_VALUE = (1L << 40) - 1;
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(index(MAX_VALUE) + 1);
+
+	private final LongAdder sum = new LongAdder();
+
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	public void record(final long nanos) {
+
+		final long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(index(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public Snapshot snapshot() {
+
+		final long[] copy = new long[counts.length()];
+		long total = 0;
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, sum.sum(), max.get());
+	}
+
+	/**
+	 * Values below 2 * SUB_BUCKETS have a bucket each, above the bucket is given by the SUB_BUCKET_BITS + 1 highest bits.
+	 */
+	private static int index(final long value) {
+
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	private static long lowestValue(final int index) {
+
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		final int shift = (index >>> SUB_BUCKET_BITS) - 1;
+		return (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+	}
+
+	/**
+	 * Counters of a LatencyHistogram at a given time.
+	 */
+	public static final class Snapshot {
+
+		private final long[] counts;
+
+		@Getter
+		private final long count;
+
+		@Getter
+		private final long sum;
+
+		@Getter
+		private final long max;
+
+		private Snapshot(final long[] counts, final long count, final long sum, final long max) {
+
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public double getMean() {
+
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		/**
+		 * @return the highest value of the bucket holding the given percentile, never more than the max, 0 if nothing was recorded
+		 */
+		public long getValueAtPercentile(final double percentile) {
+
+			final long rank = Math.max((long) Math.ceil(percentile / 100 * count), 1);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(i + 1 < counts.length ? lowestValue(i + 1) - 1 : MAX_VALUE, max);
+				}
+			}
+			return 0;
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.rabbitshop.springwebhandling.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Records the latency of every request in the histogram of its handler, named after the controller class and method, e.g.
+ * RequestResponseBodyController.getBookCase.
+ *
+ * The start time is kept in a request attribute, from the first preHandle to the afterCompletion: an async request (a streaming
+ * export) is dispatched again once done, so its latency covers the whole asynchronous processing. The histograms are resolved once
+ * per handler method, a request then costs two System.nanoTime() calls, a map lookup and the recording.
+ */
+public class LatencyInterceptor extends HandlerInterceptorAdapter {
+
+	private static final String START_ATTRIBUTE = LatencyInterceptor.class.getName() + ".start";
+
+	private final RequestMetrics requestMetrics;
+
+	private final ConcurrentMap<Method, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+	public LatencyInterceptor(final RequestMetrics requestMetrics) {
+
+		this.requestMetrics = requestMetrics;
+	}
+
+	@Override
+	public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+
+		if (request.getAttribute(START_ATTRIBUTE) == null) {
+			request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+		}
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response, final Object handler,
+			final Exception ex) {
+
+		final Object start = request.getAttribute(START_ATTRIBUTE);
+		if (start == null) {
+			return;
+		}
+		// an error dispatch following this one is timed on its own
+		request.removeAttribute(START_ATTRIBUTE);
+		histogram(handler).record(System.nanoTime() - (Long) start);
+	}
+
+	private LatencyHistogram histogram(final Object handler) {
+
+		if (!(handler instanceof HandlerMethod)) {
+			return requestMetrics.handlerLatency(handler.getClass().getSimpleName());
+		}
+		final HandlerMethod handlerMethod = (HandlerMethod) handler;
+		final LatencyHistogram histogram = histograms.get(handlerMethod.getMethod());
+		if (histogram != null) {
+			return histogram;
+		}
+		return histograms.computeIfAbsent(handlerMethod.getMethod(),
+				method -> requestMetrics.handlerLatency(handlerMethod.getBeanType().getSimpleName() + "." + method.getName()));
+	}
+
+}
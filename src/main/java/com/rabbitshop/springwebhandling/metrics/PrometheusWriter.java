@@ -0,0 +1,85 @@
+package com.rabbitshop.springwebhandling.metrics;
+
+/**
+ * Writer of the Prometheus text exposition format (version 0.0.4): every family is started with its HELP and TYPE lines and
+ * followed by its samples. Durations are written in seconds, as Prometheus expects, while LatencyHistograms record nanoseconds.
+ */
+public final class PrometheusWriter {
+
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	public static final String COUNTER = "counter";
+	public static final String GAUGE = "gauge";
+	public static final String SUMMARY = "summary";
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+	private final StringBuilder text = new StringBuilder(8 * 1024);
+
+	public PrometheusWriter family(final String name, final String type, final String help) {
+
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+
+	/**
+	 * @param labels labels of the sample as written by label(), null if none
+	 */
+	public PrometheusWriter sample(final String name, final String labels, final long value) {
+
+		name(name, labels).append(' ').append(value).append('\n');
+		return this;
+	}
+
+	public PrometheusWriter sample(final String name, final String labels, final double value) {
+
+		name(name, labels).append(' ').append(value).append('\n');
+		return this;
+	}
+
+	/**
+	 * Writes the quantiles, sum and count of a summary family, in seconds.
+	 */
+	public PrometheusWriter summary(final String name, final String labels, final LatencyHistogram.Snapshot snapshot) {
+
+		for (final double quantile : QUANTILES) {
+			final String quantileLabel = label("quantile", Double.toString(quantile));
+			sample(name, labels == null ? quantileLabel : labels + "," + quantileLabel,
+					snapshot.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+		}
+		sample(name + "_sum", labels, snapshot.getSum() / NANOS_PER_SECOND);
+		return sample(name + "_count", labels, snapshot.getCount());
+	}
+
+	/**
+	 * @return the label, its value escaped
+	 */
+	public static String label(final String name, final String value) {
+
+		return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+	}
+
+	public static double seconds(final long nanos) {
+
+		return nanos / NANOS_PER_SECOND;
+	}
+
+	private StringBuilder name(final String name, final String labels) {
+
+		text.append(name);
+		if (labels != null) {
+			text.append('{').append(labels).append('}');
+		}
+		return text;
+	}
+
+	@Override
+	public String toString() {
+
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.rabbitshop.springwebhandling.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Metrics recorded while serving requests: the latency of every handler, recorded by the LatencyInterceptor, and the throughput
+ * of the HttpMessageConverters given a ConverterMetrics.
+ *
+ * It depends on nothing else, so that the web configuration can hand it to the interceptor and the converters it creates.
+ */
+@Component
+public class RequestMetrics {
+
+	private final ConcurrentMap<String, LatencyHistogram> handlerLatencies = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, ConverterMetrics> converters = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the latency histogram of the given handler, created the first time
+	 */
+	public LatencyHistogram handlerLatency(final String handler) {
+
+		return handlerLatencies.computeIfAbsent(handler, name -> new LatencyHistogram());
+	}
+
+	/**
+	 * @return the metrics of the given converter, created the first time
+	 */
+	public ConverterMetrics converter(final String converter) {
+
+		return converters.computeIfAbsent(converter, name -> new ConverterMetrics());
+	}
+
+	/**
+	 * @return the latency histogram of every handler called so far, by handler name
+	 */
+	public Map<String, LatencyHistogram> getHandlerLatencies() {
+
+		return Collections.unmodifiableMap(new TreeMap<>(handlerLatencies));
+	}
+
+	/**
+	 * @return the metrics of every converter, by converter name
+	 */
+	public Map<String, ConverterMetrics> getConverters() {
+
+		return Collections.unmodifiableMap(new TreeMap<>(converters));
+	}
+
+}
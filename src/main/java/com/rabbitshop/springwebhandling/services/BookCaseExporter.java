@@ -0,0 +1,263 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.http.converters.BookCaseNdjsonHttpMessageConverter;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Streaming export of whole BookCases, as CSV or newline-delimited JSON.
+ *
+ * An export is a StreamingResponseBody: the servlet container thread is released as soon as the export has been handed over to the
+ * async executor configured in GeneralWebConfiguration (bounded pool and queue, so a burst of exports is rejected instead of piling
+ * up), and the BookCase is written from there through the HttpMessageConverter of the negotiated media type.
+ *
+ * The converters write through a bounded buffer and the servlet output stream blocks while the client is not reading, so a slow
+ * consumer slows down only its own export thread and never makes the BookCase pile up in memory (backpressure).
+ * Every export has a deadline, aligned with the async request timeout. A watchdog enforces it even on a write blocked by a client that
+ * stopped reading: once the deadline has passed it completes the async context and closes the response, which fails the blocked
+ * write, and any further write is refused.
+ * A client going away shows up as an IOException on write, which ends the export silently.
+ */
+@Slf4j
+@Component
+public class BookCaseExporter {
+
+	private static final List<MediaType> EXPORT_MEDIA_TYPES = Arrays.asList(
+			new MediaType("text", "csv"), BookCaseNdjsonHttpMessageConverter.MEDIA_TYPE);
+
+	@Value("${bookcase.export.timeout-ms:300000}")
+	private long timeoutMs;
+
+	@Autowired
+	private RequestMappingHandlerAdapter handlerAdapter;
+
+	@Getter
+	private final AtomicLong active = new AtomicLong();
+
+	@Getter
+	private final AtomicLong completed = new AtomicLong();
+
+	@Getter
+	private final AtomicLong aborted = new AtomicLong();
+
+	@Getter
+	private final AtomicLong timedOut = new AtomicLong();
+
+	private ScheduledExecutorService watchdog;
+
+	@PostConstruct
+	public void start() {
+
+		watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "bookcase-export-watchdog");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void stop() {
+
+		watchdog.shutdownNow();
+	}
+
+	/**
+	 * @return the export media type matching the Accept header best, CSV if anything goes, null if none of them is accepted
+	 */
+	public MediaType negotiate(final List<MediaType> acceptedMediaTypes) {
+
+		final List<MediaType> accepted = new ArrayList<>(acceptedMediaTypes);
+		if (accepted.isEmpty()) {
+			accepted.add(MediaType.ALL);
+		}
+		MediaType.sortBySpecificityAndQuality(accepted);
+		for (final MediaType acceptedMediaType : accepted) {
+			for (final MediaType exportMediaType : EXPORT_MEDIA_TYPES) {
+				if (acceptedMediaType.isCompatibleWith(exportMediaType)) {
+					return exportMediaType;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param request the request of the export, its async context is completed if the export times out
+	 * @return the body streaming the given BookCase in the given media type, which must be one returned by negotiate()
+	 */
+	public StreamingResponseBody export(final BookCase bookCase, final MediaType mediaType, final HttpServletRequest request) {
+
+		final HttpMessageConverter<Object> converter = findConverter(mediaType);
+		return outputStream -> {
+			final DeadlineOutputStream deadlineOutputStream = new DeadlineOutputStream(outputStream);
+			final ScheduledFuture<?> expiry = watchdog.schedule(() -> expire(deadlineOutputStream, request), timeoutMs, TimeUnit.MILLISECONDS);
+			active.incrementAndGet();
+			try {
+				converter.write(bookCase, mediaType, new StreamingOutputMessage(deadlineOutputStream));
+				completed.incrementAndGet();
+			} catch (final IOException e) {
+				// a write failing because the watchdog closed the response is a timeout, not the client going away
+				if (deadlineOutputStream.expired.get()) {
+					timedOut.incrementAndGet();
+					log.warn("Export of " + bookCase.size() + " Books as " + mediaType + " timed out after " + timeoutMs + " ms");
+				} else {
+					aborted.incrementAndGet();
+					log.debug("Export of " + bookCase.size() + " Books as " + mediaType + " aborted by the client: " + e.getMessage());
+				}
+			} finally {
+				expiry.cancel(false);
+				active.decrementAndGet();
+			}
+		};
+	}
+
+	/**
+	 * Ends an export past its deadline: further writes are refused, and a write blocked on a client that is not reading fails once
+	 * the async context is completed and the response closed.
+	 */
+	private static void expire(final DeadlineOutputStream outputStream, final HttpServletRequest request) {
+
+		outputStream.expired.set(true);
+		try {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().complete();
+			}
+		} catch (final IllegalStateException e) {
+			// the async request has already been completed, by the container timeout or by the export itself
+			log.debug("Async context of an expired export already completed: " + e.getMessage());
+		}
+		try {
+			outputStream.closeResponse();
+		} catch (final IOException e) {
+			log.debug("Closing the response of an expired export failed: " + e.getMessage());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private HttpMessageConverter<Object> findConverter(final MediaType mediaType) {
+
+		for (final HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+			if (converter.canWrite(BookCase.class, mediaType)) {
+				return (HttpMessageConverter<Object>) converter;
+			}
+		}
+		throw new IllegalStateException("No HttpMessageConverter can write a BookCase as " + mediaType);
+	}
+
+	/**
+	 * Signals an export going on past its deadline.
+	 */
+	private static final class ExportTimeoutException extends IOException {
+
+		private static final long serialVersionUID = 3213530949786150539L;
+
+		private ExportTimeoutException() {
+
+			super("Export deadline exceeded");
+		}
+
+	}
+
+	/**
+	 * OutputStream refusing any write once the watchdog has expired the export. Converters write whole buffers, so the check is cheap.
+	 */
+	private static final class DeadlineOutputStream extends FilterOutputStream {
+
+		private final AtomicBoolean expired = new AtomicBoolean();
+
+		private DeadlineOutputStream(final OutputStream out) {
+
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			checkDeadline();
+			out.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+
+			checkDeadline();
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			// the servlet output stream is closed by the container
+			flush();
+		}
+
+		private void closeResponse() throws IOException {
+
+			out.close();
+		}
+
+		private void checkDeadline() throws IOException {
+
+			if (expired.get()) {
+				throw new ExportTimeoutException();
+			}
+		}
+
+	}
+
+	private static final class StreamingOutputMessage implements HttpOutputMessage {
+
+		// the response headers come from the ResponseEntity of the export, whatever a converter sets here is ignored
+		private final HttpHeaders headers = new HttpHeaders();
+
+		private final OutputStream body;
+
+		private StreamingOutputMessage(final OutputStream body) {
+
+			this.body = body;
+		}
+
+		@Override
+		public OutputStream getBody() {
+
+			return body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+
+			return headers;
+		}
+
+	}
+
+}
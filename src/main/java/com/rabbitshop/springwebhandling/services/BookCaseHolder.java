@@ -0,0 +1,312 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.daos.IsbnCodes;
+import com.rabbitshop.springwebhandling.indexes.IsbnIndex;
+import com.rabbitshop.springwebhandling.indexes.TitleIndex;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Holder of the current BookCase, lock-free for readers.
+ *
+ * Every change publishes a brand new BookCaseSnapshot through an AtomicReference: readers always get a consistent BookCase and
+ * indexes pair, fully built before being published, and never block. Versions are strictly increasing.
+ *
+ * Besides the full replacement, deltas (append, upsert, remove) are applied copy-on-write: the current BookCase and IsbnIndex are
+ * copied, which is a plain array copy, then only the changed rows are touched and the indexes are updated incrementally.
+ * Changes are serialized, each one applied on top of the current snapshot. Every operation takes an optional expected snapshot:
+ * when given, the change is made only if it is still the current one (optimistic concurrency).
+ *
+ * ETags embed an epoch taken at startup, so a tag handed out before a restart never matches a snapshot created after it.
+ *
+ * Every change is notified to the BookCaseListeners, e.g. the BookCasePersistence logging it to disk, in version order and before
+ * it is published: a listener failing leaves the change unpublished, so a change is never visible before it is durable.
+ *
+ * Once the BookCase has been searched, the holder also keeps the last searched snapshot with its TitleIndex: appends extend that
+ * index with a segment for the new rows, any other change leaves it behind for the BookCaseSearch to rebuild.
+ *
+ * The Spring bean holds the default BookCase; the named BookCases of the BookCaseRegistry get a holder each, created directly.
+ */
+@Slf4j
+@Component
+public class BookCaseHolder {
+
+	public static final String DEFAULT_CASE_ID = "default";
+
+	private final String caseId;
+
+	private final String epoch;
+
+	private final AtomicReference<BookCaseSnapshot> current;
+
+	private final AtomicReference<SearchableSnapshot> searchable = new AtomicReference<>();
+
+	private final Object changeLock = new Object();
+
+	@Autowired(required = false)
+	private List<BookCaseListener> listeners = Collections.emptyList();
+
+	/**
+	 * Holder of the default BookCase, the Spring bean.
+	 */
+	public BookCaseHolder() {
+
+		this(DEFAULT_CASE_ID, Long.toString(System.currentTimeMillis(), Character.MAX_RADIX), Collections.<BookCaseListener> emptyList());
+	}
+
+	/**
+	 * Holder of a named BookCase, see BookCaseRegistry.
+	 *
+	 * @param epoch prefix of the ETags, it must be unique among all the holders ever created for the same caseId
+	 */
+	public BookCaseHolder(final String caseId, final String epoch, final List<BookCaseListener> listeners) {
+
+		this.caseId = caseId;
+		this.epoch = epoch;
+		this.listeners = listeners;
+		current = new AtomicReference<>(snapshot(0, new BookCase()));
+	}
+
+	public String getCaseId() {
+
+		return caseId;
+	}
+
+	public String getEpoch() {
+
+		return epoch;
+	}
+
+	public BookCaseSnapshot current() {
+
+		return current.get();
+	}
+
+	/**
+	 * Publishes a BookCase loaded from disk with the version it had been stored with, without notifying the listeners.
+	 */
+	public BookCaseSnapshot restore(final long version, final BookCase bookCase) {
+
+		final BookCaseSnapshot restored = snapshot(version, bookCase);
+		synchronized (changeLock) {
+			current.set(restored);
+		}
+		log.debug("Restored BookCase " + caseId + " version " + version);
+		return restored;
+	}
+
+	/**
+	 * Replaces the whole BookCase, which gets frozen.
+	 *
+	 * @return the published snapshot, null if expected was given and is not the current snapshot anymore
+	 */
+	public BookCaseSnapshot replace(final BookCaseSnapshot expected, final BookCase bookCase) {
+
+		final BookCase frozen = bookCase.freeze();
+		final IsbnIndex isbnIndex = IsbnIndex.of(frozen);
+		return publish(expected, previous -> snapshot(previous.getVersion() + 1, frozen, isbnIndex),
+				next -> listeners.forEach(listener -> listener.onReplace(next)));
+	}
+
+	/**
+	 * Appends the given Books at the end of the BookCase.
+	 *
+	 * @return the published snapshot, null if expected was given and is not the current snapshot anymore
+	 */
+	public BookCaseSnapshot append(final BookCaseSnapshot expected, final Collection<Book> books) {
+
+		final BookCaseSnapshot published = publish(expected, previous -> {
+			final BookCase bookCase = mutableCopy(previous.getBookCase());
+			final IsbnIndex isbnIndex = previous.getIsbnIndex().copy();
+			for (final Book book : books) {
+				isbnIndex.putIfAbsent(book.getIsbn(), bookCase.size());
+				bookCase.add(book);
+			}
+			return snapshot(previous.getVersion() + 1, bookCase.freeze(), isbnIndex);
+		}, next -> listeners.forEach(listener -> listener.onAppend(next, books)));
+		if (published != null) {
+			extendSearchable(published);
+		}
+		return published;
+	}
+
+	/**
+	 * Replaces the Books stored with exactly the ISBN of one of the given Books, appends the others.
+	 *
+	 * @return the published snapshot, null if expected was given and is not the current snapshot anymore
+	 */
+	public BookCaseSnapshot upsert(final BookCaseSnapshot expected, final Collection<Book> books) {
+
+		return publish(expected, previous -> {
+			final BookCase bookCase = mutableCopy(previous.getBookCase());
+			final IsbnIndex isbnIndex = previous.getIsbnIndex().copy();
+			for (final Book book : books) {
+				final int position = isbnIndex.indexOfKey(book.getIsbn());
+				if (position == IsbnIndex.NOT_FOUND) {
+					isbnIndex.putIfAbsent(book.getIsbn(), bookCase.size());
+					bookCase.add(book);
+				} else {
+					bookCase.set(position, book);
+				}
+			}
+			return snapshot(previous.getVersion() + 1, bookCase.freeze(), isbnIndex);
+		}, next -> listeners.forEach(listener -> listener.onUpsert(next, books)));
+	}
+
+	/**
+	 * Removes every Book having one of the given ISBNs. When none matches, nothing is published and the current snapshot is returned.
+	 *
+	 * @return the published snapshot, null if expected was given and is not the current snapshot anymore
+	 */
+	public BookCaseSnapshot remove(final BookCaseSnapshot expected, final Collection<String> isbns) {
+
+		return publish(expected, previous -> {
+			final IsbnIndex previousIndex = previous.getIsbnIndex();
+			// the ISBNs as they are stored: an ISBN-10 or hyphenated form removes the canonical ISBN-13 it finds
+			final List<String> keys = new ArrayList<>(isbns.size());
+			int firstRemoved = Integer.MAX_VALUE;
+			for (final String isbn : isbns) {
+				final String key = previousIndex.keyOf(isbn);
+				if (key != null) {
+					keys.add(key);
+					firstRemoved = Math.min(firstRemoved, previousIndex.indexOfKey(key));
+				}
+			}
+			if (keys.isEmpty()) {
+				// nothing to remove: no new version, so ETag, cached responses and indexes stay valid
+				return previous;
+			}
+
+			final IsbnIndex removed = new IsbnIndex(keys.size());
+			for (final String key : keys) {
+				removed.putIfAbsent(key, 0);
+			}
+			final BookCase bookCase = mutableCopy(previous.getBookCase());
+			removeAll(bookCase, removed);
+
+			final IsbnIndex isbnIndex = previousIndex.copy();
+			for (final String key : keys) {
+				isbnIndex.remove(key);
+			}
+			isbnIndex.reindexFrom(bookCase, firstRemoved);
+			return snapshot(previous.getVersion() + 1, bookCase.freeze(), isbnIndex);
+		}, next -> listeners.forEach(listener -> listener.onRemove(next, isbns)));
+	}
+
+	/**
+	 * @return the last searched snapshot with its TitleIndex, null if the BookCase has never been searched
+	 */
+	SearchableSnapshot searchable() {
+
+		return searchable.get();
+	}
+
+	/**
+	 * Keeps the given searchable snapshot, unless a newer one is kept already.
+	 */
+	void offerSearchable(final SearchableSnapshot offered) {
+
+		while (true) {
+			final SearchableSnapshot kept = searchable.get();
+			if (kept != null && kept.getSnapshot().getVersion() >= offered.getSnapshot().getVersion()
+					|| searchable.compareAndSet(kept, offered)) {
+				return;
+			}
+		}
+	}
+
+	long getSearchableBytes() {
+
+		final SearchableSnapshot kept = searchable.get();
+		return kept == null ? 0 : kept.getTitleIndex().getRetainedBytes();
+	}
+
+	/**
+	 * Extends the TitleIndex with the rows just appended, if it is the one of the previous version.
+	 */
+	private void extendSearchable(final BookCaseSnapshot published) {
+
+		final SearchableSnapshot kept = searchable.get();
+		if (kept != null && kept.getSnapshot().getVersion() == published.getVersion() - 1) {
+			final TitleIndex titleIndex = kept.getTitleIndex().append(published.getBookCase());
+			if (titleIndex != null) {
+				searchable.compareAndSet(kept, new SearchableSnapshot(published, titleIndex));
+			}
+		}
+	}
+
+	/**
+	 * Applies the change to the current snapshot, notifies the new snapshot and publishes it, all under the change lock: the
+	 * listeners get the changes in version order, and one of them throwing fails the change, which is then never published.
+	 *
+	 * @return the published snapshot, the current one if the change left it as it is, null if expected is not the current one
+	 */
+	private BookCaseSnapshot publish(final BookCaseSnapshot expected, final UnaryOperator<BookCaseSnapshot> change,
+			final Consumer<BookCaseSnapshot> notification) {
+
+		synchronized (changeLock) {
+			final BookCaseSnapshot previous = current.get();
+			if (expected != null && expected != previous) {
+				return null;
+			}
+			final BookCaseSnapshot next = change.apply(previous);
+			if (next == previous) {
+				return previous;
+			}
+			notification.accept(next);
+			current.set(next);
+			log.debug("Published BookCase " + caseId + " version " + next.getVersion());
+			return next;
+		}
+	}
+
+	private static BookCase mutableCopy(final BookCase bookCase) {
+
+		if (bookCase instanceof CompactBookCase) {
+			return ((CompactBookCase) bookCase).copy();
+		}
+		return new BookCase(bookCase);
+	}
+
+	private static void removeAll(final BookCase bookCase, final IsbnIndex removed) {
+
+		if (bookCase instanceof CompactBookCase) {
+			final CompactBookCase compactBookCase = (CompactBookCase) bookCase;
+			compactBookCase.removeRows(index -> {
+				final long code = compactBookCase.getIsbnCode(index);
+				if (IsbnCodes.isPacked(code)) {
+					return removed.indexOf(code) != IsbnIndex.NOT_FOUND;
+				}
+				return IsbnCodes.isRaw(code) && removed.indexOfKey(compactBookCase.getIsbn(index)) != IsbnIndex.NOT_FOUND;
+			});
+		} else {
+			bookCase.removeIf(book -> removed.indexOfKey(book.getIsbn()) != IsbnIndex.NOT_FOUND);
+		}
+	}
+
+	private BookCaseSnapshot snapshot(final long version, final BookCase bookCase) {
+
+		final BookCase frozen = bookCase.freeze();
+		return snapshot(version, frozen, IsbnIndex.of(frozen));
+	}
+
+	private BookCaseSnapshot snapshot(final long version, final BookCase bookCase, final IsbnIndex isbnIndex) {
+
+		return new BookCaseSnapshot(caseId, version, "\"" + epoch + "-" + version + "\"", bookCase, isbnIndex);
+	}
+
+}
@@ -0,0 +1,22 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.util.Collection;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+
+/**
+ * Notified by the BookCaseHolder of every change, on the thread making it, while the changes of the holder are serialized: in version
+ * order, and before the new snapshot is published, so the one given is not the current snapshot yet.
+ * A listener throwing fails the request that made the change, which is then not published.
+ */
+public interface BookCaseListener {
+
+	void onReplace(BookCaseSnapshot published);
+
+	void onAppend(BookCaseSnapshot published, Collection<Book> books);
+
+	void onUpsert(BookCaseSnapshot published, Collection<Book> books);
+
+	void onRemove(BookCaseSnapshot published, Collection<String> isbns);
+
+}
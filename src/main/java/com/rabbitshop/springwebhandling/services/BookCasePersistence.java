@@ -0,0 +1,240 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore.LogRecord;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore.Recovery;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Keeps the BookCase of the BookCaseHolder in a BookCaseStore, so that it survives restarts.
+ *
+ * At startup the stored snapshot is published as it is and the log records following it are replayed through the BookCaseHolder,
+ * then, if anything had to be replayed, a new snapshot is written right away. Afterwards every delta is appended to the log, while
+ * a replacement of the whole BookCase is written as a new snapshot. Both happen while the BookCaseHolder serializes its changes and
+ * before it publishes them (see BookCaseListener): records reach the log in version order, and if a write fails the change is not
+ * published and the request making it fails.
+ *
+ * The log is compacted into a new snapshot in the background, as soon as it grows past compactLogBytes and in any case every
+ * compactIntervalMs if it holds any record.
+ */
+@Slf4j
+@Component
+public class BookCasePersistence implements BookCaseListener {
+
+	@Value("${bookcase.store.enabled:false}")
+	private boolean enabled;
+
+	@Value("${bookcase.store.directory:data/bookcase}")
+	private String directory;
+
+	@Value("${bookcase.store.sync:true}")
+	private boolean sync;
+
+	@Value("${bookcase.store.compact-log-bytes:67108864}")
+	private long compactLogBytes;
+
+	@Value("${bookcase.store.compact-interval-ms:600000}")
+	private long compactIntervalMs;
+
+	@Value("${bookcase.deduplicate-titles:false}")
+	private boolean deduplicateTitles;
+
+	@Autowired
+	private BookCaseHolder bookCaseHolder;
+
+	private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+	private final Object compactLock = new Object();
+
+	private BookCaseStore store;
+
+	private ScheduledExecutorService compactor;
+
+	@PostConstruct
+	public void open() throws IOException {
+
+		if (!enabled) {
+			return;
+		}
+		compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "bookcase-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final BookCaseStore opened = new BookCaseStore(Paths.get(directory), deduplicateTitles, sync);
+		final Recovery recovery = opened.recover();
+		if (recovery.getBookCase() != null) {
+			bookCaseHolder.restore(recovery.getVersion(), recovery.getBookCase());
+		}
+		// store is still null while replaying, so the notified changes are not logged again
+		for (final LogRecord record : recovery.getRecords()) {
+			replay(record);
+		}
+		store = opened;
+		log.info("BookCase store opened in " + directory + ": version " + bookCaseHolder.current().getVersion() + ", "
+				+ recovery.getRecords().size() + " log records replayed");
+		if (!recovery.getRecords().isEmpty() || recovery.getTornBytes() > 0) {
+			compact();
+		}
+
+		compactor.scheduleWithFixedDelay(() -> {
+			if (store.hasLogRecords()) {
+				compactQuietly();
+			}
+		}, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+
+		if (compactor != null) {
+			compactor.shutdownNow();
+		}
+		if (store != null) {
+			store.close();
+		}
+	}
+
+	@Override
+	public void onReplace(final BookCaseSnapshot published) {
+
+		if (store != null) {
+			try {
+				compact(published);
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Cannot store BookCase version " + published.getVersion(), e);
+			}
+		}
+	}
+
+	@Override
+	public void onAppend(final BookCaseSnapshot published, final Collection<Book> books) {
+
+		if (store != null) {
+			try {
+				store.logAppend(published.getVersion(), books);
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Cannot log BookCase version " + published.getVersion(), e);
+			}
+			compactIfNeeded();
+		}
+	}
+
+	@Override
+	public void onUpsert(final BookCaseSnapshot published, final Collection<Book> books) {
+
+		if (store != null) {
+			try {
+				store.logUpsert(published.getVersion(), books);
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Cannot log BookCase version " + published.getVersion(), e);
+			}
+			compactIfNeeded();
+		}
+	}
+
+	@Override
+	public void onRemove(final BookCaseSnapshot published, final Collection<String> isbns) {
+
+		if (store != null) {
+			try {
+				store.logRemove(published.getVersion(), isbns);
+			} catch (final IOException e) {
+				throw new UncheckedIOException("Cannot log BookCase version " + published.getVersion(), e);
+			}
+			compactIfNeeded();
+		}
+	}
+
+	/**
+	 * Writes the current BookCase as the new snapshot, compacting the log.
+	 *
+	 * The current BookCase is taken under the lock serializing the compactions, so that a compaction can never write an older
+	 * snapshot over the one of a concurrent compaction (a replacement of the whole BookCase, not being in the log, would be lost).
+	 */
+	public void compact() throws IOException {
+
+		synchronized (compactLock) {
+			compact(bookCaseHolder.current());
+		}
+	}
+
+	/**
+	 * Writes the given snapshot, about to be published, as the new snapshot; the store refuses it if a newer one has been written.
+	 */
+	private void compact(final BookCaseSnapshot snapshot) throws IOException {
+
+		synchronized (compactLock) {
+			final BookCase bookCase = snapshot.getBookCase();
+			final CompactBookCase compactBookCase = bookCase instanceof CompactBookCase
+					? (CompactBookCase) bookCase
+					: new CompactBookCase(bookCase, deduplicateTitles);
+			store.writeSnapshot(snapshot.getVersion(), compactBookCase);
+		}
+	}
+
+	/**
+	 * @return the size of the log, 0 if the store is disabled
+	 */
+	public long getLogBytes() {
+
+		return store != null ? store.getLogBytes() : 0;
+	}
+
+	private void replay(final LogRecord record) {
+
+		switch (record.getType()) {
+			case APPEND:
+				bookCaseHolder.append(null, record.getBooks());
+				break;
+			case UPSERT:
+				bookCaseHolder.upsert(null, record.getBooks());
+				break;
+			case REMOVE:
+				bookCaseHolder.remove(null, record.getIsbns());
+				break;
+			default:
+				throw new IllegalStateException("Unknown log record type " + record.getType());
+		}
+	}
+
+	private void compactIfNeeded() {
+
+		if (store.getLogBytes() > compactLogBytes && compactionScheduled.compareAndSet(false, true)) {
+			compactor.execute(() -> {
+				compactionScheduled.set(false);
+				compactQuietly();
+			});
+		}
+	}
+
+	private void compactQuietly() {
+
+		try {
+			compact();
+		} catch (final IOException | RuntimeException e) {
+			log.error("BookCase snapshot failed, changes are kept in the log", e);
+		}
+	}
+
+}
@@ -0,0 +1,490 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore.Recovery;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Named BookCases, e.g. one per tenant or store, kept in memory within a budget of bytes.
+ *
+ * Every case has its own BookCaseHolder, found through a ConcurrentHashMap: lookups never lock and changes of different cases never
+ * contend. The bytes retained by every case (BookCase and its indexes) are accounted as it changes, and once the total exceeds maxBytes
+ * the least recently used cases are evicted, in a single pass run by one thread at a time.
+ * With spilling enabled an evicted case is written to the spill directory by a BookCaseStore and transparently loaded back on its next
+ * access, with the same versions and ETags; otherwise it is dropped, like any entry of a cache. A case is loaded back outside of the map,
+ * once however many requests want it, and stays registered as spilled until its entry is published, so it is never missing meanwhile.
+ *
+ * Readers just take the current snapshot of a holder, so an evicted case keeps serving the requests already holding it. Changes go
+ * through update(), which holds the read lock of the case while the change runs, and eviction skips the cases whose write lock is
+ * not free: no change can be published on a holder once it has been evicted.
+ *
+ * The default BookCase, held by the BookCaseHolder bean, is addressable as DEFAULT_CASE_ID too, but it is neither accounted nor evicted.
+ * Named cases do not survive a restart: the spill directory is cleared at startup.
+ */
+@Slf4j
+@Component
+public class BookCaseRegistry {
+
+	private static final Pattern CASE_ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+	@Value("${bookcase.cases.max-bytes:268435456}")
+	private long maxBytes;
+
+	@Value("${bookcase.cases.spill.enabled:false}")
+	private boolean spillEnabled;
+
+	@Value("${bookcase.cases.spill.directory:data/cases}")
+	private String spillDirectory;
+
+	@Value("${bookcase.deduplicate-titles:false}")
+	private boolean deduplicateTitles;
+
+	@Autowired
+	private BookCaseHolder defaultHolder;
+
+	@Autowired
+	private BookCaseResponseCache responseCache;
+
+	private final String epoch = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final AtomicLong clock = new AtomicLong();
+
+	private final ConcurrentHashMap<String, CaseEntry> entries = new ConcurrentHashMap<>();
+
+	// cases whose BookCase is only on disk, with what is needed to publish it again as it was
+	private final ConcurrentHashMap<String, SpilledCase> spilled = new ConcurrentHashMap<>();
+
+	// loads of spilled cases in progress, awaited by the other lookups of the same case
+	private final ConcurrentHashMap<String, CompletableFuture<CaseEntry>> loading = new ConcurrentHashMap<>();
+
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	private final AtomicLong residentBytes = new AtomicLong();
+
+	@Getter
+	private final AtomicLong hits = new AtomicLong();
+
+	@Getter
+	private final AtomicLong misses = new AtomicLong();
+
+	@Getter
+	private final AtomicLong evictions = new AtomicLong();
+
+	@Getter
+	private final AtomicLong spills = new AtomicLong();
+
+	@Getter
+	private final AtomicLong loads = new AtomicLong();
+
+	@PostConstruct
+	public void clearSpillDirectory() {
+
+		if (spillEnabled && FileSystemUtils.deleteRecursively(Paths.get(spillDirectory).toFile())) {
+			log.info("Cleared the BookCase spill directory " + spillDirectory);
+		}
+	}
+
+	public static boolean isValidCaseId(final String caseId) {
+
+		return caseId != null && CASE_ID_PATTERN.matcher(caseId).matches();
+	}
+
+	/**
+	 * @return the holder of the given case, loaded back from disk if it was spilled, null if there is no such case
+	 */
+	public BookCaseHolder get(final String caseId) {
+
+		if (BookCaseHolder.DEFAULT_CASE_ID.equals(caseId)) {
+			return defaultHolder;
+		}
+		final CaseEntry entry = lookup(caseId, false);
+		return entry == null ? null : entry.holder;
+	}
+
+	/**
+	 * Runs a change on the holder of the given case, which cannot be evicted meanwhile, then accounts for the new size of the case.
+	 *
+	 * @param create whether a missing case is created, empty, rather than left alone
+	 * @return the result of the change, null if the case does not exist and create is false
+	 */
+	public <T> T update(final String caseId, final boolean create, final Function<BookCaseHolder, T> change) {
+
+		if (BookCaseHolder.DEFAULT_CASE_ID.equals(caseId)) {
+			return change.apply(defaultHolder);
+		}
+		while (true) {
+			final CaseEntry entry = lookup(caseId, create);
+			if (entry == null) {
+				return null;
+			}
+			final T result;
+			entry.lock.readLock().lock();
+			try {
+				if (entry.evicted) {
+					// evicted after the lookup, look it up again
+					continue;
+				}
+				result = change.apply(entry.holder);
+				reweigh(entry);
+			} finally {
+				entry.lock.readLock().unlock();
+			}
+			evictIfNeeded(entry);
+			return result;
+		}
+	}
+
+	/**
+	 * Removes the given case, whether in memory or spilled.
+	 *
+	 * @return false if there is no such case
+	 */
+	public boolean remove(final String caseId) {
+
+		if (BookCaseHolder.DEFAULT_CASE_ID.equals(caseId)) {
+			throw new IllegalArgumentException("The default BookCase cannot be removed");
+		}
+		boolean removed = spilled.remove(caseId) != null;
+		if (removed) {
+			deleteSpilled(caseId);
+		}
+		final CaseEntry entry = entries.get(caseId);
+		if (entry != null) {
+			entry.lock.writeLock().lock();
+			try {
+				if (!entry.evicted) {
+					drop(entry);
+					removed = true;
+				}
+			} finally {
+				entry.lock.writeLock().unlock();
+			}
+		}
+		if (removed) {
+			responseCache.evict(caseId);
+			log.debug("Removed BookCase " + caseId);
+		}
+		return removed;
+	}
+
+	public Stats getStats() {
+
+		final long hitCount = hits.get();
+		final long missCount = misses.get();
+		final long lookups = hitCount + missCount;
+		return new Stats(entries.size(), residentBytes.get(), maxBytes, spilled.size(), hitCount, missCount,
+				lookups == 0 ? 0 : (double) hitCount / lookups, evictions.get(), spills.get(), loads.get());
+	}
+
+	private CaseEntry lookup(final String caseId, final boolean create) {
+
+		CaseEntry entry = entries.get(caseId);
+		if (entry != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			if (!isValidCaseId(caseId)) {
+				return null;
+			}
+			entry = spilled.containsKey(caseId) ? loadSpilled(caseId) : null;
+			if (entry == null) {
+				// not spilled, or loaded back by another lookup since the entries were looked up
+				entry = create ? entries.computeIfAbsent(caseId, this::create) : entries.get(caseId);
+				if (entry == null) {
+					return null;
+				}
+			}
+			evictIfNeeded(entry);
+		}
+		entry.lastAccess = clock.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Creates the entry of a new, empty case; cheap enough to run within the map.
+	 */
+	private CaseEntry create(final String caseId) {
+
+		final BookCaseHolder holder = new BookCaseHolder(caseId, epoch + "." + Long.toString(created.incrementAndGet(), Character.MAX_RADIX),
+				Collections.<BookCaseListener> emptyList());
+		log.debug("Created BookCase " + caseId);
+		final CaseEntry entry = new CaseEntry(holder);
+		reweigh(entry);
+		return entry;
+	}
+
+	/**
+	 * Loads a spilled case back and publishes its entry, or waits for the load already in progress.
+	 *
+	 * @return null if the case is not spilled (any more)
+	 */
+	private CaseEntry loadSpilled(final String caseId) {
+
+		final CompletableFuture<CaseEntry> loaded = new CompletableFuture<>();
+		final CompletableFuture<CaseEntry> pending = loading.putIfAbsent(caseId, loaded);
+		if (pending != null) {
+			try {
+				return pending.join();
+			} catch (final CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		try {
+			final CaseEntry entry = load(caseId);
+			loaded.complete(entry);
+			return entry;
+		} catch (final RuntimeException e) {
+			loaded.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(caseId, loaded);
+		}
+	}
+
+	/**
+	 * Loads a spilled case back, runs by one thread at a time per case (see loadSpilled).
+	 *
+	 * The case stays registered as spilled until its entry is published, so that a concurrent lookup always finds it one way or the other.
+	 *
+	 * @return null if the case is not spilled
+	 */
+	private CaseEntry load(final String caseId) {
+
+		final SpilledCase spilledCase = spilled.get(caseId);
+		if (spilledCase == null) {
+			return null;
+		}
+		final BookCaseHolder holder = new BookCaseHolder(caseId, spilledCase.epoch, Collections.<BookCaseListener> emptyList());
+		try (final BookCaseStore store = new BookCaseStore(spillPath(caseId), deduplicateTitles, false)) {
+			final Recovery recovery = store.recover();
+			if (recovery.getBookCase() == null) {
+				throw new IOException("Snapshot missing");
+			}
+			holder.restore(spilledCase.version, recovery.getBookCase());
+		} catch (final IOException e) {
+			throw new UncheckedIOException("Cannot load the spilled BookCase " + caseId, e);
+		}
+		final CaseEntry entry = new CaseEntry(holder);
+		reweigh(entry);
+		deleteSpilled(caseId);
+		// published under its write lock, so that it cannot be evicted and spilled again before it is no longer registered as spilled
+		entry.lock.writeLock().lock();
+		try {
+			entries.put(caseId, entry);
+			if (!spilled.remove(caseId, spilledCase)) {
+				// removed meanwhile, the loaded entry must not bring the case back
+				drop(entry);
+				return null;
+			}
+		} finally {
+			entry.lock.writeLock().unlock();
+		}
+		loads.incrementAndGet();
+		log.debug("Loaded spilled BookCase " + caseId + " version " + spilledCase.version);
+		return entry;
+	}
+
+	private void reweigh(final CaseEntry entry) {
+
+		final BookCaseSnapshot snapshot = entry.holder.current();
+		final long weight = snapshot.getBookCase().getRetainedBytes() + snapshot.getIsbnIndex().getRetainedBytes()
+				+ entry.holder.getSearchableBytes();
+		synchronized (entry) {
+			residentBytes.addAndGet(weight - entry.weight);
+			entry.weight = weight;
+		}
+	}
+
+	/**
+	 * Evicts the least recently used cases until the resident ones fit in maxBytes again, keep excluded.
+	 */
+	private void evictIfNeeded(final CaseEntry keep) {
+
+		if (residentBytes.get() <= maxBytes || !evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			final List<CaseEntry> candidates = new ArrayList<>(entries.values());
+			// sorted on a copy of the access stamps, which keep changing meanwhile
+			for (final CaseEntry candidate : candidates) {
+				candidate.evictionStamp = candidate.lastAccess;
+			}
+			candidates.sort(Comparator.comparingLong(candidate -> candidate.evictionStamp));
+			for (final CaseEntry candidate : candidates) {
+				if (residentBytes.get() <= maxBytes) {
+					break;
+				}
+				if (candidate != keep) {
+					evict(candidate);
+				}
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void evict(final CaseEntry entry) {
+
+		// a case being changed right now is not cold anyway
+		if (!entry.lock.writeLock().tryLock()) {
+			return;
+		}
+		try {
+			if (entry.evicted) {
+				return;
+			}
+			final String caseId = entry.holder.getCaseId();
+			if (spillEnabled) {
+				try {
+					spill(entry.holder);
+				} catch (final IOException | RuntimeException e) {
+					log.error("Cannot spill BookCase " + caseId + ", it stays in memory", e);
+					return;
+				}
+			}
+			drop(entry);
+			evictions.incrementAndGet();
+			if (!spillEnabled) {
+				responseCache.evict(caseId);
+			}
+			log.debug("Evicted BookCase " + caseId + (spillEnabled ? ", spilled to disk" : ""));
+		} finally {
+			entry.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Must be called holding the write lock of the entry.
+	 */
+	private void drop(final CaseEntry entry) {
+
+		entries.remove(entry.holder.getCaseId(), entry);
+		entry.evicted = true;
+		synchronized (entry) {
+			residentBytes.addAndGet(-entry.weight);
+			entry.weight = 0;
+		}
+	}
+
+	private void spill(final BookCaseHolder holder) throws IOException {
+
+		final BookCaseSnapshot snapshot = holder.current();
+		final BookCase bookCase = snapshot.getBookCase();
+		final CompactBookCase compactBookCase = bookCase instanceof CompactBookCase
+				? (CompactBookCase) bookCase
+				: new CompactBookCase(bookCase, deduplicateTitles);
+		try (final BookCaseStore store = new BookCaseStore(spillPath(holder.getCaseId()), deduplicateTitles, false)) {
+			store.recover();
+			store.writeSnapshot(snapshot.getVersion(), compactBookCase);
+		}
+		// registered before the entry is removed, so a concurrent lookup finds the case either in memory or on disk
+		spilled.put(holder.getCaseId(), new SpilledCase(snapshot.getVersion(), holder.getEpoch()));
+		spills.incrementAndGet();
+	}
+
+	private void deleteSpilled(final String caseId) {
+
+		if (!FileSystemUtils.deleteRecursively(spillPath(caseId).toFile())) {
+			log.debug("No spilled files of BookCase " + caseId + " to delete");
+		}
+	}
+
+	private Path spillPath(final String caseId) {
+
+		return Paths.get(spillDirectory, caseId);
+	}
+
+	/**
+	 * Counters of the registry, the default BookCase excluded.
+	 */
+	@Getter
+	@RequiredArgsConstructor
+	public static final class Stats {
+
+		private final int residentCases;
+
+		private final long residentBytes;
+
+		private final long maxBytes;
+
+		private final int spilledCases;
+
+		private final long hits;
+
+		private final long misses;
+
+		private final double hitRate;
+
+		private final long evictions;
+
+		private final long spills;
+
+		private final long loads;
+
+	}
+
+	private static final class CaseEntry {
+
+		private final BookCaseHolder holder;
+
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+		// guarded by the entry itself
+		private long weight;
+
+		private volatile long lastAccess;
+
+		// only used under the eviction lock
+		private long evictionStamp;
+
+		// written under the write lock, read under the read lock
+		private boolean evicted;
+
+		private CaseEntry(final BookCaseHolder holder) {
+
+			this.holder = holder;
+		}
+
+	}
+
+	@RequiredArgsConstructor
+	private static final class SpilledCase {
+
+		private final long version;
+
+		private final String epoch;
+
+	}
+
+}
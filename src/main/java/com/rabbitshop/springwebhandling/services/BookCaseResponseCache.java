@@ -0,0 +1,461 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cache of fully encoded BookCase responses.
+ *
+ * A BookCase only changes when a new snapshot is published, so the bytes produced by the HttpMessageConverters (CSV, JSON, ...)
+ * are kept per snapshot version and negotiated media type, optionally gzip-precompressed as well. Serving a cached response is
+ * then just a copy of those bytes to the servlet output stream.
+ *
+ * Entries are evicted in LRU order as soon as their total size exceeds maxBytes, and entries of older versions are dropped as
+ * soon as a newer version of the same BookCase gets cached. Concurrent misses on the same entry share a single encoding.
+ *
+ * A response whose encoding exceeds maxBytes is not cached: its encoding is abandoned as soon as it gets that large and, for that
+ * version, get() answers null right away, the caller then streams the BookCase through the HttpMessageConverters instead.
+ */
+@Slf4j
+@Component
+public class BookCaseResponseCache {
+
+	private static final String GZIP = "gzip";
+
+	@Value("${bookcase.response-cache.max-bytes:67108864}")
+	private long maxBytes;
+
+	@Value("${bookcase.response-cache.gzip:true}")
+	private boolean gzipEnabled;
+
+	@Value("${bookcase.response-cache.gzip-min-bytes:1024}")
+	private int gzipMinBytes;
+
+	@Autowired
+	private RequestMappingHandlerAdapter handlerAdapter;
+
+	private final LinkedHashMap<Key, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long totalBytes;
+
+	/**
+	 * Keys of the responses too large to be cached, of the latest version of every BookCase only, guarded by entries
+	 */
+	private final Set<Key> oversized = new HashSet<>();
+
+	private final ConcurrentMap<Key, CompletableFuture<CachedResponse>> encodings = new ConcurrentHashMap<>();
+
+	private volatile List<MediaType> producibleMediaTypes;
+
+	@Getter
+	private final AtomicLong hits = new AtomicLong();
+
+	@Getter
+	private final AtomicLong misses = new AtomicLong();
+
+	@Getter
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Requests answered null, their response being too large to be cached
+	 */
+	@Getter
+	private final AtomicLong uncacheable = new AtomicLong();
+
+	/**
+	 * @return the encoded BookCase of the given snapshot, gzipped if requested and worth it, null if its encoding exceeds maxBytes
+	 */
+	public CachedResponse get(final BookCaseSnapshot snapshot, final MediaType mediaType, final boolean gzip) throws IOException {
+
+		final Key key = new Key(snapshot.getCaseId(), snapshot.getVersion(), mediaType.toString(), gzip && gzipEnabled);
+		if (isCached(key)) {
+			return cached(key);
+		}
+
+		final CompletableFuture<CachedResponse> encoding = new CompletableFuture<>();
+		final CompletableFuture<CachedResponse> running = encodings.putIfAbsent(key, encoding);
+		if (running != null) {
+			misses.incrementAndGet();
+			return await(running);
+		}
+		try {
+			// an encoding may have completed between the lookup and the registration of this one
+			if (isCached(key)) {
+				final CachedResponse cached = cached(key);
+				encoding.complete(cached);
+				return cached;
+			}
+			misses.incrementAndGet();
+			final CachedResponse encoded = encode(snapshot.getBookCase(), mediaType, key.gzip, maxBytes);
+			if (encoded == null) {
+				putOversized(key);
+			} else {
+				put(key, encoded);
+			}
+			encoding.complete(encoded);
+			return encoded;
+		} catch (IOException | RuntimeException e) {
+			encoding.completeExceptionally(e);
+			throw e;
+		} finally {
+			if (!encoding.isDone()) {
+				encoding.completeExceptionally(new IllegalStateException("BookCase encoding failed"));
+			}
+			encodings.remove(key, encoding);
+		}
+	}
+
+	/**
+	 * Encodes a BookCase that is not to be cached, like a page of a snapshot, with the same HttpMessageConverters.
+	 */
+	public CachedResponse encode(final BookCase bookCase, final MediaType mediaType) throws IOException {
+
+		return encode(bookCase, mediaType, false, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Picks the media type of the response among the ones the HttpMessageConverters can write a BookCase with.
+	 *
+	 * @return the negotiated media type, null if none of the accepted ones can be produced
+	 */
+	public MediaType negotiate(final List<MediaType> acceptedMediaTypes) {
+
+		final List<MediaType> accepted = new ArrayList<>(acceptedMediaTypes);
+		if (accepted.isEmpty()) {
+			accepted.add(MediaType.ALL);
+		}
+		MediaType.sortBySpecificityAndQuality(accepted);
+		for (final MediaType acceptedMediaType : accepted) {
+			for (final MediaType producible : getProducibleMediaTypes()) {
+				if (acceptedMediaType.isCompatibleWith(producible)) {
+					return producible;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the Accept-Encoding header value allows a gzipped response
+	 */
+	public boolean acceptsGzip(final String acceptEncoding) {
+
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (final String coding : acceptEncoding.split(",")) {
+			final String[] parts = coding.trim().split(";");
+			if (GZIP.equalsIgnoreCase(parts[0].trim()) || "*".equals(parts[0].trim())) {
+				return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops every entry of the given BookCase, whose versions are about to be reused by another one.
+	 */
+	public void evict(final String caseId) {
+
+		synchronized (entries) {
+			final Iterator<Map.Entry<Key, CachedResponse>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<Key, CachedResponse> entry = iterator.next();
+				if (entry.getKey().caseId.equals(caseId)) {
+					totalBytes -= entry.getValue().getBody().length;
+					iterator.remove();
+					evictions.incrementAndGet();
+				}
+			}
+			oversized.removeIf(key -> key.caseId.equals(caseId));
+		}
+	}
+
+	public long getTotalBytes() {
+
+		synchronized (entries) {
+			return totalBytes;
+		}
+	}
+
+	/**
+	 * @return whether the response of the given key is either cached or known to be too large to be
+	 */
+	private boolean isCached(final Key key) {
+
+		synchronized (entries) {
+			return entries.containsKey(key) || oversized.contains(key);
+		}
+	}
+
+	/**
+	 * @return the cached response of the given key, null if it is too large to be cached
+	 */
+	private CachedResponse cached(final Key key) {
+
+		synchronized (entries) {
+			final CachedResponse cached = entries.get(key);
+			if (cached != null) {
+				hits.incrementAndGet();
+			} else {
+				uncacheable.incrementAndGet();
+			}
+			return cached;
+		}
+	}
+
+	private CachedResponse await(final CompletableFuture<CachedResponse> encoding) throws IOException {
+
+		try {
+			final CachedResponse encoded = encoding.get();
+			if (encoded == null) {
+				uncacheable.incrementAndGet();
+			}
+			return encoded;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the BookCase encoding");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("BookCase encoding failed", e.getCause());
+		}
+	}
+
+	private void putOversized(final Key key) {
+
+		log.debug("Encoded BookCase exceeds the cache size of " + maxBytes + " bytes, not cached");
+		uncacheable.incrementAndGet();
+		synchronized (entries) {
+			oversized.removeIf(entryKey -> entryKey.caseId.equals(key.caseId) && entryKey.version < key.version);
+			oversized.add(key);
+		}
+	}
+
+	private void put(final Key key, final CachedResponse response) {
+
+		final long size = response.getBody().length;
+		if (size > maxBytes) {
+			log.debug("Encoded BookCase of " + size + " bytes exceeds the cache size, not cached");
+			return;
+		}
+
+		synchronized (entries) {
+			final Iterator<Map.Entry<Key, CachedResponse>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				final Map.Entry<Key, CachedResponse> entry = iterator.next();
+				final Key entryKey = entry.getKey();
+				if (entryKey.caseId.equals(key.caseId) && entryKey.version < key.version || totalBytes + size > maxBytes) {
+					totalBytes -= entry.getValue().getBody().length;
+					iterator.remove();
+					evictions.incrementAndGet();
+				}
+			}
+			final CachedResponse previous = entries.put(key, response);
+			if (previous != null) {
+				totalBytes -= previous.getBody().length;
+			}
+			totalBytes += size;
+		}
+	}
+
+	/**
+	 * @return the encoded BookCase, null if its encoding exceeds maxBytes
+	 */
+	@SuppressWarnings("unchecked")
+	private CachedResponse encode(final BookCase bookCase, final MediaType mediaType, final boolean gzip, final long maxBytes)
+			throws IOException {
+
+		for (final HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+			if (converter.canWrite(bookCase.getClass(), mediaType)) {
+				final BufferingOutputMessage outputMessage = new BufferingOutputMessage(maxBytes);
+				try {
+					((HttpMessageConverter<Object>) converter).write(bookCase, mediaType, outputMessage);
+				} catch (IOException | RuntimeException e) {
+					// converters may wrap the failure of the body, e.g. into an HttpMessageNotWritableException
+					if (outputMessage.body.exceeded) {
+						return null;
+					}
+					throw e;
+				}
+				final MediaType contentType = outputMessage.getHeaders().getContentType() != null
+						? outputMessage.getHeaders().getContentType()
+						: mediaType;
+				final byte[] body = outputMessage.body.toByteArray();
+				if (gzip && body.length >= gzipMinBytes) {
+					return new CachedResponse(contentType, gzip(body), true);
+				}
+				return new CachedResponse(contentType, body, false);
+			}
+		}
+		throw new IllegalStateException("No HttpMessageConverter can write a BookCase as " + mediaType);
+	}
+
+	private List<MediaType> getProducibleMediaTypes() {
+
+		if (producibleMediaTypes == null) {
+			final List<MediaType> mediaTypes = new ArrayList<>();
+			for (final HttpMessageConverter<?> converter : handlerAdapter.getMessageConverters()) {
+				if (converter.canWrite(BookCase.class, null)) {
+					for (final MediaType mediaType : converter.getSupportedMediaTypes()) {
+						if (mediaType.isConcrete() && !mediaTypes.contains(mediaType)) {
+							mediaTypes.add(mediaType);
+						}
+					}
+				}
+			}
+			log.debug("Media types producible for a BookCase: " + mediaTypes);
+			producibleMediaTypes = mediaTypes;
+		}
+		return producibleMediaTypes;
+	}
+
+	private static byte[] gzip(final byte[] body) throws IOException {
+
+		final ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4 + 64);
+		try (final GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+			out.write(body);
+		}
+		return compressed.toByteArray();
+	}
+
+	@Getter
+	@RequiredArgsConstructor
+	public static final class CachedResponse {
+
+		private final MediaType contentType;
+
+		private final byte[] body;
+
+		private final boolean gzipped;
+
+	}
+
+	@EqualsAndHashCode
+	@RequiredArgsConstructor
+	private static final class Key {
+
+		private final String caseId;
+
+		private final long version;
+
+		private final String mediaType;
+
+		private final boolean gzip;
+
+	}
+
+	private static final class BufferingOutputMessage implements HttpOutputMessage {
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		private final BoundedBuffer body;
+
+		private BufferingOutputMessage(final long maxBytes) {
+
+			body = new BoundedBuffer(maxBytes);
+		}
+
+		@Override
+		public OutputStream getBody() {
+
+			return body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+
+			return headers;
+		}
+
+	}
+
+	/**
+	 * Buffer failing as soon as more than maxBytes are written to it
+	 */
+	private static final class BoundedBuffer extends ByteArrayOutputStream {
+
+		private final long maxBytes;
+
+		private boolean exceeded;
+
+		private BoundedBuffer(final long maxBytes) {
+
+			super(8 * 1024);
+			this.maxBytes = maxBytes;
+		}
+
+		@Override
+		public synchronized void write(final int b) {
+
+			checkSize(1);
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(final byte[] b, final int off, final int len) {
+
+			checkSize(len);
+			super.write(b, off, len);
+		}
+
+		private void checkSize(final int len) {
+
+			if (count + (long) len > maxBytes) {
+				exceeded = true;
+				throw new BufferLimitExceededException();
+			}
+		}
+
+	}
+
+	/**
+	 * Stackless, only thrown to abandon an encoding
+	 */
+	private static final class BufferLimitExceededException extends RuntimeException {
+
+		private static final long serialVersionUID = -1869231042478722180L;
+
+		private BufferLimitExceededException() {
+
+			super("Encoded BookCase exceeds the cache size", null, false, false);
+		}
+
+	}
+
+}
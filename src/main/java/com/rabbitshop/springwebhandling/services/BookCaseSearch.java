@@ -0,0 +1,206 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.indexes.TitleIndex;
+import com.rabbitshop.springwebhandling.indexes.TitleIndex.Matches;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Title search over the BookCase of a BookCaseHolder, answered by a TitleIndex.
+ *
+ * The first search of a BookCase builds its index right away, once: concurrent first searches wait for that build. From then on the holder keeps the index of the last searched snapshot
+ * and extends it on every append; when the BookCase has been changed otherwise, or too many appended segments have piled up, the index
+ * is rebuilt in the background on rebuildThreads threads, at most one rebuild per BookCase at a time. Searches never wait for a
+ * rebuild: meanwhile they are answered from the previous snapshot, which the result carries so that its ETag can be returned.
+ */
+@Slf4j
+@Component
+public class BookCaseSearch {
+
+	// segments appended before the index gets rebuilt as a single one
+	private static final int REBUILD_SEGMENTS = TitleIndex.MAX_SEGMENTS / 2;
+
+	@Value("${bookcase.search.rebuild-threads:1}")
+	private int rebuildThreads;
+
+	@Getter
+	@Value("${bookcase.search.max-limit:1000}")
+	private int maxLimit;
+
+	private final Set<BookCaseHolder> rebuilding = ConcurrentHashMap.newKeySet();
+
+	// first builds in progress, awaited by the concurrent first searches of the same BookCase
+	private final ConcurrentHashMap<BookCaseHolder, CompletableFuture<SearchableSnapshot>> firstBuilds = new ConcurrentHashMap<>();
+
+	private ExecutorService rebuilder;
+
+	@Getter
+	private final AtomicLong searches = new AtomicLong();
+
+	@Getter
+	private final AtomicLong staleSearches = new AtomicLong();
+
+	@Getter
+	private final AtomicLong builds = new AtomicLong();
+
+	@PostConstruct
+	public void start() {
+
+		final AtomicInteger threads = new AtomicInteger();
+		rebuilder = Executors.newFixedThreadPool(rebuildThreads, runnable -> {
+			final Thread thread = new Thread(runnable, "bookcase-search-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@PreDestroy
+	public void stop() {
+
+		rebuilder.shutdownNow();
+	}
+
+	/**
+	 * @return the Books whose title has all the words of the query, in BookCase order (see TitleIndex)
+	 */
+	public SearchResult searchWords(final BookCaseHolder holder, final String query, final int offset, final int limit) {
+
+		final SearchableSnapshot searchable = searchable(holder);
+		return result(searchable, searchable.getTitleIndex().matchWords(query, offset, limit));
+	}
+
+	/**
+	 * @return the Books whose title starts with the given prefix, ignoring case, in title order
+	 */
+	public SearchResult searchTitlePrefix(final BookCaseHolder holder, final String prefix, final int offset, final int limit) {
+
+		final SearchableSnapshot searchable = searchable(holder);
+		final BookCase bookCase = searchable.getSnapshot().getBookCase();
+		return result(searchable, searchable.getTitleIndex().matchTitlePrefix(bookCase, prefix, offset, limit));
+	}
+
+	private SearchableSnapshot searchable(final BookCaseHolder holder) {
+
+		searches.incrementAndGet();
+		final BookCaseSnapshot current = holder.current();
+		final SearchableSnapshot kept = holder.searchable();
+		if (kept == null) {
+			// nothing to answer from meanwhile: the search waits for the first build
+			return buildFirst(holder, current);
+		}
+		if (kept.getSnapshot() != current) {
+			staleSearches.incrementAndGet();
+			rebuild(holder);
+		} else if (kept.getTitleIndex().getSegmentCount() > REBUILD_SEGMENTS) {
+			rebuild(holder);
+		}
+		return kept;
+	}
+
+	/**
+	 * Builds the first index of the given holder, or waits for the build already in progress.
+	 */
+	private SearchableSnapshot buildFirst(final BookCaseHolder holder, final BookCaseSnapshot current) {
+
+		final CompletableFuture<SearchableSnapshot> built = new CompletableFuture<>();
+		final CompletableFuture<SearchableSnapshot> pending = firstBuilds.putIfAbsent(holder, built);
+		if (pending != null) {
+			try {
+				return pending.join();
+			} catch (final CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		try {
+			// a first build may have completed since the holder was looked at
+			SearchableSnapshot searchable = holder.searchable();
+			if (searchable == null) {
+				searchable = build(current);
+				holder.offerSearchable(searchable);
+			}
+			built.complete(searchable);
+			return searchable;
+		} catch (final RuntimeException e) {
+			built.completeExceptionally(e);
+			throw e;
+		} finally {
+			firstBuilds.remove(holder, built);
+		}
+	}
+
+	private void rebuild(final BookCaseHolder holder) {
+
+		if (!rebuilding.add(holder)) {
+			return;
+		}
+		try {
+			rebuilder.execute(() -> {
+				try {
+					holder.offerSearchable(build(holder.current()));
+				} catch (final RuntimeException e) {
+					log.error("Rebuild of the title index of BookCase " + holder.getCaseId() + " failed", e);
+				} finally {
+					rebuilding.remove(holder);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			rebuilding.remove(holder);
+			log.debug("Rebuild of the title index of BookCase " + holder.getCaseId() + " rejected: " + e.getMessage());
+		}
+	}
+
+	private SearchableSnapshot build(final BookCaseSnapshot snapshot) {
+
+		final long start = System.nanoTime();
+		final TitleIndex titleIndex = TitleIndex.build(snapshot.getBookCase());
+		builds.incrementAndGet();
+		log.debug("Built title index of BookCase " + snapshot.getCaseId() + " version " + snapshot.getVersion() + ", "
+				+ titleIndex.size() + " titles in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+		return new SearchableSnapshot(snapshot, titleIndex);
+	}
+
+	private static SearchResult result(final SearchableSnapshot searchable, final Matches matches) {
+
+		final BookCase bookCase = searchable.getSnapshot().getBookCase();
+		final BookCase books = new BookCase(matches.getRows().length);
+		for (final int row : matches.getRows()) {
+			books.add(bookCase.get(row));
+		}
+		return new SearchResult(searchable.getSnapshot(), matches.getTotal(), books.freeze());
+	}
+
+	/**
+	 * A page of matching Books, with the total number of matches and the snapshot they have been found in.
+	 */
+	@Getter
+	@RequiredArgsConstructor
+	public static final class SearchResult {
+
+		private final BookCaseSnapshot snapshot;
+
+		private final int total;
+
+		private final BookCase books;
+
+	}
+
+}
@@ -0,0 +1,29 @@
+package com.rabbitshop.springwebhandling.services;
+
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.indexes.IsbnIndex;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Immutable, versioned state published by the BookCaseHolder: a frozen BookCase together with the indexes built on it.
+ *
+ * The ETag is a strong entity tag derived from the version, so every published snapshot has its own. Versions are only comparable
+ * between snapshots of the same BookCase, identified by caseId.
+ */
+@Getter
+@AllArgsConstructor
+public final class BookCaseSnapshot {
+
+	private final String caseId;
+
+	private final long version;
+
+	private final String eTag;
+
+	private final BookCase bookCase;
+
+	private final IsbnIndex isbnIndex;
+
+}
@@ -0,0 +1,115 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sampled and rate-limited logging of the errors handled by the exception handlers.
+ *
+ * Every occurrence is counted exactly, per exception class, but only a bounded sample is actually logged: one occurrence out of
+ * sampleEvery for each exception class, and at most maxPerSecond log lines overall, whatever the traffic. Each logged line reports
+ * how many occurrences have been left out since the previous one. Messages are slf4j parameterized messages, so nothing is
+ * formatted for the occurrences that are not logged. The stack trace is logged only when the exception has one.
+ *
+ * Counting and rate limiting are lock-free.
+ */
+@Component
+public class ErrorLogSampler {
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	@Value("${errors.log.sample-every:10}")
+	private long sampleEvery;
+
+	@Value("${errors.log.max-per-second:10}")
+	private int maxPerSecond;
+
+	private final ConcurrentMap<Class<?>, AtomicLong> counters = new ConcurrentHashMap<>();
+
+	// current second in the high 32 bits, lines logged during that second in the low 32 bits
+	private final AtomicLong window = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	/**
+	 * Counts an occurrence of the given exception and logs it at ERROR level if it is part of the sample.
+	 *
+	 * @return true if the occurrence has been logged
+	 */
+	public boolean error(final Logger logger, final Throwable exception, final String format, final Object... arguments) {
+
+		final long occurrence = count(exception);
+		if (!logger.isErrorEnabled() || (occurrence - 1) % Math.max(sampleEvery, 1) != 0 || !tryAcquire()) {
+			skipped.incrementAndGet();
+			return false;
+		}
+
+		final Object[] args = arguments != null ? arguments : NO_ARGUMENTS;
+		final boolean withStackTrace = exception.getStackTrace().length > 0;
+		final Object[] logArguments = new Object[args.length + (withStackTrace ? 3 : 2)];
+		System.arraycopy(args, 0, logArguments, 0, args.length);
+		logArguments[args.length] = occurrence;
+		logArguments[args.length + 1] = skipped.getAndSet(0);
+		if (withStackTrace) {
+			logArguments[args.length + 2] = exception;
+		}
+		logger.error(format + " (occurrence {}, {} not logged since the previous one)", logArguments);
+		return true;
+	}
+
+	/**
+	 * Counts an occurrence of the given exception without logging it, for the handlers that do not log.
+	 *
+	 * @return number of occurrences counted so far for the class of the exception, this one included
+	 */
+	public long count(final Throwable exception) {
+
+		return counters.computeIfAbsent(exception.getClass(), clazz -> new AtomicLong()).incrementAndGet();
+	}
+
+	/**
+	 * @return number of occurrences counted so far for the given exception class
+	 */
+	public long getCount(final Class<? extends Throwable> exceptionClass) {
+
+		final AtomicLong counter = counters.get(exceptionClass);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @return number of occurrences counted so far, per exception class name
+	 */
+	public Map<String, Long> getCounts() {
+
+		final Map<String, Long> counts = new TreeMap<>();
+		counters.forEach((clazz, counter) -> counts.put(clazz.getName(), counter.get()));
+		return counts;
+	}
+
+	private boolean tryAcquire() {
+
+		final long second = System.currentTimeMillis() / 1000;
+		while (true) {
+			final long state = window.get();
+			final long next;
+			if (state >>> 32 != second) {
+				next = second << 32 | 1;
+			} else if ((int) state >= maxPerSecond) {
+				return false;
+			} else {
+				next = state + 1;
+			}
+			if (window.compareAndSet(state, next)) {
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package com.rabbitshop.springwebhandling.services;
+
+import com.rabbitshop.springwebhandling.indexes.TitleIndex;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * A published BookCaseSnapshot together with the TitleIndex built on its BookCase.
+ */
+@Getter
+@AllArgsConstructor
+final class SearchableSnapshot {
+
+	private final BookCaseSnapshot snapshot;
+
+	private final TitleIndex titleIndex;
+
+}
@@ -0,0 +1,83 @@
+package com.rabbitshop.springwebhandling.utils;
+
+/**
+ * Allocation-free UTF-8 encoding of Strings into byte arrays.
+ *
+ * Malformed surrogates are replaced by '?', as String.getBytes(UTF_8) does.
+ */
+public final class Utf8 {
+
+	/**
+	 * Upper bound of the bytes needed to encode a single char (a surrogate pair takes 4 bytes for 2 chars)
+	 */
+	public static final int MAX_BYTES_PER_CHAR = 3;
+
+	private Utf8() {}
+
+	/**
+	 * @return number of bytes of the UTF-8 encoding of the given value
+	 */
+	public static int encodedLength(final CharSequence value) {
+
+		final int length = value.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			if (c >= 0x800) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+					bytes += 2;
+					i++;
+				} else if (!Character.isSurrogate(c)) {
+					bytes += 2;
+				}
+			} else if (c >= 0x80) {
+				bytes++;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the given value, dst must have room for {@link #MAX_BYTES_PER_CHAR} bytes per char (or for its encodedLength).
+	 *
+	 * @return the offset following the last written byte
+	 */
+	public static int encode(final CharSequence value, final byte[] dst, final int offset) {
+
+		return encode(value, 0, value.length(), dst, offset);
+	}
+
+	/**
+	 * Encodes the chars [start, end) of the given value, see {@link #encode(CharSequence, byte[], int)}.
+	 * A surrogate pair split by end is encoded as a malformed surrogate.
+	 *
+	 * @return the offset following the last written byte
+	 */
+	public static int encode(final CharSequence value, final int start, final int end, final byte[] dst, final int offset) {
+
+		int position = offset;
+		for (int i = start; i < end; i++) {
+			final char c = value.charAt(i);
+			if (c < 0x80) {
+				dst[position++] = (byte) c;
+			} else if (c < 0x800) {
+				dst[position++] = (byte) (0xC0 | c >> 6);
+				dst[position++] = (byte) (0x80 | c & 0x3F);
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				dst[position++] = (byte) (0xF0 | codePoint >> 18);
+				dst[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+				dst[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+				dst[position++] = (byte) (0x80 | codePoint & 0x3F);
+			} else if (Character.isSurrogate(c)) {
+				dst[position++] = '?';
+			} else {
+				dst[position++] = (byte) (0xE0 | c >> 12);
+				dst[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+				dst[position++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		return position;
+	}
+
+}
@@ -0,0 +1,61 @@
+package com.rabbitshop.springwebhandling.controllers;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class ETagsTest {
+
+	private static final String ETAG = "\"epoch.7\"";
+
+	private static final String CSV_ETAG = "\"epoch.7:csv\"";
+
+	@Test
+	public void derivesTheETagOfARepresentation() {
+
+		Assertions.assertThat(ETags.ofRepresentation(ETAG, "csv")).isEqualTo(CSV_ETAG);
+		Assertions.assertThat(ETags.ofRepresentation(ETAG, "json+gzip")).isEqualTo("\"epoch.7:json+gzip\"");
+	}
+
+	@Test
+	public void matchesIfNoneMatchWithTheWeakComparison() {
+
+		Assertions.assertThat(ETags.matchesIfNoneMatch(ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfNoneMatch("W/" + ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfNoneMatch("\"epoch.6\", " + ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfNoneMatch("*", ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfNoneMatch(CSV_ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfNoneMatch("\"epoch.6\"", ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfNoneMatch(null, ETAG)).isFalse();
+	}
+
+	@Test
+	public void matchesIfMatchWithTheStrongComparison() {
+
+		Assertions.assertThat(ETags.matchesIfMatch(null, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfMatch(ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfMatch("*", ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfMatch(CSV_ETAG, ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfMatch("W/" + ETAG, ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfMatch("\"epoch.6\"", ETAG)).isFalse();
+	}
+
+	@Test
+	public void doesNotTakeAnotherVersionForARepresentation() {
+
+		Assertions.assertThat(ETags.matchesIfMatch("\"epoch.70:csv\"", ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfMatch("\"epoch.7:\"", ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfNoneMatch("\"epoch.7csv\"", ETAG)).isFalse();
+	}
+
+	@Test
+	public void matchesIfRangeWithTheExactRepresentation() {
+
+		Assertions.assertThat(ETags.matchesIfRange(null, CSV_ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfRange(CSV_ETAG, CSV_ETAG)).isTrue();
+		Assertions.assertThat(ETags.matchesIfRange(ETAG, CSV_ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfRange("\"epoch.7:csv+gzip\"", CSV_ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfRange("W/" + CSV_ETAG, CSV_ETAG)).isFalse();
+		Assertions.assertThat(ETags.matchesIfRange("Tue, 15 Nov 1994 08:12:31 GMT", CSV_ETAG)).isFalse();
+	}
+
+}
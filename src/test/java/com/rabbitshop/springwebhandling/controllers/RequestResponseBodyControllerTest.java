@@ -0,0 +1,126 @@
+package com.rabbitshop.springwebhandling.controllers;
+
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.http.converters.BookCaseHttpMessageConverter;
+import com.rabbitshop.springwebhandling.services.BookCaseHolder;
+import com.rabbitshop.springwebhandling.services.BookCaseRegistry;
+import com.rabbitshop.springwebhandling.services.BookCaseResponseCache;
+
+/**
+ * Conditional requests of the default BookCase: 304 (Not Modified) for a matching If-None-Match, 412 (Precondition Failed) for an
+ * If-Match not matching the current version.
+ */
+public class RequestResponseBodyControllerTest {
+
+	private static final MediaType TEXT_CSV = new MediaType("text", "csv");
+
+	private static final String BODY = "\"9781861972712\",\"Second\"\n";
+
+	private BookCaseHolder holder;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+
+		holder = new BookCaseHolder();
+		holder.replace(null, new BookCase(Collections.singletonList(new Book("9780306406157", "First"))));
+
+		final BookCaseRegistry registry = new BookCaseRegistry();
+		ReflectionTestUtils.setField(registry, "defaultHolder", holder);
+		ReflectionTestUtils.setField(registry, "responseCache", new BookCaseResponseCache());
+		final RequestResponseBodyController controller = new RequestResponseBodyController();
+		ReflectionTestUtils.setField(controller, "bookCaseHolder", holder);
+		ReflectionTestUtils.setField(controller, "bookCaseRegistry", registry);
+		mockMvc = MockMvcBuilders.standaloneSetup(controller)
+				.setMessageConverters(new BookCaseHttpMessageConverter(TEXT_CSV))
+				.build();
+	}
+
+	@Test
+	public void answersNotModifiedToAMatchingIfNoneMatch() throws Exception {
+
+		final String eTag = holder.current().getETag();
+
+		mockMvc.perform(MockMvcRequestBuilders.get("/bodies/response").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified())
+				.andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, eTag))
+				.andExpect(MockMvcResultMatchers.content().bytes(new byte[0]));
+		mockMvc.perform(MockMvcRequestBuilders.get("/bodies/response").header(HttpHeaders.IF_NONE_MATCH, "W/" + eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+		mockMvc.perform(MockMvcRequestBuilders.get("/bodies/export").header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andExpect(MockMvcResultMatchers.status().isNotModified());
+	}
+
+	@Test
+	public void answersNotModifiedToTheETagOfARepresentation() throws Exception {
+
+		final String eTag = holder.current().getETag();
+
+		mockMvc.perform(MockMvcRequestBuilders.get("/bodies/response").header(HttpHeaders.IF_NONE_MATCH, ETags.ofRepresentation(eTag, "csv")))
+				.andExpect(MockMvcResultMatchers.status().isNotModified())
+				.andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, eTag));
+	}
+
+	@Test
+	public void replacesTheBookCaseWhenIfMatchIsTheCurrentVersion() throws Exception {
+
+		final String eTag = holder.current().getETag();
+
+		mockMvc.perform(put("/bodies/request", eTag))
+				.andExpect(MockMvcResultMatchers.status().isNoContent())
+				.andExpect(MockMvcResultMatchers.header().string(HttpHeaders.ETAG, holder.current().getETag()));
+
+		Assertions.assertThat(holder.current().getETag()).isNotEqualTo(eTag);
+		Assertions.assertThat(holder.current().getBookCase()).containsExactly(new Book("9781861972712", "Second"));
+	}
+
+	@Test
+	public void refusesAChangeOfAStaleVersion() throws Exception {
+
+		final String stale = holder.current().getETag();
+		mockMvc.perform(put("/bodies/request", null))
+				.andExpect(MockMvcResultMatchers.status().isNoContent());
+		final long version = holder.current().getVersion();
+
+		mockMvc.perform(put("/bodies/request", stale))
+				.andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+		mockMvc.perform(MockMvcRequestBuilders.post("/bodies/books").contentType(TEXT_CSV).content(BODY).header(HttpHeaders.IF_MATCH, stale))
+				.andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+
+		Assertions.assertThat(holder.current().getVersion()).isEqualTo(version);
+	}
+
+	@Test
+	public void refusesAWeakIfMatch() throws Exception {
+
+		final String eTag = holder.current().getETag();
+
+		mockMvc.perform(put("/bodies/request", "W/" + eTag))
+				.andExpect(MockMvcResultMatchers.status().isPreconditionFailed());
+
+		Assertions.assertThat(holder.current().getETag()).isEqualTo(eTag);
+	}
+
+	private static MockHttpServletRequestBuilder put(final String path, final String ifMatch) {
+
+		final MockHttpServletRequestBuilder request = MockMvcRequestBuilders.put(path).contentType(TEXT_CSV).content(BODY);
+		return ifMatch == null ? request : request.header(HttpHeaders.IF_MATCH, ifMatch);
+	}
+
+}
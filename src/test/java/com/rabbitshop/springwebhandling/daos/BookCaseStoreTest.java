@@ -0,0 +1,284 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.rabbitshop.springwebhandling.daos.BookCaseStore.LogRecord;
+import com.rabbitshop.springwebhandling.daos.BookCaseStore.Recovery;
+
+public class BookCaseStoreTest {
+
+	private static final Book FIRST = new Book("9780306406157", "First");
+
+	private static final Book SECOND = new Book("9781861972712", "Second");
+
+	private static final Book THIRD = new Book("9780262033848", "Third");
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+
+	private Path logPath;
+
+	private Path snapshotPath;
+
+	@Before
+	public void setUp() throws IOException {
+
+		directory = folder.newFolder("bookcase").toPath();
+		logPath = directory.resolve("bookcase.log");
+		snapshotPath = directory.resolve("bookcase.snapshot");
+	}
+
+	@Test
+	public void recoversEveryRecordOfAnIntactLog() throws IOException {
+
+		appendThreeRecords();
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L, 3L);
+		Assertions.assertThat(recovery.getTornBytes()).isZero();
+		Assertions.assertThat(recovery.getRecords().get(2).getBooks()).containsExactly(THIRD);
+	}
+
+	@Test
+	public void keepsTheValidPrefixOfALogTruncatedMidRecord() throws IOException {
+
+		final long[] ends = appendThreeRecords();
+		truncate(logPath, ends[2] - 3);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L);
+		Assertions.assertThat(recovery.getTornBytes()).isEqualTo(ends[2] - 3 - ends[1]);
+		Assertions.assertThat(Files.size(logPath)).isEqualTo(ends[1]);
+	}
+
+	@Test
+	public void keepsTheValidPrefixOfALogTruncatedMidRecordHeader() throws IOException {
+
+		final long[] ends = appendThreeRecords();
+		truncate(logPath, ends[1] + 5);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L);
+		Assertions.assertThat(Files.size(logPath)).isEqualTo(ends[1]);
+	}
+
+	@Test
+	public void keepsTheValidPrefixOfALogWithACorruptTail() throws IOException {
+
+		final long[] ends = appendThreeRecords();
+		corrupt(logPath, ends[2] - 2);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L);
+		Assertions.assertThat(recovery.getTornBytes()).isEqualTo(ends[2] - ends[1]);
+	}
+
+	@Test
+	public void stopsAtTheFirstCorruptRecord() throws IOException {
+
+		final long[] ends = appendThreeRecords();
+		corrupt(logPath, ends[1] - 2);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L);
+		Assertions.assertThat(Files.size(logPath)).isEqualTo(ends[0]);
+	}
+
+	@Test
+	public void appendsAfterTheValidPrefix() throws IOException {
+
+		final long[] ends = appendThreeRecords();
+		truncate(logPath, ends[2] - 3);
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.logAppend(3, Collections.singletonList(THIRD));
+		}
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L, 3L);
+		Assertions.assertThat(recovery.getTornBytes()).isZero();
+	}
+
+	@Test
+	public void dropsTheRecordsAfterAMissingVersion() throws IOException {
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.logAppend(1, Collections.singletonList(FIRST));
+			store.logAppend(3, Collections.singletonList(THIRD));
+		}
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			Assertions.assertThat(versions(store.recover())).containsExactly(1L);
+			store.logAppend(2, Collections.singletonList(SECOND));
+		}
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(versions(recovery)).containsExactly(1L, 2L);
+		Assertions.assertThat(recovery.getRecords().get(1).getBooks()).containsExactly(SECOND);
+	}
+
+	@Test
+	public void ignoresASnapshotTornBeforeItsRename() throws IOException {
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.writeSnapshot(1, bookCase(FIRST));
+			store.logAppend(2, Collections.singletonList(SECOND));
+			store.writeSnapshot(2, bookCase(FIRST, SECOND));
+			store.logAppend(3, Collections.singletonList(THIRD));
+		}
+		// a crash while writing the next snapshot leaves a partial temporary file
+		final Path temp = directory.resolve("bookcase.snapshot.tmp");
+		Files.copy(snapshotPath, temp);
+		truncate(temp, Files.size(temp) - 7);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(recovery.getVersion()).isEqualTo(2);
+		Assertions.assertThat(recovery.getBookCase()).containsExactly(FIRST, SECOND);
+		Assertions.assertThat(versions(recovery)).containsExactly(3L);
+		Assertions.assertThat(Files.exists(temp)).isFalse();
+	}
+
+	@Test
+	public void refusesATruncatedSnapshot() throws IOException {
+
+		writeSnapshot(1, bookCase(FIRST, SECOND));
+		truncate(snapshotPath, Files.size(snapshotPath) - 7);
+
+		Assertions.assertThatThrownBy(this::recover).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	public void refusesACorruptSnapshot() throws IOException {
+
+		writeSnapshot(1, bookCase(FIRST, SECOND));
+		corrupt(snapshotPath, Files.size(snapshotPath) - 2);
+
+		Assertions.assertThatThrownBy(this::recover).isInstanceOf(IOException.class).hasMessageContaining("checksum");
+	}
+
+	@Test
+	public void replaysTheLogOfThePreviousGeneration() throws IOException {
+
+		final Path previousLog = directory.resolve("previous.log");
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.logAppend(1, Collections.singletonList(FIRST));
+			store.logAppend(2, Collections.singletonList(SECOND));
+			Files.copy(logPath, previousLog);
+			store.writeSnapshot(1, bookCase(FIRST));
+		}
+		// a crash between the rename of the snapshot and the replacement of the log leaves the log of the previous generation
+		Files.move(previousLog, logPath, StandardCopyOption.REPLACE_EXISTING);
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(recovery.getVersion()).isEqualTo(1);
+		Assertions.assertThat(versions(recovery)).containsExactly(2L);
+		// the records have been moved to a log of the current generation
+		Assertions.assertThat(versions(recover())).containsExactly(2L);
+	}
+
+	@Test
+	public void refusesASnapshotOlderThanTheStoredOne() throws IOException {
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			Assertions.assertThat(store.writeSnapshot(5, bookCase(FIRST, SECOND))).isTrue();
+			Assertions.assertThat(store.writeSnapshot(3, bookCase(FIRST))).isFalse();
+		}
+
+		final Recovery recovery = recover();
+
+		Assertions.assertThat(recovery.getVersion()).isEqualTo(5);
+		Assertions.assertThat(recovery.getBookCase()).containsExactly(FIRST, SECOND);
+	}
+
+	/**
+	 * @return the size of the log after each of the three records
+	 */
+	private long[] appendThreeRecords() throws IOException {
+
+		final long[] ends = new long[3];
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.logAppend(1, Collections.singletonList(FIRST));
+			ends[0] = store.getLogBytes();
+			store.logUpsert(2, Collections.singletonList(SECOND));
+			ends[1] = store.getLogBytes();
+			store.logAppend(3, Collections.singletonList(THIRD));
+			ends[2] = store.getLogBytes();
+		}
+		Assertions.assertThat(Files.size(logPath)).isEqualTo(ends[2]);
+		return ends;
+	}
+
+	private void writeSnapshot(final long version, final CompactBookCase bookCase) throws IOException {
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			store.recover();
+			store.writeSnapshot(version, bookCase);
+		}
+	}
+
+	private Recovery recover() throws IOException {
+
+		try (final BookCaseStore store = new BookCaseStore(directory, false, true)) {
+			return store.recover();
+		}
+	}
+
+	private static CompactBookCase bookCase(final Book... books) {
+
+		return new CompactBookCase(Arrays.asList(books), false);
+	}
+
+	private static List<Long> versions(final Recovery recovery) {
+
+		return recovery.getRecords().stream().map(LogRecord::getVersion).collect(Collectors.toList());
+	}
+
+	private static void truncate(final Path path, final long size) throws IOException {
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.truncate(size);
+		}
+	}
+
+	private static void corrupt(final Path path, final long position) throws IOException {
+
+		try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(1);
+			channel.read(buffer, position);
+			buffer.put(0, (byte) ~buffer.get(0));
+			buffer.rewind();
+			channel.write(buffer, position);
+		}
+	}
+
+}
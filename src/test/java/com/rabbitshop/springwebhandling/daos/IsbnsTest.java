@@ -0,0 +1,110 @@
+package com.rabbitshop.springwebhandling.daos;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+public class IsbnsTest {
+
+	private static final String ISBN13 = "9780306406157";
+
+	@Test
+	public void keepsAValidIsbn13() {
+
+		Assertions.assertThat(normalized(ISBN13)).isEqualTo(ISBN13);
+		Assertions.assertThat(normalized("9791034304806")).isEqualTo("9791034304806");
+	}
+
+	@Test
+	public void ignoresHyphensAndSpaces() {
+
+		Assertions.assertThat(normalized("978-0-306-40615-7")).isEqualTo(ISBN13);
+		Assertions.assertThat(normalized("978 0 306 40615 7")).isEqualTo(ISBN13);
+		Assertions.assertThat(normalized(" 978-0306406157 ")).isEqualTo(ISBN13);
+	}
+
+	@Test
+	public void convertsAnIsbn10ToItsIsbn13() {
+
+		Assertions.assertThat(normalized("0306406152")).isEqualTo(ISBN13);
+		Assertions.assertThat(normalized("0-306-40615-2")).isEqualTo(ISBN13);
+	}
+
+	@Test
+	public void acceptsXAsTheCheckDigitOfAnIsbn10() {
+
+		Assertions.assertThat(normalized("080442957X")).isEqualTo("9780804429573");
+		Assertions.assertThat(normalized("0-8044-2957-x")).isEqualTo("9780804429573");
+	}
+
+	@Test
+	public void givesTheSameCodeToEveryFormOfAnIsbn() {
+
+		final long code = Isbns.normalize(ISBN13);
+
+		Assertions.assertThat(Isbns.normalize("0-306-40615-2")).isEqualTo(code);
+		Assertions.assertThat(Isbns.normalize("978-0-306-40615-7")).isEqualTo(code);
+		Assertions.assertThat(code).isEqualTo(IsbnCodes.pack(ISBN13));
+	}
+
+	@Test
+	public void refusesAMissingIsbn() {
+
+		Assertions.assertThat(error(null)).isEqualTo(IsbnError.MISSING);
+		Assertions.assertThat(error("")).isEqualTo(IsbnError.MISSING);
+		Assertions.assertThat(error(" - ")).isEqualTo(IsbnError.MISSING);
+	}
+
+	@Test
+	public void refusesInvalidCharacters() {
+
+		Assertions.assertThat(error("978030640615a")).isEqualTo(IsbnError.CHARACTER);
+		Assertions.assertThat(error("X306406152")).isEqualTo(IsbnError.CHARACTER);
+		Assertions.assertThat(error("080442957X1")).isEqualTo(IsbnError.CHARACTER);
+		Assertions.assertThat(error("978030640615X")).isEqualTo(IsbnError.CHARACTER);
+	}
+
+	@Test
+	public void refusesWrongLengths() {
+
+		Assertions.assertThat(error("12345")).isEqualTo(IsbnError.LENGTH);
+		Assertions.assertThat(error("97803064061")).isEqualTo(IsbnError.LENGTH);
+		Assertions.assertThat(error("97803064061570")).isEqualTo(IsbnError.LENGTH);
+	}
+
+	@Test
+	public void refusesAnIsbn13WithAnotherPrefix() {
+
+		Assertions.assertThat(error("9770306406157")).isEqualTo(IsbnError.PREFIX);
+	}
+
+	@Test
+	public void refusesWrongCheckDigits() {
+
+		Assertions.assertThat(error("9780306406158")).isEqualTo(IsbnError.CHECKSUM);
+		Assertions.assertThat(error("0306406153")).isEqualTo(IsbnError.CHECKSUM);
+		Assertions.assertThat(error("0804429571")).isEqualTo(IsbnError.CHECKSUM);
+	}
+
+	@Test
+	public void tellsValidCodesFromErrors() {
+
+		Assertions.assertThat(Isbns.isValid(Isbns.normalize(ISBN13))).isTrue();
+		Assertions.assertThat(Isbns.error(Isbns.normalize(ISBN13))).isNull();
+		Assertions.assertThat(Isbns.isValid(Isbns.normalize("9780306406158"))).isFalse();
+		Assertions.assertThat(Isbns.error(IsbnCodes.NULL)).isNull();
+		Assertions.assertThat(Isbns.error(IsbnCodes.NOT_PACKABLE)).isNull();
+	}
+
+	private static String normalized(final String isbn) {
+
+		final long code = Isbns.normalize(isbn);
+		Assertions.assertThat(Isbns.isValid(code)).as("%s is valid", isbn).isTrue();
+		return IsbnCodes.toString(code);
+	}
+
+	private static IsbnError error(final String isbn) {
+
+		return Isbns.error(Isbns.normalize(isbn));
+	}
+
+}
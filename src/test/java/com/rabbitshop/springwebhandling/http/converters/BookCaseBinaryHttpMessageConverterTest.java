@@ -0,0 +1,153 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+import com.rabbitshop.springwebhandling.exceptions.InvalidIsbnException;
+
+public class BookCaseBinaryHttpMessageConverterTest {
+
+	@Test
+	public void roundTripsTheBooksReadFromCsv() throws IOException {
+
+		final byte[] csv = BookCaseHttpMessageConverterTest.openCsv(books());
+		final BookCase fromCsv = new BookCaseHttpMessageConverter(BookCaseHttpMessageConverterTest.TEXT_CSV)
+				.read(BookCase.class, BookCaseHttpMessageConverterTest.input(csv));
+
+		for (final BookCase written : Arrays.asList(fromCsv, new CompactBookCase(fromCsv, false))) {
+			final byte[] binary = write(written);
+			for (final boolean compact : new boolean[] { false, true }) {
+				final BookCase read = read(binary, compact);
+
+				Assertions.assertThat(read).isInstanceOf(compact ? CompactBookCase.class : BookCase.class);
+				Assertions.assertThat(read).isEqualTo(fromCsv);
+				Assertions.assertThat(BookCaseHttpMessageConverterTest.openCsv(read)).isEqualTo(BookCaseHttpMessageConverterTest.openCsv(fromCsv));
+			}
+		}
+	}
+
+	@Test
+	public void keepsTheNullsACsvBodyCannotCarry() throws IOException {
+
+		final List<Book> books = BookCaseHttpMessageConverterTest.BOOKS;
+
+		for (final BookCase written : Arrays.asList(new BookCase(books), new CompactBookCase(books, true))) {
+			final byte[] binary = write(written);
+
+			Assertions.assertThat(read(binary, false)).isEqualTo(books);
+			Assertions.assertThat(read(binary, true)).isEqualTo(books);
+		}
+	}
+
+	@Test
+	public void readsAnEmptyBookCase() throws IOException {
+
+		Assertions.assertThat(read(write(new BookCase()), false)).isEmpty();
+		Assertions.assertThat(read(write(new CompactBookCase()), true)).isEmpty();
+	}
+
+	@Test
+	public void refusesATruncatedBody() throws IOException {
+
+		final byte[] binary = write(new BookCase(BookCaseHttpMessageConverterTest.BOOKS));
+		final byte[] truncated = Arrays.copyOf(binary, binary.length - 3);
+
+		Assertions.assertThatThrownBy(() -> read(truncated, false)).isInstanceOf(HttpMessageNotReadableException.class);
+		Assertions.assertThatThrownBy(() -> read(truncated, true)).isInstanceOf(HttpMessageNotReadableException.class);
+	}
+
+	/**
+	 * A title declared almost 2 GB long in a body of a few bytes: reading fails on the end of the body, without allocating the declared length.
+	 */
+	@Test
+	public void refusesATruncatedLongTitle() {
+
+		final byte[] binary = {
+				'B', 'K', 'C', 'S', BookCaseBinaryHttpMessageConverter.FORMAT_VERSION, 0,
+				// 1 row, null ISBN, title length Integer.MAX_VALUE - 1 (+ 1) as a varint, then 3 bytes only
+				1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 'a', 'b', 'c' };
+
+		Assertions.assertThatThrownBy(() -> read(binary, false)).isInstanceOf(HttpMessageNotReadableException.class);
+		Assertions.assertThatThrownBy(() -> read(binary, true)).isInstanceOf(HttpMessageNotReadableException.class);
+	}
+
+	@Test
+	public void refusesANewerFormatVersion() throws IOException {
+
+		final byte[] binary = write(new BookCase(BookCaseHttpMessageConverterTest.BOOKS));
+		binary[BookCaseBinaryHttpMessageConverter.MAGIC.length] = BookCaseBinaryHttpMessageConverter.FORMAT_VERSION + 1;
+
+		Assertions.assertThatThrownBy(() -> read(binary, false)).isInstanceOf(HttpMessageNotReadableException.class)
+				.hasMessageContaining("version");
+	}
+
+	@Test
+	public void appliesTheIsbnPolicy() throws IOException {
+
+		final byte[] binary = write(new BookCase(BookCaseHttpMessageConverterTest.BOOKS));
+		final List<Book> valid = Arrays.asList(
+				new Book("9780306406157", "Plain title"),
+				new Book("9780306406157", "Leading zero, and a comma"),
+				new Book("9780804429573", "Quote \" inside and \"\"doubled\"\""),
+				new Book("9780306406157", "Line\nfeed and\r\ncarriage return"),
+				new Book("9791034304806", "Unicode \u00e9\u00fc \u6f22\u5b57 and a surrogate pair \ud83d\ude00"),
+				new Book("9780262033848", ""),
+				new Book("9780306406157", null),
+				new Book("9780306406157", BookCaseHttpMessageConverterTest.LONG_TITLE));
+
+		for (final boolean compact : new boolean[] { false, true }) {
+			Assertions.assertThat(read(binary, compact, IsbnPolicy.SKIP)).isEqualTo(valid);
+			Assertions.assertThatThrownBy(() -> read(binary, compact, IsbnPolicy.REJECT)).isInstanceOf(InvalidIsbnException.class)
+					.hasMessageContaining("rows 7, 8");
+		}
+	}
+
+	/**
+	 * The books of the CSV tests, plus enough rows and a title long enough to refill the buffer of the converter many times.
+	 */
+	private static List<Book> books() {
+
+		final List<Book> books = new ArrayList<>(BookCaseHttpMessageConverterTest.BOOKS);
+		for (int i = 0; i < 5000; i++) {
+			books.add(new Book(Long.toString(9_780_000_000_000L + i * 7919L), "Title " + i));
+		}
+		books.add(new Book("9780306406157", String.join("", Collections.nCopies(30_000, "\u00e9\ud83d\ude00"))));
+		return books;
+	}
+
+	private static byte[] write(final BookCase books) throws IOException {
+
+		final MockHttpOutputMessage output = new MockHttpOutputMessage();
+		new BookCaseBinaryHttpMessageConverter().write(books, BookCaseBinaryHttpMessageConverter.MEDIA_TYPE, output);
+		return output.getBodyAsBytes();
+	}
+
+	private static BookCase read(final byte[] bytes, final boolean compact) throws IOException {
+
+		return read(bytes, compact, IsbnPolicy.ACCEPT);
+	}
+
+	private static BookCase read(final byte[] bytes, final boolean compact, final IsbnPolicy isbnPolicy) throws IOException {
+
+		final BookCaseBinaryHttpMessageConverter converter = new BookCaseBinaryHttpMessageConverter();
+		converter.setCompactStorage(compact);
+		converter.setIsbnPolicy(isbnPolicy);
+		final MockHttpInputMessage input = new MockHttpInputMessage(bytes);
+		input.getHeaders().setContentType(BookCaseBinaryHttpMessageConverter.MEDIA_TYPE);
+		input.getHeaders().setContentLength(bytes.length);
+		return converter.read(BookCase.class, input);
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.assertj.core.api.Assertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpInputMessage;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.opencsv.CSVWriter;
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+public class BookCaseHttpMessageConverterTest {
+
+	static final MediaType TEXT_CSV = new MediaType("text", "csv", StandardCharsets.UTF_8);
+
+	/**
+	 * Longer than the smallest write chunk, with surrogate pairs falling on every possible position of a chunk end.
+	 */
+	static final String LONG_TITLE = String.join("", Collections.nCopies(100, "a\ud83d\ude00\"")) + ",\n";
+
+	static final List<Book> BOOKS = Arrays.asList(
+			new Book("9780306406157", "Plain title"),
+			new Book("0306406152", "Leading zero, and a comma"),
+			new Book("080442957X", "Quote \" inside and \"\"doubled\"\""),
+			new Book("978-0-306-40615-7", "Line\nfeed and\r\ncarriage return"),
+			new Book("9791034304806", "Unicode \u00e9\u00fc \u6f22\u5b57 and a surrogate pair \ud83d\ude00"),
+			new Book("9780262033848", ""),
+			new Book("", "Empty ISBN"),
+			new Book(null, "Null ISBN"),
+			new Book("9780306406157", null),
+			new Book("9780306406157", LONG_TITLE));
+
+	/**
+	 * Quoted line ends, doubled quotes, backslash escapes, a separator inside quotes, unquoted fields and a last row without line end.
+	 */
+	private static final String BODY = "\"9780306406157\",\"Plain\"\n"
+			+ "\"0306406152\",\"Comma, inside\"\r\n"
+			+ "\"080442957X\",\"Doubled \"\"quotes\"\"\"\n"
+			+ "\"978-0-306-40615-7\",\"Line\nfeed\"\n"
+			+ "\"9781861972712\",\"Carriage\r\nreturn\"\n"
+			+ "\"9780262033848\",\"Escaped \\\"quote\\\", \\\\ backslash\"\n"
+			+ "9780262033848,Unquoted field\n"
+			+ "\"9791034304806\",\"Multi\n\"\"line\"\"\r\n\\\"field\\\"\n\"\n"
+			+ "\"9791034304806\",\"Unicode \u00e9\u6f22\ud83d\ude00\"\r\n"
+			+ "\"\",\"Empty ISBN\"";
+
+	private ForkJoinPool pool;
+
+	@Before
+	public void setUp() {
+
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void writesTheSameBytesAsOpenCsv() throws IOException {
+
+		final byte[] expected = openCsv(BOOKS);
+
+		for (final int chunkSize : new int[] { 64, 67, 100, BookCaseCsvEncoder.DEFAULT_CHUNK_SIZE }) {
+			Assertions.assertThat(write(new BookCase(BOOKS), chunkSize)).as("chunk of %d bytes", chunkSize).isEqualTo(expected);
+			Assertions.assertThat(write(new CompactBookCase(BOOKS, false), chunkSize)).as("chunk of %d bytes", chunkSize).isEqualTo(expected);
+			Assertions.assertThat(write(new CompactBookCase(BOOKS, true), chunkSize)).as("chunk of %d bytes", chunkSize).isEqualTo(expected);
+		}
+	}
+
+	/**
+	 * The OpenCSV CSVWriter leaves backslashes as they are, even though its CSVReader takes them as escapes.
+	 */
+	@Test
+	public void writesBackslashesAsTheyAre() throws IOException {
+
+		final List<Book> books = Collections.singletonList(new Book("9781861972712", "Back\\slash \\\" before a quote"));
+
+		Assertions.assertThat(write(new BookCase(books), 64)).isEqualTo(openCsv(books));
+		Assertions.assertThat(write(new CompactBookCase(books, false), 64)).isEqualTo(openCsv(books));
+	}
+
+	@Test
+	public void writesNothingForAnEmptyBookCase() throws IOException {
+
+		Assertions.assertThat(write(new BookCase(), 64)).isEmpty();
+	}
+
+	@Test
+	public void readsWhatHasBeenWritten() throws IOException {
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(TEXT_CSV);
+		final BookCase read = converter.read(BookCase.class, input(openCsv(BOOKS)));
+
+		Assertions.assertThat(read).hasSize(BOOKS.size());
+		Assertions.assertThat(read.get(2).getTitle()).isEqualTo(BOOKS.get(2).getTitle());
+		Assertions.assertThat(read.get(5).getTitle()).isEqualTo(BOOKS.get(5).getTitle());
+		Assertions.assertThat(read.get(9).getTitle()).isEqualTo(LONG_TITLE);
+	}
+
+	@Test
+	public void splitsTheBodyOnRecordBoundariesOnly() throws IOException {
+
+		final byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+		final BookCase sequential = readSequential(bytes, false);
+
+		Assertions.assertThat(sequential).hasSize(10);
+		Assertions.assertThat(sequential.get(1).getTitle()).isEqualTo("Comma, inside");
+		Assertions.assertThat(sequential.get(2).getTitle()).isEqualTo("Doubled \"quotes\"");
+		Assertions.assertThat(sequential.get(3).getTitle()).isEqualTo("Line\nfeed");
+		Assertions.assertThat(sequential.get(6).getIsbn()).isEqualTo("9780262033848");
+		for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+			final ParallelCsvParser.Chunks chunks = ParallelCsvParser.split(bytes, chunkSize);
+			Assertions.assertThat(chunks.getRows()).as("chunk of %d bytes", chunkSize).isEqualTo(sequential.size());
+		}
+	}
+
+	@Test
+	public void readsInParallelTheSameRowsAsSequentially() throws IOException {
+
+		final byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+		final BookCase sequential = readSequential(bytes, false);
+
+		Assertions.assertThat(readSequential(bytes, true)).isEqualTo(sequential);
+		for (int chunkSize = 1; chunkSize <= bytes.length; chunkSize++) {
+			Assertions.assertThat(readParallel(bytes, chunkSize, false)).as("chunk of %d bytes", chunkSize).isEqualTo(sequential);
+			Assertions.assertThat(readParallel(bytes, chunkSize, true)).as("chunk of %d bytes", chunkSize).isEqualTo(sequential);
+		}
+	}
+
+	@Test
+	public void readsInParallelWhatHasBeenWritten() throws IOException {
+
+		final byte[] bytes = openCsv(BOOKS);
+		final BookCase sequential = readSequential(bytes, false);
+
+		for (final int chunkSize : new int[] { 1, 7, 64, 256 }) {
+			Assertions.assertThat(readParallel(bytes, chunkSize, false)).as("chunk of %d bytes", chunkSize).isEqualTo(sequential);
+			Assertions.assertThat(readParallel(bytes, chunkSize, true)).as("chunk of %d bytes", chunkSize).isEqualTo(sequential);
+		}
+	}
+
+	@Test
+	public void refusesANonPositiveChunkSize() {
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(TEXT_CSV);
+
+		Assertions.assertThatThrownBy(() -> converter.setParallelChunkSize(0)).isInstanceOf(IllegalArgumentException.class);
+		Assertions.assertThatThrownBy(() -> converter.setParallelChunkSize(-1)).isInstanceOf(IllegalArgumentException.class);
+		Assertions.assertThat(converter.getParallelChunkSize()).isEqualTo(BookCaseHttpMessageConverter.DEFAULT_PARALLEL_CHUNK_SIZE);
+	}
+
+	/**
+	 * @return the given books as written by the OpenCSV CSVWriter with its default settings
+	 */
+	static byte[] openCsv(final List<Book> books) throws IOException {
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (final CSVWriter writer = new CSVWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+			for (final Book book : books) {
+				writer.writeNext(new String[] { book.getIsbn(), book.getTitle() });
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	static MockHttpInputMessage input(final byte[] bytes) {
+
+		final MockHttpInputMessage message = new MockHttpInputMessage(bytes);
+		message.getHeaders().setContentType(TEXT_CSV);
+		message.getHeaders().setContentLength(bytes.length);
+		return message;
+	}
+
+	private static byte[] write(final BookCase books, final int chunkSize) throws IOException {
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(TEXT_CSV);
+		converter.setWriteChunkSize(chunkSize);
+		final MockHttpOutputMessage output = new MockHttpOutputMessage();
+		converter.write(books, TEXT_CSV, output);
+		return output.getBodyAsBytes();
+	}
+
+	private static BookCase readSequential(final byte[] bytes, final boolean compact) throws IOException {
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(TEXT_CSV);
+		converter.setCompactStorage(compact);
+		return converter.read(BookCase.class, input(bytes));
+	}
+
+	private BookCase readParallel(final byte[] bytes, final int chunkSize, final boolean compact) throws IOException {
+
+		final BookCaseHttpMessageConverter converter = new BookCaseHttpMessageConverter(TEXT_CSV);
+		converter.setCompactStorage(compact);
+		converter.setParallelMinBytes(1);
+		converter.setParallelChunkSize(chunkSize);
+		converter.setParsePool(pool);
+		final BookCase bookCase = converter.read(BookCase.class, input(bytes));
+		Assertions.assertThat(bookCase).isInstanceOf(compact ? CompactBookCase.class : BookCase.class);
+		return bookCase;
+	}
+
+}
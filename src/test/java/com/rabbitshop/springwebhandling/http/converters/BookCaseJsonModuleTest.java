@@ -0,0 +1,34 @@
+package com.rabbitshop.springwebhandling.http.converters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+public class BookCaseJsonModuleTest {
+
+	private final ObjectMapper defaultMapper = new ObjectMapper();
+
+	private final ObjectMapper moduleMapper = new ObjectMapper().registerModule(new BookCaseJsonModule());
+
+	/**
+	 * Bytes go through the UTF-8 generator, a String through the one writing chars: both write the same JSON as plain Jackson.
+	 */
+	@Test
+	public void writesACompactBookCaseAsBytesAndAsString() throws IOException {
+
+		final BookCase books = new BookCase(BookCaseHttpMessageConverterTest.BOOKS);
+		final String expected = defaultMapper.writeValueAsString(books);
+
+		for (final BookCase written : new BookCase[] { books, new CompactBookCase(books, false), new CompactBookCase(books, true) }) {
+			Assertions.assertThat(moduleMapper.writeValueAsString(written)).isEqualTo(expected);
+			Assertions.assertThat(new String(moduleMapper.writeValueAsBytes(written), StandardCharsets.UTF_8)).isEqualTo(expected);
+		}
+	}
+
+}
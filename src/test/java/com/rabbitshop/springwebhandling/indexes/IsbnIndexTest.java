@@ -0,0 +1,172 @@
+package com.rabbitshop.springwebhandling.indexes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Test;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+
+public class IsbnIndexTest {
+
+	private static final String ISBN13 = "9780306406157";
+
+	private static final String ISBN10 = "0-306-40615-2";
+
+	@Test
+	public void findsWhatHasBeenPut() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN13, 3);
+		index.put("9781861972712", 5);
+
+		Assertions.assertThat(index.indexOf(ISBN13)).isEqualTo(3);
+		Assertions.assertThat(index.indexOf("9781861972712")).isEqualTo(5);
+		Assertions.assertThat(index.indexOf("9780262033848")).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.indexOf((String) null)).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void pointsToTheFirstOccurrence() {
+
+		final IsbnIndex index = IsbnIndex.of(bookCase(ISBN13, "9781861972712", ISBN13, null));
+
+		Assertions.assertThat(index.indexOf(ISBN13)).isEqualTo(0);
+		Assertions.assertThat(index.indexOf("9781861972712")).isEqualTo(1);
+		Assertions.assertThat(index.size()).isEqualTo(2);
+	}
+
+	@Test
+	public void keepsUnpackableIsbnsAsTheyAre() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN10, 1);
+		index.put("080442957X", 2);
+
+		Assertions.assertThat(index.indexOfKey(ISBN10)).isEqualTo(1);
+		Assertions.assertThat(index.indexOfKey("080442957X")).isEqualTo(2);
+		Assertions.assertThat(index.keyOf(ISBN10)).isEqualTo(ISBN10);
+
+		index.remove(ISBN10);
+
+		Assertions.assertThat(index.indexOfKey(ISBN10)).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.indexOfKey("080442957X")).isEqualTo(2);
+	}
+
+	@Test
+	public void findsAnyFormOfACanonicalIsbn() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN13, 4);
+
+		Assertions.assertThat(index.indexOfKey(ISBN10)).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.indexOf(ISBN10)).isEqualTo(4);
+		Assertions.assertThat(index.indexOf("978-0-306-40615-7")).isEqualTo(4);
+		Assertions.assertThat(index.keyOf(ISBN10)).isEqualTo(ISBN13);
+		Assertions.assertThat(index.keyOf("9780262033848")).isNull();
+	}
+
+	@Test
+	public void removesAnIsbnUnderItsKey() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN13, 4);
+
+		index.remove(index.keyOf(ISBN10));
+
+		Assertions.assertThat(index.indexOf(ISBN13)).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.indexOf(ISBN10)).isEqualTo(IsbnIndex.NOT_FOUND);
+		Assertions.assertThat(index.size()).isZero();
+	}
+
+	@Test
+	public void ignoresTheRemovalOfAMissingIsbn() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN13, 4);
+
+		index.remove("9780262033848");
+		index.remove(null);
+
+		Assertions.assertThat(index.indexOf(ISBN13)).isEqualTo(4);
+		Assertions.assertThat(index.size()).isEqualTo(1);
+	}
+
+	/**
+	 * Random puts and removes on a small table, checked against a HashMap: with many keys sharing clusters, every removal has to shift
+	 * back the keys following it, or some of them are not found anymore.
+	 */
+	@Test
+	public void keepsEveryKeyReachableAcrossRemovals() {
+
+		final Random random = new Random(42);
+		for (int round = 0; round < 50; round++) {
+			final IsbnIndex index = new IsbnIndex(0);
+			final Map<String, Integer> expected = new HashMap<>();
+			final List<String> isbns = new ArrayList<>();
+			for (int i = 0; i < 24; i++) {
+				isbns.add(Long.toString(9_780_000_000_000L + random.nextInt(1_000_000)));
+			}
+			for (int operation = 0; operation < 200; operation++) {
+				final String isbn = isbns.get(random.nextInt(isbns.size()));
+				if (random.nextInt(3) == 0) {
+					index.remove(isbn);
+					expected.remove(isbn);
+				} else {
+					index.put(isbn, operation);
+					expected.put(isbn, operation);
+				}
+				for (final String checked : isbns) {
+					final Integer position = expected.get(checked);
+					Assertions.assertThat(index.indexOfKey(checked)).isEqualTo(position == null ? IsbnIndex.NOT_FOUND : position);
+				}
+				Assertions.assertThat(index.size()).isEqualTo(expected.size());
+			}
+		}
+	}
+
+	@Test
+	public void leavesTheOriginalUnchangedWhenACopyChanges() {
+
+		final IsbnIndex index = new IsbnIndex(0);
+		index.put(ISBN13, 0);
+		final IsbnIndex copy = index.copy();
+
+		copy.remove(ISBN13);
+		copy.put("9781861972712", 1);
+
+		Assertions.assertThat(index.indexOf(ISBN13)).isEqualTo(0);
+		Assertions.assertThat(index.indexOf("9781861972712")).isEqualTo(IsbnIndex.NOT_FOUND);
+	}
+
+	@Test
+	public void reindexesTheBooksFollowingARemoval() {
+
+		final BookCase bookCase = bookCase(ISBN13, "9781861972712", "9780262033848", "9781861972712", ISBN10);
+		final IsbnIndex index = IsbnIndex.of(bookCase);
+
+		index.remove(ISBN13);
+		bookCase.remove(0);
+		index.reindexFrom(bookCase, 0);
+
+		Assertions.assertThat(index.indexOf("9781861972712")).isEqualTo(0);
+		Assertions.assertThat(index.indexOf("9780262033848")).isEqualTo(1);
+		Assertions.assertThat(index.indexOfKey(ISBN10)).isEqualTo(3);
+		Assertions.assertThat(index.indexOfKey(ISBN13)).isEqualTo(IsbnIndex.NOT_FOUND);
+	}
+
+	private static BookCase bookCase(final String... isbns) {
+
+		final BookCase bookCase = new BookCase();
+		Arrays.stream(isbns).forEach(isbn -> bookCase.add(new Book(isbn, "Title of " + isbn)));
+		return bookCase;
+	}
+
+}
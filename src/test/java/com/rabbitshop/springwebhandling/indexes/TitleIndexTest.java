@@ -0,0 +1,161 @@
+package com.rabbitshop.springwebhandling.indexes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+import com.rabbitshop.springwebhandling.daos.CompactBookCase;
+
+public class TitleIndexTest {
+
+	private static final String[] WORDS = { "Spring", "spring", "Java", "Web", "web", "Sci-Fi", "science", "fiction", "Rabbit", "shop" };
+
+	private static final int PAGE = 3;
+
+	private BookCase bookCase;
+
+	private TitleIndex index;
+
+	/**
+	 * A first segment of 40 rows and four appended segments of 25 rows, with random titles over a few words so that every word is
+	 * found in every segment.
+	 */
+	@Before
+	public void setUp() {
+
+		final Random random = new Random(7);
+		bookCase = new BookCase();
+		addTitles(random, 40);
+		index = TitleIndex.build(bookCase);
+		for (int i = 0; i < 4; i++) {
+			addTitles(random, 25);
+			index = index.append(bookCase);
+		}
+		Assertions.assertThat(index.getSegmentCount()).isEqualTo(5);
+		Assertions.assertThat(index.size()).isEqualTo(140);
+	}
+
+	@Test
+	public void pagesWordMatchesAcrossSegments() {
+
+		for (final String query : Arrays.asList("spring", "SPRING web", "sci*", "sci-fi", "fi*", "java rabbit shop", "missing")) {
+			final List<Integer> expected = IntStream.range(0, bookCase.size())
+					.filter(row -> hasWords(bookCase.get(row).getTitle(), query))
+					.boxed()
+					.collect(Collectors.toList());
+
+			final List<Integer> paged = new ArrayList<>();
+			for (int offset = 0; offset <= expected.size(); offset += PAGE) {
+				final TitleIndex.Matches matches = index.matchWords(query, offset, PAGE);
+				Assertions.assertThat(matches.getTotal()).as(query).isEqualTo(expected.size());
+				Arrays.stream(matches.getRows()).forEach(paged::add);
+			}
+
+			Assertions.assertThat(paged).as(query).isEqualTo(expected);
+		}
+	}
+
+	@Test
+	public void pagesTitlePrefixMatchesAcrossSegments() {
+
+		for (final String prefix : Arrays.asList("spring", "Spring Java", "s", "w", "", "missing")) {
+			final String normalizedPrefix = prefix.toLowerCase(Locale.ROOT);
+			final List<Integer> expected = IntStream.range(0, bookCase.size())
+					.filter(row -> normalized(row).startsWith(normalizedPrefix))
+					.boxed()
+					.sorted(Comparator.comparing(this::normalized).thenComparing(Comparator.naturalOrder()))
+					.collect(Collectors.toList());
+
+			final List<Integer> paged = new ArrayList<>();
+			for (int offset = 0; offset <= expected.size(); offset += PAGE) {
+				final TitleIndex.Matches matches = index.matchTitlePrefix(bookCase, prefix, offset, PAGE);
+				Assertions.assertThat(matches.getTotal()).as(prefix).isEqualTo(expected.size());
+				Arrays.stream(matches.getRows()).forEach(paged::add);
+			}
+
+			Assertions.assertThat(paged).as(prefix).isEqualTo(expected);
+		}
+	}
+
+	@Test
+	public void matchesTheSameRowsOfACompactBookCase() {
+
+		final CompactBookCase compact = new CompactBookCase(bookCase, false);
+		final TitleIndex compactIndex = TitleIndex.build(compact);
+
+		Assertions.assertThat(compactIndex.matchWords("spring web", 2, 50).getRows()).isEqualTo(index.matchWords("spring web", 2, 50).getRows());
+		Assertions.assertThat(compactIndex.matchTitlePrefix(compact, "web", 2, 50).getRows())
+				.isEqualTo(index.matchTitlePrefix(bookCase, "web", 2, 50).getRows());
+	}
+
+	@Test
+	public void findsNothingForAQueryWithoutWords() {
+
+		final TitleIndex.Matches matches = index.matchWords(" - ", 0, PAGE);
+
+		Assertions.assertThat(matches.getTotal()).isZero();
+		Assertions.assertThat(matches.getRows()).isEmpty();
+	}
+
+	@Test
+	public void stopsAppendingAtTheMaximumNumberOfSegments() {
+
+		for (int i = index.getSegmentCount(); i < TitleIndex.MAX_SEGMENTS; i++) {
+			bookCase.add(new Book("9780306406157", "Spring"));
+			index = index.append(bookCase);
+		}
+
+		bookCase.add(new Book("9780306406157", "Spring"));
+
+		Assertions.assertThat(index.append(bookCase)).isNull();
+	}
+
+	private void addTitles(final Random random, final int count) {
+
+		for (int i = 0; i < count; i++) {
+			final int words = 1 + random.nextInt(3);
+			final StringBuilder title = new StringBuilder();
+			for (int word = 0; word < words; word++) {
+				title.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			bookCase.add(new Book(Integer.toString(bookCase.size()), title.toString()));
+		}
+	}
+
+	private String normalized(final int row) {
+
+		return bookCase.get(row).getTitle().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * @return whether the title has all the words of the query, a word ending with '*' matching any word starting with it
+	 */
+	private static boolean hasWords(final String title, final String query) {
+
+		final List<String> tokens = TitleIndex.tokens(TitleIndex.normalize(title));
+		for (final String word : query.trim().split("\\s+")) {
+			final boolean prefix = word.endsWith("*");
+			final List<String> wordTokens = TitleIndex.tokens(TitleIndex.normalize(prefix ? word.substring(0, word.length() - 1) : word));
+			for (int i = 0; i < wordTokens.size(); i++) {
+				final String wordToken = wordTokens.get(i);
+				final boolean last = prefix && i == wordTokens.size() - 1;
+				if (tokens.stream().noneMatch(token -> last ? token.startsWith(wordToken) : token.equals(wordToken))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,153 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+
+/**
+ * The BookCaseListeners are notified of the changes in version order, before they are published, and a listener failing leaves the
+ * change unpublished: what the BookCasePersistence relies on to log every change before it is answered.
+ */
+public class BookCaseHolderTest {
+
+	private final RecordingListener listener = new RecordingListener();
+
+	private BookCaseHolder holder;
+
+	@Before
+	public void setUp() {
+
+		holder = new BookCaseHolder("test", "epoch", Collections.<BookCaseListener> singletonList(listener));
+	}
+
+	@Test
+	public void notifiesConcurrentChangesInVersionOrder() throws Exception {
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<?>> changes = new ArrayList<>();
+			for (int i = 0; i < 400; i++) {
+				final Book book = new Book(Long.toString(9_780_000_000_000L + i), "Title " + i);
+				changes.add(executor.submit(() -> {
+					start.await();
+					return book.getTitle().endsWith("0") ? holder.upsert(null, Collections.singletonList(book))
+							: holder.append(null, Collections.singletonList(book));
+				}));
+			}
+			start.countDown();
+			for (final Future<?> change : changes) {
+				change.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		Assertions.assertThat(listener.versions).hasSize(400);
+		for (int i = 0; i < listener.versions.size(); i++) {
+			Assertions.assertThat(listener.versions.get(i)).isEqualTo(i + 1L);
+		}
+		Assertions.assertThat(holder.current().getBookCase()).hasSize(400);
+	}
+
+	@Test
+	public void notifiesAChangeBeforePublishingIt() {
+
+		listener.onNotify = published -> Assertions.assertThat(holder.current().getVersion()).isEqualTo(published.getVersion() - 1);
+
+		holder.replace(null, books("First", 2));
+		holder.append(null, books("Second", 1));
+		holder.remove(null, Collections.singletonList("9780000000000"));
+
+		Assertions.assertThat(listener.versions).containsExactly(1L, 2L, 3L);
+	}
+
+	@Test
+	public void leavesAFailedChangeUnpublished() {
+
+		final BookCaseSnapshot before = holder.replace(null, books("First", 2));
+		listener.onNotify = published -> {
+			throw new UncheckedIOException("Log write failed", new IOException("disk full"));
+		};
+
+		Assertions.assertThatThrownBy(() -> holder.append(null, books("Second", 1))).isInstanceOf(UncheckedIOException.class);
+		Assertions.assertThatThrownBy(() -> holder.replace(before, books("Third", 1))).isInstanceOf(UncheckedIOException.class);
+		Assertions.assertThat(holder.current()).isSameAs(before);
+
+		listener.onNotify = published -> {};
+		Assertions.assertThat(holder.append(before, books("Second", 1)).getVersion()).isEqualTo(before.getVersion() + 1);
+	}
+
+	@Test
+	public void notifiesNothingForARemovalMatchingNoBook() {
+
+		final BookCaseSnapshot before = holder.replace(null, books("First", 2));
+
+		Assertions.assertThat(holder.remove(null, Collections.singletonList("9781861972712"))).isSameAs(before);
+		Assertions.assertThat(listener.versions).containsExactly(1L);
+	}
+
+	private static BookCase books(final String title, final int count) {
+
+		final BookCase bookCase = new BookCase(count);
+		for (int i = 0; i < count; i++) {
+			bookCase.add(new Book(Long.toString(9_780_000_000_000L + i), title + " " + i));
+		}
+		return bookCase;
+	}
+
+	private static final class RecordingListener implements BookCaseListener {
+
+		// only ever touched under the change lock of the holder
+		private final List<Long> versions = new ArrayList<>();
+
+		private volatile Consumer<BookCaseSnapshot> onNotify = published -> {};
+
+		@Override
+		public void onReplace(final BookCaseSnapshot published) {
+
+			record(published);
+		}
+
+		@Override
+		public void onAppend(final BookCaseSnapshot published, final Collection<Book> books) {
+
+			record(published);
+		}
+
+		@Override
+		public void onUpsert(final BookCaseSnapshot published, final Collection<Book> books) {
+
+			record(published);
+		}
+
+		@Override
+		public void onRemove(final BookCaseSnapshot published, final Collection<String> isbns) {
+
+			record(published);
+		}
+
+		private void record(final BookCaseSnapshot published) {
+
+			onNotify.accept(published);
+			versions.add(published.getVersion());
+		}
+
+	}
+
+}
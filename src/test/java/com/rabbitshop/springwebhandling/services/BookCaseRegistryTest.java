@@ -0,0 +1,179 @@
+package com.rabbitshop.springwebhandling.services;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.rabbitshop.springwebhandling.daos.Book;
+import com.rabbitshop.springwebhandling.daos.BookCase;
+
+public class BookCaseRegistryTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private Path spillDirectory;
+
+	private BookCaseRegistry registry;
+
+	@Before
+	public void setUp() throws IOException {
+
+		spillDirectory = folder.newFolder("cases").toPath();
+		registry = registry(true);
+	}
+
+	@Test
+	public void spillsTheLeastRecentlyUsedCaseAndLoadsItBack() {
+
+		final BookCaseSnapshot first = replace("first", books("First", 200));
+		final BookCaseSnapshot second = replace("second", books("Second", 200));
+		evictAllBut("second");
+
+		Assertions.assertThat(registry.getStats().getSpilledCases()).isEqualTo(1);
+		Assertions.assertThat(registry.getStats().getResidentCases()).isEqualTo(1);
+		Assertions.assertThat(Files.exists(spillDirectory.resolve("first"))).isTrue();
+
+		final BookCaseSnapshot loaded = registry.get("first").current();
+
+		Assertions.assertThat(loaded.getVersion()).isEqualTo(first.getVersion());
+		Assertions.assertThat(loaded.getETag()).isEqualTo(first.getETag());
+		Assertions.assertThat(loaded.getBookCase()).isEqualTo(first.getBookCase());
+		Assertions.assertThat(loaded.getIsbnIndex().indexOf(first.getBookCase().get(150).getIsbn())).isEqualTo(150);
+		Assertions.assertThat(registry.getStats().getLoads()).isEqualTo(1);
+		// the spilled files are deleted once loaded, and loading the first case back has spilled the second one
+		Assertions.assertThat(Files.exists(spillDirectory.resolve("first"))).isFalse();
+		Assertions.assertThat(registry.getStats().getSpilledCases()).isEqualTo(1);
+		Assertions.assertThat(registry.getStats().getSpills()).isEqualTo(2);
+		Assertions.assertThat(registry.get("second").current().getETag()).isEqualTo(second.getETag());
+	}
+
+	@Test
+	public void appliesAChangeToASpilledCase() {
+
+		final BookCaseSnapshot first = replace("first", books("First", 200));
+		replace("second", books("Second", 200));
+		evictAllBut("second");
+
+		final BookCaseSnapshot changed = registry.update("first", false, holder -> holder.append(null, books("Third", 1)));
+
+		Assertions.assertThat(changed.getVersion()).isEqualTo(first.getVersion() + 1);
+		Assertions.assertThat(changed.getBookCase()).hasSize(201);
+		Assertions.assertThat(registry.get("first").current().getETag()).isEqualTo(changed.getETag());
+	}
+
+	@Test
+	public void loadsASpilledCaseOnceForConcurrentLookups() throws Exception {
+
+		final BookCaseSnapshot first = replace("first", books("First", 2000));
+		replace("second", books("Second", 10));
+		evictAllBut("second");
+		// with an unlimited budget again, loading the first case back evicts nothing
+		ReflectionTestUtils.setField(registry, "maxBytes", Long.MAX_VALUE);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final Callable<BookCaseHolder> lookup = () -> {
+				start.await();
+				return registry.get("first");
+			};
+			final List<Future<BookCaseHolder>> holders = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				holders.add(executor.submit(lookup));
+			}
+			start.countDown();
+
+			for (final Future<BookCaseHolder> holder : holders) {
+				Assertions.assertThat(holder.get()).isSameAs(holders.get(0).get());
+				Assertions.assertThat(holder.get().current().getETag()).isEqualTo(first.getETag());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Assertions.assertThat(registry.getStats().getLoads()).isEqualTo(1);
+	}
+
+	@Test
+	public void removesASpilledCase() {
+
+		replace("first", books("First", 200));
+		replace("second", books("Second", 200));
+		evictAllBut("second");
+
+		Assertions.assertThat(registry.remove("first")).isTrue();
+
+		Assertions.assertThat(registry.get("first")).isNull();
+		Assertions.assertThat(registry.remove("first")).isFalse();
+		Assertions.assertThat(Files.exists(spillDirectory.resolve("first"))).isFalse();
+		Assertions.assertThat(registry.getStats().getSpilledCases()).isZero();
+	}
+
+	@Test
+	public void dropsTheEvictedCasesWithoutSpilling() {
+
+		registry = registry(false);
+		replace("first", books("First", 200));
+		replace("second", books("Second", 200));
+		evictAllBut("second");
+
+		Assertions.assertThat(registry.get("first")).isNull();
+		Assertions.assertThat(registry.get("second")).isNotNull();
+		Assertions.assertThat(registry.getStats().getSpilledCases()).isZero();
+		Assertions.assertThat(registry.getStats().getEvictions()).isEqualTo(1);
+	}
+
+	private BookCaseRegistry registry(final boolean spillEnabled) {
+
+		final BookCaseRegistry created = new BookCaseRegistry();
+		ReflectionTestUtils.setField(created, "maxBytes", Long.MAX_VALUE);
+		ReflectionTestUtils.setField(created, "spillEnabled", spillEnabled);
+		ReflectionTestUtils.setField(created, "spillDirectory", spillDirectory.toString());
+		ReflectionTestUtils.setField(created, "defaultHolder", new BookCaseHolder());
+		ReflectionTestUtils.setField(created, "responseCache", new BookCaseResponseCache());
+		return created;
+	}
+
+	private BookCaseSnapshot replace(final String caseId, final BookCase bookCase) {
+
+		return registry.update(caseId, true, holder -> holder.replace(null, bookCase));
+	}
+
+	/**
+	 * Shrinks the budget to the bytes of the given case, then changes it so that all the others are evicted.
+	 */
+	private void evictAllBut(final String caseId) {
+
+		final long before = registry.getStats().getEvictions();
+		ReflectionTestUtils.setField(registry, "maxBytes", registry.getStats().getResidentBytes() - 1);
+		registry.update(caseId, false, BookCaseHolder::current);
+		ReflectionTestUtils.setField(registry, "maxBytes", registry.getStats().getResidentBytes());
+
+		Assertions.assertThat(registry.getStats().getEvictions()).isGreaterThan(before);
+		Assertions.assertThat(registry.getStats().getResidentCases()).isEqualTo(1);
+	}
+
+	private static BookCase books(final String title, final int count) {
+
+		final BookCase bookCase = new BookCase(count);
+		for (int i = 0; i < count; i++) {
+			bookCase.add(new Book(Long.toString(9_780_000_000_000L + i), title + " " + i));
+		}
+		return bookCase;
+	}
+
+}